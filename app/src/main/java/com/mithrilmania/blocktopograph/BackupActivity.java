@@ -1,6 +1,7 @@
 package com.mithrilmania.blocktopograph;
 
 import android.annotation.SuppressLint;
+import android.content.Context;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.LayoutInflater;
@@ -13,16 +14,20 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.databinding.DataBindingUtil;
+import androidx.databinding.ObservableField;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.mithrilmania.blocktopograph.backup.Backup;
+import com.mithrilmania.blocktopograph.backup.BackupProgress;
 import com.mithrilmania.blocktopograph.backup.WorldBackups;
 import com.mithrilmania.blocktopograph.databinding.ActivityBackupBinding;
 import com.mithrilmania.blocktopograph.databinding.ItemBackupBinding;
 import com.mithrilmania.blocktopograph.util.Consumer;
 import com.mithrilmania.blocktopograph.util.UiUtil;
 
+import org.apache.commons.io.FileUtils;
+
 import java.util.Date;
 
 public class BackupActivity extends AppCompatActivity implements CompoundButton.OnCheckedChangeListener {
@@ -62,12 +67,14 @@ public class BackupActivity extends AppCompatActivity implements CompoundButton.
         // The progress won't take long then it won't leak.
         String name = mBinding.editName.getText().toString().trim();
         String bakName = name.equals("") ? "Backup" : name;
-        AlertDialog dia = UiUtil.buildProgressWaitDialog(this, R.string.general_please_wait, null);
+        ObservableField<String> progress = new ObservableField<>();
+        AlertDialog dia = UiUtil.buildProgressWaitDialog(this, R.string.general_please_wait, progress, null);
         dia.show();
+        BackupProgress.Listener listener = showProgress(this, progress);
         new AsyncTask<WorldBackups, Void, Boolean>() {
             @Override
             protected Boolean doInBackground(WorldBackups... worldBackups) {
-                return worldBackups[0].createNewBackup(bakName, new Date());
+                return worldBackups[0].createNewBackup(bakName, new Date(), listener);
             }
 
             @Override
@@ -90,12 +97,15 @@ public class BackupActivity extends AppCompatActivity implements CompoundButton.
         new AlertDialog.Builder(this).setTitle(R.string.restore_caption)
                 .setMessage(R.string.restore_warn)
                 .setPositiveButton(android.R.string.ok, (use, less) -> {
-                    AlertDialog dia = UiUtil.buildProgressWaitDialog(this, R.string.general_please_wait, null);
+                    ObservableField<String> progress = new ObservableField<>();
+                    AlertDialog dia = UiUtil.buildProgressWaitDialog(this, R.string.general_please_wait,
+                            progress, null);
                     dia.show();
+                    BackupProgress.Listener listener = showProgress(this, progress);
                     new AsyncTask<Backup, Void, Boolean>() {
                         @Override
                         protected Boolean doInBackground(Backup... backups) {
-                            return mBackups.restoreBackup(backups[0]);
+                            return mBackups.restoreBackup(backups[0], listener);
                         }
 
                         @Override
@@ -122,6 +132,18 @@ public class BackupActivity extends AppCompatActivity implements CompoundButton.
                 .setNegativeButton(android.R.string.cancel, null).create().show();
     }
 
+    /**
+     * Formats the progress of a backup or restore into {@code target}.
+     */
+    @NonNull
+    public static BackupProgress.Listener showProgress(@NonNull Context context,
+                                                       @NonNull ObservableField<String> target) {
+        Context app = context.getApplicationContext();
+        return (done, total, speed) -> target.set(app.getString(R.string.backup_progress,
+                FileUtils.byteCountToDisplaySize(done), FileUtils.byteCountToDisplaySize(total),
+                FileUtils.byteCountToDisplaySize(speed)));
+    }
+
     private void resetList() {
         mBackups.cleanOldBackups(new Date());
         mBackupsListAdapter.setData(mBackups.getBackups());
@@ -0,0 +1,208 @@
+package com.mithrilmania.blocktopograph;
+
+import android.annotation.SuppressLint;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.litl.leveldb.WriteBatch;
+import com.mithrilmania.blocktopograph.backup.EditJournal;
+
+import com.mithrilmania.blocktopograph.chunk.ChunkIndex;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the chunk writes of one thread into {@link WriteBatch}es instead of writing them
+ * to the db one by one, see {@link WorldData#beginTransaction}.
+ * <p>
+ * A batch is only handed over at a chunk boundary, once it holds at least the configured
+ * number of bytes, and at {@link #commit}. Each batch is written atomically, so a chunk is
+ * never left half saved. Reads go to the db and don't see what is still pending, neither
+ * does the chunk index until the batch is written.
+ */
+public final class EditTransaction implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_BATCH_BYTES = 4 << 20;
+
+    // Rough per record cost of a batch on top of key and value.
+    private static final int RECORD_OVERHEAD = 8;
+
+    private static final Runnable NOTHING_INDEXED = () -> {
+    };
+
+    @NonNull
+    private final WorldData mWorldData;
+
+    @NonNull
+    private final Committer mCommitter;
+
+    private final int mMaxBatchBytes;
+
+    @Nullable
+    private final EditJournal.Recorder mJournalRecorder;
+
+    private WriteBatch mBatch;
+    private int mBatchBytes;
+    private int mBatchRecords;
+
+    // Version records of the batch, created lazily. A null value is a deletion.
+    @Nullable
+    private List<byte[]> mIndexedKeys;
+    @Nullable
+    private List<byte[]> mIndexedValues;
+
+    private boolean mClosed;
+
+    // Metrics.
+    private long mRecords;
+    private long mBytes;
+    private int mBatches;
+    private long mCommitNanos;
+    private final long mStartNanos = System.nanoTime();
+
+    EditTransaction(@NonNull WorldData worldData, @NonNull Committer committer, int maxBatchBytes,
+                    @Nullable EditJournal.Recorder journalRecorder) {
+        mWorldData = worldData;
+        mCommitter = committer;
+        mMaxBatchBytes = maxBatchBytes;
+        mJournalRecorder = journalRecorder;
+        mBatch = new WriteBatch();
+    }
+
+    void put(@NonNull byte[] key, @NonNull byte[] value) {
+        assertOpen();
+        mBatch.put(ByteBuffer.wrap(key), ByteBuffer.wrap(value));
+        mBatchBytes += key.length + value.length + RECORD_OVERHEAD;
+        mBatchRecords++;
+        if (ChunkIndex.isIndexed(key)) addIndexed(key, value);
+    }
+
+    void delete(@NonNull byte[] key) {
+        assertOpen();
+        mBatch.delete(ByteBuffer.wrap(key));
+        mBatchBytes += key.length + RECORD_OVERHEAD;
+        mBatchRecords++;
+        if (ChunkIndex.isIndexed(key)) addIndexed(key, null);
+    }
+
+    private void addIndexed(@NonNull byte[] key, @Nullable byte[] value) {
+        if (mIndexedKeys == null) {
+            mIndexedKeys = new ArrayList<>();
+            mIndexedValues = new ArrayList<>();
+        }
+        mIndexedKeys.add(key);
+        mIndexedValues.add(value);
+    }
+
+    /**
+     * Marks the end of a chunk's writes, hands the batch over if it is big enough.
+     */
+    public void chunkDone() {
+        assertOpen();
+        if (mBatchBytes >= mMaxBatchBytes) flush();
+    }
+
+    /**
+     * Hands over everything pending and ends the transaction.
+     *
+     * @return whether there was anything to hand over
+     */
+    public boolean commit() {
+        assertOpen();
+        boolean any = mBatchRecords > 0;
+        if (any) flush();
+        close();
+        return any;
+    }
+
+    /**
+     * Ends the transaction, whatever was not handed over yet is dropped.
+     */
+    @Override
+    public void close() {
+        if (mClosed) return;
+        mClosed = true;
+        mBatch.close();
+        mWorldData.endTransaction(this);
+    }
+
+    private void flush() {
+        WriteBatch batch = mBatch;
+        mRecords += mBatchRecords;
+        mBytes += mBatchBytes;
+        mBatches++;
+        List<byte[]> indexedKeys = mIndexedKeys;
+        List<byte[]> indexedValues = mIndexedValues;
+        mBatch = new WriteBatch();
+        mBatchBytes = 0;
+        mBatchRecords = 0;
+        mIndexedKeys = null;
+        mIndexedValues = null;
+        Runnable written = indexedKeys == null ? NOTHING_INDEXED : () -> {
+            for (int i = 0, size = indexedKeys.size(); i < size; i++)
+                mWorldData.onRecordWritten(indexedKeys.get(i), indexedValues.get(i));
+        };
+        long start = System.nanoTime();
+        // Old values go to disk before the new ones go to the db.
+        if (mJournalRecorder != null) mJournalRecorder.sync();
+        mCommitter.commit(batch, written);
+        mCommitNanos += System.nanoTime() - start;
+    }
+
+    private void assertOpen() {
+        if (mClosed) throw new IllegalStateException("Transaction is closed");
+    }
+
+    @Nullable
+    EditJournal.Recorder getJournalRecorder() {
+        return mJournalRecorder;
+    }
+
+    public long getRecordCount() {
+        return mRecords;
+    }
+
+    public long getByteCount() {
+        return mBytes;
+    }
+
+    public int getBatchCount() {
+        return mBatches;
+    }
+
+    /**
+     * Time spent handing batches over, writing them to the db for the default committer.
+     */
+    public long getCommitNanos() {
+        return mCommitNanos;
+    }
+
+    @SuppressLint("DefaultLocale")
+    @NonNull
+    @Override
+    public String toString() {
+        double seconds = (System.nanoTime() - mStartNanos) / 1e9;
+        double commitSeconds = mCommitNanos / 1e9;
+        return String.format(
+                "EditTransaction[records=%d, bytes=%d, batches=%d, %.1f records/s, commit %.2fs at %.1f MiB/s]",
+                mRecords, mBytes, mBatches,
+                seconds > 0 ? mRecords / seconds : 0.,
+                commitSeconds,
+                commitSeconds > 0 ? mBytes / commitSeconds / (1 << 20) : 0.);
+    }
+
+    /**
+     * Receives the batches of a transaction in order, and owns them from then on.
+     */
+    public interface Committer {
+
+        /**
+         * @param written to run once the batch is in the db, it updates the chunk index
+         */
+        void commit(@NonNull WriteBatch batch, @NonNull Runnable written);
+
+    }
+}
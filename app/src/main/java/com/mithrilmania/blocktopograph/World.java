@@ -8,9 +8,12 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.litl.leveldb.Iterator;
+import com.mithrilmania.blocktopograph.backup.EditJournal;
+import com.mithrilmania.blocktopograph.backup.WorldBackups;
 import com.mithrilmania.blocktopograph.chunk.Chunk;
 import com.mithrilmania.blocktopograph.map.Dimension;
 import com.mithrilmania.blocktopograph.map.MarkerManager;
+import com.mithrilmania.blocktopograph.map.TileCache;
 import com.mithrilmania.blocktopograph.nbt.convert.DataConverter;
 import com.mithrilmania.blocktopograph.nbt.convert.LevelDataConverter;
 import com.mithrilmania.blocktopograph.nbt.convert.NBTConstants;
@@ -23,9 +26,14 @@ import com.mithrilmania.blocktopograph.nbt.tags.Tag;
 import com.mithrilmania.blocktopograph.util.IoUtil;
 import com.mithrilmania.blocktopograph.util.math.DimensionVector3;
 
+import org.apache.commons.io.FileUtils;
+
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 
 public class World implements Serializable {
@@ -53,6 +61,8 @@ public class World implements Serializable {
     private CompoundTag level;
     private transient WorldData worldData;
     private transient MarkerManager markersManager;
+    private transient EditJournal editJournal;
+    private transient TileCache tileCache;
 
     private boolean mHaveBackgroundJob;
 
@@ -77,6 +87,48 @@ public class World implements Serializable {
 
     }
 
+    /**
+     * Folder for data derived from the world, like indexes, that can be rebuilt any time.
+     * It's kept inside the backup folder so backups never include it.
+     */
+    public File getCacheFolder() {
+        return new File(new File(worldFolder, WorldBackups.BTG_BACKUPS), "cache");
+    }
+
+    /**
+     * Undo history of map edits, kept inside the backup folder so backups never include it.
+     */
+    @NonNull
+    public EditJournal getEditJournal() {
+        if (editJournal == null)
+            editJournal = new EditJournal(new File(new File(worldFolder, WorldBackups.BTG_BACKUPS), EditJournal.FOLDER));
+        return editJournal;
+    }
+
+    /**
+     * Rendered map tiles, kept in the cache folder.
+     */
+    @NonNull
+    public synchronized TileCache getTileCache() {
+        if (tileCache == null)
+            tileCache = new TileCache(new File(getCacheFolder(), "tiles"));
+        return tileCache;
+    }
+
+    /**
+     * Forgets everything derived from the world, for when its files were replaced as a whole.
+     */
+    public void clearCaches() {
+        if (worldData != null) worldData.resetDerivedData();
+        TileCache tiles;
+        synchronized (this) {
+            tiles = tileCache;
+        }
+        // Also drops the tiles still waiting to be written.
+        if (tiles != null) tiles.clear();
+        FileUtils.deleteQuietly(getCacheFolder());
+    }
+
     public CompoundTag getLevel() {
         if (level == null)
             try {
@@ -327,13 +379,27 @@ public class World implements Serializable {
             worldData.openDB();
 
             Iterator it = worldData.db.iterator();
-
-            for (it.seekToFirst(); it.isValid(); it.next()) {
-                byte[] key = it.getKey();
-                byte[] value = it.getValue();
-                /*if(key.length == 9 && key[8] == RegionDataType.TERRAIN.dataID) */
-                Log.d(this, "key: " + new String(key) + " key in Hex: " + WorldData.bytesToHex(key, 0, key.length) + " size: " + value.length);
-
+            ByteBuffer batch = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+            for (it.seekToFirst(); it.isValid(); batch.clear()) {
+                int count;
+                try {
+                    count = it.nextBatch(batch, 1024, batch.capacity());
+                } catch (BufferOverflowException e) {
+                    // Huge record, take it on its own.
+                    byte[] key = it.getKey();
+                    Log.d(this, "key: " + new String(key) + " key in Hex: " + WorldData.bytesToHex(key, 0, key.length) + " size: " + it.getValue().length);
+                    it.next();
+                    continue;
+                }
+                for (int i = 0; i < count; i++) {
+                    byte[] key = new byte[batch.getInt()];
+                    batch.get(key);
+                    int valueLength = batch.getInt();
+                    batch.position(batch.position() + valueLength);
+                    /*if(key.length == 9 && key[8] == RegionDataType.TERRAIN.dataID) */
+                    Log.d(this, "key: " + new String(key) + " key in Hex: " + WorldData.bytesToHex(key, 0, key.length) + " size: " + valueLength);
+                }
             }
 
             it.close();
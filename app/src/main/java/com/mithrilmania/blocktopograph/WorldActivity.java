@@ -5,6 +5,8 @@ import android.content.DialogInterface;
 import android.os.Build;
 import android.os.Bundle;
 import android.text.Editable;
+import android.text.InputType;
+import android.text.TextUtils;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
@@ -25,6 +27,7 @@ import androidx.fragment.app.FragmentTransaction;
 
 import com.google.android.material.navigation.NavigationView;
 import com.google.android.material.snackbar.Snackbar;
+import com.mithrilmania.blocktopograph.block.BlockClassification;
 import com.mithrilmania.blocktopograph.chunk.NBTChunkData;
 import com.mithrilmania.blocktopograph.databinding.ActivityWorldBinding;
 import com.mithrilmania.blocktopograph.map.Dimension;
@@ -47,6 +50,8 @@ public class WorldActivity extends AppCompatActivity
         implements NavigationView.OnNavigationItemSelectedListener, WorldActivityInterface {
 
     public static final String PREF_KEY_SHOW_MARKERS = "showMarkers";
+    // Block names, one per line.
+    public static final String PREF_KEY_XRAY_BLOCKS = "xRayBlocks";
     private World world;
     private ActivityWorldBinding mBinding;
 
@@ -121,6 +126,9 @@ public class WorldActivity extends AppCompatActivity
         }
 
         showMarkers = getPreferences(MODE_PRIVATE).getBoolean(PREF_KEY_SHOW_MARKERS, true);
+        String xRayBlocks = getPreferences(MODE_PRIVATE).getString(PREF_KEY_XRAY_BLOCKS, null);
+        BlockClassification.setXRayBlocks(xRayBlocks == null
+                ? BlockClassification.DEFAULT_XRAY_BLOCKS : parseBlockNames(xRayBlocks));
 
         /*
                 Layout
@@ -318,6 +326,50 @@ public class WorldActivity extends AppCompatActivity
     }
 
     @SuppressWarnings("StatementWithEmptyBody")
+    /**
+     * Lets the user pick the blocks the X-ray maps show, kept in the preferences.
+     */
+    private void openXRayBlocksDialog() {
+        final EditText namesEditText = new EditText(this);
+        namesEditText.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_MULTI_LINE);
+        namesEditText.setHint(R.string.xray_blocks_hint);
+        namesEditText.setText(TextUtils.join("\n", BlockClassification.getXRayBlocks()));
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.xray_blocks)
+                .setView(namesEditText)
+                .setPositiveButton(android.R.string.ok, (dialog, which) -> {
+                    Editable text = namesEditText.getText();
+                    List<String> names = parseBlockNames(text == null ? "" : text.toString());
+                    if (names.isEmpty()) names = BlockClassification.DEFAULT_XRAY_BLOCKS;
+                    setXRayBlocks(names);
+                })
+                .setNeutralButton(R.string.xray_blocks_default,
+                        (dialog, which) -> setXRayBlocks(BlockClassification.DEFAULT_XRAY_BLOCKS))
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void setXRayBlocks(@NonNull List<String> names) {
+        getPreferences(MODE_PRIVATE).edit()
+                .putString(PREF_KEY_XRAY_BLOCKS, TextUtils.join("\n", names)).apply();
+        BlockClassification.setXRayBlocks(names);
+        // Tiles on screen have the old blocks.
+        if (this.mapFragment != null) this.mapFragment.resetTileView();
+    }
+
+    @NonNull
+    private static List<String> parseBlockNames(@NonNull String text) {
+        List<String> names = new ArrayList<>();
+        for (String line : text.split("\n")) {
+            String name = line.trim();
+            if (name.isEmpty()) continue;
+            // Like the game, the namespace may be left out.
+            names.add(name.indexOf(':') < 0 ? "minecraft:" + name : name);
+        }
+        return names;
+    }
+
     @Override
     public boolean onNavigationItemSelected(@NonNull MenuItem item) {
         // Handle navigation view item clicks here.
@@ -421,6 +473,9 @@ public class WorldActivity extends AppCompatActivity
                         .putBoolean(PREF_KEY_SHOW_MARKERS, showMarkers).apply();
                 if (this.mapFragment != null) this.mapFragment.toggleMarkers();
                 break;
+            case (R.id.nav_map_opt_xray_blocks):
+                openXRayBlocksDialog();
+                break;
             case (R.id.nav_biomedata_nbt):
                 changeContentFragment(() -> openSpecialDBEntry(World.SpecialDBEntryType.BIOME_DATA));
                 break;
@@ -1,23 +1,28 @@
 package com.mithrilmania.blocktopograph;
 
 import android.annotation.SuppressLint;
-import android.util.LruCache;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.litl.leveldb.DB;
 import com.litl.leveldb.Iterator;
+import com.litl.leveldb.WriteBatch;
+import com.mithrilmania.blocktopograph.backup.EditJournal;
 import com.mithrilmania.blocktopograph.block.OldBlockRegistry;
 import com.mithrilmania.blocktopograph.chunk.Chunk;
+import com.mithrilmania.blocktopograph.chunk.ChunkCache;
+import com.mithrilmania.blocktopograph.chunk.ChunkIndex;
 import com.mithrilmania.blocktopograph.chunk.ChunkTag;
 import com.mithrilmania.blocktopograph.chunk.Version;
 import com.mithrilmania.blocktopograph.map.Dimension;
 
 import java.io.File;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.IntStream;
 
 /**
  * Wrapper around level.dat world spec en levelDB database.
@@ -30,14 +35,25 @@ public class WorldData {
     public DB db;
 
     private WeakReference<World> world;
-    private LruCache<Key, Chunk> chunks = new ChunkCache(this, 256);
+    private final ChunkCache chunks;
+    private volatile ChunkIndex chunkIndex;
+
+    // Set while the thread's chunk writes are collected, see beginTransaction.
+    private final ThreadLocal<EditTransaction> threadTransaction = new ThreadLocal<>();
+
     public final OldBlockRegistry mOldBlockRegistry;
 
     public WorldData(World world) {
         this.world = new WeakReference<>(world);
+        this.chunks = new ChunkCache(this, getChunkCacheBudget());
         this.mOldBlockRegistry = new OldBlockRegistry(2048);
     }
 
+    private static long getChunkCacheBudget() {
+        // An eighth of the heap, loaded chunks are mostly raw sub-chunk records.
+        return Math.min(Runtime.getRuntime().maxMemory() / 8, 64L << 20);
+    }
+
     static String bytesToHex(byte[] bytes, int start, int end) {
         char[] hexChars = new char[(end - start) * 2];
         for (int j = start; j < end; j++) {
@@ -48,32 +64,43 @@ public class WorldData {
         return new String(hexChars);
     }
 
-    private static byte[] getChunkDataKey(int x, int z, ChunkTag type, Dimension dimension, byte subChunk, boolean asSubChunk) {
-        if (dimension == Dimension.OVERWORLD) {
-            byte[] key = new byte[asSubChunk ? 10 : 9];
-            System.arraycopy(getReversedBytes(x), 0, key, 0, 4);
-            System.arraycopy(getReversedBytes(z), 0, key, 4, 4);
-            key[8] = type.dataID;
-            if (asSubChunk) key[9] = subChunk;
-            return key;
-        } else {
-            byte[] key = new byte[asSubChunk ? 14 : 13];
-            System.arraycopy(getReversedBytes(x), 0, key, 0, 4);
-            System.arraycopy(getReversedBytes(z), 0, key, 4, 4);
-            System.arraycopy(getReversedBytes(dimension.id), 0, key, 8, 4);
-            key[12] = type.dataID;
-            if (asSubChunk) key[13] = subChunk;
-            return key;
-        }
+    /**
+     * Number of records fetched by {@link #getChunkRecords}.
+     */
+    public static final int CHUNK_RECORD_COUNT = 19;
+    public static final int CHUNK_RECORD_VERSION_PRE16 = 0;
+    public static final int CHUNK_RECORD_VERSION = 1;
+    public static final int CHUNK_RECORD_DATA_2D = 2;
+    public static final int CHUNK_RECORD_FIRST_TERRAIN = 3;
+
+    private static final int MAX_CHUNK_KEY_LENGTH = 14;
+
+    // Reused key storage, direct so the native side can read it in place.
+    private static final ThreadLocal<ByteBuffer> sKeyBuffer = ThreadLocal.withInitial(() ->
+            ByteBuffer.allocateDirect(MAX_CHUNK_KEY_LENGTH * CHUNK_RECORD_COUNT)
+                    .order(ByteOrder.LITTLE_ENDIAN));
+
+    private static final ThreadLocal<int[]> sKeyLengths = ThreadLocal.withInitial(() ->
+            new int[CHUNK_RECORD_COUNT]);
+
+    private static int getChunkDataKeyLength(Dimension dimension, boolean asSubChunk) {
+        return (dimension == Dimension.OVERWORLD ? 9 : 13) + (asSubChunk ? 1 : 0);
     }
 
-    private static byte[] getReversedBytes(int i) {
-        return new byte[]{
-                (byte) i,
-                (byte) (i >> 8),
-                (byte) (i >> 16),
-                (byte) (i >> 24)
-        };
+    private static int putChunkDataKey(ByteBuffer buffer, int x, int z, ChunkTag type, Dimension dimension, byte subChunk, boolean asSubChunk) {
+        // Keys are little endian x, z, [dimension id], tag, [sub-chunk index].
+        buffer.putInt(x);
+        buffer.putInt(z);
+        if (dimension != Dimension.OVERWORLD) buffer.putInt(dimension.id);
+        buffer.put(type.dataID);
+        if (asSubChunk) buffer.put(subChunk);
+        return getChunkDataKeyLength(dimension, asSubChunk);
+    }
+
+    private static byte[] getChunkDataKey(int x, int z, ChunkTag type, Dimension dimension, byte subChunk, boolean asSubChunk) {
+        byte[] key = new byte[getChunkDataKeyLength(dimension, asSubChunk)];
+        putChunkDataKey(ByteBuffer.wrap(key).order(ByteOrder.LITTLE_ENDIAN), x, z, type, dimension, subChunk, asSubChunk);
+        return key;
     }
 
     //load db when needed (does not load it!)
@@ -104,8 +131,28 @@ public class WorldData {
             Log.d(this, "File in db: " + dbEntry.getAbsolutePath());
         }
         this.db = new DB(dbFile);
+        this.chunkIndex = new ChunkIndex(this, world.getCacheFolder());
+
+    }
 
+    /**
+     * Forgets the chunk index and the cached chunks, for when the world's files were replaced.
+     * The index starts over from the db, its saved copy goes with the cache folder.
+     */
+    public void resetDerivedData() {
+        chunks.discardAll();
+        ChunkIndex index = chunkIndex;
+        if (index == null) return;
+        index.cancel();
+        World world = this.world.get();
+        chunkIndex = world == null ? null : new ChunkIndex(this, world.getCacheFolder());
+    }
 
+    /**
+     * Index of the chunks present in the world, loaded lazily on first use.
+     */
+    public ChunkIndex getChunkIndex() {
+        return chunkIndex;
     }
 
     //open db to make it available for this app
@@ -128,6 +175,13 @@ public class WorldData {
     public void closeDB() throws WorldDBException {
         if (this.db == null)
             return;
+        // Evicted chunks may still be on their way to the db.
+        this.chunks.flush();
+        if (this.chunkIndex != null) {
+            // The index may still be scanning the db.
+            this.chunkIndex.cancel();
+            if (!this.db.isClosed()) this.chunkIndex.save(this.db);
+        }
         //Why bother throw an exception, isn't it good enough being able to skip closing as it's null?
         try {
             this.db.close();
@@ -142,11 +196,35 @@ public class WorldData {
         //ensure that the db is opened
         this.openDB();
 
-        byte[] chunkKey = getChunkDataKey(x, z, type, dimension, subChunk, asSubChunk);
-        //Log.d("Getting cX: "+x+" cZ: "+z+ " with key: "+bytesToHex(chunkKey, 0, chunkKey.length));
+        ByteBuffer chunkKey = sKeyBuffer.get();
+        chunkKey.clear();
+        putChunkDataKey(chunkKey, x, z, type, dimension, subChunk, asSubChunk);
+        chunkKey.flip();
         return db.get(chunkKey);
     }
 
+    /**
+     * Fetches everything needed to open a chunk in one db call: the two version records,
+     * {@link ChunkTag#DATA_2D} and the 16 terrain sub-chunks, indexed by the
+     * {@code CHUNK_RECORD_*} constants. Missing records are null.
+     */
+    public byte[][] getChunkRecords(int x, int z, Dimension dimension) throws WorldDBException {
+
+        //ensure that the db is opened
+        this.openDB();
+
+        ByteBuffer keys = sKeyBuffer.get();
+        int[] lengths = sKeyLengths.get();
+        keys.clear();
+        lengths[CHUNK_RECORD_VERSION_PRE16] = putChunkDataKey(keys, x, z, ChunkTag.VERSION_PRE16, dimension, (byte) 0, false);
+        lengths[CHUNK_RECORD_VERSION] = putChunkDataKey(keys, x, z, ChunkTag.VERSION, dimension, (byte) 0, false);
+        lengths[CHUNK_RECORD_DATA_2D] = putChunkDataKey(keys, x, z, ChunkTag.DATA_2D, dimension, (byte) 0, false);
+        for (int i = 0; i < 16; i++)
+            lengths[CHUNK_RECORD_FIRST_TERRAIN + i] = putChunkDataKey(keys, x, z, ChunkTag.TERRAIN, dimension, (byte) i, true);
+        keys.flip();
+        return db.multiGet(keys, lengths, CHUNK_RECORD_COUNT);
+    }
+
     public byte[] getChunkData(int x, int z, ChunkTag type, Dimension dimension) throws WorldDBException, WorldDBLoadException {
         return getChunkData(x, z, type, dimension, (byte) 0, false);
     }
@@ -155,40 +233,176 @@ public class WorldData {
         //ensure that the db is opened
         this.openDB();
 
-        db.put(getChunkDataKey(x, z, type, dimension, subChunk, asSubChunk), chunkData);
+        put(getChunkDataKey(x, z, type, dimension, subChunk, asSubChunk), chunkData);
+    }
+
+    /**
+     * Collects the chunk writes of the calling thread into batches written to the db,
+     * until the transaction is committed or closed.
+     */
+    @NonNull
+    public EditTransaction beginTransaction() throws WorldDBException {
+        return beginTransaction(EditTransaction.DEFAULT_MAX_BATCH_BYTES, null, null);
+    }
+
+    /**
+     * @param maxBatchBytes size from which a batch is handed over at the next chunk boundary
+     * @param committer     receives the batches, by default they are written to the db
+     * @param recorder      journals the old value of every key the transaction writes
+     */
+    @NonNull
+    public EditTransaction beginTransaction(int maxBatchBytes, @Nullable EditTransaction.Committer committer,
+                                            @Nullable EditJournal.Recorder recorder)
+            throws WorldDBException {
+        //ensure that the db is opened
+        this.openDB();
+
+        if (threadTransaction.get() != null)
+            throw new IllegalStateException("A transaction is already running on this thread");
+        if (committer == null) {
+            DB db = this.db;
+            committer = (batch, written) -> {
+                try {
+                    db.write(batch);
+                } finally {
+                    batch.close();
+                }
+                written.run();
+            };
+        }
+        EditTransaction transaction = new EditTransaction(this, committer, maxBatchBytes, recorder);
+        threadTransaction.set(transaction);
+        return transaction;
+    }
+
+    void endTransaction(@NonNull EditTransaction transaction) {
+        if (threadTransaction.get() == transaction) threadTransaction.remove();
+    }
+
+    private void put(byte[] key, byte[] value) {
+        EditTransaction transaction = threadTransaction.get();
+        if (transaction != null) {
+            recordOldValue(transaction, key);
+            transaction.put(key, value);
+        } else {
+            db.put(key, value);
+            onRecordWritten(key, value);
+        }
+    }
+
+    private void delete(byte[] key) {
+        EditTransaction transaction = threadTransaction.get();
+        if (transaction != null) {
+            recordOldValue(transaction, key);
+            transaction.delete(key);
+        } else {
+            db.delete(key);
+            onRecordWritten(key, null);
+        }
+    }
+
+    /**
+     * Keeps the chunk index in sync once a record is in the db, see {@link ChunkIndex#onRecordWritten}.
+     */
+    void onRecordWritten(@NonNull byte[] key, @Nullable byte[] value) {
+        if (chunkIndex != null) chunkIndex.onRecordWritten(key, value);
+    }
+
+    private void recordOldValue(@NonNull EditTransaction transaction, byte[] key) {
+        EditJournal.Recorder recorder = transaction.getJournalRecorder();
+        if (recorder != null && recorder.shouldRecord(key)) recorder.record(key, db.get(key));
+    }
+
+    /**
+     * Writes raw records in one go, a null value deletes the key. Bypasses transactions
+     * and the journal, used to roll journaled edits back and forth.
+     */
+    public void writeRecords(@NonNull List<byte[]> keys, @NonNull List<byte[]> values) throws WorldDBException {
+        //ensure that the db is opened
+        this.openDB();
+
+        // Otherwise chunks saved later would write their edits over the records written here.
+        resetCache();
+        try (WriteBatch batch = new WriteBatch()) {
+            for (int i = 0, size = keys.size(); i < size; i++) {
+                byte[] value = values.get(i);
+                if (value == null) batch.delete(ByteBuffer.wrap(keys.get(i)));
+                else batch.put(ByteBuffer.wrap(keys.get(i)), ByteBuffer.wrap(value));
+            }
+            db.write(batch);
+        }
+        for (int i = 0, size = keys.size(); i < size; i++)
+            onRecordWritten(keys.get(i), values.get(i));
+        // Loaded meanwhile, from before the write, nothing of theirs is worth saving.
+        chunks.discardAll();
     }
 
     public void removeChunkData(int x, int z, ChunkTag type, Dimension dimension, byte subChunk, boolean asSubChunk) throws WorldDBException {
         //ensure that the db is opened
         this.openDB();
 
-        db.delete(getChunkDataKey(x, z, type, dimension, subChunk, asSubChunk));
+        delete(getChunkDataKey(x, z, type, dimension, subChunk, asSubChunk));
     }
 
     public void removeFullChunk(int x, int z, Dimension dimension) {
-        var iterator = db.iterator();
-        int count = 0;
-        var compareKey = getChunkDataKey(x, z, ChunkTag.DATA_2D, dimension, (byte) 0, false);
+        List<byte[]> keys = new ArrayList<>();
+        forEachChunkRecord(x, z, dimension, false, (key, value) -> {
+            keys.add(key);
+            return true;
+        });
+        // The version record among them takes the chunk out of the index once it's deleted.
+        for (byte[] key : keys)
+            delete(key);
+    }
+
+    /**
+     * Visits every record stored for a chunk: terrain, entities, version and so on.
+     */
+    public void forEachChunkRecord(int x, int z, Dimension dimension, boolean withValues, Iterator.EntryVisitor visitor) {
         int baseKeyLength = dimension == Dimension.OVERWORLD ? 8 : 12;
-        for (iterator.seekToFirst(); iterator.isValid() && count < 800; iterator.next(), count++) {
-            byte[] key = iterator.getKey();
-            if (key.length > baseKeyLength && key.length <= baseKeyLength + 3 &&
-                    IntStream.range(0, baseKeyLength).allMatch(i -> key[i] == compareKey[i]))
-                db.delete(key);
+        byte[] prefix = new byte[baseKeyLength];
+        System.arraycopy(getChunkDataKey(x, z, ChunkTag.DATA_2D, dimension, (byte) 0, false), 0, prefix, 0, baseKeyLength);
+        // Overworld keys have no dimension id, so the same x and z of other dimensions
+        // share their prefix. These are told apart by the key length.
+        forEachKeyWithPrefix(prefix, withValues, (key, value) ->
+                key.length <= baseKeyLength || key.length > baseKeyLength + 3 || visitor.visit(key, value));
+    }
+
+    /**
+     * Visits all entries of the db whose key starts with {@code prefix}.
+     * Only the matching range of the db is touched.
+     */
+    public void forEachKeyWithPrefix(byte[] prefix, boolean withValues, Iterator.EntryVisitor visitor) {
+        Iterator it = db.iterator();
+        try {
+            it.forEachWithPrefix(prefix, withValues, visitor);
+        } finally {
+            it.close();
         }
-        iterator.close();
     }
 
     public Chunk getChunk(int cX, int cZ, Dimension dimension, boolean createIfMissing, Version createOfVersion) {
-        Key key = new Key(cX, cZ, dimension);
-        key.createIfMissng = createIfMissing;
-        key.createOfVersion = createOfVersion;
-        return chunks.get(key);
+        return chunks.get(cX, cZ, dimension, createIfMissing, createOfVersion);
     }
 
     public Chunk getChunk(int cX, int cZ, Dimension dimension) {
-        Key key = new Key(cX, cZ, dimension);
-        return chunks.get(key);
+        return chunks.get(cX, cZ, dimension, false, null);
+    }
+
+    /**
+     * The chunk if it's loaded already, see {@link ChunkCache#peek}.
+     */
+    @Nullable
+    public Chunk peekChunk(int cX, int cZ, Dimension dimension) {
+        return chunks.peek(cX, cZ, dimension);
+    }
+
+    /**
+     * Whether speculative loads may still go to the chunk cache. Half of it is kept
+     * for what's on screen, so prefetching never evicts the chunks in use.
+     */
+    public boolean hasRoomForPrefetch() {
+        return chunks.sizeInBytes() < chunks.getMaxBytes() / 2;
     }
 
     // Avoid using cache for stream like operations.
@@ -207,74 +421,14 @@ public class WorldData {
     }
 
     public List<String> getDBKeysStartingWith(String startWith) {
-        Iterator it = db.iterator();
-
         ArrayList<String> items = new ArrayList<>();
-        for (it.seekToFirst(); it.isValid(); it.next()) {
-            byte[] key = it.getKey();
-            if (key == null) continue;
-            String keyStr = new String(key);
-            if (keyStr.startsWith(startWith)) items.add(keyStr);
-        }
-        it.close();
-
+        forEachKeyWithPrefix(startWith.getBytes(), false, (key, value) -> {
+            items.add(new String(key));
+            return true;
+        });
         return items;
     }
 
-    private static class ChunkCache extends LruCache<Key, Chunk> {
-
-        private WeakReference<WorldData> worldData;
-
-        ChunkCache(WorldData worldData, int maxSize) {
-            super(maxSize);
-            this.worldData = new WeakReference<>(worldData);
-        }
-
-        @Override
-        protected void entryRemoved(boolean evicted, Key key, Chunk oldValue, Chunk newValue) {
-            try {
-                oldValue.save();
-            } catch (Exception e) {
-                Log.d(this, e);
-            }
-        }
-
-        @Nullable
-        @Override
-        protected Chunk create(Key key) {
-            WorldData worldData = this.worldData.get();
-            if (worldData == null) return null;
-            return Chunk.create(worldData, key.x, key.z, key.dim, key.createIfMissng, key.createOfVersion);
-        }
-    }
-
-    static class Key {
-
-        public int x, z;
-        public Dimension dim;
-        public boolean createIfMissng;
-        public Version createOfVersion;
-
-        Key(int x, int z, Dimension dim) {
-            this.x = x;
-            this.z = z;
-            this.dim = dim;
-        }
-
-        @Override
-        public int hashCode() {
-            return (x * 31 + z) * 31 + dim.id;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (!(obj instanceof Key)) return false;
-            Key another = (Key) obj;
-            return ((x == another.x) && (z == another.z) && (dim != null)
-                    && (another.dim != null) && (dim.id == another.dim.id));
-        }
-    }
-
     public static class WorldDataLoadException extends Exception {
         private static final long serialVersionUID = 659185044124115547L;
 
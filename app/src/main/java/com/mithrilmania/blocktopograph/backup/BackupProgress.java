@@ -0,0 +1,61 @@
+package com.mithrilmania.blocktopograph.backup;
+
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the bytes a backup or restore went through, from any number of threads, and
+ * passes them on to a {@link Listener} a few times a second.
+ */
+public final class BackupProgress {
+
+    private static final long INTERVAL_NANOS = 100_000_000L;
+
+    @Nullable
+    private final Listener mListener;
+
+    private final long mTotal;
+
+    private final long mStartNanos = System.nanoTime();
+
+    private final AtomicLong mDone = new AtomicLong();
+
+    private final AtomicLong mLastReport = new AtomicLong(mStartNanos);
+
+    BackupProgress(@Nullable Listener listener, long total) {
+        mListener = listener;
+        mTotal = total;
+    }
+
+    void add(long bytes) {
+        long done = mDone.addAndGet(bytes);
+        if (mListener == null) return;
+        long now = System.nanoTime();
+        long last = mLastReport.get();
+        // Only one of the threads crossing the interval reports.
+        if (now - last >= INTERVAL_NANOS && mLastReport.compareAndSet(last, now)) report(done, now);
+    }
+
+    /**
+     * Reports where it ended regardless of the interval.
+     */
+    void finish() {
+        if (mListener != null) report(mDone.get(), System.nanoTime());
+    }
+
+    private void report(long done, long now) {
+        long nanos = now - mStartNanos;
+        //noinspection ConstantConditions
+        mListener.onProgress(done, mTotal, nanos > 0 ? (long) (done * 1e9 / nanos) : 0);
+    }
+
+    /**
+     * Called on the worker threads.
+     */
+    public interface Listener {
+
+        void onProgress(long bytesDone, long bytesTotal, long bytesPerSecond);
+
+    }
+}
@@ -0,0 +1,549 @@
+package com.mithrilmania.blocktopograph.backup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mithrilmania.blocktopograph.Log;
+import com.mithrilmania.blocktopograph.WorldData;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Undo history of map edits, kept next to the backups.
+ * <p>
+ * While an edit runs, the value every db key had before the edit first touched it is
+ * streamed, deflated, into a file of its own, and synced before the edit's writes are
+ * committed, see {@link WorldData#beginTransaction}. Undoing an operation first saves the
+ * current values of its keys the same way, so it can be redone, then writes the old ones
+ * back. Only the last few operations are kept, up to a total size, and starting a new one
+ * drops what was undone.
+ * <p>
+ * Files are named by operation number: {@code .undo} for applied operations, {@code .redo}
+ * for undone ones. While one is being rolled, the image it's rolled to is kept as
+ * {@code .undoing}/{@code .redoing} next to the one being written to the db, renaming it into
+ * place is the last step. A roll cut short by the app getting killed is finished on the next use.
+ */
+public final class EditJournal {
+
+    public static final String FOLDER = "journal";
+
+    public static final int DEFAULT_MAX_OPERATIONS = 8;
+
+    public static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+    private static final int MAGIC = 0x4254474a;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final String UNDO = ".undo";
+    private static final String REDO = ".redo";
+    private static final String UNDOING = ".undoing";
+    private static final String REDOING = ".redoing";
+    private static final String TEMP = ".tmp";
+
+    // Marks the end of the records.
+    private static final int END = -1;
+
+    // Roughly how much is written back to the db at once.
+    private static final int MAX_BATCH_BYTES = 4 << 20;
+
+    @NonNull
+    private final File mFolder;
+
+    private final int mMaxOperations;
+
+    // Of all images together, a single one beyond it is not kept at all.
+    private final long mMaxBytes;
+
+    @Nullable
+    private Recorder mRecorder;
+
+    // Kept up to date by whatever changes them, so the UI thread reads them without the lock.
+    private volatile boolean mCanUndo;
+    private volatile boolean mCanRedo;
+
+    public EditJournal(@NonNull File folder) {
+        this(folder, DEFAULT_MAX_OPERATIONS, DEFAULT_MAX_BYTES);
+    }
+
+    public EditJournal(@NonNull File folder, int maxOperations, long maxBytes) {
+        mFolder = folder;
+        mMaxOperations = maxOperations;
+        mMaxBytes = maxBytes;
+        updateState();
+    }
+
+    private File getFile(long operation, String extension) {
+        return new File(mFolder, operation + extension);
+    }
+
+    /**
+     * Starts recording an operation, the writes of the transactions it's passed to are
+     * journaled until it is closed. Undone operations can't be redone anymore from here on.
+     */
+    @NonNull
+    public Recorder begin(@NonNull WorldData worldData, @NonNull String label)
+            throws IOException, WorldData.WorldDBException {
+        return begin(recordsOf(worldData), label);
+    }
+
+    @NonNull
+    synchronized Recorder begin(@NonNull Records records, @NonNull String label)
+            throws IOException, WorldData.WorldDBException {
+        if (mRecorder != null) throw new IllegalStateException("An operation is already recorded");
+        try {
+            recover(records);
+            if (!mFolder.isDirectory() && !mFolder.mkdirs())
+                throw new IOException("Cannot create " + mFolder);
+
+            for (long operation : list(REDO)) delete(getFile(operation, REDO));
+            List<Long> applied = list(UNDO);
+            // Room for the new one.
+            int first = 0;
+            for (int drop = applied.size() - mMaxOperations + 1; first < drop; first++)
+                delete(getFile(applied.get(first), UNDO));
+            long bytes = 0;
+            for (int i = first; i < applied.size(); i++) bytes += getFile(applied.get(i), UNDO).length();
+            // The oldest go first until the rest fits.
+            for (; first < applied.size() && bytes > mMaxBytes; first++) {
+                File file = getFile(applied.get(first), UNDO);
+                bytes -= file.length();
+                delete(file);
+            }
+
+            long operation = applied.isEmpty() ? 1 : applied.get(applied.size() - 1) + 1;
+            Recorder recorder = new Recorder(getFile(operation, UNDO), label);
+            mRecorder = recorder;
+            return recorder;
+        } finally {
+            updateState();
+        }
+    }
+
+    public boolean canUndo() {
+        return mCanUndo;
+    }
+
+    public boolean canRedo() {
+        return mCanRedo;
+    }
+
+    /**
+     * Called with the lock held after anything that may change what can be undone or redone.
+     */
+    private void updateState() {
+        mCanUndo = mRecorder == null && !list(UNDO).isEmpty();
+        mCanRedo = mRecorder == null && !list(REDO).isEmpty();
+    }
+
+    /**
+     * Rolls the last applied operation back.
+     *
+     * @return false if there was none
+     */
+    public boolean undo(@NonNull WorldData worldData) throws IOException, WorldData.WorldDBException {
+        return undo(recordsOf(worldData));
+    }
+
+    synchronized boolean undo(@NonNull Records records) throws IOException, WorldData.WorldDBException {
+        if (mRecorder != null) return false;
+        try {
+            recover(records);
+            List<Long> applied = list(UNDO);
+            if (applied.isEmpty()) return false;
+            roll(records, applied.get(applied.size() - 1), UNDO, REDO, UNDOING);
+            return true;
+        } finally {
+            updateState();
+        }
+    }
+
+    /**
+     * Applies the last undone operation again.
+     *
+     * @return false if there was none
+     */
+    public boolean redo(@NonNull WorldData worldData) throws IOException, WorldData.WorldDBException {
+        return redo(recordsOf(worldData));
+    }
+
+    synchronized boolean redo(@NonNull Records records) throws IOException, WorldData.WorldDBException {
+        if (mRecorder != null) return false;
+        try {
+            recover(records);
+            List<Long> undone = list(REDO);
+            if (undone.isEmpty()) return false;
+            roll(records, undone.get(0), REDO, UNDO, REDOING);
+            return true;
+        } finally {
+            updateState();
+        }
+    }
+
+    /**
+     * Forgets all operations, for when the world was replaced as a whole.
+     */
+    public synchronized void clear() {
+        File[] files = mFolder.listFiles();
+        if (files != null) for (File file : files) delete(file);
+        updateState();
+    }
+
+    /**
+     * Writes the image of {@code operation} in {@code from} back, after saving the current
+     * values of its keys as {@code to}.
+     */
+    private void roll(Records records, long operation, String from, String to, String rolling)
+            throws IOException, WorldData.WorldDBException {
+        File source = getFile(operation, from);
+
+        // The opposite image has to be complete before anything is overwritten.
+        File temp = new File(mFolder, operation + to + TEMP);
+        try (ImageReader in = new ImageReader(source);
+             ImageWriter out = new ImageWriter(temp, in.getLabel())) {
+            while (in.next())
+                out.write(in.getKey(), records.get(in.getKey()));
+            out.sync();
+        }
+        // The single rename that commits to the roll, recover() finishes it from here on.
+        File rolled = getFile(operation, rolling);
+        if (!temp.renameTo(rolled)) throw new IOException("Cannot rename " + temp);
+        finishRoll(records, operation, from, to, rolling);
+    }
+
+    /**
+     * Writes the {@code from} image to the db and drops it, then renames the image kept as
+     * {@code rolling} to {@code to}.
+     */
+    private void finishRoll(Records records, long operation, String from, String to, String rolling)
+            throws IOException, WorldData.WorldDBException {
+        File source = getFile(operation, from);
+        // Gone already if only the last rename was missing.
+        if (source.exists()) {
+            apply(records, source);
+            if (!source.delete()) throw new IOException("Cannot delete " + source);
+        }
+        File rolled = getFile(operation, rolling);
+        if (!rolled.renameTo(getFile(operation, to))) throw new IOException("Cannot rename " + rolled);
+    }
+
+    /**
+     * Writes an image to the db.
+     */
+    private void apply(Records records, File image) throws IOException, WorldData.WorldDBException {
+        List<byte[]> keys = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        int bytes = 0;
+        try (ImageReader in = new ImageReader(image)) {
+            while (in.next()) {
+                byte[] key = in.getKey();
+                byte[] value = in.getValue();
+                keys.add(key);
+                values.add(value);
+                bytes += key.length + (value == null ? 0 : value.length);
+                if (bytes < MAX_BATCH_BYTES) continue;
+                records.write(keys, values);
+                keys.clear();
+                values.clear();
+                bytes = 0;
+            }
+        }
+        if (!keys.isEmpty()) records.write(keys, values);
+    }
+
+    /**
+     * Finishes a roll cut short by the app getting killed. Writing an image is idempotent.
+     */
+    private void recover(Records records) throws IOException, WorldData.WorldDBException {
+        for (long operation : list(UNDOING)) finishRoll(records, operation, UNDO, REDO, UNDOING);
+        for (long operation : list(REDOING)) finishRoll(records, operation, REDO, UNDO, REDOING);
+        File[] temps = mFolder.listFiles((dir, name) -> name.endsWith(TEMP));
+        if (temps != null) for (File file : temps) delete(file);
+    }
+
+    @NonNull
+    private static Records recordsOf(@NonNull WorldData worldData) {
+        return new Records() {
+            @Nullable
+            @Override
+            public byte[] get(@NonNull byte[] key) throws WorldData.WorldDBException {
+                worldData.openDB();
+                return worldData.db.get(key);
+            }
+
+            @Override
+            public void write(@NonNull List<byte[]> keys, @NonNull List<byte[]> values)
+                    throws WorldData.WorldDBException {
+                worldData.writeRecords(keys, values);
+            }
+        };
+    }
+
+    /**
+     * Operation numbers of the files with an extension, ascending.
+     */
+    @NonNull
+    private List<Long> list(String extension) {
+        List<Long> out = new ArrayList<>();
+        String[] names = mFolder.list();
+        if (names == null) return out;
+        for (String name : names) {
+            if (!name.endsWith(extension)) continue;
+            try {
+                out.add(Long.parseLong(name.substring(0, name.length() - extension.length())));
+            } catch (NumberFormatException e) {
+                // Not ours.
+            }
+        }
+        out.sort(null);
+        return out;
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) Log.d(EditJournal.class, "Cannot delete " + file);
+    }
+
+    private synchronized void onRecorderClosed(Recorder recorder) {
+        if (mRecorder != recorder) return;
+        mRecorder = null;
+        updateState();
+    }
+
+    /**
+     * What images are rolled against, the world's db.
+     */
+    interface Records {
+
+        /**
+         * @return null if the key does not exist
+         */
+        @Nullable
+        byte[] get(@NonNull byte[] key) throws WorldData.WorldDBException;
+
+        /**
+         * Writes in one go, a null value deletes the key.
+         */
+        void write(@NonNull List<byte[]> keys, @NonNull List<byte[]> values) throws WorldData.WorldDBException;
+
+    }
+
+    /**
+     * Records the old values of the keys written by one operation.
+     * Used by the threads doing the edit, concurrently.
+     */
+    public final class Recorder implements Closeable {
+
+        @NonNull
+        private final File mFile;
+
+        @NonNull
+        private final ImageWriter mOut;
+
+        // Keys already recorded, only their first value counts.
+        private final Set<ByteBuffer> mSeen = new HashSet<>();
+
+        private boolean mFailed;
+
+        private boolean mClosed;
+
+        private Recorder(@NonNull File file, @NonNull String label) throws IOException {
+            mFile = file;
+            mOut = new ImageWriter(file, label);
+        }
+
+        /**
+         * Whether the old value of a key is still to be recorded, it counts as recorded from now on.
+         */
+        public synchronized boolean shouldRecord(@NonNull byte[] key) {
+            return !mClosed && !mFailed && mSeen.add(ByteBuffer.wrap(key.clone()));
+        }
+
+        public synchronized void record(@NonNull byte[] key, @Nullable byte[] oldValue) {
+            if (mClosed || mFailed) return;
+            try {
+                mOut.write(key, oldValue);
+                if (mOut.size() > mMaxBytes) throw new IOException("Journal image over " + mMaxBytes + " bytes");
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Makes what was recorded durable, call before the recorded writes hit the db.
+         */
+        public synchronized void sync() {
+            if (mClosed || mFailed) return;
+            try {
+                mOut.sync();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(IOException e) {
+            // The edit goes on, it just can't be undone.
+            Log.d(this, e);
+            mFailed = true;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (mClosed) return;
+                mClosed = true;
+                try {
+                    mOut.close();
+                } catch (IOException e) {
+                    fail(e);
+                }
+                // Nothing to undo, or no way to undo it properly.
+                if (mSeen.isEmpty() || mFailed) delete(mFile);
+            }
+            onRecorderClosed(this);
+        }
+    }
+
+    /**
+     * Deflated stream of key and value records behind a small header.
+     */
+    private static final class ImageWriter implements Closeable {
+
+        @NonNull
+        private final FileOutputStream mFileOut;
+
+        @NonNull
+        private final DataOutputStream mOut;
+
+        ImageWriter(@NonNull File file, @NonNull String label) throws IOException {
+            mFileOut = new FileOutputStream(file);
+            // Sync flushes, so everything written so far can be read back after a crash.
+            mOut = new DataOutputStream(new DeflaterOutputStream(
+                    mFileOut, new Deflater(Deflater.BEST_SPEED), 1 << 16, true));
+            mOut.writeInt(MAGIC);
+            mOut.writeInt(FORMAT_VERSION);
+            mOut.writeUTF(label);
+            mOut.writeLong(System.currentTimeMillis());
+        }
+
+        /**
+         * @param value null if the key did not exist
+         */
+        void write(@NonNull byte[] key, @Nullable byte[] value) throws IOException {
+            mOut.writeInt(key.length);
+            mOut.write(key);
+            if (value == null) {
+                mOut.writeInt(-1);
+            } else {
+                mOut.writeInt(value.length);
+                mOut.write(value);
+            }
+        }
+
+        /**
+         * Bytes written before deflating, about the most the file takes.
+         */
+        long size() {
+            return mOut.size();
+        }
+
+        void sync() throws IOException {
+            mOut.flush();
+            mFileOut.getFD().sync();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.writeInt(END);
+            mOut.close();
+        }
+    }
+
+    private static final class ImageReader implements Closeable {
+
+        @NonNull
+        private final DataInputStream mIn;
+
+        @NonNull
+        private final String mLabel;
+
+        private byte[] mKey;
+
+        @Nullable
+        private byte[] mValue;
+
+        ImageReader(@NonNull File file) throws IOException {
+            mIn = new DataInputStream(new InflaterInputStream(
+                    new BufferedInputStream(new FileInputStream(file)), new Inflater(), 1 << 16));
+            if (mIn.readInt() != MAGIC || mIn.readInt() != FORMAT_VERSION) {
+                mIn.close();
+                throw new IOException("Not a journal image: " + file);
+            }
+            mLabel = mIn.readUTF();
+            mIn.readLong();
+        }
+
+        @NonNull
+        String getLabel() {
+            return mLabel;
+        }
+
+        /**
+         * Reads the next record.
+         *
+         * @return false at the end, also if the image was cut short by a crash
+         */
+        boolean next() throws IOException {
+            try {
+                int length = mIn.readInt();
+                if (length == END) return false;
+                byte[] key = new byte[length];
+                mIn.readFully(key);
+                length = mIn.readInt();
+                byte[] value = null;
+                if (length >= 0) {
+                    value = new byte[length];
+                    mIn.readFully(value);
+                }
+                mKey = key;
+                mValue = value;
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        @NonNull
+        byte[] getKey() {
+            return mKey;
+        }
+
+        /**
+         * @return null if the key did not exist
+         */
+        @Nullable
+        byte[] getValue() {
+            return mValue;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package com.mithrilmania.blocktopograph.backup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mithrilmania.blocktopograph.Log;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Backups as snapshots over a store of files named by the hash of their content.
+ * <p>
+ * A snapshot is a small json listing every file of the world with its hash, the content
+ * lives in the store once, however many snapshots refer to it. LevelDB table files never
+ * change once written, so a table already stored under the same path, size and modification
+ * time is neither read nor copied again. A new backup only copies new tables, the manifest,
+ * logs, level.dat and such.
+ * <p>
+ * Tables are zlib compressed already and stored as they are, everything else is deflated.
+ * Files are stored and extracted on a thread per core. Stores of the same folder share a
+ * lock, so garbage is never collected while a snapshot is made or read.
+ */
+final class SnapshotStore {
+
+    static final String EXTENSION = ".snapshot";
+
+    private static final String OBJECTS = "objects";
+    private static final String HASH_CACHE = "tables.txt";
+    private static final String TEMP = ".tmp";
+    private static final String DEFLATED = ".z";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final String KEY_FILES = "files";
+    private static final String KEY_PATH = "path";
+    private static final String KEY_HASH = "hash";
+    private static final String KEY_SIZE = "size";
+    private static final String KEY_DEFLATED = "deflated";
+
+    // By backup folder.
+    private static final Map<File, Object> sLocks = new HashMap<>();
+
+    @NonNull
+    private final File mBackupDir;
+
+    @NonNull
+    private final File mObjects;
+
+    @NonNull
+    private final Object mLock;
+
+    SnapshotStore(@NonNull File backupDir) {
+        mBackupDir = backupDir;
+        mObjects = new File(backupDir, OBJECTS);
+        synchronized (sLocks) {
+            Object lock = sLocks.get(backupDir.getAbsoluteFile());
+            if (lock == null) {
+                lock = new Object();
+                sLocks.put(backupDir.getAbsoluteFile(), lock);
+            }
+            mLock = lock;
+        }
+    }
+
+    /**
+     * One file of a snapshot.
+     */
+    static final class Entry {
+
+        @NonNull
+        final String path;
+
+        @NonNull
+        final String hash;
+
+        final long size;
+
+        // Whether the object is deflated, only tables are stored as they are.
+        final boolean deflated;
+
+        Entry(@NonNull String path, @NonNull String hash, long size, boolean deflated) {
+            this.path = path;
+            this.hash = hash;
+            this.size = size;
+            this.deflated = deflated;
+        }
+    }
+
+    /**
+     * Stores whatever is new in {@code files} and writes a snapshot of them. Files are stored
+     * in parallel, the biggest first.
+     *
+     * @param root folder the snapshot paths are relative to
+     */
+    void create(@NonNull File root, @NonNull File[] files, @NonNull File snapshot,
+                @Nullable BackupProgress.Listener listener) throws IOException {
+        synchronized (mLock) {
+            createLocked(root, files, snapshot, listener);
+        }
+    }
+
+    private void createLocked(File root, File[] files, File snapshot,
+                              @Nullable BackupProgress.Listener listener) throws IOException {
+        if (!mObjects.isDirectory() && !mObjects.mkdirs()) throw new IOException("Cannot create " + mObjects);
+
+        List<File> all = new ArrayList<>();
+        List<File> pending = new ArrayList<>();
+        for (File file : files) pending.add(file);
+        while (!pending.isEmpty()) {
+            File file = pending.remove(pending.size() - 1);
+            if (file.isDirectory()) {
+                File[] children = file.listFiles();
+                if (children != null) for (File child : children) pending.add(child);
+            } else all.add(file);
+        }
+
+        // path -> size, last modified, hash of the tables stored before.
+        Map<String, String[]> known = readHashCache();
+        Map<String, String[]> tables = new HashMap<>();
+        int count = all.size();
+        String[] paths = new String[count];
+        long[] sizes = new long[count];
+        String[] hashes = new String[count];
+        List<Integer> toStore = new ArrayList<>();
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            File file = all.get(i);
+            paths[i] = root.toURI().relativize(file.toURI()).getPath();
+            sizes[i] = file.length();
+            total += sizes[i];
+            if (isTable(paths[i])) {
+                String[] cached = known.get(paths[i]);
+                if (cached != null && cached[0].equals(Long.toString(sizes[i]))
+                        && cached[1].equals(Long.toString(file.lastModified()))
+                        && getObject(cached[2], false).isFile())
+                    hashes[i] = cached[2];
+            }
+            if (hashes[i] == null) toStore.add(i);
+        }
+
+        BackupProgress progress = new BackupProgress(listener, total);
+        for (int i = 0; i < count; i++) if (hashes[i] != null) progress.add(sizes[i]);
+        Collections.sort(toStore, (a, b) -> Long.compare(sizes[b], sizes[a]));
+        List<Callable<String>> tasks = new ArrayList<>(toStore.size());
+        for (int i : toStore) tasks.add(() -> store(all.get(i), !isTable(paths[i]), progress));
+        List<String> stored = invokeAll(tasks);
+        for (int i = 0, size = toStore.size(); i < size; i++) hashes[toStore.get(i)] = stored.get(i);
+        progress.finish();
+
+        try {
+            JSONArray array = new JSONArray();
+            for (int i = 0; i < count; i++) {
+                boolean table = isTable(paths[i]);
+                JSONObject obj = new JSONObject()
+                        .put(KEY_PATH, paths[i])
+                        .put(KEY_HASH, hashes[i])
+                        .put(KEY_SIZE, sizes[i]);
+                if (!table) obj.put(KEY_DEFLATED, true);
+                array.put(obj);
+                if (table) tables.put(paths[i], new String[]{
+                        Long.toString(sizes[i]), Long.toString(all.get(i).lastModified()), hashes[i]});
+            }
+            File temp = new File(mBackupDir, snapshot.getName() + TEMP);
+            FileUtils.writeStringToFile(temp, new JSONObject().put(KEY_FILES, array).toString(),
+                    StandardCharsets.UTF_8);
+            if (!temp.renameTo(snapshot)) throw new IOException("Cannot rename " + temp);
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+        writeHashCache(tables);
+    }
+
+    @NonNull
+    List<Entry> read(@NonNull File snapshot) throws IOException {
+        try {
+            JSONArray array = new JSONObject(FileUtils.readFileToString(snapshot, StandardCharsets.UTF_8))
+                    .getJSONArray(KEY_FILES);
+            List<Entry> entries = new ArrayList<>(array.length());
+            for (int i = 0, length = array.length(); i < length; i++) {
+                JSONObject obj = array.getJSONObject(i);
+                entries.add(new Entry(obj.getString(KEY_PATH), obj.getString(KEY_HASH), obj.getLong(KEY_SIZE),
+                        obj.optBoolean(KEY_DEFLATED, false)));
+            }
+            return entries;
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Whether all content of a snapshot is in the store and intact, each object is read and
+     * hashed again, in parallel.
+     */
+    boolean isComplete(@NonNull List<Entry> entries) throws IOException {
+        List<Callable<Boolean>> tasks = new ArrayList<>(entries.size());
+        for (Entry entry : entries) tasks.add(() -> verify(entry));
+        synchronized (mLock) {
+            for (boolean intact : invokeAll(tasks)) if (!intact) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Copies the files of a snapshot into {@code root}, in parallel.
+     */
+    void extract(@NonNull List<Entry> entries, @NonNull File root,
+                 @Nullable BackupProgress.Listener listener) throws IOException {
+        long total = 0;
+        for (Entry entry : entries) total += entry.size;
+        BackupProgress progress = new BackupProgress(listener, total);
+        List<Callable<String>> tasks = new ArrayList<>(entries.size());
+        for (Entry entry : entries) tasks.add(() -> {
+            extract(entry, new File(root, entry.path), progress);
+            return null;
+        });
+        synchronized (mLock) {
+            invokeAll(tasks);
+        }
+        progress.finish();
+    }
+
+    /**
+     * Drops the content no snapshot refers to anymore.
+     */
+    void collectGarbage(@NonNull File[] snapshots) {
+        synchronized (mLock) {
+            collectGarbageLocked(snapshots);
+        }
+    }
+
+    private void collectGarbageLocked(File[] snapshots) {
+        Set<String> used = new HashSet<>();
+        for (File snapshot : snapshots) {
+            try {
+                for (Entry entry : read(snapshot)) used.add(getObject(entry.hash, entry.deflated).getName());
+            } catch (IOException e) {
+                // Can't tell what it needs, keep everything.
+                Log.d(this, e);
+                return;
+            }
+        }
+        File[] objects = mObjects.listFiles();
+        if (objects == null) return;
+        for (File object : objects)
+            if (!used.contains(object.getName()) && !object.getName().endsWith(TEMP) && !object.delete())
+                Log.d(this, "Cannot delete " + object);
+    }
+
+    /**
+     * Tables are compressed by LevelDB already, deflating them again only costs time.
+     */
+    private static boolean isTable(String path) {
+        return path.startsWith("db/") && (path.endsWith(".ldb") || path.endsWith(".sst"));
+    }
+
+    private File getObject(String hash, boolean deflated) {
+        return new File(mObjects, deflated ? hash + DEFLATED : hash);
+    }
+
+    /**
+     * Copies a file into the store, hashing it on the way.
+     *
+     * @return the hash of the original content
+     */
+    private String store(File file, boolean deflate, BackupProgress progress) throws IOException {
+        MessageDigest digest = newDigest();
+        File temp = File.createTempFile("object", TEMP, mObjects);
+        Deflater deflater = deflate ? new Deflater(Deflater.BEST_SPEED) : null;
+        try {
+            try (InputStream in = new FileInputStream(file);
+                 OutputStream out = deflater == null ? new FileOutputStream(temp)
+                         : new DeflaterOutputStream(new FileOutputStream(temp), deflater, BUFFER_SIZE)) {
+                copy(in, out, digest, progress);
+            }
+            String hash = toHex(digest.digest());
+            File object = getObject(hash, deflate);
+            // Same content stored before.
+            if (!object.isFile() && !temp.renameTo(object)) throw new IOException("Cannot rename " + temp);
+            return hash;
+        } finally {
+            if (deflater != null) deflater.end();
+            if (temp.exists() && !temp.delete()) Log.d(this, "Cannot delete " + temp);
+        }
+    }
+
+    /**
+     * Whether the object of an entry still has the content it was stored with.
+     */
+    private boolean verify(Entry entry) {
+        File object = getObject(entry.hash, entry.deflated);
+        if (!object.isFile()) return false;
+        MessageDigest digest;
+        long size = 0;
+        Inflater inflater = entry.deflated ? new Inflater() : null;
+        try (InputStream in = inflater == null ? new FileInputStream(object)
+                : new InflaterInputStream(new FileInputStream(object), inflater, BUFFER_SIZE)) {
+            digest = newDigest();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int read; (read = in.read(buffer)) > 0; ) {
+                digest.update(buffer, 0, read);
+                size += read;
+            }
+        } catch (IOException e) {
+            Log.d(this, e);
+            return false;
+        } finally {
+            if (inflater != null) inflater.end();
+        }
+        return size == entry.size && toHex(digest.digest()).equals(entry.hash);
+    }
+
+    private void extract(Entry entry, File target, BackupProgress progress) throws IOException {
+        File parent = target.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Cannot create " + parent);
+        File object = getObject(entry.hash, entry.deflated);
+        Inflater inflater = entry.deflated ? new Inflater() : null;
+        try (InputStream in = inflater == null ? new FileInputStream(object)
+                : new InflaterInputStream(new FileInputStream(object), inflater, BUFFER_SIZE);
+             OutputStream out = new FileOutputStream(target)) {
+            copy(in, out, null, progress);
+        } finally {
+            if (inflater != null) inflater.end();
+        }
+    }
+
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes)
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return hex.toString();
+    }
+
+    private static void copy(InputStream in, OutputStream out, @Nullable MessageDigest digest,
+                             BackupProgress progress) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int read; (read = in.read(buffer)) > 0; ) {
+            if (digest != null) digest.update(buffer, 0, read);
+            out.write(buffer, 0, read);
+            progress.add(read);
+        }
+    }
+
+    /**
+     * Runs the tasks on a thread per core and waits for all of them.
+     *
+     * @return the results in the order of the tasks
+     */
+    private static <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+        int threads = Math.max(1, Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<T> out = new ArrayList<>(tasks.size());
+            for (Future<T> future : pool.invokeAll(tasks)) out.add(future.get());
+            return out;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @NonNull
+    private Map<String, String[]> readHashCache() {
+        Map<String, String[]> out = new HashMap<>();
+        File file = new File(mBackupDir, HASH_CACHE);
+        if (!file.isFile()) return out;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                String[] parts = line.split("\t");
+                if (parts.length == 4) out.put(parts[0], new String[]{parts[1], parts[2], parts[3]});
+            }
+        } catch (IOException e) {
+            Log.d(this, e);
+        }
+        return out;
+    }
+
+    private void writeHashCache(Map<String, String[]> tables) {
+        File file = new File(mBackupDir, HASH_CACHE);
+        try (PrintWriter writer = new PrintWriter(file)) {
+            for (Map.Entry<String, String[]> entry : tables.entrySet()) {
+                String[] value = entry.getValue();
+                writer.print(entry.getKey() + '\t' + value[0] + '\t' + value[1] + '\t' + value[2] + '\n');
+            }
+        } catch (IOException e) {
+            Log.d(this, e);
+        }
+    }
+}
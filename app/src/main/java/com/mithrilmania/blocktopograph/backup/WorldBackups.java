@@ -11,6 +11,7 @@ import com.mithrilmania.blocktopograph.util.IoUtil;
 
 import net.lingala.zip4j.ZipFile;
 import net.lingala.zip4j.exception.ZipException;
+import net.lingala.zip4j.model.FileHeader;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -23,6 +24,7 @@ import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.Objects;
 
 public class WorldBackups {
@@ -105,16 +107,25 @@ public class WorldBackups {
         }
     }
 
+    @NonNull
+    private SnapshotStore getSnapshotStore() {
+        return new SnapshotStore(getBackupDir());
+    }
+
     public boolean createNewBackup(String name, Date time) {
+        return createNewBackup(name, time, null);
+    }
+
+    /**
+     * Takes a snapshot of the world, only what changed since the last one is copied.
+     */
+    public boolean createNewBackup(String name, Date time, @Nullable BackupProgress.Listener listener) {
         try {
             File bakDir = getBackupDir();
             if (IoUtil.makeSureDirIsDir(bakDir) != IoUtil.Errno.OK) return false;
-            File zfile = IoUtil.getFileWithFirstAvailableName(bakDir, DATE_FORMAT.format(time) + name, ".zip", "(", ")");
-            ZipFile zip = new ZipFile(zfile);
-            for (File file : Objects.requireNonNull(getFilesInWorldDirExceptBackupDir())) {
-                if (file.isDirectory()) zip.addFolder(file);
-                else zip.addFile(file);
-            }
+            File snapshot = IoUtil.getFileWithFirstAvailableName(bakDir, DATE_FORMAT.format(time) + name, SnapshotStore.EXTENSION, "(", ")");
+            getSnapshotStore().create(mWorld.worldFolder,
+                    Objects.requireNonNull(getFilesInWorldDirExceptBackupDir()), snapshot, listener);
         } catch (Exception e) {
             Log.e(this, e);
             return false;
@@ -124,14 +135,54 @@ public class WorldBackups {
     }
 
     public boolean restoreBackup(@NonNull Backup backup) {
-        ZipFile zip = new ZipFile(backup.file);
+        return restoreBackup(backup, null);
+    }
+
+    public boolean restoreBackup(@NonNull Backup backup, @Nullable BackupProgress.Listener listener) {
+        if (backup.file.getName().endsWith(SnapshotStore.EXTENSION)) {
+            if (!restoreSnapshot(backup.file, listener)) return false;
+        } else if (!restoreZip(backup.file, listener)) return false;
+        // The journaled edits, the chunk index and the tiles were all of another world.
+        mWorld.getEditJournal().clear();
+        mWorld.clearCaches();
+        return true;
+    }
+
+    private boolean restoreSnapshot(@NonNull File snapshot, @Nullable BackupProgress.Listener listener) {
+        SnapshotStore store = getSnapshotStore();
+        try {
+            List<SnapshotStore.Entry> entries = store.read(snapshot);
+            // Check before anything of the world is gone.
+            if (!store.isComplete(entries)) return false;
+            if (!deleteWorldFiles()) return false;
+            store.extract(entries, mWorld.worldFolder, listener);
+        } catch (IOException e) {
+            Log.d(this, e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Backups made before snapshots. Extracted on the calling thread a file at a time,
+     * reporting the progress in between.
+     */
+    private boolean restoreZip(@NonNull File file, @Nullable BackupProgress.Listener listener) {
+        ZipFile zip = new ZipFile(file);
         if (!zip.isValidZipFile()) return false;
-        File[] files = getFilesInWorldDirExceptBackupDir();
-        if (files == null) return false;
-        for (File file : files)
-            if (!FileUtils.deleteQuietly(file)) return false;
+        if (!deleteWorldFiles()) return false;
         try {
-            zip.extractAll(mWorld.worldFolder.getAbsolutePath());
+            List<FileHeader> headers = zip.getFileHeaders();
+            long total = 0;
+            for (FileHeader header : headers) total += header.getUncompressedSize();
+            BackupProgress progress = new BackupProgress(listener, total);
+            String destination = mWorld.worldFolder.getAbsolutePath();
+            for (FileHeader header : headers) {
+                if (Thread.currentThread().isInterrupted()) return false;
+                zip.extractFile(header, destination);
+                progress.add(header.getUncompressedSize());
+            }
+            progress.finish();
         } catch (ZipException e) {
             Log.d(this, e);
             return false;
@@ -139,8 +190,21 @@ public class WorldBackups {
         return true;
     }
 
+    private boolean deleteWorldFiles() {
+        File[] files = getFilesInWorldDirExceptBackupDir();
+        if (files == null) return false;
+        for (File file : files)
+            if (!FileUtils.deleteQuietly(file)) return false;
+        return true;
+    }
+
     public boolean deleteBackup(@NonNull Backup backup) {
-        return backup.file.delete();
+        if (!backup.file.delete()) return false;
+        if (backup.file.getName().endsWith(SnapshotStore.EXTENSION)) {
+            File[] snapshots = getBackupDir().listFiles((file, s) -> s.endsWith(SnapshotStore.EXTENSION));
+            if (snapshots != null) getSnapshotStore().collectGarbage(snapshots);
+        }
+        return true;
     }
 
     public void cleanOldBackups(@NonNull Date now) {
@@ -164,11 +228,25 @@ public class WorldBackups {
     }
 
 
+    /**
+     * Size of a zip, or of the world a snapshot restores.
+     */
+    private long getSize(@NonNull File backup) {
+        if (!backup.getName().endsWith(SnapshotStore.EXTENSION)) return FileUtils.sizeOf(backup);
+        long size = 0;
+        try {
+            for (SnapshotStore.Entry entry : getSnapshotStore().read(backup)) size += entry.size;
+        } catch (IOException e) {
+            Log.d(this, e);
+        }
+        return size;
+    }
+
     @Nullable
     public Backup[] getBackups() {
         File bakDir = getBackupDir();
         if (!bakDir.isDirectory()) return null;
-        File[] files = bakDir.listFiles((file, s) -> s.endsWith(".zip"));
+        File[] files = bakDir.listFiles((file, s) -> s.endsWith(".zip") || s.endsWith(SnapshotStore.EXTENSION));
         if (files == null) return null;
         Arrays.sort(files);
         ArrayUtils.reverse(files);
@@ -182,7 +260,7 @@ public class WorldBackups {
             } else {
                 name = name.substring(pos.getIndex());
             }
-            baks[i] = new Backup(name, time, files[i], FileUtils.byteCountToDisplaySize(FileUtils.sizeOf(files[i])));
+            baks[i] = new Backup(name, time, files[i], FileUtils.byteCountToDisplaySize(getSize(files[i])));
         }
         return baks;
     }
@@ -7,9 +7,15 @@ import com.mithrilmania.blocktopograph.block.blockproperty.BlockProperty;
 import com.mithrilmania.blocktopograph.nbt.tags.Tag;
 
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * A block state. Instances are interned by {@link BlockRegistry}, there is only one for each
+ * distinct state, so equal blocks are the same object and have the same runtime ID.
+ */
 public class Block implements Serializable {
 
     private final String name;
@@ -20,18 +26,49 @@ public class Block implements Serializable {
 
     private final Map<String, Object> customProperties;
 
+    private final int hash;
+
+    // Set once by the registry.
+    private transient int runtimeId;
+    private transient boolean interned;
+
     Block(String name, Map<String, Object> customProperties) {
-        this.name = name;
-        this.type = null;
-        this.knownProperties = null;
-        this.customProperties = customProperties;
+        this(name, null, null, customProperties);
     }
 
     Block(BlockType type, Object[] knownProperties, Map<String, Object> customProperties) {
-        this.name = type.getName();
+        this(type.getName(), type, knownProperties, customProperties);
+    }
+
+    private Block(String name, BlockType type, Object[] knownProperties, Map<String, Object> customProperties) {
+        this.name = name;
         this.type = type;
         this.knownProperties = knownProperties;
         this.customProperties = customProperties;
+        // Not the type's, enums hash by identity.
+        hash = (name.hashCode() * 31 + Arrays.hashCode(knownProperties)) * 31 + customProperties.hashCode();
+    }
+
+    /**
+     * A copy not sharing anything with the builder it came from, to be the canonical instance
+     * unless the ID is {@link BlockRegistry#UNREGISTERED}.
+     */
+    Block copyForRegistry(int runtimeId) {
+        Block copy = new Block(name, type, knownProperties == null ? null : knownProperties.clone(),
+                customProperties.isEmpty() ? Collections.emptyMap()
+                        : Collections.unmodifiableMap(new HashMap<>(customProperties)));
+        copy.runtimeId = runtimeId;
+        copy.interned = runtimeId != BlockRegistry.UNREGISTERED;
+        return copy;
+    }
+
+    /**
+     * Dense id of this state within this run of the app, see {@link BlockRegistry#get}.
+     * Not persistent, don't save it anywhere. {@link BlockRegistry#UNREGISTERED} for states
+     * past the registry's bound.
+     */
+    public int getRuntimeId() {
+        return runtimeId;
     }
 
     public String getName() {
@@ -48,14 +85,44 @@ public class Block implements Serializable {
         else return customProperties.get(name);
     }
 
+    /**
+     * The values of the type's known properties, in its order. Shared by every user of the
+     * state, read only.
+     */
     public Object[] getKnownProperties() {
         return knownProperties;
     }
 
+    /**
+     * Unmodifiable, the state is shared.
+     */
     public Map<String, Object> getCustomProperties() {
         return customProperties;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Block)) return false;
+        Block block = (Block) o;
+        // Canonical instances are only equal to themselves.
+        if (interned && block.interned) return false;
+        return hash == block.hash
+                && name.equals(block.name)
+                && type == block.type
+                && Arrays.equals(knownProperties, block.knownProperties)
+                && customProperties.equals(block.customProperties);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    private Object readResolve() {
+        return BlockRegistry.intern(this);
+    }
+
     private static int getKnownPropertyIndex(@NonNull String name, @Nullable BlockType type) {
         if (type != null) {
             BlockProperty[] properties = type.getKnownProperties();
@@ -100,9 +167,12 @@ public class Block implements Serializable {
             return setProperty(tag.getName(), tag.getValue());
         }
 
+        /**
+         * @return the canonical instance of the state
+         */
         public Block build() {
-            if (type == null) return new Block(name, customProperties);
-            return new Block(type, knownProperties, customProperties);
+            if (type == null) return BlockRegistry.intern(new Block(name, customProperties));
+            return BlockRegistry.intern(new Block(type, knownProperties, customProperties));
         }
     }
 }
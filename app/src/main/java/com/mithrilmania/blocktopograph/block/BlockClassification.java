@@ -0,0 +1,172 @@
+package com.mithrilmania.blocktopograph.block;
+
+import androidx.annotation.NonNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * What the renderers need to know about a block state, compiled once per state into a table
+ * indexed by runtime ID. Looking a block up is an array access instead of string compares.
+ * <p>
+ * {@link #classify} returns a packed entry, read it with the static getters.
+ */
+public final class BlockClassification {
+
+    public static final int CAVE_NONE = 0;
+    public static final int CAVE_RAIL = 1;
+    public static final int CAVE_PLANKS = 2;
+    public static final int CAVE_SPAWNER = 3;
+    public static final int CAVE_CHEST = 4;
+    public static final int CAVE_STONE_BRICK = 5;
+    public static final int CAVE_COBBLESTONE = 6;
+
+    public static final List<String> DEFAULT_XRAY_BLOCKS = Collections.unmodifiableList(Arrays.asList(
+            "minecraft:diamond_ore",
+            "minecraft:emerald_ore",
+            "minecraft:quartz_ore",
+            "minecraft:gold_ore",
+            "minecraft:iron_ore",
+            "minecraft:redstone_ore",
+            "minecraft:lapis_ore"
+    ));
+
+    // Entry layout, zero means not classified yet.
+    private static final int CLASSIFIED = 1;
+    private static final int AIR = 1 << 1;
+    private static final int OPAQUE = 1 << 2;
+    private static final int ORE_SHIFT = 8;
+    private static final int CAVE_SHIFT = 16;
+    private static final int FIELD_MASK = 0xff;
+
+    private static final Map<String, Integer> caveStructures = new HashMap<>();
+
+    // Entries by runtime ID.
+    private static volatile int[] table = new int[1024];
+
+    private static volatile Map<String, Integer> oreValues;
+
+    private static volatile int maxOreValue;
+
+    private static volatile List<String> xRayBlocks;
+
+    private static volatile String xRayBlocksKey;
+
+    static {
+        caveStructures.put("minecraft:rail", CAVE_RAIL);
+        caveStructures.put("minecraft:planks", CAVE_PLANKS);
+        caveStructures.put("minecraft:mob_spawner", CAVE_SPAWNER);
+        caveStructures.put("minecraft:chest", CAVE_CHEST);
+        caveStructures.put("minecraft:stonebrick", CAVE_STONE_BRICK);
+        caveStructures.put("minecraft:mossy_cobblestone", CAVE_COBBLESTONE);
+        caveStructures.put("minecraft:cobblestone", CAVE_COBBLESTONE);
+        setXRayBlocks(DEFAULT_XRAY_BLOCKS);
+    }
+
+    private BlockClassification() {
+    }
+
+    /**
+     * Sets the blocks the X-ray map shows, the most valuable first. Already rendered tiles
+     * are not affected, cached ones are kept apart by {@link #getXRayBlocksKey}.
+     */
+    public static synchronized void setXRayBlocks(@NonNull List<String> names) {
+        CRC32 crc = new CRC32();
+        for (String name : names) {
+            crc.update(name.getBytes(StandardCharsets.UTF_8));
+            crc.update('\n');
+        }
+        xRayBlocks = Collections.unmodifiableList(new ArrayList<>(names));
+        xRayBlocksKey = Long.toHexString(crc.getValue());
+        Map<String, Integer> values = new HashMap<>();
+        for (int i = 0, size = Math.min(names.size(), FIELD_MASK); i < size; i++)
+            values.putIfAbsent(names.get(i), size - i);
+        oreValues = Collections.unmodifiableMap(values);
+        maxOreValue = values.size() == 0 ? 0 : Math.min(names.size(), FIELD_MASK);
+        // Everything classified before has the old values.
+        table = new int[table.length];
+    }
+
+    public static int classify(@NonNull BlockTemplate template) {
+        Block block = template.getBlock();
+        int id = block.getRuntimeId();
+        int[] entries = table;
+        int entry = id != BlockRegistry.UNREGISTERED && id < entries.length ? entries[id] : 0;
+        return entry != 0 ? entry : compile(block);
+    }
+
+    private static synchronized int compile(@NonNull Block block) {
+        int id = block.getRuntimeId();
+        int[] entries = table;
+        boolean registered = id != BlockRegistry.UNREGISTERED;
+        if (registered && id < entries.length && entries[id] != 0) return entries[id];
+
+        // The template a chunk would render the state with.
+        BlockTemplate template = BlockTemplates.getBest(block);
+        String name = block.getName();
+        int entry = CLASSIFIED;
+        if (block == BlockTemplates.getAirTemplate().getBlock()) entry |= AIR;
+        if (template.getColor() >>> 24 == 0xff) entry |= OPAQUE;
+        Integer ore = oreValues.get(name);
+        if (ore != null) entry |= ore << ORE_SHIFT;
+        Integer cave = caveStructures.get(name);
+        if (cave != null) entry |= cave << CAVE_SHIFT;
+
+        if (!registered) return entry;
+        if (id >= entries.length) entries = Arrays.copyOf(entries, Math.max(id + 1, entries.length << 1));
+        entries[id] = entry;
+        table = entries;
+        return entry;
+    }
+
+    public static boolean isAir(int entry) {
+        return (entry & AIR) != 0;
+    }
+
+    /**
+     * Whether nothing under it can be seen.
+     */
+    public static boolean isOpaque(int entry) {
+        return (entry & OPAQUE) != 0;
+    }
+
+    /**
+     * @return how much the X-ray map wants the block, 0 for not at all
+     */
+    public static int getOreValue(int entry) {
+        return (entry >> ORE_SHIFT) & FIELD_MASK;
+    }
+
+    /**
+     * The value of the most wanted X-ray block, nothing can beat a block of this value.
+     */
+    public static int getMaxOreValue() {
+        return maxOreValue;
+    }
+
+    @NonNull
+    public static List<String> getXRayBlocks() {
+        return xRayBlocks;
+    }
+
+    /**
+     * Differs for every list of X-ray blocks.
+     */
+    @NonNull
+    public static String getXRayBlocksKey() {
+        return xRayBlocksKey;
+    }
+
+    /**
+     * @return one of the {@code CAVE_} structures
+     */
+    public static int getCaveStructure(int entry) {
+        return (entry >> CAVE_SHIFT) & FIELD_MASK;
+    }
+}
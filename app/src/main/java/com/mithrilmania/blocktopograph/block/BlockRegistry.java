@@ -0,0 +1,79 @@
+package com.mithrilmania.blocktopograph.block;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns block states, so each distinct state exists once however many palettes use it,
+ * and gives every state a dense runtime ID in the order it was first seen.
+ * <p>
+ * Canonical instances live as long as the app, and so do the tables indexed by runtime ID.
+ * Far more states than the game has can only come from broken or hostile worlds, so past
+ * {@link #MAX_STATES} new ones are no longer interned: they get {@link #UNREGISTERED} and
+ * are only equal to, not the same as, other instances of the state.
+ */
+public final class BlockRegistry {
+
+    public static final int UNREGISTERED = -1;
+
+    static final int MAX_STATES = 1 << 17;
+
+    private static final ConcurrentHashMap<Block, Block> sCanonical = new ConcurrentHashMap<>(1024);
+
+    private static final Object sLock = new Object();
+
+    private static volatile Block[] sById = new Block[1024];
+
+    private static volatile int sCount;
+
+    private BlockRegistry() {
+    }
+
+    /**
+     * @return the canonical instance equal to {@code block}, which becomes one if new
+     */
+    @NonNull
+    static Block intern(@NonNull Block block) {
+        return intern(block, MAX_STATES);
+    }
+
+    @NonNull
+    static Block intern(@NonNull Block block, int maxStates) {
+        Block canonical = sCanonical.get(block);
+        if (canonical != null) return canonical;
+        synchronized (sLock) {
+            canonical = sCanonical.get(block);
+            if (canonical != null) return canonical;
+            int id = sCount;
+            if (id >= maxStates) return block.copyForRegistry(UNREGISTERED);
+            canonical = block.copyForRegistry(id);
+            Block[] byId = sById;
+            if (id == byId.length) byId = Arrays.copyOf(byId, id << 1);
+            byId[id] = canonical;
+            sById = byId;
+            sCount = id + 1;
+            sCanonical.put(canonical, canonical);
+            return canonical;
+        }
+    }
+
+    /**
+     * @return the state with the runtime ID, null if there is none
+     */
+    @Nullable
+    public static Block get(int runtimeId) {
+        // Count first, the array it was published with is at least this large.
+        int count = sCount;
+        return runtimeId >= 0 && runtimeId < count ? sById[runtimeId] : null;
+    }
+
+    /**
+     * Number of distinct states seen so far, runtime IDs are below this.
+     */
+    public static int size() {
+        return sCount;
+    }
+}
@@ -22,8 +22,17 @@ public class BlockTemplates {
             null, new Block.Builder(BlockType.UNKNOWN).build(),
             new NoBlockIcon(), 0xff0000, false);
 
+    private static final BlockTemplate airTemplate;
+
+    // Resolved template of every registered block state by runtime ID, null where not resolved yet.
+    // Bounded by the registry.
+    private static volatile BlockTemplate[] resolved = new BlockTemplate[1024];
+
     static {
         init();
+        airTemplate = allTemplates.get("minecraft:air")[0];
+        remember(airTemplate.getBlock(), airTemplate);
+        remember(unknownBlockTemplate.getBlock(), unknownBlockTemplate);
     }
 
     private static void init() {
@@ -1662,11 +1671,39 @@ public class BlockTemplates {
         return allTemplates.get(name);
     }
 
+    /**
+     * The template closest to a block state. Resolved once per state and remembered, so this is
+     * an array lookup for every state seen before.
+     */
     @NonNull
     public static BlockTemplate getBest(@NonNull Block block) {
+        int id = block.getRuntimeId();
+        BlockTemplate[] table = resolved;
+        if (id == BlockRegistry.UNREGISTERED) return resolve(block);
+        BlockTemplate template = id < table.length ? table[id] : null;
+        if (template == null) {
+            // Racing threads resolve to the same template.
+            template = resolve(block);
+            remember(block, template);
+        }
+        return template;
+    }
+
+    private static synchronized void remember(@NonNull Block block, @NonNull BlockTemplate template) {
+        int id = block.getRuntimeId();
+        BlockTemplate[] table = resolved;
+        if (id >= table.length) table = Arrays.copyOf(table, Math.max(id + 1, table.length << 1));
+        table[id] = template;
+        resolved = table;
+    }
+
+    @NonNull
+    private static BlockTemplate resolve(@NonNull Block block) {
         var type = block.getType();
         if (type == null) return getUnknownBlockTemplate();
-        List<BlockTemplate> candidates = Arrays.asList(Objects.requireNonNull(getOfType(type.getName())));
+        BlockTemplate[] ofType = getOfType(type.getName());
+        if (ofType == null) return getUnknownBlockTemplate();
+        List<BlockTemplate> candidates = Arrays.asList(ofType);
         for (int i = 0, limit = block.getType().getKnownProperties().length; i < limit; i++) {
             List<BlockTemplate> newCandidates = new ArrayList<>();
             for (var template : candidates) {
@@ -1694,7 +1731,7 @@ public class BlockTemplates {
 
     @NonNull
     public static BlockTemplate getAirTemplate() {
-        return getOfType("minecraft:air")[0];
+        return airTemplate;
     }
 
     @NonNull
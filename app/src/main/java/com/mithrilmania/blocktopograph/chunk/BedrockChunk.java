@@ -19,6 +19,10 @@ import com.mithrilmania.blocktopograph.util.Noise;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
 
 public final class BedrockChunk extends Chunk {
 
@@ -31,17 +35,43 @@ public final class BedrockChunk extends Chunk {
     private final boolean[] mVoidList;
     private final boolean[] mErrorList;
     private boolean mIs2dDirty;
-    private final TerrainSubChunk[] mTerrainSubChunks;
+    private final AtomicReferenceArray<TerrainSubChunk> mTerrainSubChunks;
     private volatile ByteBuffer data2D;
+    private final AtomicInteger mMemoryFootprint;
+
+    // Marks a prefetched terrain record that has been taken already.
+    private static final byte[] CONSUMED = new byte[0];
+
+    // Terrain records fetched along with the chunk, consumed as sub-chunks get decoded.
+    @Nullable
+    private AtomicReferenceArray<byte[]> mPrefetchedTerrain;
 
     BedrockChunk(WorldData worldData, Version version, int chunkX, int chunkZ, Dimension dimension,
                  boolean createIfMissing) {
+        this(worldData, version, chunkX, chunkZ, dimension, createIfMissing, null);
+    }
+
+    /**
+     * @param records records from {@link WorldData#getChunkRecords}, or null to read lazily
+     */
+    BedrockChunk(WorldData worldData, Version version, int chunkX, int chunkZ, Dimension dimension,
+                 boolean createIfMissing, @Nullable byte[][] records) {
         super(worldData, version, chunkX, chunkZ, dimension);
         mVoidList = new boolean[16];
         mErrorList = new boolean[16];
         mDirtyList = new boolean[16];
-        mTerrainSubChunks = new TerrainSubChunk[16];
-        load2dData(createIfMissing);
+        mTerrainSubChunks = new AtomicReferenceArray<>(16);
+        int footprint = super.getMemoryFootprint() + DATA2D_LENGTH;
+        if (records != null) {
+            set2dData(records[WorldData.CHUNK_RECORD_DATA_2D], createIfMissing);
+            mPrefetchedTerrain = new AtomicReferenceArray<>(16);
+            for (int i = 0; i < 16; i++) {
+                byte[] raw = records[WorldData.CHUNK_RECORD_FIRST_TERRAIN + i];
+                mPrefetchedTerrain.set(i, raw);
+                if (raw != null) footprint += raw.length;
+            }
+        } else load2dData(createIfMissing);
+        mMemoryFootprint = new AtomicInteger(footprint);
         mHasBlockLight = true;
         mIs2dDirty = false;
     }
@@ -51,16 +81,7 @@ public final class BedrockChunk extends Chunk {
             try {
                 byte[] rawData = mWorldData.get().getChunkData(
                         mChunkX, mChunkZ, ChunkTag.DATA_2D, mDimension, (byte) 0, false);
-                if (rawData == null) {
-                    if (createIfMissing) {
-                        this.data2D = ByteBuffer.allocate(DATA2D_LENGTH);
-                    } else {
-                        mIsError = true;
-                        mIsVoid = true;
-                    }
-                    return;
-                }
-                this.data2D = ByteBuffer.wrap(rawData);
+                set2dData(rawData, createIfMissing);
             } catch (Exception e) {
                 if (BuildConfig.DEBUG) {
                     Log.d(this, e);
@@ -71,41 +92,68 @@ public final class BedrockChunk extends Chunk {
         }
     }
 
+    private void set2dData(@Nullable byte[] rawData, boolean createIfMissing) {
+        if (rawData == null) {
+            if (createIfMissing) {
+                this.data2D = ByteBuffer.allocate(DATA2D_LENGTH);
+            } else {
+                mIsError = true;
+                mIsVoid = true;
+            }
+            return;
+        }
+        this.data2D = ByteBuffer.wrap(rawData);
+    }
+
     @Nullable
     private TerrainSubChunk getSubChunk(int which, boolean createIfMissing) {
         if (mIsError || mVoidList[which]) return null;
-        TerrainSubChunk ret = mTerrainSubChunks[which];
+        TerrainSubChunk ret = mTerrainSubChunks.get(which);
         if (ret == null) {
-            byte[] raw;
+            byte[] raw = CONSUMED;
+            boolean prefetched = false;
             WorldData worldData = mWorldData.get();
             try {
-                raw = worldData.getChunkData(mChunkX, mChunkZ,
+                // Only one of the threads racing for the sub-chunk gets the prefetched record,
+                // the others read it again.
+                if (mPrefetchedTerrain != null) raw = mPrefetchedTerrain.getAndSet(which, CONSUMED);
+                prefetched = raw != CONSUMED;
+                if (!prefetched) raw = worldData.getChunkData(mChunkX, mChunkZ,
                         ChunkTag.TERRAIN, mDimension, (byte) which, true);
-                if (raw == null && !createIfMissing) {
-                    mVoidList[which] = true;
-                    return null;
-                }
+                if (raw == null && !createIfMissing) return markVoid(which, false);
             } catch (Exception e) {
                 if (BuildConfig.DEBUG) {
                     Log.d(this, e);
                 }
-                mErrorList[which] = true;
-                mVoidList[which] = true;
-                return null;
+                return markVoid(which, true);
             }
             ret = raw == null ?
                     TerrainSubChunk.createEmpty(8) :
                     TerrainSubChunk.create(raw);
-            if (ret == null || ret.isError()) {
-                mVoidList[which] = true;
-                mErrorList[which] = true;
-                ret = null;
-            } else if (!ret.hasBlockLight()) mHasBlockLight = false;
-            mTerrainSubChunks[which] = ret;
+            if (ret == null || ret.isError()) return markVoid(which, true);
+            // Only the first decoded copy is published, a racing thread may be editing it already.
+            if (!mTerrainSubChunks.compareAndSet(which, null, ret)) return mTerrainSubChunks.get(which);
+            if (!ret.hasBlockLight()) mHasBlockLight = false;
+            // Decoded palette, unpacked indices and bookkeeping, the raw record is already accounted.
+            mMemoryFootprint.addAndGet((raw == null || prefetched ? 0 : raw.length) + 512 + 8192);
         }
         return ret;
     }
 
+    /**
+     * Marks a sub-chunk that couldn't be loaded, unless a racing thread published one.
+     *
+     * @return the sub-chunk published instead, or null
+     */
+    @Nullable
+    private TerrainSubChunk markVoid(int which, boolean isError) {
+        TerrainSubChunk published = mTerrainSubChunks.get(which);
+        if (published != null) return published;
+        if (isError) mErrorList[which] = true;
+        mVoidList[which] = true;
+        return null;
+    }
+
     private int get2dOffset(int x, int z) {
         return (z << 4) | x;
     }
@@ -148,6 +196,7 @@ public final class BedrockChunk extends Chunk {
         if (mIsVoid) return;
         data2D.put(POS_BIOME_DATA + get2dOffset(x, z), (byte) id);
         mIs2dDirty = true;
+        invalidateSurfaceSummary();
     }
 
     private int getNoise(int x, int z) {
@@ -188,6 +237,22 @@ public final class BedrockChunk extends Chunk {
         return subChunk.getBlockTemplate(x, y & 0xf, z, layer);
     }
 
+    @Override
+    public void copyColumnTemplates(int x, int z, int fromY, int toY, int layer, @NonNull BlockTemplate[] out) {
+        if (fromY < 0) fromY = 0;
+        if (toY > 256) toY = 256;
+        if (x >= 16 || z >= 16 || x < 0 || z < 0 || mIsVoid || fromY >= toY) {
+            super.copyColumnTemplates(x, z, fromY, toY, layer, out);
+            return;
+        }
+        for (int which = fromY >> 4, last = (toY - 1) >> 4; which <= last; which++) {
+            TerrainSubChunk subChunk = getSubChunk(which, false);
+            if (subChunk == null)
+                Arrays.fill(out, which << 4, (which << 4) + 16, BlockTemplates.getAirTemplate());
+            else subChunk.copyColumnTemplates(x, z, layer, out, which << 4);
+        }
+    }
+
     @NonNull
     @Override
     public Block getBlock(int x, int y, int z, int layer) {
@@ -225,6 +290,55 @@ public final class BedrockChunk extends Chunk {
             }
             setHeightMapValue(x, z, (short) height);
         }
+        // Only once everything changed, see getSurfaceSummary.
+        invalidateSurfaceSummary();
+    }
+
+    /**
+     * Hands the box to the sub-chunks, which replace through their palettes. Sub-chunks
+     * without a match are left alone, missing ones are only created if air is replaced.
+     */
+    @Override
+    public boolean replaceBlocks(int layer, @NonNull Predicate<Block> matcher, @NonNull Block replacement,
+                                 int fromX, int toX, int fromY, int toY, int fromZ, int toZ) {
+        if (mIsVoid) return false;
+        fromX = Math.max(fromX, 0);
+        fromY = Math.max(fromY, 0);
+        fromZ = Math.max(fromZ, 0);
+        toX = Math.min(toX, 15);
+        toY = Math.min(toY, 255);
+        toZ = Math.min(toZ, 15);
+        if (fromX > toX || fromY > toY || fromZ > toZ) return false;
+
+        BlockTemplate air = BlockTemplates.getAirTemplate();
+        boolean replacesAir = matcher.test(air.getBlock());
+        boolean changed = false;
+        for (int which = fromY >> 4, last = toY >> 4; which <= last; which++) {
+            TerrainSubChunk subChunk = getSubChunk(which, replacesAir);
+            if (subChunk == null) continue;
+            int innerFromY = which == fromY >> 4 ? fromY & 0xf : 0;
+            int innerToY = which == last ? toY & 0xf : 15;
+            if (subChunk.replaceBlocks(layer, matcher, replacement,
+                    fromX, toX, innerFromY, innerToY, fromZ, toZ)) {
+                mDirtyList[which] = true;
+                changed = true;
+            }
+        }
+        if (!changed) return false;
+
+        // Heights only move when air comes or goes, then each column of the box is measured once.
+        if (replacesAir || BlockTemplates.getBest(replacement) == air) {
+            for (int x = fromX; x <= toX; x++) {
+                for (int z = fromZ; z <= toZ; z++) {
+                    int height = getHighestBlockYUnderAt(x, z, 255) + 1;
+                    if (height == getHeightMapValue(x, z)) continue;
+                    setHeightMapValue(x, z, (short) height);
+                    mIs2dDirty = true;
+                }
+            }
+        }
+        invalidateSurfaceSummary();
+        return true;
     }
 
     @Override
@@ -277,6 +391,20 @@ public final class BedrockChunk extends Chunk {
         return -1;
     }
 
+    @Override
+    public boolean isDirty() {
+        if (mIsError || mIsVoid) return false;
+        if (mIs2dDirty) return true;
+        for (boolean dirty : mDirtyList)
+            if (dirty) return true;
+        return false;
+    }
+
+    @Override
+    public int getMemoryFootprint() {
+        return mMemoryFootprint.get() + (hasSurfaceSummary() ? SurfaceSummary.SIZE_IN_BYTES : 0);
+    }
+
     @Override
     public void save() throws WorldData.WorldDBException, IOException {
 
@@ -285,18 +413,22 @@ public final class BedrockChunk extends Chunk {
         WorldData worldData = mWorldData.get();
         if (worldData == null)
             throw new RuntimeException("World data is null.");
+        if (isDirty()) invalidateRecordsFingerprint();
 
         // Save biome and hightmap.
-        if (mIs2dDirty)
+        if (mIs2dDirty) {
             worldData.writeChunkData(
                     mChunkX, mChunkZ, ChunkTag.DATA_2D, mDimension, (byte) 0, false, data2D.array());
+            mIs2dDirty = false;
+        }
 
         // Save subChunks.
-        for (int i = 0, mTerrainSubChunksLength = mTerrainSubChunks.length; i < mTerrainSubChunksLength; i++) {
-            TerrainSubChunk subChunk = mTerrainSubChunks[i];
+        for (int i = 0, mTerrainSubChunksLength = mTerrainSubChunks.length(); i < mTerrainSubChunksLength; i++) {
+            TerrainSubChunk subChunk = mTerrainSubChunks.get(i);
             if (subChunk == null || mVoidList[i] || !mDirtyList[i]) continue;
             //Log.d(this,"Saving "+i);
             subChunk.save(worldData, mChunkX, mChunkZ, mDimension, i);
+            mDirtyList[i] = false;
         }
     }
 }
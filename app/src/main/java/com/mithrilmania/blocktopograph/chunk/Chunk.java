@@ -11,7 +11,11 @@ import com.mithrilmania.blocktopograph.map.Dimension;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.stream.IntStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
 
 public abstract class Chunk {
 
@@ -24,6 +28,14 @@ public abstract class Chunk {
     protected NBTChunkData mTileEntity;
     boolean mIsVoid;
     boolean mIsError;
+    private volatile SurfaceSummary mSurfaceSummary;
+
+    // Counts surface changes, so a summary computed across one is not kept.
+    private final AtomicInteger mSurfaceModifications = new AtomicInteger();
+
+    // Of the records the chunk was loaded from, valid until the chunk is saved.
+    private long mRecordsFingerprint;
+    private volatile boolean mHasRecordsFingerprint;
 
     Chunk(WorldData worldData, Version version, int chunkX, int chunkZ, Dimension dimension) {
         mWorldData = new WeakReference<>(worldData);
@@ -65,14 +77,16 @@ public abstract class Chunk {
     public static Chunk create(@NonNull WorldData worldData, int chunkX, int chunkZ, Dimension dimension,
                                boolean createIfMissing, Version createOfVersion) {
         Version version;
+        byte[][] records = null;
         try {
-            byte[] data = worldData.getChunkData(chunkX, chunkZ, ChunkTag.VERSION_PRE16, dimension);
+            records = worldData.getChunkRecords(chunkX, chunkZ, dimension);
+            byte[] data = records[WorldData.CHUNK_RECORD_VERSION_PRE16];
             if (data == null)
-                data = worldData.getChunkData(chunkX, chunkZ, ChunkTag.VERSION, dimension);
+                data = records[WorldData.CHUNK_RECORD_VERSION];
             if (data == null && createIfMissing)
                 return createEmpty(worldData, chunkX, chunkZ, dimension, createOfVersion);
             version = Version.getVersion(data);
-        } catch (WorldData.WorldDBLoadException | WorldData.WorldDBException e) {
+        } catch (WorldData.WorldDBException e) {
             Log.d(Chunk.class, e);
             version = Version.ERROR;
         }
@@ -90,15 +104,61 @@ public abstract class Chunk {
 //            case V1_1:
             case V1_2_PLUS:
             case V1_16_PLUS:
-                chunk = new BedrockChunk(worldData, version, chunkX, chunkZ, dimension, false);
+                chunk = new BedrockChunk(worldData, version, chunkX, chunkZ, dimension, false, records);
                 break;
             case NULL:
             default:
                 chunk = new VoidChunk(worldData, version, chunkX, chunkZ, dimension);
         }
+        if (records != null) {
+            chunk.mRecordsFingerprint = fingerprint(records);
+            chunk.mHasRecordsFingerprint = true;
+        }
         return chunk;
     }
 
+    /**
+     * Fingerprint of records from {@link WorldData#getChunkRecords}.
+     */
+    public static long fingerprint(@NonNull byte[][] records) {
+        CRC32 crc = new CRC32();
+        Adler32 adler = new Adler32();
+        byte[] lengthBytes = new byte[4];
+        for (byte[] record : records) {
+            // Length first, so moving bytes between records changes the result.
+            int length = record == null ? -1 : record.length;
+            lengthBytes[0] = (byte) (length >> 24);
+            lengthBytes[1] = (byte) (length >> 16);
+            lengthBytes[2] = (byte) (length >> 8);
+            lengthBytes[3] = (byte) length;
+            crc.update(lengthBytes);
+            adler.update(lengthBytes);
+            if (record == null) continue;
+            crc.update(record);
+            adler.update(record);
+        }
+        return (crc.getValue() << 32) | adler.getValue();
+    }
+
+    /**
+     * Whether {@link #getRecordsFingerprint} describes what the chunk holds, which is only
+     * the case while it has neither unsaved nor saved changes.
+     */
+    public boolean hasRecordsFingerprint() {
+        return mHasRecordsFingerprint && !isDirty();
+    }
+
+    /**
+     * Fingerprint of the records the chunk was loaded from, see {@link #fingerprint}.
+     */
+    public long getRecordsFingerprint() {
+        return mRecordsFingerprint;
+    }
+
+    protected void invalidateRecordsFingerprint() {
+        mHasRecordsFingerprint = false;
+    }
+
     public final WorldData getWorldData() {
         return mWorldData.get();
     }
@@ -133,6 +193,16 @@ public abstract class Chunk {
     @NonNull
     abstract public BlockTemplate getBlockTemplate(int x, int y, int z, int layer);
 
+    /**
+     * Fills {@code out[y]} with the template at x, y, z for every y in [fromY, toY).
+     * Implementations may fill the rest of the touched sub-chunks too,
+     * so {@code out} should hold {@link #getHeightLimit()} entries.
+     */
+    public void copyColumnTemplates(int x, int z, int fromY, int toY, int layer, @NonNull BlockTemplate[] out) {
+        for (int y = fromY; y < toY; y++)
+            out[y] = getBlockTemplate(x, y, z, layer);
+    }
+
     @NonNull
     public Block getBlock(int x, int y, int z) {
         return getBlock(x, y, z, 0);
@@ -143,6 +213,28 @@ public abstract class Chunk {
 
     abstract public void setBlock(int x, int y, int z, int layer, @NonNull Block block);
 
+    /**
+     * Replaces every block of a box matching {@code matcher} with {@code replacement},
+     * like calling {@link #setBlock} for each of them. Bounds are inclusive.
+     *
+     * @return whether any block changed
+     */
+    public boolean replaceBlocks(int layer, @NonNull Predicate<Block> matcher, @NonNull Block replacement,
+                                 int fromX, int toX, int fromY, int toY, int fromZ, int toZ) {
+        boolean changed = false;
+        for (int x = fromX; x <= toX; x++) {
+            for (int z = fromZ; z <= toZ; z++) {
+                for (int y = fromY; y <= toY; y++) {
+                    Block block = getBlock(x, y, z, layer);
+                    if (!matcher.test(block) || block.equals(replacement)) continue;
+                    setBlock(x, y, z, layer, replacement);
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
     abstract public int getBlockLightValue(int x, int y, int z);
 
     abstract public int getSkyLightValue(int x, int y, int z);
@@ -153,6 +245,52 @@ public abstract class Chunk {
 
     abstract public void save() throws WorldData.WorldDBException, IOException;
 
+    /**
+     * Whether there are changes not written back to the db yet.
+     */
+    public boolean isDirty() {
+        return false;
+    }
+
+    /**
+     * Top-down view of this chunk, computed on first use and kept until the chunk is edited.
+     *
+     * @param withColors whether {@link SurfaceSummary#getColor} and the like are needed
+     */
+    @NonNull
+    public SurfaceSummary getSurfaceSummary(boolean withColors) {
+        SurfaceSummary summary = mSurfaceSummary;
+        if (summary == null || (withColors && !summary.hasColors())) {
+            // Concurrent renderers may both compute it, the results are the same.
+            int modifications = mSurfaceModifications.get();
+            summary = SurfaceSummary.compute(this, withColors);
+            mSurfaceSummary = summary;
+            // Edited meanwhile, it may be made of both states. An invalidation in between
+            // storing and checking clears it anyway.
+            if (mSurfaceModifications.get() != modifications) mSurfaceSummary = null;
+        }
+        return summary;
+    }
+
+    protected boolean hasSurfaceSummary() {
+        return mSurfaceSummary != null;
+    }
+
+    /**
+     * Call after a change is complete, a summary computed during it is dropped too.
+     */
+    protected void invalidateSurfaceSummary() {
+        mSurfaceModifications.incrementAndGet();
+        mSurfaceSummary = null;
+    }
+
+    /**
+     * Rough amount of heap held by this chunk, used to size the chunk cache.
+     */
+    public int getMemoryFootprint() {
+        return 256;
+    }
+
     public void deleteThis() throws Exception {
         // TODO: delete all with given prefix
         WorldData worldData = mWorldData.get();
@@ -160,6 +298,7 @@ public abstract class Chunk {
         worldData.removeFullChunk(mChunkX, mChunkZ, mDimension);
         // Prevent saving.
         mIsError = true;
+        invalidateRecordsFingerprint();
     }
 
     public final NBTChunkData getEntity() {
@@ -0,0 +1,442 @@
+package com.mithrilmania.blocktopograph.chunk;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mithrilmania.blocktopograph.Log;
+import com.mithrilmania.blocktopograph.WorldData;
+import com.mithrilmania.blocktopograph.map.Dimension;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunk cache shared by the render threads, the marker loader and the editors.
+ * <p>
+ * Entries are spread over independently locked stripes so concurrent tile renders
+ * don't serialize on a single monitor, keys are chunk coordinates packed into a long
+ * so a lookup never allocates, and capacity is expressed in estimated bytes instead
+ * of a chunk count. Evicted chunks that still carry unsaved changes are handed to a
+ * background writer rather than being saved on the thread that caused the eviction.
+ */
+public final class ChunkCache {
+
+    private static final int STRIPE_COUNT = 16;
+
+    private final WeakReference<WorldData> mWorldData;
+    private final Stripe[] mStripes;
+
+    private final ThreadPoolExecutor mWriter;
+
+    private final long mMaxBytes;
+
+    public ChunkCache(@NonNull WorldData worldData, long maxBytes) {
+        mWorldData = new WeakReference<>(worldData);
+        mMaxBytes = maxBytes;
+        mWriter = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "ChunkWriteBack");
+            thread.setDaemon(true);
+            return thread;
+        });
+        mWriter.allowCoreThreadTimeOut(true);
+        mStripes = new Stripe[STRIPE_COUNT];
+        long perStripe = Math.max(maxBytes / STRIPE_COUNT, 1);
+        for (int i = 0; i < STRIPE_COUNT; i++)
+            mStripes[i] = new Stripe(perStripe, mWriter);
+    }
+
+    /**
+     * Packs chunk coordinates into a single cache key.
+     * 28 bits per axis covers the whole playable area of a Bedrock world.
+     */
+    public static long key(int chunkX, int chunkZ, @NonNull Dimension dimension) {
+        return ((long) (chunkX & 0xFFFFFFF) << 36)
+                | ((long) (chunkZ & 0xFFFFFFF) << 8)
+                | (dimension.id & 0xFF);
+    }
+
+    private Stripe stripeFor(int chunkX, int chunkZ) {
+        // Neighbouring chunks land in different stripes, a tile render touches a block of them.
+        int h = chunkX * 0x9E3779B1 + chunkZ * 0x85EBCA6B;
+        return mStripes[(h ^ (h >>> 16)) & (STRIPE_COUNT - 1)];
+    }
+
+    @Nullable
+    public Chunk get(int chunkX, int chunkZ, @NonNull Dimension dimension,
+                     boolean createIfMissing, @Nullable Version createOfVersion) {
+        long key = key(chunkX, chunkZ, dimension);
+        Stripe stripe = stripeFor(chunkX, chunkZ);
+        Chunk chunk = stripe.get(key);
+        while (chunk == null) {
+            WorldData worldData = mWorldData.get();
+            if (worldData == null) return null;
+            // Load outside of the stripe lock, the db read is the slow part.
+            chunk = Chunk.create(worldData, chunkX, chunkZ, dimension, createIfMissing, createOfVersion);
+            chunk = stripe.putIfAbsent(key, chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * The chunk if it's cached or waiting to be written, never loads it.
+     */
+    @Nullable
+    public Chunk peek(int chunkX, int chunkZ, @NonNull Dimension dimension) {
+        return stripeFor(chunkX, chunkZ).peek(key(chunkX, chunkZ, dimension));
+    }
+
+    /**
+     * Blocks until all pending write-backs are finished.
+     */
+    public void flush() {
+        Future<?> barrier = mWriter.submit(() -> {
+        });
+        try {
+            barrier.get();
+        } catch (Exception e) {
+            Log.d(this, e);
+        }
+    }
+
+    /**
+     * Drops every cached chunk, saving the dirty ones on the calling thread.
+     */
+    public void evictAll() {
+        List<PendingWrite> evicted = new ArrayList<>();
+        for (Stripe stripe : mStripes) {
+            evicted.clear();
+            stripe.drainTo(evicted);
+            for (int i = 0, size = evicted.size(); i < size; i++)
+                stripe.writePending(evicted.get(i));
+        }
+        flush();
+    }
+
+    /**
+     * Drops every cached chunk without saving anything, dirty ones and those waiting for a
+     * write-back included. For when the records were changed under the cache.
+     */
+    public void discardAll() {
+        for (Stripe stripe : mStripes)
+            stripe.discardPending();
+        // A write-back already saving has to be done before the caller goes on.
+        flush();
+        for (Stripe stripe : mStripes)
+            stripe.clear();
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public long sizeInBytes() {
+        long size = 0;
+        for (Stripe stripe : mStripes)
+            size += stripe.size();
+        return size;
+    }
+
+    private static final class Entry {
+        final long key;
+        final Chunk chunk;
+        int weight;
+        Entry nextInBucket;
+        Entry newer;
+        Entry older;
+
+        Entry(long key, Chunk chunk) {
+            this.key = key;
+            this.chunk = chunk;
+            this.weight = chunk.getMemoryFootprint();
+        }
+    }
+
+    /**
+     * A dirty chunk that was evicted but not written yet.
+     */
+    private static final class PendingWrite {
+        final long key;
+        final Chunk chunk;
+        // Being saved outside of the stripe lock, the chunk must not be reloaded meanwhile.
+        boolean saving;
+        PendingWrite next;
+
+        PendingWrite(long key, Chunk chunk) {
+            this.key = key;
+            this.chunk = chunk;
+        }
+    }
+
+    /**
+     * Chained hash table on primitive keys with an intrusive LRU list.
+     * <p>
+     * A dirty chunk moves between the table and the pending writes only under the lock
+     * of its stripe, so it is always found in one of them until it's saved. A quick
+     * re-request picks the pending instance up instead of reading stale data from the db,
+     * or waits for the save if it has begun already.
+     */
+    private static final class Stripe {
+
+        private final long mMaxBytes;
+        private final Executor mWriter;
+        private Entry[] mTable = new Entry[32];
+        private int mCount;
+        private long mBytes;
+
+        // Head is the least recently used entry.
+        private Entry mEldest;
+        private Entry mNewest;
+
+        // Only a handful at a time, a list is enough.
+        private PendingWrite mPending;
+
+        Stripe(long maxBytes, @NonNull Executor writer) {
+            mMaxBytes = maxBytes;
+            mWriter = writer;
+        }
+
+        private static int index(long key, int length) {
+            int h = (int) (key ^ (key >>> 32));
+            h ^= h >>> 16;
+            return h & (length - 1);
+        }
+
+        @Nullable
+        private Entry find(long key) {
+            for (Entry e = mTable[index(key, mTable.length)]; e != null; e = e.nextInBucket)
+                if (e.key == key) return e;
+            return null;
+        }
+
+        @Nullable
+        private PendingWrite findPending(long key) {
+            for (PendingWrite p = mPending; p != null; p = p.next)
+                if (p.key == key) return p;
+            return null;
+        }
+
+        private boolean removePending(PendingWrite target) {
+            PendingWrite prev = null;
+            for (PendingWrite p = mPending; p != null; prev = p, p = p.next) {
+                if (p == target) {
+                    if (prev == null) mPending = p.next;
+                    else prev.next = p.next;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return whether a save had to be waited for
+         */
+        private boolean awaitSaved(long key) {
+            boolean waited = false;
+            boolean interrupted = false;
+            PendingWrite p;
+            while ((p = findPending(key)) != null && p.saving) {
+                waited = true;
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            return waited;
+        }
+
+        @Nullable
+        synchronized Chunk get(long key) {
+            awaitSaved(key);
+            Entry e = find(key);
+            if (e != null) {
+                touch(e);
+                // Chunks grow while sub-chunks are being loaded lazily.
+                int weight = e.chunk.getMemoryFootprint();
+                mBytes += weight - e.weight;
+                e.weight = weight;
+                return e.chunk;
+            }
+            PendingWrite pending = findPending(key);
+            if (pending == null) return null;
+            removePending(pending);
+            return insert(key, pending.chunk);
+        }
+
+        @Nullable
+        synchronized Chunk peek(long key) {
+            Entry e = find(key);
+            if (e != null) return e.chunk;
+            PendingWrite pending = findPending(key);
+            return pending == null ? null : pending.chunk;
+        }
+
+        /**
+         * Keeps what is cached or waiting to be written over a fresh load, the latter may be stale.
+         *
+         * @return null if the load may predate a save that just finished and has to be redone
+         */
+        @Nullable
+        synchronized Chunk putIfAbsent(long key, Chunk chunk) {
+            if (awaitSaved(key)) return null;
+            Entry e = find(key);
+            if (e != null) {
+                touch(e);
+                return e.chunk;
+            }
+            PendingWrite pending = findPending(key);
+            if (pending != null) {
+                removePending(pending);
+                chunk = pending.chunk;
+            }
+            return insert(key, chunk);
+        }
+
+        private Chunk insert(long key, Chunk chunk) {
+            int index = index(key, mTable.length);
+            Entry entry = new Entry(key, chunk);
+            entry.nextInBucket = mTable[index];
+            mTable[index] = entry;
+            linkNewest(entry);
+            mCount++;
+            mBytes += entry.weight;
+            if (mCount > mTable.length * 3 / 4) resize();
+            // Keep at least the new entry even if it alone exceeds the budget.
+            while (mBytes > mMaxBytes && mEldest != entry) {
+                Entry eldest = mEldest;
+                remove(eldest);
+                if (!eldest.chunk.isDirty()) continue;
+                PendingWrite pending = addPending(eldest);
+                mWriter.execute(() -> writePending(pending));
+            }
+            return chunk;
+        }
+
+        private PendingWrite addPending(Entry e) {
+            PendingWrite pending = new PendingWrite(e.key, e.chunk);
+            pending.next = mPending;
+            mPending = pending;
+            return pending;
+        }
+
+        /**
+         * Saves a chunk waiting for its write-back, unless it has been picked up by the
+         * cache again meanwhile. It is written when it's evicted next time then.
+         * The save runs outside of the lock, lookups of the chunk wait for it to finish.
+         */
+        void writePending(PendingWrite pending) {
+            synchronized (this) {
+                if (pending.saving || findPending(pending.key) != pending) return;
+                pending.saving = true;
+            }
+            try {
+                pending.chunk.save();
+            } catch (Exception e) {
+                Log.d(this, e);
+            } finally {
+                synchronized (this) {
+                    removePending(pending);
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * @param out receives the dirty chunks, which wait for a write-back
+         */
+        synchronized void drainTo(List<PendingWrite> out) {
+            for (Entry e = mEldest; e != null; e = e.newer) {
+                if (!e.chunk.isDirty()) continue;
+                out.add(addPending(e));
+            }
+            clear();
+        }
+
+        /**
+         * Forgets the chunks waiting for a write-back, except those being saved right now.
+         */
+        synchronized void discardPending() {
+            PendingWrite kept = null;
+            for (PendingWrite p = mPending, next; p != null; p = next) {
+                next = p.next;
+                if (!p.saving) continue;
+                p.next = kept;
+                kept = p;
+            }
+            mPending = kept;
+        }
+
+        synchronized void clear() {
+            mTable = new Entry[32];
+            mCount = 0;
+            mBytes = 0;
+            mEldest = null;
+            mNewest = null;
+        }
+
+        synchronized long size() {
+            return mBytes;
+        }
+
+        private void touch(Entry e) {
+            if (e == mNewest) return;
+            unlink(e);
+            linkNewest(e);
+        }
+
+        private void linkNewest(Entry e) {
+            e.older = mNewest;
+            e.newer = null;
+            if (mNewest != null) mNewest.newer = e;
+            mNewest = e;
+            if (mEldest == null) mEldest = e;
+        }
+
+        private void unlink(Entry e) {
+            if (e.older != null) e.older.newer = e.newer;
+            else mEldest = e.newer;
+            if (e.newer != null) e.newer.older = e.older;
+            else mNewest = e.older;
+            e.older = null;
+            e.newer = null;
+        }
+
+        private void remove(Entry target) {
+            int index = index(target.key, mTable.length);
+            Entry prev = null;
+            for (Entry e = mTable[index]; e != null; prev = e, e = e.nextInBucket) {
+                if (e == target) {
+                    if (prev == null) mTable[index] = e.nextInBucket;
+                    else prev.nextInBucket = e.nextInBucket;
+                    break;
+                }
+            }
+            unlink(target);
+            mCount--;
+            mBytes -= target.weight;
+        }
+
+        private void resize() {
+            Entry[] old = mTable;
+            Entry[] table = new Entry[old.length << 1];
+            for (Entry head : old) {
+                for (Entry e = head; e != null; ) {
+                    Entry next = e.nextInBucket;
+                    int index = index(e.key, table.length);
+                    e.nextInBucket = table[index];
+                    table[index] = e;
+                    e = next;
+                }
+            }
+            mTable = table;
+        }
+    }
+}
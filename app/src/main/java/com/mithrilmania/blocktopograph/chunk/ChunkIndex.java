@@ -0,0 +1,458 @@
+package com.mithrilmania.blocktopograph.chunk;
+
+import android.graphics.Rect;
+import android.util.LongSparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.litl.leveldb.DB;
+import com.litl.leveldb.Iterator;
+import com.mithrilmania.blocktopograph.Log;
+import com.mithrilmania.blocktopograph.WorldData;
+import com.mithrilmania.blocktopograph.map.Dimension;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Set of the chunks that exist in the world, per dimension, kept on disk between sessions.
+ * <p>
+ * Chunks are grouped into 32x32 regions, each a 1024 bit set, so a lookup is a binary
+ * search plus a bit test and never touches the db. The saved index is stamped with the
+ * db's last sequence number and thrown away if anything wrote to the world since,
+ * then it's rebuilt from a key-only scan in the background. Chunks created or deleted
+ * by this app update it in place. Until it's ready every chunk is reported as possibly present.
+ * It also notes whether a dimension has chunks of a version the app can't read, those are
+ * still listed as present.
+ * <p>
+ * Region bits are flipped in place with volatile writes. Only a new region copies the map
+ * of its dimension, so readers never lock.
+ */
+public final class ChunkIndex {
+
+    /**
+     * Flags of {@link #getUnsupported}.
+     */
+    public static final int UNSUPPORTED_CORRUPT = 1, UNSUPPORTED_OLD = 2;
+
+    private static final int MAGIC = 0x42544349;
+    private static final int FORMAT_VERSION = 2;
+    private static final int VERSION_KEYS_PER_BATCH = 4096;
+    private static final int REGION_SHIFT = 5;
+    private static final int REGION_MASK = (1 << REGION_SHIFT) - 1;
+    private static final int WORDS_PER_REGION = (1 << (REGION_SHIFT * 2)) / 64;
+
+    private final WeakReference<WorldData> mWorldData;
+    private final File mFolder;
+    private volatile boolean mReady;
+    private boolean mLoadStarted;
+
+    @Nullable
+    private Thread mLoader;
+
+    // Per dimension ordinal. Maps are replaced, never modified, once published.
+    private volatile LongSparseArray<AtomicLongArray>[] mRegions;
+
+    // Per dimension ordinal, UNSUPPORTED_* flags. Only a rebuild clears them.
+    private final int[] mUnsupported = new int[Dimension.values().length];
+
+    // Changes made while the index is still being built, applied once it's done.
+    private final List<long[]> mPendingChanges = new ArrayList<>();
+    private boolean mDirty;
+
+    @SuppressWarnings("unchecked")
+    public ChunkIndex(@NonNull WorldData worldData, @NonNull File folder) {
+        mWorldData = new WeakReference<>(worldData);
+        mFolder = folder;
+        mRegions = new LongSparseArray[Dimension.values().length];
+    }
+
+    private static long regionKey(int regionX, int regionZ) {
+        return ((long) regionX << 32) | (regionZ & 0xFFFFFFFFL);
+    }
+
+    private static int bitIndex(int chunkX, int chunkZ) {
+        return ((chunkZ & REGION_MASK) << REGION_SHIFT) | (chunkX & REGION_MASK);
+    }
+
+    private File getFile(Dimension dimension) {
+        return new File(mFolder, "chunks_" + dimension.dataName + ".idx");
+    }
+
+    /**
+     * Starts loading or building the index in the background, if not done yet.
+     */
+    public synchronized void load() {
+        if (mLoadStarted) return;
+        mLoadStarted = true;
+        Thread thread = new Thread(this::loadOrBuild, "ChunkIndex");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        mLoader = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops loading or building and waits for it, call before closing the db.
+     * The next query starts over.
+     */
+    public void cancel() {
+        Thread thread;
+        synchronized (this) {
+            thread = mLoader;
+        }
+        if (thread == null) return;
+        thread.interrupt();
+        boolean interrupted = false;
+        for (; ; ) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    public boolean isReady() {
+        return mReady;
+    }
+
+    /**
+     * Blocks until the index can be queried.
+     */
+    public synchronized void awaitReady() throws InterruptedException {
+        while (!mReady) {
+            load();
+            wait();
+        }
+    }
+
+    /**
+     * Whether a chunk may exist. Answers true while the index is not ready,
+     * so it's always safe to skip a chunk when this returns false.
+     */
+    public boolean mightContain(@NonNull Dimension dimension, int chunkX, int chunkZ) {
+        if (!isReady()) {
+            load();
+            return true;
+        }
+        LongSparseArray<AtomicLongArray> regions = mRegions[dimension.ordinal()];
+        // Failed to load, never hide anything.
+        if (regions == null) return true;
+        AtomicLongArray bits = regions.get(regionKey(chunkX >> REGION_SHIFT, chunkZ >> REGION_SHIFT));
+        if (bits == null) return false;
+        int index = bitIndex(chunkX, chunkZ);
+        return (bits.get(index >> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Whether any chunk of an area may exist, same rules as {@link #mightContain}.
+     *
+     * @param maxChunkX exclusive
+     * @param maxChunkZ exclusive
+     */
+    public boolean mightContainAny(@NonNull Dimension dimension, int minChunkX, int minChunkZ,
+                                   int maxChunkX, int maxChunkZ) {
+        if (!isReady()) {
+            load();
+            return true;
+        }
+        LongSparseArray<AtomicLongArray> regions = mRegions[dimension.ordinal()];
+        if (regions == null) return true;
+        for (int z = minChunkZ; z < maxChunkZ; z++) {
+            for (int x = minChunkX; x < maxChunkX; x++) {
+                AtomicLongArray bits = regions.get(regionKey(x >> REGION_SHIFT, z >> REGION_SHIFT));
+                if (bits == null) continue;
+                int index = bitIndex(x, z);
+                if ((bits.get(index >> 6) & (1L << index)) != 0) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether chunks of a version the app can't read were seen in a dimension.
+     *
+     * @return {@code UNSUPPORTED_*} flags, 0 if the index is not ready
+     */
+    public synchronized int getUnsupported(@NonNull Dimension dimension) {
+        return isReady() ? mUnsupported[dimension.ordinal()] : 0;
+    }
+
+    private static int unsupportedFlags(@Nullable byte[] version) {
+        switch (Version.getVersion(version)) {
+            case ERROR:
+            case NULL:
+                return UNSUPPORTED_CORRUPT;
+            case OLD_LIMITED:
+                return UNSUPPORTED_OLD;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Bounding box of all chunks in a dimension in chunk coordinates, inclusive.
+     *
+     * @return null if the index is not ready or the dimension has no chunk
+     */
+    @Nullable
+    public Rect getBounds(@NonNull Dimension dimension) {
+        if (!isReady()) return null;
+        LongSparseArray<AtomicLongArray> regions = mRegions[dimension.ordinal()];
+        if (regions == null) return null;
+        Rect rect = null;
+        for (int i = 0, size = regions.size(); i < size; i++) {
+            long key = regions.keyAt(i);
+            int baseX = ((int) (key >> 32)) << REGION_SHIFT;
+            int baseZ = ((int) key) << REGION_SHIFT;
+            AtomicLongArray bits = regions.valueAt(i);
+            for (int w = 0; w < WORDS_PER_REGION; w++) {
+                for (long word = bits.get(w); word != 0; word &= word - 1) {
+                    int index = (w << 6) | Long.numberOfTrailingZeros(word);
+                    int x = baseX | (index & REGION_MASK);
+                    int z = baseZ | (index >> REGION_SHIFT);
+                    if (rect == null) rect = new Rect(x, z, x, z);
+                    else rect.union(x, z);
+                }
+            }
+        }
+        return rect;
+    }
+
+    /**
+     * Whether a raw record tells if a chunk exists, that is whether it's a version record.
+     */
+    public static boolean isIndexed(@NonNull byte[] key) {
+        if (key.length != 9 && key.length != 13) return false;
+        byte tag = key[key.length - 1];
+        return tag == ChunkTag.VERSION_PRE16.dataID || tag == ChunkTag.VERSION.dataID;
+    }
+
+    /**
+     * Keeps the index in sync with a raw record written to the db, only version records matter.
+     *
+     * @param value null if the record was deleted
+     */
+    public void onRecordWritten(@NonNull byte[] key, @Nullable byte[] value) {
+        if (!isIndexed(key)) return;
+        ByteBuffer buffer = ByteBuffer.wrap(key).order(ByteOrder.LITTLE_ENDIAN);
+        Dimension dimension = key.length == 9 ? Dimension.OVERWORLD : Dimension.getDimension(buffer.getInt(8));
+        if (dimension == null) return;
+        change(dimension, buffer.getInt(0), buffer.getInt(4), value != null,
+                value == null ? 0 : unsupportedFlags(value));
+    }
+
+    private synchronized void change(Dimension dimension, int chunkX, int chunkZ, boolean present,
+                                     int unsupported) {
+        if (!isReady()) {
+            mPendingChanges.add(new long[]{dimension.ordinal(), chunkX, chunkZ, present ? 1 : 0, unsupported});
+            return;
+        }
+        int ordinal = dimension.ordinal();
+        if ((mUnsupported[ordinal] & unsupported) != unsupported) {
+            mUnsupported[ordinal] |= unsupported;
+            mDirty = true;
+        }
+        LongSparseArray<AtomicLongArray>[] all = mRegions;
+        LongSparseArray<AtomicLongArray> regions = all[ordinal];
+        if (regions == null) return;
+        long key = regionKey(chunkX >> REGION_SHIFT, chunkZ >> REGION_SHIFT);
+        int index = bitIndex(chunkX, chunkZ);
+        AtomicLongArray bits = regions.get(key);
+        if (bits == null) {
+            if (!present) return;
+            // The map is shared with readers, a new region goes into a copy.
+            bits = new AtomicLongArray(WORDS_PER_REGION);
+            bits.set(index >> 6, 1L << index);
+            regions = regions.clone();
+            regions.put(key, bits);
+            all = all.clone();
+            all[ordinal] = regions;
+            mRegions = all;
+        } else {
+            long word = bits.get(index >> 6);
+            // Only changes are made under the lock, a plain read-modify-write is enough.
+            bits.set(index >> 6, present ? word | (1L << index) : word & ~(1L << index));
+        }
+        mDirty = true;
+    }
+
+    private static void set(LongSparseArray<AtomicLongArray> regions, int chunkX, int chunkZ) {
+        long key = regionKey(chunkX >> REGION_SHIFT, chunkZ >> REGION_SHIFT);
+        AtomicLongArray bits = regions.get(key);
+        if (bits == null) {
+            bits = new AtomicLongArray(WORDS_PER_REGION);
+            regions.put(key, bits);
+        }
+        int index = bitIndex(chunkX, chunkZ);
+        bits.set(index >> 6, bits.get(index >> 6) | (1L << index));
+    }
+
+    private void loadOrBuild() {
+        WorldData worldData = mWorldData.get();
+        try {
+            if (worldData != null) {
+                worldData.openDB();
+                DB db = worldData.db;
+                if (!readAll(db.getLatestSequenceNumber())) build(db);
+            }
+        } catch (InterruptedException e) {
+            // Cancelled, the next query starts over.
+            synchronized (this) {
+                mLoader = null;
+                mLoadStarted = false;
+                notifyAll();
+            }
+            return;
+        } catch (Exception e) {
+            // The regions stay null and every chunk is reported as possibly present.
+            Log.d(this, e);
+        }
+        synchronized (this) {
+            mLoader = null;
+            mReady = true;
+            for (long[] change : mPendingChanges)
+                change(Dimension.values()[(int) change[0]], (int) change[1], (int) change[2], change[3] != 0,
+                        (int) change[4]);
+            mPendingChanges.clear();
+            notifyAll();
+        }
+    }
+
+    private void build(DB db) throws InterruptedException {
+        Log.d(this, "Rebuilding chunk index");
+        @SuppressWarnings("unchecked")
+        LongSparseArray<AtomicLongArray>[] built = new LongSparseArray[Dimension.values().length];
+        for (int i = 0; i < built.length; i++) built[i] = new LongSparseArray<>();
+        int[] unsupported = new int[built.length];
+
+        ByteBuffer batch = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer keyView = batch.duplicate();
+        // The version records found in a batch, looked up in bulk to tell unreadable chunks.
+        ByteBuffer versionKeys = ByteBuffer.allocateDirect(13 * VERSION_KEYS_PER_BATCH);
+        int[] versionKeyLengths = new int[VERSION_KEYS_PER_BATCH];
+        int[] versionDimensions = new int[VERSION_KEYS_PER_BATCH];
+        Iterator iterator = db.iterator();
+        try {
+            iterator.seekToFirst();
+            for (int count; (count = iterator.nextBatch(batch, VERSION_KEYS_PER_BATCH, batch.capacity(), false)) > 0; batch.clear()) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                versionKeys.clear();
+                int versionKeyCount = 0;
+                for (int i = 0; i < count; i++) {
+                    int keyLength = batch.getInt();
+                    int keyStart = batch.position();
+                    batch.position(keyStart + keyLength);
+                    // A chunk exists if it has a version record.
+                    if (keyLength != 9 && keyLength != 13) continue;
+                    byte tag = batch.get(keyStart + keyLength - 1);
+                    if (tag != ChunkTag.VERSION_PRE16.dataID && tag != ChunkTag.VERSION.dataID)
+                        continue;
+                    Dimension dimension = keyLength == 9 ? Dimension.OVERWORLD
+                            : Dimension.getDimension(batch.getInt(keyStart + 8));
+                    if (dimension == null) continue;
+                    set(built[dimension.ordinal()], batch.getInt(keyStart), batch.getInt(keyStart + 4));
+                    keyView.limit(keyStart + keyLength).position(keyStart);
+                    versionKeys.put(keyView);
+                    versionKeyLengths[versionKeyCount] = keyLength;
+                    versionDimensions[versionKeyCount++] = dimension.ordinal();
+                }
+                if (versionKeyCount == 0) continue;
+                versionKeys.flip();
+                byte[][] versions = db.multiGet(versionKeys, versionKeyLengths, versionKeyCount);
+                for (int i = 0; i < versionKeyCount; i++)
+                    unsupported[versionDimensions[i]] |= unsupportedFlags(versions[i]);
+            }
+        } finally {
+            iterator.close();
+        }
+        synchronized (this) {
+            mRegions = built;
+            System.arraycopy(unsupported, 0, mUnsupported, 0, unsupported.length);
+            mDirty = true;
+        }
+    }
+
+    private boolean readAll(long sequence) {
+        @SuppressWarnings("unchecked")
+        LongSparseArray<AtomicLongArray>[] read = new LongSparseArray[Dimension.values().length];
+        int[] unsupported = new int[read.length];
+        for (Dimension dimension : Dimension.values()) {
+            File file = getFile(dimension);
+            if (!file.isFile()) return false;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) return false;
+                if (in.readLong() != sequence) return false;
+                unsupported[dimension.ordinal()] = in.readInt();
+                int count = in.readInt();
+                LongSparseArray<AtomicLongArray> regions = new LongSparseArray<>(count);
+                for (int i = 0; i < count; i++) {
+                    long key = in.readLong();
+                    AtomicLongArray bits = new AtomicLongArray(WORDS_PER_REGION);
+                    for (int w = 0; w < WORDS_PER_REGION; w++) bits.set(w, in.readLong());
+                    regions.append(key, bits);
+                }
+                read[dimension.ordinal()] = regions;
+            } catch (IOException e) {
+                Log.d(this, e);
+                return false;
+            }
+        }
+        synchronized (this) {
+            mRegions = read;
+            System.arraycopy(unsupported, 0, mUnsupported, 0, unsupported.length);
+        }
+        return true;
+    }
+
+    /**
+     * Writes the index if it changed, stamped with the current state of the db.
+     * Call before closing the db, after all writes have been made.
+     */
+    public synchronized void save(@NonNull DB db) {
+        LongSparseArray<AtomicLongArray>[] all = mRegions;
+        if (!isReady() || !mDirty || all[0] == null) return;
+        if (!mFolder.isDirectory() && !mFolder.mkdirs()) return;
+        long sequence = db.getLatestSequenceNumber();
+        for (Dimension dimension : Dimension.values()) {
+            LongSparseArray<AtomicLongArray> regions = all[dimension.ordinal()];
+            File file = getFile(dimension);
+            File temp = new File(mFolder, file.getName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(sequence);
+                out.writeInt(mUnsupported[dimension.ordinal()]);
+                out.writeInt(regions.size());
+                for (int i = 0, size = regions.size(); i < size; i++) {
+                    out.writeLong(regions.keyAt(i));
+                    AtomicLongArray bits = regions.valueAt(i);
+                    for (int w = 0; w < WORDS_PER_REGION; w++) out.writeLong(bits.get(w));
+                }
+            } catch (IOException e) {
+                Log.d(this, e);
+                return;
+            }
+            if (!temp.renameTo(file)) {
+                Log.d(this, "Failed to save chunk index for " + dimension.dataName);
+                return;
+            }
+        }
+        mDirty = false;
+    }
+}
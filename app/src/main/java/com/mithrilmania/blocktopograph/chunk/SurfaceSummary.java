@@ -0,0 +1,151 @@
+package com.mithrilmania.blocktopograph.chunk;
+
+import androidx.annotation.NonNull;
+
+import com.mithrilmania.blocktopograph.block.BlockTemplate;
+import com.mithrilmania.blocktopograph.block.BlockTemplates;
+
+/**
+ * What a chunk looks like from above, per block column: height, biome, grass color
+ * and the color of the visible blocks blended top down, before any shading.
+ * <p>
+ * Computed once per loaded chunk so the top-down renderers don't walk sub-chunks again
+ * on every map type switch or zoom level. Dropped when a block or biome of the chunk changes.
+ */
+public final class SurfaceSummary {
+
+    public static final int SIZE_IN_BYTES = 256 * (4 + 4 + 2 + 2 + 1 + 1) + 96;
+
+    // Blending stops once less than this much light would pass through.
+    private static final float ALPHA_THRESHOLD = .1f;
+
+    private final int[] mColor = new int[256];
+    private final int[] mGrassColor = new int[256];
+    private final short[] mHeight = new short[256];
+    private final short[] mSurfaceY = new short[256];
+    private final byte[] mBiome = new byte[256];
+    private final byte[] mBlockLight = new byte[256];
+    private final boolean mHasColors;
+
+    private SurfaceSummary(boolean hasColors) {
+        mHasColors = hasColors;
+    }
+
+    private static int index(int x, int z) {
+        return (z << 4) | x;
+    }
+
+    /**
+     * @param withColors whether to walk the columns for colors, otherwise only the
+     *                   2d data is read and no sub-chunk is touched
+     */
+    @NonNull
+    static SurfaceSummary compute(@NonNull Chunk chunk, boolean withColors) {
+        SurfaceSummary summary = new SurfaceSummary(withColors);
+        BlockTemplate air = BlockTemplates.getAirTemplate();
+        BlockTemplate[] column = new BlockTemplate[chunk.getHeightLimit()];
+
+        for (int z = 0; z < 16; z++) {
+            for (int x = 0; x < 16; x++) {
+                int index = index(x, z);
+                int y = chunk.getHeightMapValue(x, z);
+                int grassColor = chunk.getGrassColor(x, z);
+                summary.mHeight[index] = (short) y;
+                summary.mGrassColor[index] = grassColor;
+                summary.mBiome[index] = (byte) chunk.getBiome(x, z);
+                if (!withColors) continue;
+
+                float alphaRemain = 1f;
+                float finalR = 0f;
+                float finalG = 0f;
+                float finalB = 0f;
+
+                // extract colour components as normalized doubles, from ARGB format
+                float biomeR = ((grassColor >> 16) & 0xff) / 255f;
+                float biomeG = ((grassColor >> 8) & 0xff) / 255f;
+                float biomeB = (grassColor & 0xff) / 255f;
+
+                y = Math.min(y, column.length) - 1;
+                for (int loadedFrom = Integer.MAX_VALUE; y >= 0 && alphaRemain >= ALPHA_THRESHOLD; y--) {
+
+                    // One sub-chunk of the column at a time, most columns end in the first.
+                    if (y < loadedFrom) {
+                        loadedFrom = y & ~0xf;
+                        chunk.copyColumnTemplates(x, z, loadedFrom, y + 1, 0, column);
+                    }
+                    BlockTemplate blockTemplate = column[y];
+
+                    if (air.equals(blockTemplate)) continue;//skip air blocks
+
+                    int color = blockTemplate.getColor();
+
+                    // no need to process block if it is fully transparent
+                    int alpha = color >>> 24;
+                    if (alpha == 0) continue;
+
+                    float blendA = alpha / 255f;
+
+                    // alpha blend and multiply
+                    float blendR = alphaRemain * blendA * (((color >> 16) & 0xff) / 255f);
+                    float blendG = alphaRemain * blendA * (((color >> 8) & 0xff) / 255f);
+                    float blendB = alphaRemain * blendA * ((color & 0xff) / 255f);
+
+                    //blend biome-colored blocks
+                    if (blockTemplate.isHasBiomeShading()) {
+                        blendR *= biomeR;
+                        blendG *= biomeG;
+                        blendB *= biomeB;
+                    }
+
+                    finalR += blendR;
+                    finalG += blendG;
+                    finalB += blendB;
+                    alphaRemain *= 1f - blendA;
+                }
+
+                summary.mSurfaceY[index] = (short) y;
+                // The block above where the walk stopped lights the surface.
+                summary.mBlockLight[index] = (byte) chunk.getBlockLightValue(x, y + 1, z);
+                summary.mColor[index] = 0xff000000
+                        | (Math.round(Math.min(finalR, 1f) * 255f) << 16)
+                        | (Math.round(Math.min(finalG, 1f) * 255f) << 8)
+                        | Math.round(Math.min(finalB, 1f) * 255f);
+            }
+        }
+        return summary;
+    }
+
+    public boolean hasColors() {
+        return mHasColors;
+    }
+
+    /**
+     * Blended color of the visible blocks of a column, opaque, without shading.
+     */
+    public int getColor(int x, int z) {
+        return mColor[index(x, z)];
+    }
+
+    /**
+     * Height below the last block blended into {@link #getColor}, used for slope shading.
+     */
+    public int getSurfaceY(int x, int z) {
+        return mSurfaceY[index(x, z)];
+    }
+
+    public int getBlockLight(int x, int z) {
+        return mBlockLight[index(x, z)] & 0xff;
+    }
+
+    public int getHeight(int x, int z) {
+        return mHeight[index(x, z)];
+    }
+
+    public int getBiome(int x, int z) {
+        return mBiome[index(x, z)];
+    }
+
+    public int getGrassColor(int x, int z) {
+        return mGrassColor[index(x, z)];
+    }
+}
@@ -11,6 +11,7 @@ import com.mithrilmania.blocktopograph.map.Dimension;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.function.Predicate;
 
 public abstract class TerrainSubChunk {
 
@@ -80,11 +81,41 @@ public abstract class TerrainSubChunk {
     @NonNull
     abstract public BlockTemplate getBlockTemplate(int x, int y, int z, int layer);
 
+    /**
+     * Copies the templates of a 16 block column, bottom up, into {@code out} from {@code offset}.
+     */
+    public void copyColumnTemplates(int x, int z, int layer, @NonNull BlockTemplate[] out, int offset) {
+        for (int y = 0; y < 16; y++)
+            out[offset + y] = getBlockTemplate(x, y, z, layer);
+    }
+
     @NonNull
     abstract public Block getBlock(int x, int y, int z, int layer);
 
     abstract public void setBlock(int x, int y, int z, int layer, @NonNull Block block);
 
+    /**
+     * Replaces every block of a box matching {@code matcher} with {@code replacement}.
+     * Bounds are inclusive, in sub-chunk coordinates.
+     *
+     * @return whether any block changed
+     */
+    public boolean replaceBlocks(int layer, @NonNull Predicate<Block> matcher, @NonNull Block replacement,
+                                 int fromX, int toX, int fromY, int toY, int fromZ, int toZ) {
+        boolean changed = false;
+        for (int x = fromX; x <= toX; x++) {
+            for (int z = fromZ; z <= toZ; z++) {
+                for (int y = fromY; y <= toY; y++) {
+                    Block block = getBlock(x, y, z, layer);
+                    if (!matcher.test(block) || block.equals(replacement)) continue;
+                    setBlock(x, y, z, layer, replacement);
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
     abstract public int getBlockLightValue(int x, int y, int z);
 
     abstract public int getSkyLightValue(int x, int y, int z);
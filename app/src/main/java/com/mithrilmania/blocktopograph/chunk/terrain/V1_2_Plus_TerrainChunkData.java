@@ -6,12 +6,11 @@ import com.mithrilmania.blocktopograph.block.KnownBlockRepr;
 import com.mithrilmania.blocktopograph.chunk.Chunk;
 import com.mithrilmania.blocktopograph.chunk.ChunkTag;
 import com.mithrilmania.blocktopograph.map.Biome;
-import com.mithrilmania.blocktopograph.nbt.convert.NBTInputStream;
+import com.mithrilmania.blocktopograph.nbt.convert.NBTBufferReader;
 import com.mithrilmania.blocktopograph.nbt.tags.CompoundTag;
 import com.mithrilmania.blocktopograph.nbt.tags.ShortTag;
 import com.mithrilmania.blocktopograph.nbt.tags.StringTag;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -116,16 +115,12 @@ public class V1_2_Plus_TerrainChunkData extends TerrainChunkData {
         //Construct the palette. Each item is a piece of nbt data.
         palette = new ArrayList<>(16);
 
-        //NBT reader requires a stream.
-        ByteArrayInputStream bais = new ByteArrayInputStream(raw.array());
-        bais.skip(raw.position());
-
-        //Wrap it.
-        NBTInputStream nis = new NBTInputStream(bais, false);
+        //Reads in place, moving raw past the palette.
+        NBTBufferReader reader = new NBTBufferReader(raw);
         for (int i = 0; i < psize; i++) {
 
             //Read a piece of nbt data, represented by a root CompoundTag.
-            CompoundTag tag = (CompoundTag) nis.readTag();
+            CompoundTag tag = (CompoundTag) reader.readTag();
 
             //Read `name` and `val` then resolve the `name` into numeric id.
             String name = ((StringTag) tag.getChildTagByKey("name")).getValue();
@@ -136,8 +131,6 @@ public class V1_2_Plus_TerrainChunkData extends TerrainChunkData {
                             << 8 | data);
         }
 
-        //If one day we need to read more BlockStorage's, this line helps.
-        raw.position(raw.position() + nis.getReadCount());
     }
 
     @Override
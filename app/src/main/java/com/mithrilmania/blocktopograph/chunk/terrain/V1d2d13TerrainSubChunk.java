@@ -1,8 +1,7 @@
 package com.mithrilmania.blocktopograph.chunk.terrain;
 
-import android.util.Pair;
-
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -17,7 +16,7 @@ import com.mithrilmania.blocktopograph.block.BlockType;
 import com.mithrilmania.blocktopograph.block.blockproperty.BlockProperty;
 import com.mithrilmania.blocktopograph.chunk.ChunkTag;
 import com.mithrilmania.blocktopograph.map.Dimension;
-import com.mithrilmania.blocktopograph.nbt.convert.NBTInputStream;
+import com.mithrilmania.blocktopograph.nbt.convert.NBTBufferReader;
 import com.mithrilmania.blocktopograph.nbt.convert.NBTOutputStream;
 import com.mithrilmania.blocktopograph.nbt.tags.ByteTag;
 import com.mithrilmania.blocktopograph.nbt.tags.CompoundTag;
@@ -25,7 +24,6 @@ import com.mithrilmania.blocktopograph.nbt.tags.IntTag;
 import com.mithrilmania.blocktopograph.nbt.tags.StringTag;
 import com.mithrilmania.blocktopograph.util.LittleEndianOutputStream;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -35,6 +33,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -110,7 +109,21 @@ public final class V1d2d13TerrainSubChunk extends TerrainSubChunk {
         if (mIsError) return BlockTemplates.getAirTemplate();
         BlockStorage storage = mStorages[layer];
         if (storage == null) return BlockTemplates.getAirTemplate();
-        return storage.getBlock(x, y, z).second;
+        return storage.getRenderPalette()[storage.getPaletteIndex(x, y, z)];
+    }
+
+    @Override
+    public void copyColumnTemplates(int x, int z, int layer, @NonNull BlockTemplate[] out, int offset) {
+        BlockStorage storage = mIsError ? null : mStorages[layer];
+        if (storage == null) {
+            Arrays.fill(out, offset, offset + 16, BlockTemplates.getAirTemplate());
+            return;
+        }
+        BlockTemplate[] renderPalette = storage.getRenderPalette();
+        short[] indices = storage.getPaletteIndices();
+        // Blocks of a column are stored next to each other, bottom up.
+        for (int i = getOffset(x, 0, z), end = i + 16; i < end; i++, offset++)
+            out[offset] = renderPalette[indices[i]];
     }
 
     @NonNull
@@ -119,7 +132,7 @@ public final class V1d2d13TerrainSubChunk extends TerrainSubChunk {
         if (mIsError) throw new RuntimeException();
         BlockStorage storage = mStorages[layer];
         if (storage == null) return BlockTemplates.getAirTemplate().getBlock();
-        return storage.getBlock(x, y, z).first;
+        return storage.getPalette().get(storage.getPaletteIndex(x, y, z));
     }
 
     @Override
@@ -142,6 +155,27 @@ public final class V1d2d13TerrainSubChunk extends TerrainSubChunk {
         storage.setBlockIfSpace(x, y, z, block);
     }
 
+    @Override
+    public boolean replaceBlocks(int layer, @NonNull Predicate<Block> matcher, @NonNull Block replacement,
+                                 int fromX, int toX, int fromY, int toY, int fromZ, int toZ) {
+
+        if (mIsError) throw new RuntimeException();
+
+        BlockStorage storage = mStorages[layer];
+        if (storage == null) {
+            // A missing storage is all air.
+            if (!matcher.test(BlockTemplates.getAirTemplate().getBlock())) return false;
+            if (layer > 0 && !mIsDualStorageSupported) throw new RuntimeException();
+            storage = createEmptyBlockStorage(layer);
+        }
+
+        BlockStorage replaced = BlockStorage.replace(storage, matcher, replacement,
+                fromX, toX, fromY, toY, fromZ, toZ);
+        if (replaced == null) return false;
+        mStorages[layer] = replaced;
+        return true;
+    }
+
     @Override
     public int getBlockLightValue(int x, int y, int z) {
         return 0;
@@ -163,6 +197,16 @@ public final class V1d2d13TerrainSubChunk extends TerrainSubChunk {
 
         if (mIsError) return;
 
+        worldData.writeChunkData(chunkX, chunkZ, ChunkTag.TERRAIN, dimension, (byte) which, true, serialize());
+
+    }
+
+    /**
+     * The record the sub-chunk is saved as.
+     */
+    @NonNull
+    byte[] serialize() throws IOException {
+
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         LittleEndianOutputStream leos = new LittleEndianOutputStream(baos);
 
@@ -179,13 +223,16 @@ public final class V1d2d13TerrainSubChunk extends TerrainSubChunk {
         }
         leos.flush();
 
-        byte[] arr = baos.toByteArray();
-        worldData.writeChunkData(chunkX, chunkZ, ChunkTag.TERRAIN, dimension, (byte) which, true, arr);
-
+        return baos.toByteArray();
     }
 
     private static class BlockStorage {
 
+        private static final int PALETTE_CACHE_LIMIT = 8192;
+
+        // Palette entry bytes -> block, shared by all storages.
+        private static final ConcurrentHashMap<ByteBuffer, Block> paletteCache = new ConcurrentHashMap<>();
+
         public static final String PALETTE_KEY_ROOT = "";
         public static final String PALETTE_KEY_NAME = "name";
         public static final String PALETTE_KEY_STATES = "states";
@@ -196,12 +243,32 @@ public final class V1d2d13TerrainSubChunk extends TerrainSubChunk {
         // records is a view into raw
         private final IntBuffer records;
 
-        private final List<Block> palette;
+        // Palette entries of a loaded storage are decoded on first use, see ensurePalette.
+        private List<Block> palette;
+
+        private List<BlockTemplate> renderPalette;
+
+        // Record the palette of a loaded storage is in, null once decoded.
+        private byte[] paletteRaw;
 
-        private final List<BlockTemplate> renderPalette;
+        // Where each palette entry starts in paletteRaw, the last one is where the palette ends.
+        private int[] paletteOffsets;
+
+        private volatile boolean paletteDecoded;
+
+        // Bytes of the palette entries that could not be decoded, by index, written back as
+        // they were while the entry is not replaced. Null if all were decoded.
+        @Nullable
+        private byte[][] undecodedEntries;
 
         private final int blockCodeLenth;
 
+        // Unpacked palette index of every block, decoded on first read.
+        private volatile short[] indices;
+
+        // Array copy of renderPalette, rebuilt when the palette grows.
+        private volatile BlockTemplate[] renderPaletteArray;
+
         private BlockStorage() {
             raw = new byte[512];
             ByteBuffer bbuff = ByteBuffer.wrap(raw);
@@ -213,6 +280,7 @@ public final class V1d2d13TerrainSubChunk extends TerrainSubChunk {
             var airTemplate = BlockTemplates.getAirTemplate();
             renderPalette.add(airTemplate);
             palette.add(airTemplate.getBlock());
+            paletteDecoded = true;
 
             blockCodeLenth = 1;
         }
@@ -245,31 +313,27 @@ public final class V1d2d13TerrainSubChunk extends TerrainSubChunk {
 //            throw new IOException("psize > most possible bound");
 //        }
 
-            //Construct the palette. Each item is a piece of nbt data.
-            palette = new ArrayList<>(16);
-            renderPalette = new ArrayList<>(16);
+            if (psize < 0 || psize > 4096) throw new IOException("Bad palette size " + psize);
 
-            //NBT reader requires a stream.
-            var bais = new ByteArrayInputStream(buffer.array());
-
-            // Skip for byte array would not fail.
-            //noinspection ResultOfMethodCallIgnored
-            bais.skip(buffer.position());
-
-            //Wrap it.
-            var nis = new NBTInputStream(bais, false);
-            for (int i = 0; i < psize; i++)
-                //Read a piece of nbt data, represented by a root CompoundTag.
-                addToPalette(deserializeBlock((CompoundTag) nis.readTag()));
-
-            //If one day we need to read more BlockStorage's, this line helps.
-            buffer.position(buffer.position() + nis.getReadCount());
+            // Each item is a piece of nbt data, only find where they are for now.
+            paletteRaw = buffer.array();
+            paletteOffsets = new int[psize + 1];
+            var reader = new NBTBufferReader(buffer);
+            for (int i = 0; i < psize; i++) {
+                paletteOffsets[i] = buffer.position();
+                reader.skipTag();
+            }
+            //If one day we need to read more BlockStorage's, the buffer is past this one.
+            paletteOffsets[psize] = buffer.position();
         }
 
         private BlockStorage(@NonNull BlockStorage old) {
             blockCodeLenth = old.blockCodeLenth + 1;
+            old.ensurePalette();
             palette = new ArrayList<>(old.palette);
             renderPalette = new ArrayList<>(old.renderPalette);
+            undecodedEntries = old.undecodedEntries == null ? null : old.undecodedEntries.clone();
+            paletteDecoded = true;
             int capa_new = 32 / blockCodeLenth;
             int capa_old = 32 / old.blockCodeLenth;
             int stick = 4095 / capa_new + 1;
@@ -308,19 +372,100 @@ public final class V1d2d13TerrainSubChunk extends TerrainSubChunk {
             return new BlockStorage(storage);
         }
 
+        /**
+         * Decodes the palette of a loaded storage, entries seen before in any storage are
+         * taken from the cache rather than parsed.
+         */
+        private void ensurePalette() {
+            if (paletteDecoded) return;
+            synchronized (this) {
+                if (paletteDecoded) return;
+                int size = paletteOffsets.length - 1;
+                List<Block> blocks = new ArrayList<>(Math.max(size, 4));
+                List<BlockTemplate> templates = new ArrayList<>(Math.max(size, 4));
+                for (int i = 0; i < size; i++) {
+                    int start = paletteOffsets[i], end = paletteOffsets[i + 1];
+                    Block block = decodePaletteEntry(paletteRaw, start, end);
+                    if (block == null) {
+                        // Shown as unknown, but never saved as such.
+                        block = BlockTemplates.getUnknownBlockTemplate().getBlock();
+                        if (undecodedEntries == null) undecodedEntries = new byte[size][];
+                        undecodedEntries[i] = Arrays.copyOfRange(paletteRaw, start, end);
+                    }
+                    blocks.add(block);
+                    templates.add(BlockTemplates.getBest(block));
+                }
+                palette = blocks;
+                renderPalette = templates;
+                paletteRaw = null;
+                paletteOffsets = null;
+                paletteDecoded = true;
+            }
+        }
+
+        @NonNull
+        List<Block> getPalette() {
+            ensurePalette();
+            return palette;
+        }
+
         private void addToPalette(Block block) {
             palette.add(block);
             renderPalette.add(BlockTemplates.getBest(block));
+            renderPaletteArray = null;
+        }
+
+        @NonNull
+        BlockTemplate[] getRenderPalette() {
+            BlockTemplate[] ret = renderPaletteArray;
+            if (ret == null) {
+                ensurePalette();
+                ret = renderPalette.toArray(new BlockTemplate[0]);
+                renderPaletteArray = ret;
+            }
+            return ret;
+        }
+
+        /**
+         * Palette indices of all 4096 blocks, in {@link #getOffset} order.
+         */
+        @NonNull
+        short[] getPaletteIndices() {
+            short[] ret = indices;
+            if (ret == null) {
+                // Concurrent readers may both decode, the results are the same.
+                ret = decode();
+                indices = ret;
+            }
+            return ret;
+        }
+
+        int getPaletteIndex(int x, int y, int z) {
+            return getPaletteIndices()[getOffset(x, y, z)];
+        }
+
+        private short[] decode() {
+            short[] out = new short[4096];
+            int length = blockCodeLenth;
+            int mask = msk[length - 1];
+            // How much BlockStates can one int32 hold?
+            int intCapa = 32 / length;
+            for (int whichInt = 0, i = 0; i < 4096; whichInt++) {
+                int stick = records.get(whichInt);
+                for (int j = 0; j < intCapa && i < 4096; j++, i++, stick >>= length)
+                    out[i] = (short) (stick & mask);
+            }
+            return out;
         }
 
         public boolean setBlockIfSpace(
                 int x, int y, int z, @NonNull Block block) {
             int code = -1;
+            ensurePalette();
 
-            // If in palette.
+            // If in palette, blocks are interned.
             for (int localId = 0, paletteSize = palette.size(); localId < paletteSize; localId++) {
-                Block blockInPalette = palette.get(localId);
-                if (block.equals(blockInPalette)) {
+                if (palette.get(localId) == block) {
                     code = localId;
                     break;
                 }
@@ -337,8 +482,14 @@ public final class V1d2d13TerrainSubChunk extends TerrainSubChunk {
                 code = size;
             }
 
-            // The codeOffset'th BlockState is wanted.
-            int codeOffset = getOffset(x, y, z);
+            setIndex(getOffset(x, y, z), code);
+            return true;
+        }
+
+        /**
+         * Points the codeOffset'th block at palette entry {@code code}, which must fit the code length.
+         */
+        private void setIndex(int codeOffset, int code) {
 
             // How much BlockStates can one int32 hold?
             int intCapa = 32 / blockCodeLenth;
@@ -351,25 +502,80 @@ public final class V1d2d13TerrainSubChunk extends TerrainSubChunk {
             stick |= code << shift;
             records.put(whichInt, stick);
 
-            return true;
+            short[] decoded = indices;
+            if (decoded != null) decoded[codeOffset] = (short) code;
         }
 
-        public Pair<Block, BlockTemplate> getBlock(int x, int y, int z) {
-
-            //The codeOffset'th BlockState is wanted.
-            int codeOffset = getOffset(x, y, z);
-
-            //How much BlockStates can one int32 hold?
-            int intCapa = 32 / blockCodeLenth;
-
-            //The int32 that holds the wanted BlockState.
-            int stick = records.get(codeOffset / intCapa);
+        /**
+         * Replaces the blocks of a box matching {@code matcher}, working on the palette: the
+         * palette is checked first, and blocks are only visited when something in it matched.
+         * If the box is the whole storage and the replacement is new to it, the matching entry
+         * is rewritten in place and only blocks of other matching entries get remapped.
+         *
+         * @return the storage holding the result, a larger one if the palette had to grow,
+         * or null if nothing changed
+         */
+        @Nullable
+        static BlockStorage replace(@NonNull BlockStorage storage, @NonNull Predicate<Block> matcher,
+                                    @NonNull Block replacement,
+                                    int fromX, int toX, int fromY, int toY, int fromZ, int toZ) {
+
+            storage.ensurePalette();
+            int size = storage.palette.size();
+            boolean[] matched = new boolean[size];
+            int firstMatch = -1;
+            int existing = -1;
+            for (int localId = 0; localId < size; localId++) {
+                Block block = storage.palette.get(localId);
+                if (existing < 0 && replacement == block) existing = localId;
+                if (matcher.test(block)) {
+                    matched[localId] = true;
+                    if (firstMatch < 0) firstMatch = localId;
+                }
+            }
 
-            //Get the BlockState. It's also the index in palette array.
-            int ind = (stick >> (codeOffset % intCapa * blockCodeLenth)) & msk[blockCodeLenth - 1];
+            // No block of this storage can match.
+            if (firstMatch < 0) return null;
+
+            boolean whole = fromX == 0 && toX == 15 && fromY == 0 && toY == 15 && fromZ == 0 && toZ == 15;
+            boolean changed = false;
+            int target = existing;
+            if (whole && target < 0) {
+                target = firstMatch;
+                storage.palette.set(target, replacement);
+                if (storage.undecodedEntries != null) storage.undecodedEntries[target] = null;
+                storage.renderPalette.set(target, BlockTemplates.getBest(replacement));
+                storage.renderPaletteArray = null;
+                changed = true;
+                // Nothing else to remap, the blocks needn't be visited at all.
+                boolean others = false;
+                for (int localId = target + 1; localId < size && !others; localId++)
+                    others = matched[localId];
+                if (!others) return storage;
+            }
 
-            //Transform the local BlockState into global id<<8|data structure.
-            return new Pair<>(palette.get(ind), renderPalette.get(ind));
+            short[] indices = storage.getPaletteIndices();
+            for (int x = fromX; x <= toX; x++) {
+                for (int z = fromZ; z <= toZ; z++) {
+                    for (int y = fromY; y <= toY; y++) {
+                        int codeOffset = getOffset(x, y, z);
+                        int code = indices[codeOffset];
+                        if (!matched[code] || code == target) continue;
+                        if (target < 0) {
+                            // First match of a partial box, the replacement needs an entry.
+                            if (storage.palette.size() >= 1 << storage.blockCodeLenth) {
+                                storage = extend(storage);
+                                indices = storage.getPaletteIndices();
+                            }
+                            target = storage.palette.size();
+                            storage.addToPalette(replacement);
+                        }
+                        storage.setIndex(codeOffset, target);
+                        changed = true;
+                    }
+                }
+            }
+            return changed ? storage : null;
         }
 
         private void write(@NonNull LittleEndianOutputStream stream) throws IOException {
@@ -380,6 +586,16 @@ public final class V1d2d13TerrainSubChunk extends TerrainSubChunk {
             // Int32s.
             stream.write(raw);
 
+            synchronized (this) {
+                // Never read, so never changed either, the entries are written back as they were.
+                if (!paletteDecoded) {
+                    int last = paletteOffsets.length - 1;
+                    stream.writeInt(last);
+                    stream.write(paletteRaw, paletteOffsets[0], paletteOffsets[last] - paletteOffsets[0]);
+                    return;
+                }
+            }
+
             // Palette size.
             int size = palette.size();
             stream.writeInt(size);
@@ -387,8 +603,12 @@ public final class V1d2d13TerrainSubChunk extends TerrainSubChunk {
             // Palettes.
             NBTOutputStream nos = new NBTOutputStream(stream, false, true);
 
-            for (int j = 0; j < size; j++)
-                nos.writeTag(serializeBlock(palette.get(j)));
+            byte[][] undecoded = undecodedEntries;
+            for (int j = 0; j < size; j++) {
+                if (undecoded != null && j < undecoded.length && undecoded[j] != null)
+                    stream.write(undecoded[j]);
+                else nos.writeTag(serializeBlock(palette.get(j)));
+            }
         }
 
         private static CompoundTag serializeBlock(@NonNull Block block) {
@@ -419,9 +639,34 @@ public final class V1d2d13TerrainSubChunk extends TerrainSubChunk {
             var builder = (blockType == null ? new Block.Builder(name) : new Block.Builder(blockType));
             for (var state : ((CompoundTag) tag.getChildTagByKey(PALETTE_KEY_STATES)).getValue())
                 builder.setProperty(state);
-            Log.d(BlockStorage.class, "fuckfuckversion" + tag.getChildTagByKey(PALETTE_KEY_VERSION).getValue());
             return builder.build();
         }
 
+        /**
+         * The block of the palette entry stored in {@code raw[start, end)}. The same bytes mean
+         * the same block, so entries are cached by their bytes across all storages.
+         *
+         * @return null if the entry can't be decoded
+         */
+        @Nullable
+        private static Block decodePaletteEntry(@NonNull byte[] raw, int start, int end) {
+            // Compares by content, no need to copy for a lookup.
+            Block block = paletteCache.get(ByteBuffer.wrap(raw, start, end - start));
+            if (block != null) return block;
+            try {
+                block = deserializeBlock((CompoundTag) new NBTBufferReader(
+                        ByteBuffer.wrap(raw, start, end - start)).readTag());
+            } catch (IOException | RuntimeException e) {
+                if (BuildConfig.DEBUG) {
+                    Log.d(BlockStorage.class, e);
+                }
+                return null;
+            }
+            // Different versions of the same states, bounded anyway.
+            if (paletteCache.size() >= PALETTE_CACHE_LIMIT) paletteCache.clear();
+            paletteCache.put(ByteBuffer.wrap(Arrays.copyOfRange(raw, start, end)), block);
+            return block;
+        }
+
     }
 }
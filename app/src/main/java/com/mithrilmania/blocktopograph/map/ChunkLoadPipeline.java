@@ -0,0 +1,179 @@
+package com.mithrilmania.blocktopograph.map;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mithrilmania.blocktopograph.WorldData;
+import com.mithrilmania.blocktopograph.chunk.Chunk;
+import com.mithrilmania.blocktopograph.map.renderer.MapRenderer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the chunks of one tile on a pool of its own while the render thread draws those
+ * already loaded, in whatever order they complete. Besides reading the records, the load
+ * stage runs {@link MapRenderer#prepareChunk} so most of the decoding happens there too.
+ * <p>
+ * The pool is shared by all tiles. A render thread never just waits on it: with nothing
+ * loaded yet it runs the next load nobody has started itself, so a busy pool only costs
+ * the parallelism. Each pipeline keeps at most as many tasks on the pool as it has threads,
+ * each running queued loads until none is left, so loads the render thread claimed cost
+ * no pool task. Cancelling interrupts the loads already running, they give up between
+ * reading the records and decoding them.
+ */
+final class ChunkLoadPipeline {
+
+    private static final int LOADER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+    private static final ThreadPoolExecutor sLoader;
+
+    static {
+        sLoader = new ThreadPoolExecutor(LOADER_THREADS, LOADER_THREADS, 5, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "ChunkLoader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sLoader.allowCoreThreadTimeOut(true);
+    }
+
+    static final class Loaded {
+
+        final int chunkX;
+        final int chunkZ;
+        @Nullable
+        final Chunk chunk;
+        @Nullable
+        final Exception error;
+
+        Loaded(int chunkX, int chunkZ, @Nullable Chunk chunk, @Nullable Exception error) {
+            this.chunkX = chunkX;
+            this.chunkZ = chunkZ;
+            this.chunk = chunk;
+            this.error = error;
+        }
+    }
+
+    private final WorldData mWorldData;
+    private final Dimension mDimension;
+    private final MapRenderer mRenderer;
+    private final List<Load> mLoads = new ArrayList<>();
+    // Submitted loads not started yet, run by whichever thread polls them.
+    private final Queue<Load> mQueued = new ConcurrentLinkedQueue<>();
+    private final BlockingQueue<Load> mDone = new LinkedBlockingQueue<>();
+    // Tasks of this pipeline on the pool, started or not.
+    private final AtomicInteger mWorkers = new AtomicInteger();
+    private int mPending;
+
+    ChunkLoadPipeline(@NonNull WorldData worldData, @NonNull Dimension dimension, @NonNull MapRenderer renderer) {
+        mWorldData = worldData;
+        mDimension = dimension;
+        mRenderer = renderer;
+    }
+
+    void submit(int chunkX, int chunkZ) {
+        Load load = new Load(chunkX, chunkZ);
+        mLoads.add(load);
+        mQueued.add(load);
+        mPending++;
+        // Otherwise the workers already there get to it.
+        if (tryAddWorker()) sLoader.execute(this::drain);
+    }
+
+    private boolean tryAddWorker() {
+        int workers;
+        do {
+            workers = mWorkers.get();
+            if (workers >= LOADER_THREADS) return false;
+        } while (!mWorkers.compareAndSet(workers, workers + 1));
+        return true;
+    }
+
+    private void drain() {
+        do {
+            Load next;
+            while ((next = mQueued.poll()) != null) next.run();
+            mWorkers.decrementAndGet();
+            // Submitted after the last poll by someone who found no room for a worker.
+        } while (!mQueued.isEmpty() && tryAddWorker());
+    }
+
+    boolean hasPending() {
+        return mPending > 0;
+    }
+
+    /**
+     * Gets the next chunk loaded, in completion order, loading it here if none is.
+     */
+    @NonNull
+    Loaded take() throws InterruptedException {
+        Load done;
+        while ((done = mDone.poll()) == null) {
+            if (Thread.interrupted()) throw new InterruptedException();
+            Load queued = mQueued.poll();
+            if (queued == null) {
+                done = mDone.take();
+                break;
+            }
+            queued.run();
+        }
+        mPending--;
+        try {
+            return done.get();
+        } catch (CancellationException e) {
+            throw new InterruptedException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof InterruptedException) throw new InterruptedException();
+            // Not thrown by the task otherwise, it catches everything.
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Drops the loads that have not started and interrupts the others, e.g. when the render
+     * was interrupted.
+     */
+    void cancel() {
+        mQueued.clear();
+        for (Load load : mLoads) load.cancel(true);
+        mPending = 0;
+    }
+
+    private final class Load extends FutureTask<Loaded> {
+
+        Load(int chunkX, int chunkZ) {
+            super(() -> {
+                Chunk chunk;
+                try {
+                    chunk = mWorldData.getChunk(chunkX, chunkZ, mDimension);
+                } catch (Exception e) {
+                    return new Loaded(chunkX, chunkZ, null, e);
+                }
+                // Not interrupted(), a render thread running the load must still see it.
+                if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+                try {
+                    if (!chunk.isError() && !chunk.isVoid()) mRenderer.prepareChunk(chunk);
+                    return new Loaded(chunkX, chunkZ, chunk, null);
+                } catch (Exception e) {
+                    return new Loaded(chunkX, chunkZ, null, e);
+                }
+            });
+        }
+
+        @Override
+        protected void done() {
+            mDone.add(this);
+        }
+    }
+}
@@ -9,17 +9,28 @@ import android.text.Layout;
 import android.text.StaticLayout;
 import android.text.TextPaint;
 
+import androidx.annotation.Nullable;
+
+import com.mithrilmania.blocktopograph.Log;
+import com.mithrilmania.blocktopograph.World;
 import com.mithrilmania.blocktopograph.WorldActivityInterface;
 import com.mithrilmania.blocktopograph.WorldData;
 import com.mithrilmania.blocktopograph.chunk.Chunk;
+import com.mithrilmania.blocktopograph.chunk.ChunkIndex;
+import com.mithrilmania.blocktopograph.chunk.Version;
 import com.mithrilmania.blocktopograph.map.renderer.MapType;
+import com.mithrilmania.blocktopograph.map.renderer.TilePixels;
 import com.qozix.tileview.graphics.BitmapProvider;
+import com.qozix.tileview.graphics.RenderBatchListener;
+import com.qozix.tileview.graphics.TilePrefetcher;
 import com.qozix.tileview.tiles.Tile;
 
 import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 
-public class MCTileProvider implements BitmapProvider {
+public class MCTileProvider implements BitmapProvider, TilePrefetcher, RenderBatchListener {
 
 
     public static final int TILESIZE = 256,
@@ -35,6 +46,19 @@ public class MCTileProvider implements BitmapProvider {
 
     public final WeakReference<WorldActivityInterface> worldProvider;
 
+    // Chunks per tile edge of the coarsest detail level.
+    private static final int MAX_CHUNKS_PER_TILE = 16;
+
+    // From this many chunks per tile edge on, tiles are downsampled from the next level in.
+    private static final int PYRAMID_MIN_CHUNKS_PER_TILE = 4;
+
+    private static final int TILE_CACHEABLE = 1, TILE_HAS_CONTENT = 2, TILE_CACHED = 4;
+
+    private final FingerprintMemo fingerprints = new FingerprintMemo();
+
+    // The db sequence number tiles of the current render batch are stamped with, -1 until read.
+    private volatile long sequence = -1;
+
     public MCTileProvider(WorldActivityInterface worldProvider) {
         this.worldProvider = new WeakReference<>(worldProvider);
     }
@@ -67,36 +91,33 @@ public class MCTileProvider implements BitmapProvider {
         return b;
     }
 
+    // One per render thread, tiles are drawn into it and uploaded with a single call.
+    private static final ThreadLocal<TilePixels> sTilePixels = new ThreadLocal<>();
+
+    private static TilePixels getTilePixels(Bitmap bm) {
+        TilePixels pixels = sTilePixels.get();
+        if (pixels == null || pixels.width != bm.getWidth() || pixels.height != bm.getHeight()) {
+            pixels = new TilePixels(bm.getWidth(), bm.getHeight());
+            sTilePixels.set(pixels);
+        }
+        return pixels;
+    }
+
     @Override
     public Bitmap getBitmap(Tile tile, Context context) {
 
-        Bitmap bm = tile.hasBitmap() ? tile.getBitmap() : Bitmap.createBitmap(tile.getWidth(), tile.getHeight(), Bitmap.Config.RGB_565);//getRecycledBitmap();
+        Bitmap bm = tile.hasBitmap() ? tile.getBitmap() : tile.obtainBitmap(Bitmap.Config.RGB_565);
 
         try {
 
-            // 1 chunk per tile on scale 1.0
-            int pixelsPerBlockW_unscaled = TILESIZE / 16;
-            int pixelsPerBlockL_unscaled = TILESIZE / 16;
-
             float scale = tile.getDetailLevel().getScale();
 
             // this will be the amount of chunks in the width of one tile
             int invScale = Math.round(1f / scale);
 
-            //scale the amount of pixels, less pixels per block if zoomed out
-            int pixelsPerBlockW = Math.round(pixelsPerBlockW_unscaled * scale);
-            int pixelsPerBlockL = Math.round(pixelsPerBlockL_unscaled * scale);
-
-
-            // for translating to origin
-            // HALF_WORLDSIZE and TILESIZE must be a power of two
-            int tilesInHalfWorldW = (HALF_WORLDSIZE * pixelsPerBlockW) / TILESIZE;
-            int tilesInHalfWorldL = (HALF_WORLDSIZE * pixelsPerBlockL) / TILESIZE;
-
-
             // translate tile coord to origin, multiply origin-relative-tile-coordinate with the chunks per tile
-            int minChunkX = (tile.getColumn() - tilesInHalfWorldW) * invScale;
-            int minChunkZ = (tile.getRow() - tilesInHalfWorldL) * invScale;
+            int minChunkX = minChunkOf(tile.getColumn(), invScale);
+            int minChunkZ = minChunkOf(tile.getRow(), invScale);
             int maxChunkX = minChunkX + invScale;
             int maxChunkZ = minChunkZ + invScale;
 
@@ -106,50 +127,16 @@ public class MCTileProvider implements BitmapProvider {
             MapType mapType = (MapType) tile.getDetailLevel().getLevelType();
             if (mapType == null) return null;
 
+            String tileTxt = "(" + (minChunkX * 16) + "; " + (minChunkZ * 16) + ")";
 
-            int x, z, pX, pY;
-            String tileTxt;
-
-            //check if the tile is not aligned with its inner chunks
-            //hacky: it must be a single chunk that is to big for the tile, render just the visible part, easy.
-
+            World world = worldProvider.getWorld();
+            WorldData worldData = world.getWorldData();
 
-            tileTxt = "(" + (minChunkX * 16) + "; " + (minChunkZ * 16) + ")";
-
-
-            int pixelsPerChunkW = pixelsPerBlockW * 16;
-            int pixelsPerChunkL = pixelsPerBlockL * 16;
-
-            Canvas canvas = new Canvas(bm);
-            Paint paint = new Paint();
-
-            WorldData worldData = worldProvider.getWorld().getWorldData();
-
-            for (z = minChunkZ, pY = 0; z < maxChunkZ; z++, pY += pixelsPerChunkL)
-                for (x = minChunkX, pX = 0; x < maxChunkX; x++, pX += pixelsPerChunkW) {
-
-                    Chunk chunk = worldData.getChunk(x, z, dimension);
-                    if (chunk.isError()) {
-                        MapType.ERROR.renderer.renderToBitmap(chunk, canvas, dimension,
-                                x, z, pX, pY, pixelsPerBlockW, pixelsPerBlockL, paint, worldData);
-                        continue;
-                    }
-                    MapType.CHESS.renderer.renderToBitmap(chunk, canvas, dimension,
-                            x, z, pX, pY, pixelsPerBlockW, pixelsPerBlockL, paint, worldData);
-                    if (chunk.isVoid()) continue;
-                    try {
-                        mapType.renderer.renderToBitmap(chunk, canvas, dimension, x, z,
-                                pX, pY, pixelsPerBlockW, pixelsPerBlockL, paint, worldData);
-
-                    } catch (Exception e) {
-
-                        MapType.ERROR.renderer.renderToBitmap(chunk, canvas, dimension,
-                                x, z, pX, pY, pixelsPerBlockW, pixelsPerBlockL, paint, worldData);
-                        e.printStackTrace();
-
-                    }
-
-                }
+            // Tiles are cached as rendered, without grid and markers.
+            worldData.openDB();
+            TileJob job = new TileJob(worldData, world.getTileCache(), fingerprints, mapType, dimension,
+                    getSequence(worldData));
+            drawTopTile(job, invScale, tile.getColumn(), tile.getRow(), bm);
 
 
             //load all those markers with an async task, this task publishes its progress,
@@ -178,6 +165,9 @@ public class MCTileProvider implements BitmapProvider {
                 drawText(tileTxt, bm, Color.WHITE, 0);
             }
 
+        } catch (InterruptedException e) {
+            // Cancelled, the tile view checks the flag to drop the bitmap.
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -186,5 +176,536 @@ public class MCTileProvider implements BitmapProvider {
         return bm;
     }
 
+    /**
+     * Edits reach the map as a new batch, so the sequence number is read again from here on.
+     */
+    @Override
+    public void onRenderBatchStart() {
+        sequence = -1;
+    }
+
+    /**
+     * Read once per render batch rather than per tile. A stamp older than what a tile is
+     * rendered from only costs a fingerprint check later.
+     */
+    private long getSequence(WorldData worldData) {
+        long ret = sequence;
+        if (ret < 0) {
+            ret = worldData.db.getLatestSequenceNumber();
+            sequence = ret;
+        }
+        return ret;
+    }
+
+    /**
+     * Loads the chunks of a tile about to come into view, or for the detail levels built from
+     * other tiles, renders it into the tile cache. Stops once the chunk cache is half full.
+     */
+    @Override
+    public void prefetchTile(Tile tile, Context context) {
+        WorldActivityInterface worldProvider = this.worldProvider.get();
+        if (worldProvider == null) return;
+        MapType mapType = (MapType) tile.getDetailLevel().getLevelType();
+        if (mapType == null) return;
+        Dimension dimension = worldProvider.getDimension();
+        World world = worldProvider.getWorld();
+        WorldData worldData = world.getWorldData();
+        TileCache tileCache = world.getTileCache();
+        int chunksPerTile = Math.round(1f / tile.getDetailLevel().getScale());
+        if (tileCache.contains(mapType, dimension, chunksPerTile, tile.getColumn(), tile.getRow())
+                || !worldData.hasRoomForPrefetch())
+            return;
 
+        try {
+            worldData.openDB();
+            if (chunksPerTile >= PYRAMID_MIN_CHUNKS_PER_TILE) {
+                TileJob job = new TileJob(worldData, tileCache, fingerprints, mapType, dimension,
+                        getSequence(worldData));
+                // Not a child of anything being built on this thread, its level bitmap is free.
+                Bitmap bm = getPyramidScratch(tile.getWidth(), tile.getHeight()).getBitmap(chunksPerTile);
+                drawTopTile(job, chunksPerTile, tile.getColumn(), tile.getRow(), bm);
+                return;
+            }
+            ChunkIndex chunkIndex = worldData.getChunkIndex();
+            int minChunkX = minChunkOf(tile.getColumn(), chunksPerTile);
+            int minChunkZ = minChunkOf(tile.getRow(), chunksPerTile);
+            for (int z = minChunkZ; z < minChunkZ + chunksPerTile; z++) {
+                for (int x = minChunkX; x < minChunkX + chunksPerTile; x++) {
+                    if (chunkIndex != null && !chunkIndex.mightContain(dimension, x, z)) continue;
+                    if (!worldData.hasRoomForPrefetch() || Thread.currentThread().isInterrupted()) return;
+                    worldData.getChunk(x, z, dimension);
+                }
+            }
+        } catch (InterruptedException e) {
+            // The prediction was replaced.
+        } catch (Exception e) {
+            Log.d(this, e);
+        }
+    }
+
+    // HALF_WORLDSIZE and TILESIZE must be a power of two, the origin lands on a tile edge.
+    private static int minChunkOf(int tile, int chunksPerTile) {
+        return tile * chunksPerTile - (HALF_WORLDSIZE >> 4);
+    }
+
+    /**
+     * Draws a tile the tile view asked for, see {@link #drawTile}. Rendered anew, it drops the
+     * coarser tiles above it, which were built from what it replaces.
+     */
+    private static void drawTopTile(TileJob job, int chunksPerTile, int column, int row, Bitmap bm)
+            throws Exception {
+        int status = drawTile(job, chunksPerTile, column, row,
+                fingerprintOf(job, chunksPerTile, column, row), bm);
+        if ((status & (TILE_CACHED | TILE_HAS_CONTENT)) == TILE_HAS_CONTENT)
+            job.tileCache.invalidateAncestors(job.mapType, job.dimension, chunksPerTile, column, row,
+                    MAX_CHUNKS_PER_TILE);
+    }
+
+    /**
+     * Draws a tile without grid and markers, from the cache if it's there. Detail levels of
+     * {@link #PYRAMID_MIN_CHUNKS_PER_TILE} chunks per tile and up are built from the four
+     * tiles of the next level in when those are cached, so zooming out over explored land
+     * rarely needs a chunk. Otherwise the chunks are rendered directly, going through every
+     * level below would cost more.
+     *
+     * @return {@link #TILE_CACHEABLE}, {@link #TILE_HAS_CONTENT} and {@link #TILE_CACHED} flags
+     */
+    private static int drawTile(TileJob job, int chunksPerTile, int column, int row,
+                                TileCache.Fingerprint fingerprint, Bitmap bm) throws Exception {
+        // Checked at every level, a pyramid tile takes long to build. The flag is kept.
+        if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+        if (job.tileCache.read(job.mapType, job.dimension, chunksPerTile, column, row,
+                job.sequence, fingerprint, bm))
+            return TILE_CACHEABLE | TILE_HAS_CONTENT | TILE_CACHED;
+
+        int minChunkX = minChunkOf(column, chunksPerTile);
+        int minChunkZ = minChunkOf(row, chunksPerTile);
+        ChunkIndex chunkIndex = job.worldData.getChunkIndex();
+        // Nothing but the chess pattern, no need to go through the levels below.
+        boolean empty = chunkIndex != null && !chunkIndex.mightContainAny(job.dimension,
+                minChunkX, minChunkZ, minChunkX + chunksPerTile, minChunkZ + chunksPerTile);
+
+        int status = chunksPerTile >= PYRAMID_MIN_CHUNKS_PER_TILE && !empty
+                && hasChildrenAtHand(job, chunkIndex, chunksPerTile, column, row)
+                ? drawFromChildren(job, chunksPerTile, column, row, (PyramidFingerprint) fingerprint, bm)
+                : renderChunks(job, chunkIndex, minChunkX, minChunkZ, chunksPerTile,
+                fingerprint instanceof DrawnChunks ? (DrawnChunks) fingerprint : null, bm);
+
+        // Empty tiles are cheap to draw, don't waste the cache on them.
+        if (status == (TILE_CACHEABLE | TILE_HAS_CONTENT)) {
+            try {
+                job.tileCache.write(job.mapType, job.dimension, chunksPerTile, column, row,
+                        job.sequence, fingerprint.compute(), bm);
+            } catch (TileCache.UnknownFingerprintException e) {
+                // Drawn from edited chunks, they are not in the db yet.
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Whether each of the four tiles of the next level in is cached or known to be empty.
+     */
+    private static boolean hasChildrenAtHand(TileJob job, @Nullable ChunkIndex chunkIndex,
+                                             int chunksPerTile, int column, int row) {
+        int childChunks = chunksPerTile >> 1;
+        for (int i = 0; i < 4; i++) {
+            int childColumn = (column << 1) + (i & 1);
+            int childRow = (row << 1) + (i >> 1);
+            if (job.tileCache.contains(job.mapType, job.dimension, childChunks, childColumn, childRow))
+                continue;
+            int minChunkX = minChunkOf(childColumn, childChunks);
+            int minChunkZ = minChunkOf(childRow, childChunks);
+            if (chunkIndex == null || chunkIndex.mightContainAny(job.dimension, minChunkX, minChunkZ,
+                    minChunkX + childChunks, minChunkZ + childChunks))
+                return false;
+        }
+        return true;
+    }
+
+    private static int drawFromChildren(TileJob job, int chunksPerTile, int column, int row,
+                                        PyramidFingerprint fingerprint, Bitmap bm) throws Exception {
+        int childChunks = chunksPerTile >> 1;
+        PyramidScratch scratch = getPyramidScratch(bm.getWidth(), bm.getHeight());
+        Bitmap child = scratch.getBitmap(childChunks);
+        int halfW = scratch.width >> 1;
+        int halfH = scratch.height >> 1;
+        int status = TILE_CACHEABLE;
+        for (int i = 0; i < 4; i++) {
+            int dx = i & 1;
+            int dy = i >> 1;
+            int childStatus = drawTile(job, childChunks, (column << 1) + dx, (row << 1) + dy,
+                    fingerprint.child(i), child);
+            if ((childStatus & TILE_CACHEABLE) == 0) status &= ~TILE_CACHEABLE;
+            status |= childStatus & TILE_HAS_CONTENT;
+            // The child is done with the scratch arrays, its own children are drawn already.
+            child.getPixels(scratch.childPixels, 0, scratch.width, 0, 0, scratch.width, scratch.height);
+            TilePixels.downsample(scratch.childPixels, scratch.width, scratch.height, scratch.quadrant);
+            bm.setPixels(scratch.quadrant, 0, halfW, dx * halfW, dy * halfH, halfW, halfH);
+        }
+        return status;
+    }
+
+    /**
+     * Renders the chunks of a tile. With more than one to load they're loaded through a
+     * {@link ChunkLoadPipeline} and drawn as they come in.
+     *
+     * @param fingerprint receives the chunks drawn
+     */
+    private static int renderChunks(TileJob job, ChunkIndex chunkIndex, int minChunkX, int minChunkZ,
+                                    int chunksPerTile, @Nullable DrawnChunks fingerprint, Bitmap bm)
+            throws Version.VersionException, InterruptedException {
+        WorldData worldData = job.worldData;
+        Dimension dimension = job.dimension;
+        int maxChunkX = minChunkX + chunksPerTile;
+        int maxChunkZ = minChunkZ + chunksPerTile;
+
+        //scale the amount of pixels, less pixels per block if zoomed out
+        int pixelsPerChunkW = TILESIZE / chunksPerTile;
+        int pixelsPerChunkL = TILESIZE / chunksPerTile;
+        int pixelsPerBlockW = pixelsPerChunkW / 16;
+        int pixelsPerBlockL = pixelsPerChunkL / 16;
+
+        int x, z, pX, pY;
+        int status = TILE_CACHEABLE;
+        TilePixels tilePixels = getTilePixels(bm);
+        int[] grid = tilePixels.getChunkPixels();
+        ChunkLoadPipeline pipeline = chunksPerTile > 1
+                ? new ChunkLoadPipeline(worldData, dimension, job.mapType.renderer) : null;
+        for (z = minChunkZ, pY = 0; z < maxChunkZ; z++, pY += pixelsPerChunkL)
+            for (x = minChunkX, pX = 0; x < maxChunkX; x++, pX += pixelsPerChunkW) {
+
+                // Known to be absent, don't even look it up in the db.
+                if (chunkIndex != null && !chunkIndex.mightContain(dimension, x, z)) {
+                    MapType.CHESS.renderer.renderToPixels(null, dimension, x, z, grid, worldData);
+                    tilePixels.blit(grid, pX, pY, pixelsPerBlockW, pixelsPerBlockL);
+                    if (fingerprint != null) fingerprint.record(x, z, null);
+                    continue;
+                }
+
+                if (pipeline != null) pipeline.submit(x, z);
+                else {
+                    Chunk chunk = worldData.getChunk(x, z, dimension);
+                    status = renderChunk(job, chunk, x, z,
+                            tilePixels, pX, pY, pixelsPerBlockW, pixelsPerBlockL, status);
+                    if (fingerprint != null) fingerprint.record(x, z, chunk);
+                }
+            }
+
+        try {
+            while (pipeline != null && pipeline.hasPending()) {
+                ChunkLoadPipeline.Loaded loaded = pipeline.take();
+                pX = (loaded.chunkX - minChunkX) * pixelsPerChunkW;
+                pY = (loaded.chunkZ - minChunkZ) * pixelsPerChunkL;
+                if (loaded.chunk == null) {
+                    MapType.ERROR.renderer.renderToPixels(null, dimension, loaded.chunkX, loaded.chunkZ, grid, worldData);
+                    tilePixels.blit(grid, pX, pY, pixelsPerBlockW, pixelsPerBlockL);
+                    status &= ~TILE_CACHEABLE;
+                    if (loaded.error != null) Log.d(MCTileProvider.class, loaded.error);
+                    continue;
+                }
+                status = renderChunk(job, loaded.chunk, loaded.chunkX, loaded.chunkZ,
+                        tilePixels, pX, pY, pixelsPerBlockW, pixelsPerBlockL, status);
+                if (fingerprint != null) fingerprint.record(loaded.chunkX, loaded.chunkZ, loaded.chunk);
+            }
+        } finally {
+            if (pipeline != null) pipeline.cancel();
+        }
+        tilePixels.upload(bm);
+        return status;
+    }
+
+    private static int renderChunk(TileJob job, Chunk chunk, int x, int z, TilePixels tilePixels,
+                                   int pX, int pY, int pW, int pL, int status)
+            throws Version.VersionException {
+        WorldData worldData = job.worldData;
+        Dimension dimension = job.dimension;
+        int[] grid = tilePixels.getChunkPixels();
+        if (chunk.isError()) {
+            MapType.ERROR.renderer.renderToPixels(chunk, dimension, x, z, grid, worldData);
+            tilePixels.blit(grid, pX, pY, pW, pL);
+            return status & ~TILE_CACHEABLE;
+        }
+        MapType.CHESS.renderer.renderToPixels(chunk, dimension, x, z, grid, worldData);
+        tilePixels.blit(grid, pX, pY, pW, pL);
+        if (chunk.isVoid()) return status;
+        status |= TILE_HAS_CONTENT;
+        try {
+            job.mapType.renderer.renderToPixels(chunk, dimension, x, z, grid, worldData);
+
+        } catch (Exception e) {
+
+            status &= ~TILE_CACHEABLE;
+            MapType.ERROR.renderer.renderToPixels(chunk, dimension, x, z, grid, worldData);
+            Log.d(MCTileProvider.class, e);
+
+        }
+        tilePixels.blit(grid, pX, pY, pW, pL);
+        return status;
+    }
+
+    private static TileCache.Fingerprint fingerprintOf(TileJob job, int chunksPerTile, int column, int row) {
+        if (chunksPerTile >= PYRAMID_MIN_CHUNKS_PER_TILE)
+            return new PyramidFingerprint(job, chunksPerTile, column, row);
+        int minChunkX = minChunkOf(column, chunksPerTile);
+        int minChunkZ = minChunkOf(row, chunksPerTile);
+        return new TileFingerprint(job, minChunkX, minChunkZ, chunksPerTile, column, row);
+    }
+
+    /**
+     * What a tile and the tiles it's built from have in common.
+     */
+    private static final class TileJob {
+
+        final WorldData worldData;
+        final TileCache tileCache;
+        final FingerprintMemo fingerprints;
+        final MapType mapType;
+        final Dimension dimension;
+        final long sequence;
+
+        TileJob(WorldData worldData, TileCache tileCache, FingerprintMemo fingerprints,
+                MapType mapType, Dimension dimension, long sequence) {
+            this.worldData = worldData;
+            this.tileCache = tileCache;
+            this.fingerprints = fingerprints;
+            this.mapType = mapType;
+            this.dimension = dimension;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Bitmaps and arrays for building pyramid tiles, one set per render thread.
+     * Each level being built at once needs its own child bitmap.
+     */
+    private static final class PyramidScratch {
+
+        final int width;
+        final int height;
+        final int[] childPixels;
+        final int[] quadrant;
+        private final Bitmap[] bitmaps = new Bitmap[Integer.SIZE];
+
+        PyramidScratch(int width, int height) {
+            this.width = width;
+            this.height = height;
+            childPixels = new int[width * height];
+            quadrant = new int[(width >> 1) * (height >> 1)];
+        }
+
+        Bitmap getBitmap(int chunksPerTile) {
+            int level = Integer.numberOfTrailingZeros(chunksPerTile);
+            Bitmap bitmap = bitmaps[level];
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+                bitmaps[level] = bitmap;
+            }
+            return bitmap;
+        }
+    }
+
+    private static final ThreadLocal<PyramidScratch> sPyramidScratch = new ThreadLocal<>();
+
+    private static PyramidScratch getPyramidScratch(int width, int height) {
+        PyramidScratch scratch = sPyramidScratch.get();
+        if (scratch == null || scratch.width != width || scratch.height != height) {
+            scratch = new PyramidScratch(width, height);
+            sPyramidScratch.set(scratch);
+        }
+        return scratch;
+    }
+
+    /**
+     * Tile fingerprints by the db sequence they're valid for. They only depend on chunk
+     * records, so all map types share them. Checking a pyramid tile after a write needs
+     * the fingerprints of every tile below it, this way each is worked out once.
+     */
+    private static final class FingerprintMemo {
+
+        private static final int MAX_ENTRIES = 8192;
+
+        // Values are the sequence and the fingerprint.
+        private final LinkedHashMap<Long, long[]> mEntries = new LinkedHashMap<Long, long[]>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+
+        private static long key(Dimension dimension, int chunksPerTile, int column, int row) {
+            return ((long) (column & 0x7FFFFFF) << 35) | ((long) (row & 0x7FFFFFF) << 8)
+                    | (Integer.numberOfTrailingZeros(chunksPerTile) << 3) | dimension.ordinal();
+        }
+
+        /**
+         * @return the fingerprint with the sequence, or null if not known for it
+         */
+        @Nullable
+        synchronized long[] get(Dimension dimension, int chunksPerTile, int column, int row, long sequence) {
+            long[] entry = mEntries.get(key(dimension, chunksPerTile, column, row));
+            return entry != null && entry[0] == sequence ? entry : null;
+        }
+
+        synchronized void put(Dimension dimension, int chunksPerTile, int column, int row,
+                              long sequence, long fingerprint) {
+            mEntries.put(key(dimension, chunksPerTile, column, row), new long[]{sequence, fingerprint});
+        }
+    }
+
+    /**
+     * Receives the chunks a render drew, so the fingerprint needn't read them again.
+     */
+    private interface DrawnChunks {
+
+        /**
+         * @param chunk what was drawn, null if known to be absent
+         */
+        void record(int chunkX, int chunkZ, @Nullable Chunk chunk);
+    }
+
+    /**
+     * Fingerprint of a pyramid tile, made of those of its children. Children found in the
+     * cache bring their stored one, so a tile built from cached tiles costs no db read.
+     * A tile rendered from its chunks hands them down to the children.
+     */
+    private static final class PyramidFingerprint implements TileCache.Fingerprint, DrawnChunks {
+
+        private final TileJob job;
+        private final int chunksPerTile, column, row;
+        private final TileCache.Fingerprint[] children = new TileCache.Fingerprint[4];
+        private boolean computed;
+        private long value;
+
+        PyramidFingerprint(TileJob job, int chunksPerTile, int column, int row) {
+            this.job = job;
+            this.chunksPerTile = chunksPerTile;
+            this.column = column;
+            this.row = row;
+            long[] known = job.fingerprints.get(job.dimension, chunksPerTile, column, row, job.sequence);
+            if (known != null) onCached(known[1]);
+        }
+
+        TileCache.Fingerprint child(int index) {
+            if (children[index] == null)
+                children[index] = fingerprintOf(job, chunksPerTile >> 1,
+                        (column << 1) + (index & 1), (row << 1) + (index >> 1));
+            return children[index];
+        }
+
+        @Override
+        public void record(int chunkX, int chunkZ, @Nullable Chunk chunk) {
+            int half = chunksPerTile >> 1;
+            int relX = chunkX - minChunkOf(column, chunksPerTile);
+            int relZ = chunkZ - minChunkOf(row, chunksPerTile);
+            for (int i = 0; i < 4; i++) {
+                // Children take the west and north neighbours of their chunks too.
+                int fromX = (i & 1) * half - 1;
+                int fromZ = (i >> 1) * half - 1;
+                if (relX < fromX || relX > fromX + half || relZ < fromZ || relZ > fromZ + half) continue;
+                ((DrawnChunks) child(i)).record(chunkX, chunkZ, chunk);
+            }
+            computed = false;
+        }
+
+        @Override
+        public long compute() throws Exception {
+            if (!computed) {
+                long hash = 17;
+                for (int i = 0; i < 4; i++) hash = hash * 31 + child(i).compute();
+                onCached(hash);
+            }
+            return value;
+        }
+
+        @Override
+        public void onCached(long fingerprint) {
+            value = fingerprint;
+            computed = true;
+            job.fingerprints.put(job.dimension, chunksPerTile, column, row, job.sequence, fingerprint);
+        }
+    }
+
+    /**
+     * Made of the fingerprints of the chunks a render drew, so nothing is read twice.
+     * Chunks not drawn yet, such as those of a cached tile being checked, are fingerprinted
+     * from their raw records unless they're loaded already, nothing gets decoded.
+     */
+    private static final class TileFingerprint implements TileCache.Fingerprint, DrawnChunks {
+
+        // Fingerprint of a chunk with none of its records in the db.
+        private static final long ABSENT = Chunk.fingerprint(new byte[WorldData.CHUNK_RECORD_COUNT][]);
+
+        private final TileJob job;
+        private final int chunksPerTile, column, row;
+        // Renderers peek at the west and north neighbours for shading, so those are included.
+        private final int originX, originZ, edge;
+        private final long[] chunks;
+        private final boolean[] known;
+        private boolean computed;
+        private long value;
+
+        TileFingerprint(TileJob job, int minChunkX, int minChunkZ, int chunksPerTile, int column, int row) {
+            this.job = job;
+            this.chunksPerTile = chunksPerTile;
+            this.column = column;
+            this.row = row;
+            originX = minChunkX - 1;
+            originZ = minChunkZ - 1;
+            edge = chunksPerTile + 1;
+            chunks = new long[edge * edge];
+            known = new boolean[edge * edge];
+            long[] memo = job.fingerprints.get(job.dimension, chunksPerTile, column, row, job.sequence);
+            if (memo != null) {
+                value = memo[1];
+                computed = true;
+            }
+        }
+
+        @Override
+        public void record(int chunkX, int chunkZ, @Nullable Chunk chunk) {
+            int index = (chunkZ - originZ) * edge + chunkX - originX;
+            if (chunk == null) {
+                chunks[index] = ABSENT;
+                known[index] = true;
+            } else if (chunk.hasRecordsFingerprint()) {
+                chunks[index] = chunk.getRecordsFingerprint();
+                known[index] = true;
+            } else known[index] = false;
+            computed = false;
+        }
+
+        @Override
+        public long compute() throws TileCache.UnknownFingerprintException, WorldData.WorldDBException {
+            if (computed) return value;
+            WorldData worldData = job.worldData;
+            Dimension dimension = job.dimension;
+            ChunkIndex chunkIndex = worldData.getChunkIndex();
+            for (int i = 0; i < chunks.length; i++) {
+                if (known[i]) continue;
+                int x = originX + i % edge;
+                int z = originZ + i / edge;
+                if (chunkIndex != null && !chunkIndex.mightContain(dimension, x, z)) {
+                    chunks[i] = ABSENT;
+                } else {
+                    Chunk chunk = worldData.peekChunk(x, z, dimension);
+                    if (chunk != null && chunk.isDirty())
+                        throw new TileCache.UnknownFingerprintException("Chunk " + x + ", " + z + " has changes");
+                    // Saved changes are in the records already.
+                    chunks[i] = chunk != null && chunk.hasRecordsFingerprint() ? chunk.getRecordsFingerprint()
+                            : Chunk.fingerprint(worldData.getChunkRecords(x, z, dimension));
+                }
+                known[i] = true;
+            }
+            onCached(TileCache.fingerprint(chunks));
+            return value;
+        }
+
+        @Override
+        public void onCached(long fingerprint) {
+            value = fingerprint;
+            computed = true;
+            job.fingerprints.put(job.dimension, chunksPerTile, column, row, job.sequence, fingerprint);
+        }
+    }
 }
@@ -44,12 +44,14 @@ import com.mithrilmania.blocktopograph.Log;
 import com.mithrilmania.blocktopograph.R;
 import com.mithrilmania.blocktopograph.World;
 import com.mithrilmania.blocktopograph.WorldActivityInterface;
+import com.mithrilmania.blocktopograph.backup.EditJournal;
 import com.mithrilmania.blocktopograph.block.KnownBlockRepr;
 import com.mithrilmania.blocktopograph.chunk.Chunk;
 import com.mithrilmania.blocktopograph.chunk.ChunkTag;
 import com.mithrilmania.blocktopograph.chunk.NBTChunkData;
 import com.mithrilmania.blocktopograph.databinding.MapFragmentBinding;
 import com.mithrilmania.blocktopograph.map.edit.EditFunction;
+import com.mithrilmania.blocktopograph.map.edit.JournalTask;
 import com.mithrilmania.blocktopograph.map.edit.RectEditTarget;
 import com.mithrilmania.blocktopograph.map.edit.SelectionBasedContextFreeEditTask;
 import com.mithrilmania.blocktopograph.map.locator.AdvancedLocatorFragment;
@@ -374,6 +376,7 @@ public class MapFragment extends Fragment {
         if (mBinding.fabMenu.isOpened())
             mBinding.fabMenu.close(true);
         else {
+            updateJournalButtons();
             mBinding.fabMenu.open(true);
             FragmentActivity activity = getActivity();
             if (activity != null) {
@@ -459,6 +462,11 @@ public class MapFragment extends Fragment {
         mBinding.fabMenuGpsPicer.setImageDrawable(
                 VectorDrawableCompat.create(resources, R.drawable.ic_menu_camera, null));
 
+        // Roll the last map edit back or forth.
+        mBinding.fabMenuUndo.setOnClickListener(unusedView -> new JournalTask(false, this).execute());
+        mBinding.fabMenuRedo.setOnClickListener(unusedView -> new JournalTask(true, this).execute());
+        updateJournalButtons();
+
         // Show the toolbar if the fab menu is opened
         mBinding.fabMenu.setOnMenuToggleListener(opened -> {
             WorldActivityInterface worldProvider = MapFragment.this.worldProvider.get();
@@ -1307,6 +1315,16 @@ public class MapFragment extends Fragment {
     public void refreshAfterEdit() {
         mBinding.tileView.getTileCanvasViewGroup().clear();
         mBinding.tileView.getTileCanvasViewGroup().requiredBeginRenderTask();
+        updateJournalButtons();
+    }
+
+    /**
+     * Only offers undo and redo when there is something to roll.
+     */
+    private void updateJournalButtons() {
+        EditJournal journal = world.getEditJournal();
+        mBinding.fabMenuUndo.setVisibility(journal.canUndo() ? View.VISIBLE : View.GONE);
+        mBinding.fabMenuRedo.setVisibility(journal.canRedo() ? View.VISIBLE : View.GONE);
     }
 
     public void resetTileView() {
@@ -0,0 +1,330 @@
+package com.mithrilmania.blocktopograph.map;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mithrilmania.blocktopograph.Log;
+import com.mithrilmania.blocktopograph.chunk.Chunk;
+import com.mithrilmania.blocktopograph.map.renderer.MapType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+/**
+ * Rendered tiles kept on disk, per map type, dimension and detail level.
+ * <p>
+ * Each tile is stored as a PNG behind a small header holding the db sequence number at
+ * render time and a fingerprint of the chunk records it was rendered from. While the
+ * db has not been written since, a tile is used as is. Otherwise the fingerprint is
+ * computed again from the chunk records, which is far cheaper than rendering, and the tile is
+ * dropped if it changed. The folder is bounded in size, least recently used tiles go first.
+ */
+public final class TileCache {
+
+    private static final int MAGIC = 0x42544954;
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 24;
+    private static final int SEQUENCE_OFFSET = 8;
+
+    private static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    private final File mFolder;
+    private final long mMaxBytes;
+
+    // Total size of the folder, -1 until measured.
+    private final AtomicLong mBytes = new AtomicLong(-1);
+
+    private final ThreadPoolExecutor mWriter;
+
+    public TileCache(@NonNull File folder) {
+        this(folder, DEFAULT_MAX_BYTES);
+    }
+
+    public TileCache(@NonNull File folder, long maxBytes) {
+        mFolder = folder;
+        mMaxBytes = maxBytes;
+        mWriter = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "TileCacheWriter");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        mWriter.allowCoreThreadTimeOut(true);
+        mWriter.execute(this::measure);
+    }
+
+    private File getFile(MapType mapType, Dimension dimension, int chunksPerTile, int column, int row) {
+        // Tiles rendered with other settings are in a folder of their own.
+        String settings = mapType.renderer.getSettingsKey();
+        String type = settings.isEmpty() ? mapType.name() : mapType.name() + '-' + settings;
+        return new File(mFolder, dimension.dataName + File.separator + type
+                + File.separator + chunksPerTile + File.separator + column + "_" + row + ".tile");
+    }
+
+    /**
+     * Fingerprint of a tile from those of the chunks it is rendered from, in a fixed order,
+     * see {@link Chunk#getRecordsFingerprint}.
+     */
+    public static long fingerprint(@NonNull long[] chunkFingerprints) {
+        CRC32 crc = new CRC32();
+        Adler32 adler = new Adler32();
+        byte[] bytes = new byte[8];
+        for (long value : chunkFingerprints) {
+            for (int i = 0; i < 8; i++) bytes[i] = (byte) (value >> (56 - (i << 3)));
+            crc.update(bytes);
+            adler.update(bytes);
+        }
+        return (crc.getValue() << 32) | adler.getValue();
+    }
+
+    /**
+     * Whether a tile was cached, valid or not.
+     */
+    public boolean contains(@NonNull MapType mapType, @NonNull Dimension dimension, int chunksPerTile,
+                            int column, int row) {
+        return getFile(mapType, dimension, chunksPerTile, column, row).isFile();
+    }
+
+    /**
+     * Draws a cached tile into {@code target}.
+     *
+     * @param fingerprint computes the fingerprint of the tile if the db changed since it was cached
+     * @return whether there was a valid tile
+     */
+    public boolean read(@NonNull MapType mapType, @NonNull Dimension dimension, int chunksPerTile,
+                        int column, int row, long sequence, @NonNull Fingerprint fingerprint,
+                        @NonNull Bitmap target) {
+        File file = getFile(mapType, dimension, chunksPerTile, column, row);
+        if (!file.isFile()) return false;
+        byte[] data;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            data = new byte[(int) file.length()];
+            in.readFully(data);
+        } catch (IOException e) {
+            Log.d(this, e);
+            return false;
+        }
+        if (data.length <= HEADER_SIZE || readInt(data, 0) != MAGIC || readInt(data, 4) != FORMAT_VERSION) {
+            delete(file);
+            return false;
+        }
+        long cachedSequence = readLong(data, SEQUENCE_OFFSET);
+        if (cachedSequence != sequence) {
+            try {
+                if (fingerprint.compute() != readLong(data, SEQUENCE_OFFSET + 8)) {
+                    delete(file);
+                    return false;
+                }
+            } catch (UnknownFingerprintException e) {
+                // Edited chunks, the tile gets rendered from them.
+                return false;
+            } catch (Exception e) {
+                Log.d(this, e);
+                return false;
+            }
+            // Still good, no need to check again until the db changes.
+            mWriter.execute(() -> restamp(file, sequence));
+        }
+        fingerprint.onCached(readLong(data, SEQUENCE_OFFSET + 8));
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = target.getConfig();
+        options.inMutable = true;
+        options.inBitmap = target;
+        Bitmap decoded;
+        try {
+            decoded = BitmapFactory.decodeByteArray(data, HEADER_SIZE, data.length - HEADER_SIZE, options);
+        } catch (IllegalArgumentException e) {
+            // Could not be decoded into the target, size or config mismatch.
+            options.inBitmap = null;
+            decoded = BitmapFactory.decodeByteArray(data, HEADER_SIZE, data.length - HEADER_SIZE, options);
+        }
+        if (decoded == null) {
+            delete(file);
+            return false;
+        }
+        if (decoded != target) {
+            new Canvas(target).drawBitmap(decoded, 0, 0, null);
+            decoded.recycle();
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Stores a rendered tile in the background. The bitmap is copied, the caller may reuse it.
+     */
+    public void write(@NonNull MapType mapType, @NonNull Dimension dimension, int chunksPerTile,
+                      int column, int row, long sequence, long fingerprint, @NonNull Bitmap bitmap) {
+        Bitmap copy = bitmap.copy(bitmap.getConfig(), false);
+        if (copy == null) return;
+        File file = getFile(mapType, dimension, chunksPerTile, column, row);
+        mWriter.execute(() -> {
+            try {
+                File parent = file.getParentFile();
+                if (parent == null || (!parent.isDirectory() && !parent.mkdirs())) return;
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(32 << 10);
+                DataOutputStream out = new DataOutputStream(buffer);
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(sequence);
+                out.writeLong(fingerprint);
+                if (!copy.compress(Bitmap.CompressFormat.PNG, 100, out)) return;
+                long oldLength = file.length();
+                File temp = new File(parent, file.getName() + ".tmp");
+                try (FileOutputStream fos = new FileOutputStream(temp)) {
+                    buffer.writeTo(fos);
+                }
+                if (!temp.renameTo(file)) {
+                    delete(temp);
+                    return;
+                }
+                if (mBytes.get() >= 0 && mBytes.addAndGet(buffer.size() - oldLength) > mMaxBytes)
+                    trim();
+            } catch (IOException e) {
+                Log.d(this, e);
+            } finally {
+                copy.recycle();
+            }
+        });
+    }
+
+    /**
+     * Drops the cached tiles of the coarser detail levels covering a tile, they were built
+     * from it. Queued behind pending writes, so a tile written afterwards is kept.
+     *
+     * @param maxChunksPerTile the coarsest detail level
+     */
+    public void invalidateAncestors(@NonNull MapType mapType, @NonNull Dimension dimension,
+                                    int chunksPerTile, int column, int row, int maxChunksPerTile) {
+        mWriter.execute(() -> {
+            for (int n = chunksPerTile << 1, c = column >> 1, r = row >> 1; n <= maxChunksPerTile;
+                 n <<= 1, c >>= 1, r >>= 1)
+                delete(getFile(mapType, dimension, n, c, r));
+        });
+    }
+
+    /**
+     * Drops every cached tile.
+     */
+    public void clear() {
+        mWriter.execute(() -> {
+            for (File file : listTiles()) delete(file);
+            mBytes.set(0);
+        });
+    }
+
+    private void restamp(File file, long sequence) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(SEQUENCE_OFFSET);
+            raf.writeLong(sequence);
+        } catch (IOException e) {
+            Log.d(this, e);
+        }
+    }
+
+    private void measure() {
+        long bytes = 0;
+        for (File file : listTiles()) bytes += file.length();
+        mBytes.set(bytes);
+        if (bytes > mMaxBytes) trim();
+    }
+
+    private void trim() {
+        List<File> files = listTiles();
+        long[] lastModified = new long[files.size()];
+        List<Integer> order = new ArrayList<>(files.size());
+        long bytes = 0;
+        for (int i = 0; i < lastModified.length; i++) {
+            File file = files.get(i);
+            lastModified[i] = file.lastModified();
+            bytes += file.length();
+            order.add(i);
+        }
+        Collections.sort(order, (a, b) -> Long.compare(lastModified[a], lastModified[b]));
+        // Leave some room so a few new tiles don't trigger another pass immediately.
+        long target = mMaxBytes * 3 / 4;
+        for (int i = 0, size = order.size(); i < size && bytes > target; i++) {
+            File file = files.get(order.get(i));
+            long length = file.length();
+            if (file.delete()) bytes -= length;
+        }
+        mBytes.set(bytes);
+    }
+
+    private List<File> listTiles() {
+        List<File> out = new ArrayList<>();
+        listTiles(mFolder, out);
+        return out;
+    }
+
+    private static void listTiles(File folder, List<File> out) {
+        File[] files = folder.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (file.isDirectory()) listTiles(file, out);
+            else out.add(file);
+        }
+    }
+
+    private void delete(@Nullable File file) {
+        if (file == null) return;
+        long length = file.length();
+        if (file.delete() && mBytes.get() >= 0) mBytes.addAndGet(-length);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        return ((long) readInt(data, offset) << 32) | (readInt(data, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    public interface Fingerprint {
+
+        /**
+         * @throws UnknownFingerprintException if a chunk holds changes the records don't have
+         */
+        long compute() throws Exception;
+
+        /**
+         * Receives the fingerprint stored with a valid cached tile, so it needn't be computed.
+         */
+        default void onCached(long fingerprint) {
+        }
+    }
+
+    /**
+     * Thrown when what a tile shows can't be told by a fingerprint, it is not cached then.
+     */
+    public static final class UnknownFingerprintException extends Exception {
+        private static final long serialVersionUID = 7406538243016254862L;
+
+        public UnknownFingerprintException(String msg) {
+            super(msg);
+        }
+    }
+}
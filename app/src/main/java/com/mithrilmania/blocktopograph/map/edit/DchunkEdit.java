@@ -3,14 +3,17 @@ package com.mithrilmania.blocktopograph.map.edit;
 import com.mithrilmania.blocktopograph.Log;
 import com.mithrilmania.blocktopograph.chunk.Chunk;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class DchunkEdit implements EditTarget.ChunkBasedEdit {
 
     private static final int MAX_EXCEPTION = 5;
 
-    private int exceptionCount;
+    // Edits may run concurrently.
+    private final AtomicInteger exceptionCount;
 
     public DchunkEdit() {
-        exceptionCount = 0;
+        exceptionCount = new AtomicInteger();
     }
 
     @Override
@@ -18,10 +21,8 @@ public class DchunkEdit implements EditTarget.ChunkBasedEdit {
         try {
             chunk.deleteThis();
         } catch (Exception e) {
-            if (exceptionCount < MAX_EXCEPTION) {
+            if (exceptionCount.getAndIncrement() < MAX_EXCEPTION)
                 Log.d(this, e);
-                exceptionCount++;
-            }
             return -1;
         }
         return 0;
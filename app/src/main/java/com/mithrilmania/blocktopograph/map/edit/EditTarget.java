@@ -1,8 +1,11 @@
 package com.mithrilmania.blocktopograph.map.edit;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import com.mithrilmania.blocktopograph.EditTransaction;
 import com.mithrilmania.blocktopograph.WorldData;
+import com.mithrilmania.blocktopograph.backup.EditJournal;
 import com.mithrilmania.blocktopograph.chunk.Chunk;
 
 
@@ -10,6 +13,13 @@ public abstract class EditTarget {
 
     protected int mMaxError = 10;
 
+    protected boolean mParallel;
+
+    protected int mMaxBatchBytes = EditTransaction.DEFAULT_MAX_BATCH_BYTES;
+
+    @Nullable
+    protected EditJournal.Recorder mJournalRecorder;
+
     protected final boolean mIsChunkAware;
     @NonNull
     protected final WorldData mWorldData;
@@ -29,6 +39,27 @@ public abstract class EditTarget {
         mMaxError = maxError;
     }
 
+    /**
+     * Lets the edit run on several threads, in no particular order. The edit must not
+     * depend on the order and must be safe to call concurrently for different chunks.
+     */
+    public final void setParallel(boolean parallel) {
+        mParallel = parallel;
+    }
+
+    /**
+     * Size from which the collected writes are committed, see {@link WorldData#beginTransaction}.
+     */
+    public final void setMaxBatchBytes(int maxBatchBytes) {
+        mMaxBatchBytes = maxBatchBytes;
+    }
+
+    /**
+     * Journals the old value of every key the edit writes, so it can be undone.
+     */
+    public final void setJournalRecorder(@Nullable EditJournal.Recorder recorder) {
+        mJournalRecorder = recorder;
+    }
 
     public final boolean isChunkAware() {
         return mIsChunkAware;
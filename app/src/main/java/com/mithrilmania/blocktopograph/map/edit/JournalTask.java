@@ -0,0 +1,96 @@
+package com.mithrilmania.blocktopograph.map.edit;
+
+import android.app.Activity;
+import android.content.DialogInterface;
+import android.os.AsyncTask;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
+
+import com.mithrilmania.blocktopograph.Log;
+import com.mithrilmania.blocktopograph.R;
+import com.mithrilmania.blocktopograph.WorldData;
+import com.mithrilmania.blocktopograph.backup.EditJournal;
+import com.mithrilmania.blocktopograph.map.MapFragment;
+import com.mithrilmania.blocktopograph.util.UiUtil;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Undoes or redoes the last journaled edit, see {@link EditJournal}.
+ */
+public class JournalTask extends AsyncTask<Void, Void, Boolean> {
+
+    private final boolean mRedo;
+
+    @NonNull
+    private final EditJournal mJournal;
+
+    @NonNull
+    private final WorldData mWorldData;
+
+    @NonNull
+    private final WeakReference<MapFragment> mOwner;
+
+    private AlertDialog mWaitDialog;
+
+    public JournalTask(boolean redo, @NonNull MapFragment owner) {
+        mRedo = redo;
+        mJournal = owner.world.getEditJournal();
+        mWorldData = owner.world.getWorldData();
+        mOwner = new WeakReference<>(owner);
+    }
+
+    @Override
+    protected void onPreExecute() {
+        MapFragment owner = mOwner.get();
+        Activity activity;
+        if (owner == null || (activity = owner.getActivity()) == null) return;
+        mWaitDialog = UiUtil.buildProgressWaitDialog(
+                activity, R.string.general_please_wait, this::onCancel
+        );
+        mWaitDialog.show();
+        owner.world.setHaveBackgroundJob(true);
+    }
+
+    /**
+     * @return whether there was something to roll, null on failure
+     */
+    @Override
+    protected Boolean doInBackground(Void... voids) {
+        try {
+            return mRedo ? mJournal.redo(mWorldData) : mJournal.undo(mWorldData);
+        } catch (Exception e) {
+            Log.e(this, e);
+            return null;
+        }
+    }
+
+    private void onCancel(DialogInterface dialogInterface) {
+        // Rolling can't be stopped half way, just stop waiting for it.
+        mWaitDialog = null;
+    }
+
+    @Override
+    protected void onPostExecute(@Nullable Boolean rolled) {
+        if (mWaitDialog != null) {
+            mWaitDialog.dismiss();
+        }
+        MapFragment owner = mOwner.get();
+        Activity activity;
+        if (owner != null && (activity = owner.getActivity()) != null) {
+            owner.world.setHaveBackgroundJob(false);
+            if (rolled == null) {
+                Toast.makeText(activity, R.string.general_failed, Toast.LENGTH_SHORT).show();
+            } else if (rolled) {
+                Toast.makeText(activity, R.string.general_done, Toast.LENGTH_SHORT).show();
+                owner.refreshAfterEdit();
+            } else {
+                Toast.makeText(activity, mRedo ? R.string.edit_nothing_to_redo : R.string.edit_nothing_to_undo,
+                        Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
+}
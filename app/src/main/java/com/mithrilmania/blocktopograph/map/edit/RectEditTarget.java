@@ -6,12 +6,28 @@ import android.graphics.Rect;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.litl.leveldb.DB;
+import com.litl.leveldb.WriteBatch;
+import com.mithrilmania.blocktopograph.EditTransaction;
 import com.mithrilmania.blocktopograph.Log;
 import com.mithrilmania.blocktopograph.WorldData;
 import com.mithrilmania.blocktopograph.chunk.Chunk;
+import com.mithrilmania.blocktopograph.chunk.ChunkIndex;
 import com.mithrilmania.blocktopograph.chunk.Version;
 import com.mithrilmania.blocktopograph.map.Dimension;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
 
 public class RectEditTarget extends EditTarget {
 
@@ -25,6 +41,27 @@ public class RectEditTarget extends EditTarget {
     @NonNull
     private final Dimension dimension;
 
+    // Chunks per side of the batches a parallel edit is split into.
+    private static final int BATCH_CHUNKS = 4;
+
+    private static final int WORKERS = Runtime.getRuntime().availableProcessors();
+
+    // Batches done but not written yet are held in memory, a worker waits before going further ahead.
+    private static final int MAX_PENDING_BATCHES = 2 * WORKERS;
+
+    // Shared by all parallel edits.
+    private static final ThreadPoolExecutor sWorkers;
+
+    static {
+        sWorkers = new ThreadPoolExecutor(WORKERS, WORKERS, 5, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "RectEdit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sWorkers.allowCoreThreadTimeOut(true);
+    }
+
     public RectEditTarget(@NonNull WorldData worldData, @NonNull Rect area, @NonNull Dimension dimension) {
         super(true, worldData);
         mArea = new Rect(area);
@@ -50,96 +87,354 @@ public class RectEditTarget extends EditTarget {
         return forEach(true, false, edit, null);
     }
 
-    @SuppressLint("DefaultLocale")
     private EditResultCode forEach(boolean chunkBased, boolean is2d,
                                    @Nullable ChunkBasedEdit chunkBasedEdit,
                                    @Nullable RandomAccessEdit randomAccessEdit) {
+        if (mParallel) return forEachParallel(chunkBased, is2d, chunkBasedEdit, randomAccessEdit);
 
-        int exceptionCount = 0;
+        ErrorCounter errors = new ErrorCounter(new AtomicInteger());
 
         int chunkMinX = mArea.left >> 4;
         int chunkMaxX = mArea.right >> 4;
         int chunkMinZ = mArea.top >> 4;
         int chunkMaxZ = mArea.bottom >> 4;
 
-        // Cache should not be used till end.
+        EditTransaction transaction;
+        try {
+            transaction = mWorldData.beginTransaction(mMaxBatchBytes, null, mJournalRecorder);
+        } catch (WorldData.WorldDBException e) {
+            Log.d(this, e);
+            return EditResultCode.DB_ERROR;
+        }
 
-        for (int chunkX = chunkMinX; chunkX <= chunkMaxX; chunkX++) {
-            int innerMinX = (chunkX == chunkMinX) ? (mArea.left & 0xf) : 0;
-            int innerMaxX = (chunkX == chunkMaxX) ? (mArea.right & 0xf) : 15;
+        try {
+            for (int chunkX = chunkMinX; chunkX <= chunkMaxX; chunkX++) {
+                for (int chunkZ = chunkMinZ; chunkZ <= chunkMaxZ; chunkZ++) {
+                    if (!editChunk(chunkX, chunkZ, chunkBased, is2d, chunkBasedEdit, randomAccessEdit, errors)) {
+                        // Keep what was done, like before.
+                        transaction.commit();
+                        return EditResultCode.QUIT_TOO_MANY_ERROR;
+                    }
+                    transaction.chunkDone();
+                }// End for ChunkZ
+            }// End for ChunkX
+            transaction.commit();
+            Log.d(this, transaction.toString());
+        } finally {
+            transaction.close();
+        }
+
+        mWorldData.resetCache();
+        return errors.hasAny() ? EditResultCode.PARTIALLY_FAILED : EditResultCode.SUCCESS;
+    }
 
-            for (int chunkZ = chunkMinZ; chunkZ <= chunkMaxZ; chunkZ++) {
-                int innerMinZ = (chunkZ == chunkMinZ) ? (mArea.top & 0xf) : 0;
-                int innerMaxZ = (chunkZ == chunkMaxZ) ? (mArea.bottom & 0xf) : 15;
+    /**
+     * Splits the area into batches of chunks, taken in order by the workers of a shared pool.
+     * Every batch collects its writes in an {@link EditTransaction} and the batches are committed
+     * to the db in their order in the area, so the result matches the sequential walk.
+     */
+    @SuppressLint("DefaultLocale")
+    private EditResultCode forEachParallel(boolean chunkBased, boolean is2d,
+                                           @Nullable ChunkBasedEdit chunkBasedEdit,
+                                           @Nullable RandomAccessEdit randomAccessEdit) {
+        try {
+            mWorldData.openDB();
+        } catch (WorldData.WorldDBException e) {
+            Log.d(this, e);
+            return EditResultCode.DB_ERROR;
+        }
+
+        int chunkMinX = mArea.left >> 4;
+        int chunkMinZ = mArea.top >> 4;
+        int batchesX = ((mArea.right >> 4) - chunkMinX) / BATCH_CHUNKS + 1;
+        int batchesZ = ((mArea.bottom >> 4) - chunkMinZ) / BATCH_CHUNKS + 1;
 
-                Chunk chunk = mWorldData.getChunkStreaming(chunkX, chunkZ, dimension, false, Version.V1_2_PLUS);
+        AtomicInteger errorTotal = new AtomicInteger();
+        AtomicBoolean quit = new AtomicBoolean();
+        AtomicLong records = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        long start = System.nanoTime();
+        int batchCount = batchesX * batchesZ;
+        OrderedCommitter committer = new OrderedCommitter(mWorldData.db, batchCount);
 
-                if (chunkBased) {
-                    int result = chunkBasedEdit.edit(chunk, innerMinX, innerMaxX, yLowest, yHighest, innerMinZ, innerMaxZ);
-                    if (result != 0) {
-                        if (exceptionCount < 5 || exceptionCount > mMaxError) {
-                            Log.d(this, String.format(
-                                    "Failed with chunk (%d,%d), code %d",
-                                    chunkX, chunkZ, result));
-                            if (exceptionCount > mMaxError)
-                                return EditResultCode.QUIT_TOO_MANY_ERROR;
-                            exceptionCount++;
+        IntConsumer runBatch = index -> {
+            if (quit.get()) {
+                committer.commit(index, null, null);
+                return;
+            }
+            int fromX = chunkMinX + (index / batchesZ) * BATCH_CHUNKS;
+            int fromZ = chunkMinZ + (index % batchesZ) * BATCH_CHUNKS;
+            int toX = Math.min(fromX + BATCH_CHUNKS - 1, mArea.right >> 4);
+            int toZ = Math.min(fromZ + BATCH_CHUNKS - 1, mArea.bottom >> 4);
+            ErrorCounter errors = new ErrorCounter(errorTotal);
+            EditTransaction transaction;
+            try {
+                // A single batch per task, the committer keeps them in order.
+                transaction = mWorldData.beginTransaction(Integer.MAX_VALUE,
+                        (batch, written) -> committer.commit(index, batch, written), mJournalRecorder);
+            } catch (WorldData.WorldDBException e) {
+                if (errors.report(e)) quit.set(true);
+                committer.commit(index, null, null);
+                return;
+            }
+            boolean handedOver = false;
+            try {
+                for (int chunkX = fromX; chunkX <= toX && !quit.get(); chunkX++) {
+                    for (int chunkZ = fromZ; chunkZ <= toZ; chunkZ++) {
+                        if (!editChunk(chunkX, chunkZ, chunkBased, is2d, chunkBasedEdit, randomAccessEdit, errors)) {
+                            quit.set(true);
+                            break;
                         }
                     }
-                } else {
-                    boolean supportHightMap = chunk.supportsHeightMap();
-
-                    for (int innerX = innerMinX; innerX <= innerMaxX; innerX++) {
-                        for (int innerZ = innerMinZ; innerZ <= innerMaxZ; innerZ++) {
-
-                            if (is2d) {
-                                int result = randomAccessEdit.edit(chunk, innerX, 0, innerZ);
-                                if (result != 0) {
-                                    if (exceptionCount < 5 || exceptionCount > mMaxError) {
-                                        Log.d(this, String.format(
-                                                "Failed with chunk (%d,%d), rel (%d,%d), code %d",
-                                                chunkX, chunkZ, innerX, innerZ, result));
-                                        if (exceptionCount > mMaxError)
-                                            return EditResultCode.QUIT_TOO_MANY_ERROR;
-                                        exceptionCount++;
-                                    }
-                                }
-                            } else {
-
-                                //Math.min(yHighest, chunk.getHeightMapValue(innerX, innerZ) - 1)
-                                //: yHighest;
-                                for (int y = yLowest; y <= yHighest; y++) {
-                                    int result = randomAccessEdit.edit(chunk, innerX, y, innerZ);
-                                    if (result != 0) {
-                                        if (exceptionCount < 5 || exceptionCount > mMaxError) {
-                                            Log.d(this, String.format(
-                                                    "Failed with chunk (%d,%d), rel (%d,%d,%d), code %d",
-                                                    chunkX, chunkZ, innerX, y, innerZ, result));
-                                            if (exceptionCount > mMaxError)
-                                                return EditResultCode.QUIT_TOO_MANY_ERROR;
-                                            exceptionCount++;
-                                        }
-                                    }
-                                }// End for y
-
-                            }
-                        }// End for innerZ
-                    }// End for innerX
                 }
+            } catch (RuntimeException e) {
+                // Keep the other batches going, what this one did so far is still committed.
+                if (errors.report(e)) quit.set(true);
+            } finally {
+                try {
+                    handedOver = transaction.commit();
+                    records.addAndGet(transaction.getRecordCount());
+                    bytes.addAndGet(transaction.getByteCount());
+                } finally {
+                    transaction.close();
+                    // Always handed over, later batches wait for it.
+                    if (!handedOver) committer.commit(index, null, null);
+                }
+            }
+        };
 
+        // Claimed in index order, so the batches before any waiting one are all being worked on.
+        AtomicInteger nextIndex = new AtomicInteger();
+        Runnable worker = () -> {
+            for (int index; (index = nextIndex.getAndIncrement()) < batchCount; ) {
                 try {
-                    chunk.save();
-                } catch (Exception e) {
-                    if (exceptionCount < 5 || exceptionCount > mMaxError) {
-                        Log.d(this, e);
-                        if (exceptionCount > mMaxError) return EditResultCode.QUIT_TOO_MANY_ERROR;
-                        exceptionCount++;
-                    }
+                    committer.awaitRoom(index);
+                } catch (InterruptedException e) {
+                    // Skip the rest, they are still handed over.
+                    quit.set(true);
+                }
+                runBatch.accept(index);
+            }
+        };
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0, count = Math.min(WORKERS, batchCount); i < count; i++)
+            workers.add(sWorkers.submit(worker));
+        boolean interrupted = false;
+        for (Future<?> future : workers) {
+            for (; ; ) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // The workers hold the db, let them wind down first.
+                    interrupted = true;
+                    quit.set(true);
+                } catch (ExecutionException e) {
+                    Log.d(this, e);
+                    errorTotal.incrementAndGet();
+                    break;
                 }
-            }// End for ChunkZ
-        }// End for ChunkX
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
 
+        errorTotal.addAndGet(committer.getFailures());
+        Log.d(this, String.format("Parallel edit wrote %d records, %d bytes in %d batches, %.1f records/s",
+                records.get(), bytes.get(), batchCount,
+                records.get() / Math.max((System.nanoTime() - start) / 1e9, 1e-3)));
         mWorldData.resetCache();
-        return exceptionCount > 0 ? EditResultCode.PARTIALLY_FAILED : EditResultCode.SUCCESS;
+        if (quit.get()) return EditResultCode.QUIT_TOO_MANY_ERROR;
+        return errorTotal.get() > 0 ? EditResultCode.PARTIALLY_FAILED : EditResultCode.SUCCESS;
+    }
+
+    /**
+     * Edits and saves one chunk.
+     *
+     * @return false once there were too many errors
+     */
+    @SuppressLint("DefaultLocale")
+    private boolean editChunk(int chunkX, int chunkZ, boolean chunkBased, boolean is2d,
+                              @Nullable ChunkBasedEdit chunkBasedEdit,
+                              @Nullable RandomAccessEdit randomAccessEdit,
+                              @NonNull ErrorCounter errors) {
+
+        // Missing chunks are not created, nothing to edit there.
+        ChunkIndex chunkIndex = mWorldData.getChunkIndex();
+        if (chunkIndex != null && !chunkIndex.mightContain(dimension, chunkX, chunkZ))
+            return true;
+
+        int chunkMinX = mArea.left >> 4;
+        int chunkMaxX = mArea.right >> 4;
+        int chunkMinZ = mArea.top >> 4;
+        int chunkMaxZ = mArea.bottom >> 4;
+        int innerMinX = (chunkX == chunkMinX) ? (mArea.left & 0xf) : 0;
+        int innerMaxX = (chunkX == chunkMaxX) ? (mArea.right & 0xf) : 15;
+        int innerMinZ = (chunkZ == chunkMinZ) ? (mArea.top & 0xf) : 0;
+        int innerMaxZ = (chunkZ == chunkMaxZ) ? (mArea.bottom & 0xf) : 15;
+
+        Chunk chunk = mWorldData.getChunkStreaming(chunkX, chunkZ, dimension, false, Version.V1_2_PLUS);
+
+        if (chunkBased) {
+            int result = chunkBasedEdit.edit(chunk, innerMinX, innerMaxX, yLowest, yHighest, innerMinZ, innerMaxZ);
+            if (result != 0 && errors.report(String.format(
+                    "Failed with chunk (%d,%d), code %d",
+                    chunkX, chunkZ, result)))
+                return false;
+        } else {
+            for (int innerX = innerMinX; innerX <= innerMaxX; innerX++) {
+                for (int innerZ = innerMinZ; innerZ <= innerMaxZ; innerZ++) {
+
+                    if (is2d) {
+                        int result = randomAccessEdit.edit(chunk, innerX, 0, innerZ);
+                        if (result != 0 && errors.report(String.format(
+                                "Failed with chunk (%d,%d), rel (%d,%d), code %d",
+                                chunkX, chunkZ, innerX, innerZ, result)))
+                            return false;
+                    } else {
+
+                        //Math.min(yHighest, chunk.getHeightMapValue(innerX, innerZ) - 1)
+                        //: yHighest;
+                        for (int y = yLowest; y <= yHighest; y++) {
+                            int result = randomAccessEdit.edit(chunk, innerX, y, innerZ);
+                            if (result != 0 && errors.report(String.format(
+                                    "Failed with chunk (%d,%d), rel (%d,%d,%d), code %d",
+                                    chunkX, chunkZ, innerX, y, innerZ, result)))
+                                return false;
+                        }// End for y
+
+                    }
+                }// End for innerZ
+            }// End for innerX
+        }
+
+        try {
+            chunk.save();
+        } catch (Exception e) {
+            return !errors.report(e);
+        }
+        return true;
+    }
+
+    /**
+     * Errors of one worker, only its first few are logged. The total of all workers
+     * decides when to give up.
+     */
+    private final class ErrorCounter {
+
+        private static final int MAX_LOGGED = 5;
+
+        @NonNull
+        private final AtomicInteger mTotal;
+
+        private int mCount;
+
+        ErrorCounter(@NonNull AtomicInteger total) {
+            mTotal = total;
+        }
+
+        /**
+         * @return whether there were too many errors
+         */
+        boolean report(@NonNull String message) {
+            if (mCount++ < MAX_LOGGED) Log.d(RectEditTarget.this, message);
+            return mTotal.incrementAndGet() > mMaxError;
+        }
+
+        boolean report(@NonNull Exception e) {
+            if (mCount++ < MAX_LOGGED) Log.d(RectEditTarget.this, e);
+            return mTotal.incrementAndGet() > mMaxError;
+        }
+
+        boolean hasAny() {
+            return mCount > 0;
+        }
+    }
+
+    /**
+     * Writes the batches to the db in index order, whichever worker finishes them.
+     * A finished batch waits here until all before it are written, by the one worker
+     * writing at a time, outside the lock so the others can hand theirs over meanwhile.
+     */
+    private static final class OrderedCommitter {
+
+        @NonNull
+        private final DB mDb;
+
+        private final WriteBatch[] mBatches;
+
+        private final Runnable[] mWritten;
+
+        private final boolean[] mDone;
+
+        // All before it are written.
+        private int mNext;
+
+        private boolean mWriting;
+
+        private int mFailures;
+
+        OrderedCommitter(@NonNull DB db, int count) {
+            mDb = db;
+            mBatches = new WriteBatch[count];
+            mWritten = new Runnable[count];
+            mDone = new boolean[count];
+        }
+
+        /**
+         * Waits until the batch is close enough to the next one written to be started.
+         */
+        synchronized void awaitRoom(int index) throws InterruptedException {
+            while (index >= mNext + MAX_PENDING_BATCHES) wait();
+        }
+
+        /**
+         * @param batch   null if the batch was skipped
+         * @param written runs once the batch is in the db
+         */
+        void commit(int index, @Nullable WriteBatch batch, @Nullable Runnable written) {
+            synchronized (this) {
+                mBatches[index] = batch;
+                mWritten[index] = written;
+                mDone[index] = true;
+                // The worker writing picks it up.
+                if (mWriting) return;
+                mWriting = true;
+            }
+            for (; ; ) {
+                WriteBatch next;
+                Runnable nextWritten;
+                synchronized (this) {
+                    while (mNext < mDone.length && mDone[mNext] && mBatches[mNext] == null) mNext++;
+                    if (mNext == mDone.length || !mDone[mNext]) {
+                        mWriting = false;
+                        notifyAll();
+                        return;
+                    }
+                    next = mBatches[mNext];
+                    nextWritten = mWritten[mNext];
+                    mBatches[mNext] = null;
+                    mWritten[mNext] = null;
+                }
+                boolean failed = false;
+                try {
+                    mDb.write(next);
+                    if (nextWritten != null) nextWritten.run();
+                } catch (RuntimeException e) {
+                    Log.d(this, e);
+                    failed = true;
+                } finally {
+                    next.close();
+                    synchronized (this) {
+                        if (failed) mFailures++;
+                        mNext++;
+                        notifyAll();
+                    }
+                }
+            }
+        }
+
+        synchronized int getFailures() {
+            return mFailures;
+        }
     }
 }
@@ -10,7 +10,9 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 
+import com.mithrilmania.blocktopograph.Log;
 import com.mithrilmania.blocktopograph.R;
+import com.mithrilmania.blocktopograph.backup.EditJournal;
 import com.mithrilmania.blocktopograph.block.BlockTemplates;
 import com.mithrilmania.blocktopograph.block.OldBlockRegistry;
 import com.mithrilmania.blocktopograph.block.KnownBlockRepr;
@@ -36,6 +38,9 @@ public class SelectionBasedContextFreeEditTask extends
     @NonNull
     private final OldBlockRegistry registry;
 
+    @NonNull
+    private final EditJournal mJournal;
+
     private AlertDialog mWaitDialog;
 
     public SelectionBasedContextFreeEditTask(
@@ -45,6 +50,7 @@ public class SelectionBasedContextFreeEditTask extends
         mArgs = args;
         this.registry = registry;
         mOwner = new WeakReference<>(owner);
+        mJournal = owner.world.getEditJournal();
     }
 
     @Override
@@ -61,7 +67,24 @@ public class SelectionBasedContextFreeEditTask extends
 
     @Override
     protected EditResultCode doInBackground(EditTarget... editTargets) {
+        if (editTargets.length == 0) return null;
+
+        // Journal what gets overwritten so the edit can be undone, edit anyway if that fails.
+        EditJournal.Recorder recorder = null;
+        try {
+            recorder = mJournal.begin(editTargets[0].mWorldData, mFunction.name());
+        } catch (Exception e) {
+            Log.d(this, e);
+        }
+        for (EditTarget editTarget : editTargets) editTarget.setJournalRecorder(recorder);
+        try {
+            return edit(editTargets);
+        } finally {
+            if (recorder != null) recorder.close();
+        }
+    }
 
+    private EditResultCode edit(EditTarget... editTargets) {
         switch (mFunction) {
             case LAMPSHADE: {
                 SnrConfig cfg = new SnrConfig();
@@ -95,7 +118,9 @@ public class SelectionBasedContextFreeEditTask extends
         SnrEdit edit = new SnrEdit(cfg);
         for (EditTarget editTarget : editTargets) {
             editTarget.setMaxError(Integer.MAX_VALUE);
-            editTarget.forEachXyz(edit);
+            editTarget.setParallel(true);
+            if (editTarget.isChunkAware() && edit.canReplaceByPalette()) editTarget.forEachChunk(edit);
+            else editTarget.forEachXyz(edit);
         }
         return EditResultCode.SUCCESS;
     }
@@ -104,6 +129,7 @@ public class SelectionBasedContextFreeEditTask extends
         DchunkEdit edit = new DchunkEdit();
         for (EditTarget editTarget : editTargets) {
             editTarget.setMaxError(Integer.MAX_VALUE);
+            editTarget.setParallel(true);
             editTarget.forEachChunk(edit);
         }
         return EditResultCode.SUCCESS;
@@ -114,6 +140,7 @@ public class SelectionBasedContextFreeEditTask extends
         ChBiomeEdit edit = new ChBiomeEdit(from, to);
         for (EditTarget editTarget : editTargets) {
             editTarget.setMaxError(Integer.MAX_VALUE);
+            editTarget.setParallel(true);
             editTarget.forEachXz(edit);
         }
         return EditResultCode.SUCCESS;
@@ -2,12 +2,13 @@ package com.mithrilmania.blocktopograph.map.edit;
 
 import androidx.annotation.NonNull;
 
+import com.mithrilmania.blocktopograph.Log;
 import com.mithrilmania.blocktopograph.block.Block;
 import com.mithrilmania.blocktopograph.block.OldBlock;
 import com.mithrilmania.blocktopograph.chunk.Chunk;
 
 
-public class SnrEdit implements EditTarget.RandomAccessEdit {
+public class SnrEdit implements EditTarget.RandomAccessEdit, EditTarget.ChunkBasedEdit {
 
     private final SnrConfig config;
     private SnrConfig.SearchConditionBlock b1;
@@ -40,6 +41,27 @@ public class SnrEdit implements EditTarget.RandomAccessEdit {
         }
     }
 
+    /**
+     * Whether the search and the placement concern the same single layer. Matches can then be
+     * replaced chunk by chunk through the block palettes, see {@link Chunk#replaceBlocks}.
+     */
+    boolean canReplaceByPalette() {
+        return (config.searchMode == 1 && config.placeMode == 1)
+                || (config.searchMode == 2 && config.placeMode == 2);
+    }
+
+    @Override
+    public int edit(Chunk chunk, int fromX, int toX, int fromY, int toY, int fromZ, int toZ) {
+        try {
+            chunk.replaceBlocks(config.searchMode == 1 ? 1 : 0, b1::matches, b3,
+                    fromX, toX, fromY, toY, fromZ, toZ);
+        } catch (RuntimeException e) {
+            Log.d(this, e);
+            return -1;
+        }
+        return 0;
+    }
+
     @Override
     public int edit(Chunk chunk, int x, int y, int z) {
         if (
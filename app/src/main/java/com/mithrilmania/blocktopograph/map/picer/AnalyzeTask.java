@@ -10,6 +10,7 @@ import com.mithrilmania.blocktopograph.Log;
 import com.mithrilmania.blocktopograph.R;
 import com.mithrilmania.blocktopograph.World;
 import com.mithrilmania.blocktopograph.WorldData;
+import com.mithrilmania.blocktopograph.chunk.ChunkIndex;
 import com.mithrilmania.blocktopograph.chunk.Version;
 import com.mithrilmania.blocktopograph.map.Dimension;
 import com.mithrilmania.blocktopograph.util.UiUtil;
@@ -17,6 +18,7 @@ import com.mithrilmania.blocktopograph.util.UiUtil;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
@@ -24,6 +26,9 @@ import androidx.appcompat.app.AlertDialog;
 
 class AnalyzeTask extends AsyncTask<Void, Void, Rect> {
 
+    private static final int BATCH_ENTRIES = 4096;
+    private static final int BATCH_BYTES = 1 << 16;
+
     private final WeakReference<PicerFragment> owner;
     private boolean hasWrongChunks;
     private boolean hasOldChunks;
@@ -58,6 +63,7 @@ class AnalyzeTask extends AsyncTask<Void, Void, Rect> {
 
         // Get db.
         DB db = null;
+        ChunkIndex chunkIndex = null;
         getDb:
         {
             World world = owner.mWorld;
@@ -69,10 +75,28 @@ class AnalyzeTask extends AsyncTask<Void, Void, Rect> {
                 break getDb;
             }
             db = worldData.db;
+            chunkIndex = worldData.getChunkIndex();
         }
         if (db == null) return null;
 
         Dimension dimension = owner.mDimension;
+
+        // The chunk index knows the bounds already, scan the db only if it can't help.
+        // Unreadable chunks are left out of the bounds and reported, that takes the scan too.
+        if (chunkIndex != null) {
+            try {
+                chunkIndex.awaitReady();
+            } catch (InterruptedException e) {
+                return null;
+            }
+            Rect bounds = chunkIndex.getBounds(dimension);
+            if (bounds != null && chunkIndex.getUnsupported(dimension) == 0
+                    && bounds.right - bounds.left <= PicerFragment.MAX_LENGTH
+                    && bounds.bottom - bounds.top <= PicerFragment.MAX_LENGTH
+                    && (bounds.right - bounds.left) * (bounds.bottom - bounds.top) <= PicerFragment.MAX_AREA)
+                return toBlockRect(bounds);
+        }
+
         int verKeyLenOfDim;
         switch (dimension) {
             case OVERWORLD:
@@ -93,68 +117,74 @@ class AnalyzeTask extends AsyncTask<Void, Void, Rect> {
         //Area.maxDist = 10;
         Rect rect = null;
 
-        // Iterate over all items.
+        // Iterate over all keys, in batches, and look up the version records found in bulk.
         try {
             db.put(new byte[]{0, 1, 2, 3, 0, 1, 2, 3, 118}, new byte[]{0});
             Iterator iterator = db.iterator();
+            ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer keyView = batch.duplicate();
+            ByteBuffer verKeys = ByteBuffer.allocateDirect(verKeyLenOfDim * BATCH_ENTRIES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            int[] verKeyLengths = new int[BATCH_ENTRIES];
+            Arrays.fill(verKeyLengths, verKeyLenOfDim);
             boolean cancelled = false;
             int loopCount = 0;
+            iterator.seekToFirst();
             loop:
-            for (iterator.seekToFirst(); iterator.isValid(); iterator.next(), loopCount++) {
+            for (int count; (count = iterator.nextBatch(batch, BATCH_ENTRIES, BATCH_BYTES, false)) > 0; batch.clear()) {
 
                 if (isCancelled()) {
                     cancelled = true;
                     break;
                 }
 
-                // Is it a key for a chunk of current dim's version record?
-                byte[] key = iterator.getKey();
-                if (key.length != verKeyLenOfDim) continue;
-                if (key[verKeyLenOfDim - 1] != (byte) 0x76) continue;
-                ByteBuffer byteBuffer = ByteBuffer.wrap(key);
-                byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-                int x = byteBuffer.getInt();
-                int z = byteBuffer.getInt();
-                // Wrong dim.
-                if (verKeyLenOfDim == 13 && dimension.id != byteBuffer.getInt()) continue;
-                byte[] value = iterator.getValue();
-                Version version = Version.getVersion(value);
-                // Record unsupported stuff and skip.
-                switch (version) {
-                    case ERROR:
-                    case NULL:
-                        hasWrongChunks = true;
-                        continue loop;
-                    case OLD_LIMITED:
-                        hasOldChunks = true;
-                        continue loop;
+                // Pick keys for chunks of current dim's version record.
+                verKeys.clear();
+                int verKeyCount = 0;
+                for (int i = 0; i < count; i++) {
+                    int keyLength = batch.getInt();
+                    int keyStart = batch.position();
+                    batch.position(keyStart + keyLength);
+                    if (keyLength != verKeyLenOfDim) continue;
+                    if (batch.get(keyStart + keyLength - 1) != (byte) 0x76) continue;
+                    // Wrong dim.
+                    if (verKeyLenOfDim == 13 && dimension.id != batch.getInt(keyStart + 8)) continue;
+                    keyView.limit(keyStart + keyLength).position(keyStart);
+                    verKeys.put(keyView);
+                    verKeyCount++;
                 }
-
-                if (rect != null) {
-                    if (x < rect.left) rect.left = x;
-                    else if (x > rect.right) rect.right = x;
-                    if (z < rect.top) rect.top = z;
-                    else if (z > rect.bottom) rect.bottom = z;
-                    if (rect.right - rect.left > PicerFragment.MAX_LENGTH
-                            || rect.bottom - rect.top > PicerFragment.MAX_LENGTH
-                            || loopCount % 36 == 0 && (rect.right - rect.left) * (rect.bottom - rect.top) > PicerFragment.MAX_AREA)
-                        break;
-                } else {
-                    rect = new Rect(x, z, x, z);
+                if (verKeyCount == 0) continue;
+                verKeys.flip();
+                byte[][] values = db.multiGet(verKeys, verKeyLengths, verKeyCount);
+
+                for (int i = 0; i < verKeyCount; i++, loopCount++) {
+                    int x = verKeys.getInt(i * verKeyLenOfDim);
+                    int z = verKeys.getInt(i * verKeyLenOfDim + 4);
+                    Version version = Version.getVersion(values[i]);
+                    // Record unsupported stuff and skip.
+                    switch (version) {
+                        case ERROR:
+                        case NULL:
+                            hasWrongChunks = true;
+                            continue;
+                        case OLD_LIMITED:
+                            hasOldChunks = true;
+                            continue;
+                    }
+
+                    if (rect != null) {
+                        if (x < rect.left) rect.left = x;
+                        else if (x > rect.right) rect.right = x;
+                        if (z < rect.top) rect.top = z;
+                        else if (z > rect.bottom) rect.bottom = z;
+                        if (rect.right - rect.left > PicerFragment.MAX_LENGTH
+                                || rect.bottom - rect.top > PicerFragment.MAX_LENGTH
+                                || loopCount % 36 == 0 && (rect.right - rect.left) * (rect.bottom - rect.top) > PicerFragment.MAX_AREA)
+                            break loop;
+                    } else {
+                        rect = new Rect(x, z, x, z);
+                    }
                 }
-
-                // Add the chunk to area list.
-//                add:
-//                {
-//                    for (Area area : areas) {
-//                        // Try add to existing areas.
-//                        if (area.add(x, z)) break add;
-//                    }
-//                    // Failed then create new.
-//                    areas.add(new Area(x, z));
-//                }
-//                // As more chunks were read maybe we can merge more of them.
-//                if (loopCount > 16) Area.absMergeList(areas);
             }
             iterator.close();
             if (cancelled) return null;
@@ -175,12 +205,14 @@ class AnalyzeTask extends AsyncTask<Void, Void, Rect> {
 //        // Then should decide which area to use based on camera position.
 //        // For not let's ignore.
 //        return areas.get(0);
-        if (rect != null) {
-            rect.left *= 16;
-            rect.top *= 16;
-            rect.right *= 16 + 15;
-            rect.bottom *= 16 + 15;
-        }
+        return rect == null ? null : toBlockRect(rect);
+    }
+
+    private static Rect toBlockRect(Rect rect) {
+        rect.left *= 16;
+        rect.top *= 16;
+        rect.right *= 16 + 15;
+        rect.bottom *= 16 + 15;
         return rect;
     }
 
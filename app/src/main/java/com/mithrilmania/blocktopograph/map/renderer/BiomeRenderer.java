@@ -1,8 +1,5 @@
 package com.mithrilmania.blocktopograph.map.renderer;
 
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Rect;
 
 import com.mithrilmania.blocktopograph.WorldData;
 import com.mithrilmania.blocktopograph.chunk.Chunk;
@@ -13,21 +10,20 @@ import com.mithrilmania.blocktopograph.map.Dimension;
 
 public class BiomeRenderer implements MapRenderer {
 
-    public void renderToBitmap(Chunk chunk, Canvas canvas, Dimension dimension, int chunkX, int chunkZ, int pX, int pY, int pW, int pL, Paint paint, WorldData worldData) throws Version.VersionException {
+    public void renderToPixels(Chunk chunk, Dimension dimension, int chunkX, int chunkZ, int[] pixels, WorldData worldData) throws Version.VersionException {
 
-        int x, z, biomeID, color, i, j, tX, tY;
+        int x, z, biomeID, color, i, j;
         Biome biome;
 
-        for (z = 0, tY = pY; z < 16; z++, tY += pL) {
-            for (x = 0, tX = pX; x < 16; x++, tX += pW) {
+        for (z = 0; z < 16; z++) {
+            for (x = 0; x < 16; x++) {
 
                 biomeID = chunk.getBiome(x, z) & 0xff;
                 biome = Biome.getBiome(biomeID);
 
                 color = biome == null ? 0xff000000 : (biome.color.red << 16) | (biome.color.green << 8) | (biome.color.blue) | 0xff000000;
 
-                paint.setColor(color);
-                canvas.drawRect(new Rect(tX, tY, tX + pW, tY + pL), paint);
+                pixels[(z << 4) | x] = color;
 
 
             }
@@ -1,8 +1,5 @@
 package com.mithrilmania.blocktopograph.map.renderer;
 
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Rect;
 
 import com.mithrilmania.blocktopograph.WorldData;
 import com.mithrilmania.blocktopograph.chunk.Chunk;
@@ -12,9 +9,9 @@ import com.mithrilmania.blocktopograph.map.Dimension;
 
 public class BlockLightRenderer implements MapRenderer {
 
-    public void renderToBitmap(Chunk chunk, Canvas canvas, Dimension dimension, int chunkX, int chunkZ, int pX, int pY, int pW, int pL, Paint paint, WorldData worldData) throws Version.VersionException {
+    public void renderToPixels(Chunk chunk, Dimension dimension, int chunkX, int chunkZ, int[] pixels, WorldData worldData) throws Version.VersionException {
 
-        int x, y, z, subChunk, color, yLim, tX, tY;
+        int x, y, z, subChunk, color, yLim;
 
         //render width in blocks
         int rW = 16;
@@ -31,16 +28,15 @@ public class BlockLightRenderer implements MapRenderer {
         }
 
         int l;
-        for (z = 0, tY = pY; z < 16; z++, tY += pL) {
-            for (x = 0, tX = pX; x < 16; x++, tX += pW) {
+        for (z = 0; z < 16; z++) {
+            for (x = 0; x < 16; x++) {
 
                 l = light[(z * rW) + x];
                 l = l < 0 ? 0 : ((l > 0xff) ? 0xff : l);
 
                 color = (l << 16) | (l << 8) | (l) | 0xff000000;
 
-                paint.setColor(color);
-                canvas.drawRect(new Rect(tX, tY, tX + pW, tY + pL), paint);
+                pixels[(z << 4) | x] = color;
 
             }
 
@@ -1,9 +1,5 @@
 package com.mithrilmania.blocktopograph.map.renderer;
 
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Rect;
-
 import com.mithrilmania.blocktopograph.WorldData;
 import com.mithrilmania.blocktopograph.chunk.Chunk;
 import com.mithrilmania.blocktopograph.chunk.Version;
@@ -19,17 +15,15 @@ public class ChessPatternRenderer implements MapRenderer {
         this.lightShade = lightShade;
     }
 
-    public void renderToBitmap(Chunk chunk, Canvas canvas, Dimension dimension, int chunkX, int chunkZ, int pX, int pY, int pW, int pL, Paint paint, WorldData worldData) throws Version.VersionException {
+    public void renderToPixels(Chunk chunk, Dimension dimension, int chunkX, int chunkZ, int[] pixels, WorldData worldData) throws Version.VersionException {
 
-        int x, z, tX, tY;
+        int x, z;
         int color;
 
-        for (z = 0, tY = pY; z < 16; z++, tY += pL) {
-            for (x = 0, tX = pX; x < 16; x++, tX += pW) {
+        for (z = 0; z < 16; z++) {
+            for (x = 0; x < 16; x++) {
                 color = ((x + z) & 1) == 1 ? darkShade : lightShade;
-                paint.setColor(color);
-                canvas.drawRect(new Rect(tX, tY, tX + pW, tY + pL), paint);
-                //This would get hardware acceleration.
+                pixels[(z << 4) | x] = color;
             }
         }
     }
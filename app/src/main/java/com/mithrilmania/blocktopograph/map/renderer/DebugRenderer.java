@@ -1,8 +1,5 @@
 package com.mithrilmania.blocktopograph.map.renderer;
 
-import android.graphics.Canvas;
-import android.graphics.Paint;
-
 import com.mithrilmania.blocktopograph.WorldData;
 import com.mithrilmania.blocktopograph.chunk.Chunk;
 import com.mithrilmania.blocktopograph.chunk.Version;
@@ -11,21 +8,16 @@ import com.mithrilmania.blocktopograph.map.Dimension;
 
 public class DebugRenderer implements MapRenderer {
 
-    public void renderToBitmap(Chunk chunk, Canvas canvas, Dimension dimension, int chunkX, int chunkZ, int pX, int pY, int pW, int pL, Paint paint, WorldData worldData) throws Version.VersionException {
+    public void renderToPixels(Chunk chunk, Dimension dimension, int chunkX, int chunkZ, int[] pixels, WorldData worldData) throws Version.VersionException {
 
-        int x, z, i, j, tX, tY;
+        int x, z;
 
         int offsetX = chunkX * dimension.chunkW;
         int offsetZ = chunkZ * dimension.chunkL;
 
-        for (z = 0, tY = pY; z < 16; z++, tY += pL) {
-            for (x = 0, tX = pX; x < 16; x++, tX += pW) {
-                for (i = 0; i < pL; i++) {
-                    for (j = 0; j < pW; j++) {
-                        paint.setColor(0xff000000 | ((offsetX + x) ^ (offsetZ + z)));
-                        canvas.drawPoint(tX + j, tY + i, paint);
-                    }
-                }
+        for (z = 0; z < 16; z++) {
+            for (x = 0; x < 16; x++) {
+                pixels[(z << 4) | x] = 0xff000000 | ((offsetX + x) ^ (offsetZ + z));
             }
         }
     }
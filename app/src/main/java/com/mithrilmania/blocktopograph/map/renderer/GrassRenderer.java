@@ -1,28 +1,31 @@
 package com.mithrilmania.blocktopograph.map.renderer;
 
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Rect;
 
 import com.mithrilmania.blocktopograph.WorldData;
 import com.mithrilmania.blocktopograph.chunk.Chunk;
+import com.mithrilmania.blocktopograph.chunk.SurfaceSummary;
 import com.mithrilmania.blocktopograph.chunk.Version;
 import com.mithrilmania.blocktopograph.map.Dimension;
 
 
 public class GrassRenderer implements MapRenderer {
 
-    public void renderToBitmap(Chunk chunk, Canvas canvas, Dimension dimension, int chunkX, int chunkZ, int pX, int pY, int pW, int pL, Paint paint, WorldData worldData) throws Version.VersionException {
+    @Override
+    public void prepareChunk(Chunk chunk) {
+        chunk.getSurfaceSummary(false);
+    }
+
+    public void renderToPixels(Chunk chunk, Dimension dimension, int chunkX, int chunkZ, int[] pixels, WorldData worldData) throws Version.VersionException {
 
-        int x, z, color, tX, tY;
+        int x, z, color;
+        SurfaceSummary summary = chunk.getSurfaceSummary(false);
 
-        for (z = 0, tY = pY; z < 16; z++, tY += pL) {
-            for (x = 0, tX = pX; x < 16; x++, tX += pW) {
+        for (z = 0; z < 16; z++) {
+            for (x = 0; x < 16; x++) {
 
-                color = chunk.getGrassColor(x, z);
+                color = summary.getGrassColor(x, z);
 
-                paint.setColor(color);
-                canvas.drawRect(new Rect(tX, tY, tX + pW, tY + pL), paint);
+                pixels[(z << 4) | x] = color;
 
 
             }
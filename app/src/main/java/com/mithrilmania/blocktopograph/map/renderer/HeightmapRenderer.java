@@ -1,8 +1,5 @@
 package com.mithrilmania.blocktopograph.map.renderer;
 
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Rect;
 
 import com.mithrilmania.blocktopograph.WorldData;
 import com.mithrilmania.blocktopograph.chunk.Chunk;
@@ -12,7 +9,7 @@ import com.mithrilmania.blocktopograph.map.Dimension;
 
 public class HeightmapRenderer implements MapRenderer {
 
-    public void renderToBitmap(Chunk chunk, Canvas canvas, Dimension dimension, int chunkX, int chunkZ, int pX, int pY, int pW, int pL, Paint paint, WorldData worldData) throws Version.VersionException {
+    public void renderToPixels(Chunk chunk, Dimension dimension, int chunkX, int chunkZ, int[] pixels, WorldData worldData) throws Version.VersionException {
 
         Chunk dataW = worldData.getChunk(chunkX - 1, chunkZ, dimension);
         Chunk dataN = worldData.getChunk(chunkX, chunkZ - 1, dimension);
@@ -20,19 +17,22 @@ public class HeightmapRenderer implements MapRenderer {
         boolean west = dataW != null && !dataW.isVoid(),
                 north = dataN != null && !dataN.isVoid();
 
-        int x, y, z, color, tX, tY;
+        int x, y, z, color;
         int yW, yN;
         int r, g, b;
         float yNorm, yNorm2, heightShading;
 
-        for (z = 0, tY = pY; z < 16; z++, tY += pL) {
-            for (x = 0, tX = pX; x < 16; x++, tX += pW) {
+        for (z = 0; z < 16; z++) {
+            for (x = 0; x < 16; x++) {
 
 
                 //smooth step function: 6x^5 - 15x^4 + 10x^3
                 y = chunk.getHeightMapValue(x, z);
 
-                if (y < 0) continue;
+                if (y < 0) {
+                    pixels[(z << 4) | x] = 0;
+                    continue;
+                }
 
                 yNorm = (float) y / (float) dimension.chunkH;
                 yNorm2 = yNorm * yNorm;
@@ -57,8 +57,7 @@ public class HeightmapRenderer implements MapRenderer {
 
                 color = (r << 16) | (g << 8) | b | 0xff000000;
 
-                paint.setColor(color);
-                canvas.drawRect(new Rect(tX, tY, tX + pW, tY + pL), paint);
+                pixels[(z << 4) | x] = color;
 
 
             }
@@ -22,6 +22,40 @@ public interface MapRenderer {
      */
 
 
+    /**
+     * Render a single chunk into a grid of 16x16 ARGB colors, one per block column,
+     * stored row by row at {@code (z << 4) | x}. Every entry has to be written,
+     * 0 leaves whatever is underneath visible.
+     *
+     * @param chunk     The chunk.
+     * @param dimension Mapped dimension
+     * @param chunkX    X chunk coordinate (x-block coord / Chunk.WIDTH)
+     * @param chunkZ    Z chunk coordinate (z-block coord / Chunk.LENGTH)
+     * @param pixels    Output grid, at least 256 entries
+     * @param worldData ChunkManager, some renderer needs info about its neighbor
+     * @throws RuntimeException when the version of the chunk is unsupported.
+     */
+    void renderToPixels(Chunk chunk, Dimension dimension, int chunkX, int chunkZ, int[] pixels, WorldData worldData) throws Version.VersionException;
+
+    /**
+     * Called on a loader thread once a chunk is read, before {@link #renderToPixels} is called
+     * for it on the render thread. Does the work that doesn't depend on the output, like
+     * decoding what will be read, so it runs in parallel with rendering other chunks.
+     * May be called more than once for a chunk.
+     *
+     * @param chunk The chunk, neither void nor in error.
+     */
+    default void prepareChunk(Chunk chunk) {
+    }
+
+    /**
+     * Identifies the settings the output depends on besides the chunks, tiles cached with
+     * other settings are not used.
+     */
+    default String getSettingsKey() {
+        return "";
+    }
+
     /**
      * Render a single chunk to provided bitmap (bm)
      *
@@ -39,6 +73,10 @@ public interface MapRenderer {
      * @throws RuntimeException when the version of the chunk is unsupported.
      *                          TODO: reduce complicity, e.g. remove chunkManager from parameters.
      */
-    void renderToBitmap(Chunk chunk, Canvas canvas, Dimension dimension, int chunkX, int chunkZ, int pX, int pY, int pW, int pL, Paint paint, WorldData worldData) throws Version.VersionException;
+    default void renderToBitmap(Chunk chunk, Canvas canvas, Dimension dimension, int chunkX, int chunkZ, int pX, int pY, int pW, int pL, Paint paint, WorldData worldData) throws Version.VersionException {
+        int[] pixels = new int[TilePixels.CHUNK_PIXELS];
+        renderToPixels(chunk, dimension, chunkX, chunkZ, pixels, worldData);
+        TilePixels.draw(pixels, canvas, pX, pY, pW, pL, paint);
+    }
 
 }
@@ -1,10 +1,7 @@
 package com.mithrilmania.blocktopograph.map.renderer;
 
 
-import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.Rect;
 
 import com.mithrilmania.blocktopograph.WorldData;
 import com.mithrilmania.blocktopograph.block.BlockTemplate;
@@ -18,7 +15,7 @@ import com.mithrilmania.blocktopograph.map.Dimension;
 
 public class NetherRenderer implements MapRenderer {
 
-    public void renderToBitmap(Chunk chunk, Canvas canvas, Dimension dimension, int chunkX, int chunkZ, int pX, int pY, int pW, int pL, Paint paint, WorldData worldData) throws Version.VersionException {
+    public void renderToPixels(Chunk chunk, Dimension dimension, int chunkX, int chunkZ, int[] pixels, WorldData worldData) throws Version.VersionException {
 
         Chunk chunkW = worldData.getChunk(chunkX - 1, chunkZ, dimension);
         Chunk chunkN = worldData.getChunk(chunkX, chunkZ - 1, dimension);
@@ -33,8 +30,8 @@ public class NetherRenderer implements MapRenderer {
         int y;
         float heightShading, lightShading, sliceShading, avgShading;
 
-        for (int z = 0, tY = pY; z < 16; z++, tY += pL) {
-            for (int x = 0, tX = pX; x < 16; x++, tX += pW) {
+        for (int z = 0; z < 16; z++) {
+            for (int x = 0; x < 16; x++) {
 
                 worth = 0;
                 shadingSum = 0;
@@ -159,8 +156,7 @@ public class NetherRenderer implements MapRenderer {
                     }
                 }
 
-                paint.setColor((r << 16) | (g << 8) | b | 0xff000000);
-                canvas.drawRect(new Rect(tX, tY, tX + pW, tY + pL), paint);
+                pixels[(z << 4) | x] = (r << 16) | (g << 8) | b | 0xff000000;
             }
         }
     }
@@ -1,17 +1,12 @@
 package com.mithrilmania.blocktopograph.map.renderer;
 
-import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.Rect;
 
 import androidx.annotation.NonNull;
 
 import com.mithrilmania.blocktopograph.WorldData;
-import com.mithrilmania.blocktopograph.block.BlockTemplates;
-import com.mithrilmania.blocktopograph.block.OldBlock;
-import com.mithrilmania.blocktopograph.block.KnownBlockRepr;
 import com.mithrilmania.blocktopograph.chunk.Chunk;
+import com.mithrilmania.blocktopograph.chunk.SurfaceSummary;
 import com.mithrilmania.blocktopograph.chunk.Version;
 import com.mithrilmania.blocktopograph.map.Dimension;
 
@@ -19,57 +14,18 @@ import com.mithrilmania.blocktopograph.map.Dimension;
 public class SatelliteRenderer implements MapRenderer {
 
     //calculate color of one column
-    static int getColumnColour(@NonNull Chunk chunk, int x, int y, int z, int heightW, int heightN) throws Version.VersionException {
-        float alphaRemain = 1f;
-        float finalR = 0f;
-        float finalG = 0f;
-        float finalB = 0f;
-
-        // extract colour components as normalized doubles, from ARGB format
-        int grassColor = chunk.getGrassColor(x, z);
-        float biomeR = (float) Color.red(grassColor) / 255f;
-        float biomeG = (float) Color.green(grassColor) / 255f;
-        float biomeB = (float) Color.blue(grassColor) / 255f;
-
-        y--;
-        for (; y >= 0 && alphaRemain >= .1f; y--) {
-
-            var blockTemplate = chunk.getBlockTemplate(x, y, z, 0);
-
-            if (BlockTemplates.getAirTemplate().equals(blockTemplate)) continue;//skip air blocks
-
-            int color = blockTemplate.getColor();
-
-            // no need to process block if it is fully transparent
-            if (Color.alpha(color) == 0) continue;
-
-            float blendA = Color.alpha(color) / 255f;
-
-            // alpha blend and multiply
-            float blendR = alphaRemain * blendA * (Color.red(color) / 255f);
-            float blendG = alphaRemain * blendA * (Color.green(color) / 255f);
-            float blendB = alphaRemain * blendA * (Color.blue(color) / 255f);
-
-            //blend biome-colored blocks
-            if (blockTemplate.isHasBiomeShading()) {
-                blendR *= biomeR;
-                blendG *= biomeG;
-                blendB *= biomeB;
-            }
-
-            finalR += blendR;
-            finalG += blendG;
-            finalB += blendB;
-            alphaRemain *= 1f - blendA;
-        }
+    static int getColumnColour(@NonNull SurfaceSummary summary, int x, int z, int heightW, int heightN) {
+        int color = summary.getColor(x, z);
+        float finalR = Color.red(color) / 255f;
+        float finalG = Color.green(color) / 255f;
+        float finalB = Color.blue(color) / 255f;
+        int y = summary.getSurfaceY(x, z);
 
         //height shading (based on slopes in terrain; height diff)
         float heightShading = getHeightShading(y, heightW, heightN);
 
-        //go back to "surface"
-        y++;
-        //light sources
-        int lightValue = chunk.getBlockLightValue(x, y, z) & 0xff;
+        //light sources, at the "surface"
+        int lightValue = summary.getBlockLight(x, z);
         float lightShading = (float) lightValue / 15f + 1;
 
         //mix shading
@@ -91,7 +47,12 @@ public class SatelliteRenderer implements MapRenderer {
                 (((int) (finalB * 255f)) & 0xff);
     }
 
-    public void renderToBitmap(Chunk chunk, Canvas canvas, Dimension dimension, int chunkX, int chunkZ, int pX, int pY, int pW, int pL, Paint paint, WorldData worldData) throws Version.VersionException {
+    @Override
+    public void prepareChunk(Chunk chunk) {
+        chunk.getSurfaceSummary(true);
+    }
+
+    public void renderToPixels(Chunk chunk, Dimension dimension, int chunkX, int chunkZ, int[] pixels, WorldData worldData) throws Version.VersionException {
 
         Chunk dataW = worldData.getChunk(chunkX - 1, chunkZ, dimension);
         Chunk dataN = worldData.getChunk(chunkX, chunkZ - 1, dimension);
@@ -99,20 +60,24 @@ public class SatelliteRenderer implements MapRenderer {
         boolean west = dataW != null && !dataW.isVoid(),
                 north = dataN != null && !dataN.isVoid();
 
-        for (int z = 0, tY = pY; z < 16; z++, tY += pL) {
-            for (int x = 0, tX = pX; x < 16; x++, tX += pW) {
+        SurfaceSummary summary = chunk.getSurfaceSummary(true);
+
+        for (int z = 0; z < 16; z++) {
+            for (int x = 0; x < 16; x++) {
 
-                int y = chunk.getHeightMapValue(x, z);
-                if (y == 0) continue;
+                int y = summary.getHeight(x, z);
+                if (y == 0) {
+                    pixels[(z << 4) | x] = 0;
+                    continue;
+                }
 
-                int color = getColumnColour(chunk, x, y, z,
+                int color = getColumnColour(summary, x, z,
                         (x == 0) ? (west ? dataW.getHeightMapValue(dimension.chunkW - 1, z) : y)//chunk edge
-                                : chunk.getHeightMapValue(x - 1, z),//within chunk
+                                : summary.getHeight(x - 1, z),//within chunk
                         (z == 0) ? (north ? dataN.getHeightMapValue(x, dimension.chunkL - 1) : y)//chunk edge
-                                : chunk.getHeightMapValue(x, z - 1)//within chunk
+                                : summary.getHeight(x, z - 1)//within chunk
                 );
-                paint.setColor(color);
-                canvas.drawRect(new Rect(tX, tY, tX + pW, tY + pL), paint);
+                pixels[(z << 4) | x] = color;
 
 
             }
@@ -1,11 +1,9 @@
 package com.mithrilmania.blocktopograph.map.renderer;
 
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.graphics.Rect;
 
 import com.mithrilmania.blocktopograph.WorldData;
 import com.mithrilmania.blocktopograph.chunk.Chunk;
+import com.mithrilmania.blocktopograph.chunk.SurfaceSummary;
 import com.mithrilmania.blocktopograph.chunk.Version;
 import com.mithrilmania.blocktopograph.map.Dimension;
 import com.mithrilmania.blocktopograph.util.MTwister;
@@ -13,9 +11,14 @@ import com.mithrilmania.blocktopograph.util.MTwister;
 
 public class SlimeChunkRenderer implements MapRenderer {
 
-    public void renderToBitmap(Chunk chunk, Canvas canvas, Dimension dimension, int chunkX, int chunkZ, int pX, int pY, int pW, int pL, Paint paint, WorldData worldData) throws Version.VersionException {
+    @Override
+    public void prepareChunk(Chunk chunk) {
+        chunk.getSurfaceSummary(true);
+    }
+
+    public void renderToPixels(Chunk chunk, Dimension dimension, int chunkX, int chunkZ, int[] pixels, WorldData worldData) throws Version.VersionException {
 
-        int x, z, tX, tY;
+        int x, z;
 
         Chunk dataW = worldData.getChunk(chunkX - 1, chunkZ, dimension);
         Chunk dataN = worldData.getChunk(chunkX, chunkZ - 1, dimension);
@@ -25,20 +28,21 @@ public class SlimeChunkRenderer implements MapRenderer {
 
         //MapType.OVERWORLD_SATELLITE.renderer.renderToBitmap(chunk, canvas, dimension, chunkX, chunkZ, pX, pY, pW, pL, paint, version, chunkManager);
 
+        SurfaceSummary summary = chunk.getSurfaceSummary(true);
         boolean isSlimeChunk = isSlimeChunk(chunkX, chunkZ);
         int color, r, g, b, avg;
 
         //make slimeChunks much more green
-        for (z = 0, tY = pY; z < 16; z++, tY += pL) {
-            for (x = 0, tX = pX; x < 16; x++, tX += pW) {
+        for (z = 0; z < 16; z++) {
+            for (x = 0; x < 16; x++) {
 
-                int y = chunk.getHeightMapValue(x, z);
+                int y = summary.getHeight(x, z);
 
-                color = SatelliteRenderer.getColumnColour(chunk, x, y, z,
+                color = SatelliteRenderer.getColumnColour(summary, x, z,
                         (x == 0) ? (west ? dataW.getHeightMapValue(dimension.chunkW - 1, z) : y)//chunk edge
-                                : chunk.getHeightMapValue(x - 1, z),//within chunk
+                                : summary.getHeight(x - 1, z),//within chunk
                         (z == 0) ? (north ? dataN.getHeightMapValue(x, dimension.chunkL - 1) : y)//chunk edge
-                                : chunk.getHeightMapValue(x, z - 1)//within chunk
+                                : summary.getHeight(x, z - 1)//within chunk
                 );
                 r = (color >> 16) & 0xff;
                 g = (color >> 8) & 0xff;
@@ -52,8 +56,7 @@ public class SlimeChunkRenderer implements MapRenderer {
                 }
                 color = (color & 0xFF000000) | (r << 16) | (g << 8) | b;
 
-                paint.setColor(color);
-                canvas.drawRect(new Rect(tX, tY, tX + pW, tY + pL), paint);
+                pixels[(z << 4) | x] = color;
 
             }
         }
@@ -0,0 +1,139 @@
+package com.mithrilmania.blocktopograph.map.renderer;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * ARGB pixels of a whole tile, filled chunk by chunk from the grids written by
+ * {@link MapRenderer#renderToPixels} and uploaded to the tile bitmap in one go.
+ */
+public final class TilePixels {
+
+    /**
+     * Size of the per chunk grid, one entry per block column.
+     */
+    public static final int CHUNK_PIXELS = 16 * 16;
+
+    public final int width;
+    public final int height;
+    private final int[] mPixels;
+
+    // Scratch grid handed to the renderers.
+    private final int[] mChunk = new int[CHUNK_PIXELS];
+
+    public TilePixels(int width, int height) {
+        this.width = width;
+        this.height = height;
+        mPixels = new int[width * height];
+    }
+
+    @NonNull
+    public int[] getChunkPixels() {
+        return mChunk;
+    }
+
+    /**
+     * Scales a chunk grid up, nearest neighbour, and draws it over the tile.
+     * Transparent entries are skipped and translucent ones blended, like a Canvas would.
+     *
+     * @param pX left of the chunk in the tile, may lie outside
+     * @param pY top of the chunk in the tile, may lie outside
+     * @param pW width of one block in pixels
+     * @param pL length of one block in pixels
+     */
+    public void blit(@NonNull int[] grid, int pX, int pY, int pW, int pL) {
+        int[] pixels = mPixels;
+        for (int z = 0, tY = pY; z < 16; z++, tY += pL) {
+            int rowFrom = Math.max(tY, 0);
+            int rowTo = Math.min(tY + pL, height);
+            if (rowFrom >= rowTo) continue;
+
+            // Fill the first row of the block line, copy it to the others. Whatever is
+            // underneath was drawn on the same block grid, so skipped columns copy fine too.
+            int first = rowFrom * width;
+            int spanFrom = width, spanTo = 0;
+            for (int x = 0, tX = pX; x < 16; x++, tX += pW) {
+                int from = Math.max(tX, 0);
+                int to = Math.min(tX + pW, width);
+                if (from >= to) continue;
+                int color = grid[(z << 4) | x];
+                int alpha = color >>> 24;
+                if (alpha == 0) continue;
+                if (alpha == 0xff) {
+                    Arrays.fill(pixels, first + from, first + to, color);
+                } else {
+                    for (int i = first + from; i < first + to; i++)
+                        pixels[i] = blend(pixels[i], color, alpha);
+                }
+                if (from < spanFrom) spanFrom = from;
+                if (to > spanTo) spanTo = to;
+            }
+            if (spanFrom >= spanTo) continue;
+            for (int row = rowFrom + 1; row < rowTo; row++)
+                System.arraycopy(pixels, first + spanFrom, pixels, row * width + spanFrom, spanTo - spanFrom);
+        }
+    }
+
+    private static int blend(int dst, int src, int alpha) {
+        int inv = 0xff - alpha;
+        int r = (((src >> 16) & 0xff) * alpha + ((dst >> 16) & 0xff) * inv) / 0xff;
+        int g = (((src >> 8) & 0xff) * alpha + ((dst >> 8) & 0xff) * inv) / 0xff;
+        int b = ((src & 0xff) * alpha + (dst & 0xff) * inv) / 0xff;
+        int a = alpha + ((dst >>> 24) * inv) / 0xff;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Copies the tile into the top left of a bitmap.
+     */
+    public void upload(@NonNull Bitmap bitmap) {
+        bitmap.setPixels(mPixels, 0, width, 0, 0,
+                Math.min(width, bitmap.getWidth()), Math.min(height, bitmap.getHeight()));
+    }
+
+    /**
+     * Halves an opaque image, each pixel the average of a 2x2 box.
+     *
+     * @param dst receives {@code (width / 2) * (height / 2)} pixels
+     */
+    public static void downsample(@NonNull int[] src, int width, int height, @NonNull int[] dst) {
+        int halfW = width >> 1;
+        int halfH = height >> 1;
+        for (int y = 0, out = 0; y < halfH; y++) {
+            int top = (y << 1) * width;
+            int bottom = top + width;
+            for (int x = 0; x < halfW; x++) {
+                int a = src[top + (x << 1)];
+                int b = src[top + (x << 1) + 1];
+                int c = src[bottom + (x << 1)];
+                int d = src[bottom + (x << 1) + 1];
+                int r = (((a >> 16) & 0xff) + ((b >> 16) & 0xff) + ((c >> 16) & 0xff) + ((d >> 16) & 0xff) + 2) >> 2;
+                int g = (((a >> 8) & 0xff) + ((b >> 8) & 0xff) + ((c >> 8) & 0xff) + ((d >> 8) & 0xff) + 2) >> 2;
+                int bl = ((a & 0xff) + (b & 0xff) + (c & 0xff) + (d & 0xff) + 2) >> 2;
+                dst[out++] = 0xff000000 | (r << 16) | (g << 8) | bl;
+            }
+        }
+    }
+
+    /**
+     * Draws a chunk grid through a Canvas, for targets other than a tile.
+     */
+    static void draw(@NonNull int[] grid, @NonNull Canvas canvas, int pX, int pY, int pW, int pL, @NonNull Paint paint) {
+        Rect rect = new Rect();
+        for (int z = 0, tY = pY; z < 16; z++, tY += pL) {
+            for (int x = 0, tX = pX; x < 16; x++, tX += pW) {
+                int color = grid[(z << 4) | x];
+                if (color >>> 24 == 0) continue;
+                paint.setColor(color);
+                rect.set(tX, tY, tX + pW, tY + pL);
+                canvas.drawRect(rect, paint);
+            }
+        }
+    }
+}
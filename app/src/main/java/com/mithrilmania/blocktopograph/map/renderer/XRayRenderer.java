@@ -1,26 +1,21 @@
 package com.mithrilmania.blocktopograph.map.renderer;
 
-import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.Rect;
 
 import com.mithrilmania.blocktopograph.WorldData;
+import com.mithrilmania.blocktopograph.block.BlockClassification;
 import com.mithrilmania.blocktopograph.block.BlockTemplate;
-import com.mithrilmania.blocktopograph.block.BlockTemplates;
-import com.mithrilmania.blocktopograph.block.KnownBlockRepr;
 import com.mithrilmania.blocktopograph.chunk.Chunk;
 import com.mithrilmania.blocktopograph.chunk.Version;
 import com.mithrilmania.blocktopograph.map.Dimension;
 
 
+/**
+ * The blocks shown are set with {@link BlockClassification#setXRayBlocks}.
+ */
 public class XRayRenderer implements MapRenderer {
 
-    /*
-    TODO make the X-ray viewable blocks configurable, without affecting performance too much...
-     */
-
-    public void renderToBitmap(Chunk chunk, Canvas canvas, Dimension dimension, int chunkX, int chunkZ, int pX, int pY, int pW, int pL, Paint paint, WorldData worldData) throws Version.VersionException {
+    public void renderToPixels(Chunk chunk, Dimension dimension, int chunkX, int chunkZ, int[] pixels, WorldData worldData) throws Version.VersionException {
 
         //render width in blocks
         int rW = 16;
@@ -34,30 +29,31 @@ public class XRayRenderer implements MapRenderer {
         int average;
         BlockTemplate blockTemplate;
 
+        int maxValue = BlockClassification.getMaxOreValue();
+
+        int heightLimit = chunk.getHeightLimit();
+        var column = new BlockTemplate[heightLimit];
+
         for (int z = 0; z < 16; z++) {
             for (int x = 0; x < 16; x++) {
 
-                for (int y = 0; y < chunk.getHeightLimit(); y++) {
-                    blockTemplate = chunk.getBlockTemplate(x, y, z, 0);
-                    var blockName = blockTemplate.getBlock().getName();
-                    index2D = (z * rW) + x;
-                    if (BlockTemplates.getAirTemplate().equals(blockTemplate)) continue;
-                    else if ("minecraft:diamond_ore".equals(blockName)) {
-                        bestBlock[index2D] = blockTemplate;
-                        break;
-                    } else if ("minecraft:emerald_ore".equals(blockName)) bValue = 8;
-                    else if ("minecraft:quartz_ore".equals(blockName)) bValue = 7;
-                    else if ("minecraft:gold_ore".equals(blockName)) bValue = 6;
-                    else if ("minecraft:iron_ore".equals(blockName)) bValue = 5;
-                    else if ("minecraft:redstone_ore".equals(blockName)) bValue = 4;
-                    else if ("minecraft:lapis_ore".equals(blockName)) bValue = 3;
-                        //else if(oldBlock == KnownBlockRepr.COAL_ORE) bValue = 2;
-                        //else if(b == KnownBlockRepr.LAVA || b == KnownBlockRepr.STATIONARY_LAVA) bValue = 1;
-                    else bValue = 0;
-
+                chunk.copyColumnTemplates(x, z, 0, heightLimit, 0, column);
+                index2D = (z * rW) + x;
+                BlockTemplate last = null;
+                int entry = 0;
+                for (int y = 0; y < heightLimit; y++) {
+                    blockTemplate = column[y];
+                    // Runs of the same block are common, look it up once per run.
+                    if (blockTemplate != last) {
+                        last = blockTemplate;
+                        entry = BlockClassification.classify(blockTemplate);
+                    }
+                    bValue = BlockClassification.getOreValue(entry);
                     if (bValue > minValue[index2D]) {
                         minValue[index2D] = bValue;
                         bestBlock[index2D] = blockTemplate;
+                        // Nothing can beat it.
+                        if (bValue == maxValue) break;
                     }
                 }
             }
@@ -69,8 +65,8 @@ public class XRayRenderer implements MapRenderer {
 //            return;
 //        }
 
-        for (int z = 0, tY = pY; z < 16; z++, tY += pL) {
-            for (int x = 0, tX = pX; x < 16; x++, tX += pW) {
+        for (int z = 0; z < 16; z++) {
+            for (int x = 0; x < 16; x++) {
                 blockTemplate = bestBlock[(z * rW) + x];
                 int color;
                 if (blockTemplate == null) {
@@ -98,12 +94,16 @@ public class XRayRenderer implements MapRenderer {
 
                     color = (r << 16) | (g << 8) | (b) | 0xff000000;
                 }
-                paint.setColor(color);
-                canvas.drawRect(new Rect(tX, tY, tX + pW, tY + pL), paint);
+                pixels[(z << 4) | x] = color;
 
 
             }
         }
     }
 
+    @Override
+    public String getSettingsKey() {
+        return BlockClassification.getXRayBlocksKey();
+    }
+
 }
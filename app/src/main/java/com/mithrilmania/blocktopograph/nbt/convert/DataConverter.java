@@ -3,9 +3,9 @@ package com.mithrilmania.blocktopograph.nbt.convert;
 
 import com.mithrilmania.blocktopograph.nbt.tags.Tag;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -13,12 +13,7 @@ import java.util.List;
 public class DataConverter {
 
     public static ArrayList<Tag> read(byte[] input) throws IOException {
-        ByteArrayInputStream bais = new ByteArrayInputStream(input);
-        NBTInputStream in = new NBTInputStream(bais);
-        ArrayList<Tag> tags = in.readTopLevelTags();
-        in.close();
-        return tags;
-
+        return new NBTBufferReader(ByteBuffer.wrap(input)).readTopLevelTags();
     }
 
     public static byte[] write(List<Tag> tags) throws IOException {
@@ -2,15 +2,15 @@ package com.mithrilmania.blocktopograph.nbt.convert;
 
 import com.mithrilmania.blocktopograph.nbt.tags.*;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 
 public final class LevelDataConverter {
 
@@ -26,13 +26,10 @@ public final class LevelDataConverter {
     }
 
     public static CompoundTag read(File file) throws IOException {
-        FileInputStream fis = new FileInputStream(file);
-        BufferedInputStream is = new BufferedInputStream(fis);
-        skip(is, 8);
-        NBTInputStream in = new NBTInputStream(is);
-        CompoundTag levelTag = (CompoundTag) in.readTag();
-        in.close();
-        return levelTag;
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        if (buffer.remaining() < 8) throw new IOException("Truncated level.dat");
+        buffer.position(8);
+        return (CompoundTag) new NBTBufferReader(buffer).readTag();
     }
 
     public static void write(CompoundTag levelTag, File file) throws IOException {
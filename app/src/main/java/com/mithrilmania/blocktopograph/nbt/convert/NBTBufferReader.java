@@ -0,0 +1,264 @@
+package com.mithrilmania.blocktopograph.nbt.convert;
+
+import androidx.annotation.NonNull;
+
+import com.mithrilmania.blocktopograph.Log;
+import com.mithrilmania.blocktopograph.nbt.tags.ByteArrayTag;
+import com.mithrilmania.blocktopograph.nbt.tags.ByteTag;
+import com.mithrilmania.blocktopograph.nbt.tags.CompoundTag;
+import com.mithrilmania.blocktopograph.nbt.tags.DoubleTag;
+import com.mithrilmania.blocktopograph.nbt.tags.EndTag;
+import com.mithrilmania.blocktopograph.nbt.tags.FloatTag;
+import com.mithrilmania.blocktopograph.nbt.tags.IntArrayTag;
+import com.mithrilmania.blocktopograph.nbt.tags.IntTag;
+import com.mithrilmania.blocktopograph.nbt.tags.ListTag;
+import com.mithrilmania.blocktopograph.nbt.tags.LongTag;
+import com.mithrilmania.blocktopograph.nbt.tags.ShortArrayTag;
+import com.mithrilmania.blocktopograph.nbt.tags.ShortTag;
+import com.mithrilmania.blocktopograph.nbt.tags.StringTag;
+import com.mithrilmania.blocktopograph.nbt.tags.Tag;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Reads little endian nbt straight from a {@link ByteBuffer}, a record from the db or a
+ * slice of one, as {@link NBTInputStream} does from a stream.
+ * <p>
+ * The buffer is read in place and its position moves past whatever was read, so several
+ * tags in a row, or nbt followed by other data, are read without counting bytes. Short
+ * strings, which tag names and most values are, come from a cache shared by all readers.
+ */
+public final class NBTBufferReader {
+
+    // Longer strings are decoded every time.
+    private static final int MAX_CACHED_LENGTH = 32;
+
+    // Must be a power of two.
+    private static final int CACHE_SIZE = 1024;
+
+    private static final CachedString[] stringCache = new CachedString[CACHE_SIZE];
+
+    @NonNull
+    private final ByteBuffer buffer;
+
+    /**
+     * @param buffer read from its position on, its byte order is set to little endian
+     */
+    public NBTBufferReader(@NonNull ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int position() {
+        return buffer.position();
+    }
+
+    /**
+     * Reads tags until less than the smallest one is left, stops at the first broken one.
+     */
+    public ArrayList<Tag> readTopLevelTags() {
+        ArrayList<Tag> list = new ArrayList<>();
+        //type(1) + namelength(2) + minimumcontent(type(1)+namelength(2)+content(1)=4) = 8
+        try {
+            while (buffer.remaining() > 7) list.add(readTag());
+        } catch (IOException e) {
+            Log.d(this, e);
+        }
+        return list;
+    }
+
+    public Tag readTag() throws IOException {
+        try {
+            return readTag(0);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Truncated nbt", e);
+        }
+    }
+
+    /**
+     * Moves past a tag with its name without building it.
+     */
+    public void skipTag() throws IOException {
+        try {
+            int type = buffer.get() & 0xFF;
+            if (type == NBTConstants.NBTType.END.id) return;
+            skip(buffer.getShort() & 0xFFFF);
+            skipPayload(type);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Truncated nbt", e);
+        }
+    }
+
+    private Tag readTag(int depth) throws IOException {
+        int type = buffer.get() & 0xFF;
+        String name = type == NBTConstants.NBTType.END.id ? "" : readString();
+        return readPayload(type, name, depth);
+    }
+
+    private Tag readPayload(int type, String name, int depth) throws IOException {
+        switch (type) {
+            case 0:
+                if (depth == 0)
+                    throw new IOException("TAG_End found without a TAG_Compound/TAG_List tag preceding it.");
+                return new EndTag();
+            case 1:
+                return new ByteTag(name, buffer.get());
+            case 2:
+                return new ShortTag(name, buffer.getShort());
+            case 3:
+                return new IntTag(name, buffer.getInt());
+            case 4:
+                return new LongTag(name, buffer.getLong());
+            case 5:
+                return new FloatTag(name, buffer.getFloat());
+            case 6:
+                return new DoubleTag(name, buffer.getDouble());
+            case 7: {
+                byte[] bytes = new byte[readLength()];
+                buffer.get(bytes);
+                return new ByteArrayTag(name, bytes);
+            }
+            case 8:
+                return new StringTag(name, readString());
+            case 9: {
+                int childType = buffer.get() & 0xFF;
+                int length = readLength();
+                if (childType == NBTConstants.NBTType.END.id) return new ListTag(name, new ArrayList<>());
+                ArrayList<Tag> tagList = new ArrayList<>(Math.min(length, 1024));
+                for (int i = 0; i < length; i++) tagList.add(readPayload(childType, "", depth + 1));
+                return new ListTag(name, tagList);
+            }
+            case 10: {
+                ArrayList<Tag> tagMap = new ArrayList<>();
+                for (; ; ) {
+                    Tag tag = readTag(depth + 1);
+                    if (tag instanceof EndTag) return new CompoundTag(name, tagMap);
+                    tagMap.add(tag);
+                }
+            }
+            case 11: {
+                int[] ints = new int[readLength()];
+                buffer.asIntBuffer().get(ints);
+                skip(ints.length << 2);
+                return new IntArrayTag(name, ints);
+            }
+            case 100: {
+                short[] shorts = new short[readLength()];
+                buffer.asShortBuffer().get(shorts);
+                skip(shorts.length << 1);
+                return new ShortArrayTag(name, shorts);
+            }
+            default:
+                throw new IOException("Unhandled NBT type!!! type: " + type);
+        }
+    }
+
+    private void skipPayload(int type) throws IOException {
+        switch (type) {
+            case 1:
+                skip(1);
+                break;
+            case 2:
+                skip(2);
+                break;
+            case 3:
+            case 5:
+                skip(4);
+                break;
+            case 4:
+            case 6:
+                skip(8);
+                break;
+            case 7:
+                skip(readLength());
+                break;
+            case 8:
+                skip(buffer.getShort() & 0xFFFF);
+                break;
+            case 9: {
+                int childType = buffer.get() & 0xFF;
+                for (int i = 0, length = readLength(); i < length; i++) skipPayload(childType);
+                break;
+            }
+            case 10:
+                while (buffer.get(buffer.position()) != NBTConstants.NBTType.END.id) skipTag();
+                buffer.get();
+                break;
+            case 11:
+                skip(readLength() << 2);
+                break;
+            // Long array, not read but might be met.
+            case 12:
+                skip(readLength() << 3);
+                break;
+            case 100:
+                skip(readLength() << 1);
+                break;
+            default:
+                throw new IOException("Unhandled NBT type!!! type: " + type);
+        }
+    }
+
+    /**
+     * Moves forward from the current position, so a length read as the argument is skipped too.
+     */
+    private void skip(int count) {
+        buffer.position(buffer.position() + count);
+    }
+
+    private int readLength() throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) throw new IOException("Bad length " + length);
+        return length;
+    }
+
+    private String readString() {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length == 0) return "";
+        int start = buffer.position();
+        if (length > buffer.remaining()) throw new BufferUnderflowException();
+        buffer.position(start + length);
+        if (length > MAX_CACHED_LENGTH) return decode(start, length);
+
+        int hash = 0;
+        for (int i = start, end = start + length; i < end; i++) hash = hash * 31 + buffer.get(i);
+        int slot = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+        // Entries are immutable, a racing write only costs a miss.
+        CachedString cached = stringCache[slot];
+        if (cached != null && cached.matches(buffer, start, length)) return cached.value;
+        String value = decode(start, length);
+        stringCache[slot] = new CachedString(buffer, start, length, value);
+        return value;
+    }
+
+    private String decode(int start, int length) {
+        if (buffer.hasArray())
+            return new String(buffer.array(), buffer.arrayOffset() + start, length, StandardCharsets.UTF_8);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) bytes[i] = buffer.get(start + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class CachedString {
+
+        private final byte[] bytes;
+
+        private final String value;
+
+        CachedString(ByteBuffer buffer, int start, int length, String value) {
+            bytes = new byte[length];
+            for (int i = 0; i < length; i++) bytes[i] = buffer.get(start + i);
+            this.value = value;
+        }
+
+        boolean matches(ByteBuffer buffer, int start, int length) {
+            if (bytes.length != length) return false;
+            for (int i = 0; i < length; i++) if (bytes[i] != buffer.get(start + i)) return false;
+            return true;
+        }
+    }
+}
@@ -41,7 +41,10 @@ import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.StringWriter;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
 
@@ -58,10 +61,15 @@ public final class MainTestActivity extends AppCompatActivity {
      * @return 123
      */
     public static boolean arrContains(byte[] data, byte[] pattern, int[] failure) {
+        return arrContains(data, data.length, pattern, failure);
+    }
+
+    public static boolean arrContains(byte[] data, int length, byte[] pattern, int[] failure) {
 
         int j = 0;
 
-        for (byte datum : data) {
+        for (int i = 0; i < length; i++) {
+            byte datum = data[i];
             while (j > 0 && pattern[j] != datum) {
                 j = failure[j - 1];
             }
@@ -189,23 +197,31 @@ public final class MainTestActivity extends AppCompatActivity {
             List<byte[]> originalKeys = new ArrayList<>();
             Iterator iter = wdata.db.iterator();
             int[] failure = computeFailure(pattern);
-            for (iter.seekToFirst(); iter.isValid(); iter.next()) {
-                byte[] key = iter.getKey();
-                if (arrContains(key, pattern, failure)) {
-                    String str = null;
-                    boolean isText = false;
-                    if (mBinding.rgForm.getCheckedRadioButtonId() == R.id.rb_form_text) {
-                        try {
-                            str = new String(key, NBTConstants.CHARSET);
-                            isText = true;
-                        } catch (Exception ignored) {
+            ByteBuffer batch = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            byte[] scratch = new byte[256];
+            iter.seekToFirst();
+            for (int count; (count = iter.nextBatch(batch, 4096, batch.capacity(), false)) > 0; batch.clear()) {
+                for (int n = 0; n < count; n++) {
+                    int keyLength = batch.getInt();
+                    if (keyLength > scratch.length) scratch = new byte[keyLength];
+                    batch.get(scratch, 0, keyLength);
+                    if (arrContains(scratch, keyLength, pattern, failure)) {
+                        byte[] key = Arrays.copyOf(scratch, keyLength);
+                        String str = null;
+                        boolean isText = false;
+                        if (mBinding.rgForm.getCheckedRadioButtonId() == R.id.rb_form_text) {
+                            try {
+                                str = new String(key, NBTConstants.CHARSET);
+                                isText = true;
+                            } catch (Exception ignored) {
+                            }
                         }
+                        if (str == null)
+                            str = ConvertUtil.bytesToHexStr(key);
+                        keys.add(str);
+                        originalKeys.add(key);
+                        keyTypeText.add(isText);
                     }
-                    if (str == null)
-                        str = ConvertUtil.bytesToHexStr(key);
-                    keys.add(str);
-                    originalKeys.add(key);
-                    keyTypeText.add(isText);
                 }
             }
             iter.close();
@@ -17,6 +17,7 @@ import androidx.annotation.StringRes;
 import androidx.appcompat.app.AlertDialog;
 import androidx.core.graphics.ColorUtils;
 import androidx.databinding.DataBindingUtil;
+import androidx.databinding.ObservableField;
 
 import com.google.android.material.snackbar.Snackbar;
 import com.mithrilmania.blocktopograph.R;
@@ -131,11 +132,21 @@ public final class UiUtil {
     public static AlertDialog buildProgressWaitDialog(
             @NonNull Context context, @StringRes int text,
             @Nullable DialogInterface.OnCancelListener onCancelListener) {
+        return buildProgressWaitDialog(context, text, null, onCancelListener);
+    }
+
+    /**
+     * @param progress shown under the text once set, may be set from any thread
+     */
+    public static AlertDialog buildProgressWaitDialog(
+            @NonNull Context context, @StringRes int text, @Nullable ObservableField<String> progress,
+            @Nullable DialogInterface.OnCancelListener onCancelListener) {
         GeneralWaitBinding binding = DataBindingUtil.inflate(
                 LayoutInflater.from(context),
                 R.layout.general_wait, null, false
         );
         binding.setText(text);
+        binding.setProgress(progress);
         AlertDialog dialog = new AlertDialog.Builder(context)
                 .setView(binding.getRoot())
                 .setCancelable(onCancelListener != null)
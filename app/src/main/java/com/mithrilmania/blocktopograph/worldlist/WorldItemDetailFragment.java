@@ -12,6 +12,7 @@ import android.view.ViewGroup;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.databinding.DataBindingUtil;
+import androidx.databinding.ObservableField;
 import androidx.fragment.app.Fragment;
 
 import com.google.android.material.appbar.CollapsingToolbarLayout;
@@ -21,6 +22,7 @@ import com.mithrilmania.blocktopograph.Log;
 import com.mithrilmania.blocktopograph.R;
 import com.mithrilmania.blocktopograph.World;
 import com.mithrilmania.blocktopograph.WorldActivity;
+import com.mithrilmania.blocktopograph.backup.BackupProgress;
 import com.mithrilmania.blocktopograph.backup.WorldBackups;
 import com.mithrilmania.blocktopograph.databinding.WorlditemDetailBinding;
 import com.mithrilmania.blocktopograph.test.MainTestActivity;
@@ -107,13 +109,16 @@ public class WorldItemDetailFragment extends Fragment implements View.OnClickLis
             WorldBackups worldBackups = new WorldBackups(mWorld);
             worldBackups.loadConfig();
             if (worldBackups.autoBackup) {
+                ObservableField<String> progress = new ObservableField<>();
                 AlertDialog dia = UiUtil.buildProgressWaitDialog(view.getContext(),
-                        R.string.auto_backup_caption, null);
+                        R.string.auto_backup_caption, progress, null);
                 dia.show();
+                BackupProgress.Listener listener = BackupActivity.showProgress(view.getContext(), progress);
+                String name = getString(R.string.auto_backup_name);
                 new AsyncTask<WorldBackups, Void, Boolean>() {
                     @Override
                     protected Boolean doInBackground(WorldBackups... worldBackups) {
-                        return worldBackups[0].createNewBackup(getString(R.string.auto_backup_name), new Date());
+                        return worldBackups[0].createNewBackup(name, new Date(), listener);
                     }
 
                     @Override
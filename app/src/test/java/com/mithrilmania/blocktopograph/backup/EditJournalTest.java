@@ -0,0 +1,206 @@
+package com.mithrilmania.blocktopograph.backup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.mithrilmania.blocktopograph.WorldData;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class EditJournalTest {
+
+    @Rule
+    public final TemporaryFolder temp = new TemporaryFolder();
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private File folder() {
+        return new File(temp.getRoot(), EditJournal.FOLDER);
+    }
+
+    /**
+     * Writes through a recorder, the way a transaction does.
+     */
+    private static void edit(EditJournal.Recorder recorder, TestRecords records, String key, @Nullable String value) {
+        byte[] k = bytes(key);
+        if (recorder.shouldRecord(k)) recorder.record(k, records.get(k));
+        records.put(k, value == null ? null : bytes(value));
+    }
+
+    private static void assertValue(TestRecords records, String key, @Nullable String value) {
+        byte[] actual = records.get(bytes(key));
+        if (value == null) assertNull(actual);
+        else assertArrayEquals(bytes(value), actual);
+    }
+
+    @Test
+    public void undoAndRedoRoundTrip() throws Exception {
+        TestRecords records = new TestRecords();
+        records.put(bytes("kept"), bytes("old"));
+        records.put(bytes("deleted"), bytes("there"));
+        EditJournal journal = new EditJournal(folder());
+
+        try (EditJournal.Recorder recorder = journal.begin(records, "edit")) {
+            assertFalse(journal.canUndo());
+            edit(recorder, records, "kept", "new");
+            edit(recorder, records, "created", "new");
+            edit(recorder, records, "deleted", null);
+            // Only the value from before the operation counts.
+            edit(recorder, records, "kept", "newer");
+            recorder.sync();
+        }
+        assertTrue(journal.canUndo());
+        assertFalse(journal.canRedo());
+
+        assertTrue(journal.undo(records));
+        assertValue(records, "kept", "old");
+        assertValue(records, "created", null);
+        assertValue(records, "deleted", "there");
+        assertFalse(journal.canUndo());
+        assertTrue(journal.canRedo());
+
+        assertTrue(journal.redo(records));
+        assertValue(records, "kept", "newer");
+        assertValue(records, "created", "new");
+        assertValue(records, "deleted", null);
+        assertTrue(journal.canUndo());
+        assertFalse(journal.canRedo());
+        assertFalse(journal.redo(records));
+    }
+
+    @Test
+    public void undoesInReverseOrder() throws Exception {
+        TestRecords records = new TestRecords();
+        EditJournal journal = new EditJournal(folder());
+        for (String value : new String[]{"1", "2", "3"}) {
+            try (EditJournal.Recorder recorder = journal.begin(records, value)) {
+                edit(recorder, records, "key", value);
+            }
+        }
+
+        assertTrue(journal.undo(records));
+        assertValue(records, "key", "2");
+        assertTrue(journal.undo(records));
+        assertValue(records, "key", "1");
+        assertTrue(journal.redo(records));
+        assertValue(records, "key", "2");
+        assertTrue(journal.undo(records));
+        assertTrue(journal.undo(records));
+        assertValue(records, "key", null);
+        assertFalse(journal.undo(records));
+    }
+
+    @Test
+    public void newOperationDropsUndone() throws Exception {
+        TestRecords records = new TestRecords();
+        EditJournal journal = new EditJournal(folder());
+        try (EditJournal.Recorder recorder = journal.begin(records, "first")) {
+            edit(recorder, records, "key", "1");
+        }
+        journal.undo(records);
+        assertTrue(journal.canRedo());
+
+        try (EditJournal.Recorder recorder = journal.begin(records, "second")) {
+            edit(recorder, records, "key", "2");
+        }
+
+        assertFalse(journal.canRedo());
+        assertTrue(journal.undo(records));
+        assertValue(records, "key", null);
+    }
+
+    @Test
+    public void keepsTheLastOperations() throws Exception {
+        TestRecords records = new TestRecords();
+        EditJournal journal = new EditJournal(folder(), 2, EditJournal.DEFAULT_MAX_BYTES);
+        for (String value : new String[]{"1", "2", "3"}) {
+            try (EditJournal.Recorder recorder = journal.begin(records, value)) {
+                edit(recorder, records, "key", value);
+            }
+        }
+
+        assertTrue(journal.undo(records));
+        assertTrue(journal.undo(records));
+        assertFalse(journal.undo(records));
+        assertValue(records, "key", "1");
+    }
+
+    @Test
+    public void dropsEmptyAndOversizeOperations() throws Exception {
+        TestRecords records = new TestRecords();
+        EditJournal journal = new EditJournal(folder(), EditJournal.DEFAULT_MAX_OPERATIONS, 64);
+        journal.begin(records, "nothing").close();
+        assertFalse(journal.canUndo());
+
+        records.put(bytes("key"), new byte[1024]);
+        try (EditJournal.Recorder recorder = journal.begin(records, "too large")) {
+            edit(recorder, records, "key", "small");
+        }
+
+        assertFalse(journal.canUndo());
+        assertValue(records, "key", "small");
+    }
+
+    @Test
+    public void finishesAnInterruptedRoll() throws Exception {
+        TestRecords records = new TestRecords();
+        records.put(bytes("key"), bytes("old"));
+        EditJournal journal = new EditJournal(folder());
+        try (EditJournal.Recorder recorder = journal.begin(records, "edit")) {
+            edit(recorder, records, "key", "new");
+        }
+
+        records.failWrites = true;
+        try {
+            journal.undo(records);
+            fail();
+        } catch (WorldData.WorldDBException e) {
+            // Killed halfway.
+        }
+        records.failWrites = false;
+        assertValue(records, "key", "new");
+
+        // Finished instead of undoing anything else.
+        assertFalse(journal.undo(records));
+        assertValue(records, "key", "old");
+        assertTrue(journal.redo(records));
+        assertValue(records, "key", "new");
+    }
+
+    private static final class TestRecords implements EditJournal.Records {
+
+        private final Map<ByteBuffer, byte[]> map = new HashMap<>();
+
+        boolean failWrites;
+
+        void put(byte[] key, @Nullable byte[] value) {
+            if (value == null) map.remove(ByteBuffer.wrap(key));
+            else map.put(ByteBuffer.wrap(key), value);
+        }
+
+        @Nullable
+        @Override
+        public byte[] get(@NonNull byte[] key) {
+            return map.get(ByteBuffer.wrap(key));
+        }
+
+        @Override
+        public void write(@NonNull List<byte[]> keys, @NonNull List<byte[]> values) throws WorldData.WorldDBException {
+            if (failWrites) throw new WorldData.WorldDBException("Failing on purpose");
+            for (int i = 0; i < keys.size(); i++) put(keys.get(i), values.get(i));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.mithrilmania.blocktopograph.block;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class BlockRegistryTest {
+
+    @Test
+    public void equalStatesAreTheSameInstance() {
+        Block a = new Block.Builder(BlockType.STONE).setProperty("stone_type", "granite").build();
+        Block b = new Block.Builder(BlockType.STONE).setProperty("stone_type", "granite").build();
+        Block other = new Block.Builder(BlockType.STONE).setProperty("stone_type", "diorite").build();
+
+        assertSame(a, b);
+        assertEquals(a.getRuntimeId(), b.getRuntimeId());
+        assertNotSame(a, other);
+        assertNotEquals(a, other);
+        assertNotEquals(a.getRuntimeId(), other.getRuntimeId());
+    }
+
+    @Test
+    public void customStatesAreInterned() {
+        Block a = new Block.Builder("test:custom").setProperty("facing", 2).setProperty("lit", (byte) 1).build();
+        Block b = new Block.Builder("test:custom").setProperty("lit", (byte) 1).setProperty("facing", 2).build();
+        Block other = new Block.Builder("test:custom").setProperty("facing", 3).setProperty("lit", (byte) 1).build();
+
+        assertSame(a, b);
+        assertNotSame(a, other);
+    }
+
+    @Test
+    public void runtimeIdsAreDense() {
+        int before = BlockRegistry.size();
+        Block first = new Block.Builder("test:dense").setProperty("n", 1).build();
+        Block second = new Block.Builder("test:dense").setProperty("n", 2).build();
+
+        assertEquals(before, first.getRuntimeId());
+        assertEquals(before + 1, second.getRuntimeId());
+        assertEquals(before + 2, BlockRegistry.size());
+        assertSame(first, BlockRegistry.get(first.getRuntimeId()));
+        assertSame(second, BlockRegistry.get(second.getRuntimeId()));
+        assertNull(BlockRegistry.get(-1));
+        assertNull(BlockRegistry.get(BlockRegistry.size()));
+    }
+
+    @Test
+    public void growsPastTheInitialTable() {
+        Block[] blocks = new Block[3000];
+        for (int i = 0; i < blocks.length; i++)
+            blocks[i] = new Block.Builder("test:many").setProperty("i", i).build();
+        for (Block block : blocks) assertSame(block, BlockRegistry.get(block.getRuntimeId()));
+    }
+
+    @Test
+    public void newStatesPastTheBoundAreNotInterned() {
+        Block known = new Block.Builder("test:bounded").setProperty("n", 1).build();
+        int before = BlockRegistry.size();
+
+        Block a = BlockRegistry.intern(new Block("test:bounded", Collections.singletonMap("n", 2)), before);
+        Block b = BlockRegistry.intern(new Block("test:bounded", Collections.singletonMap("n", 2)), before);
+
+        assertEquals(BlockRegistry.UNREGISTERED, a.getRuntimeId());
+        assertEquals(a, b);
+        assertNotSame(a, b);
+        assertEquals(before, BlockRegistry.size());
+        assertSame(known, BlockRegistry.intern(new Block("test:bounded", Collections.singletonMap("n", 1)), before));
+        assertSame(BlockTemplates.getUnknownBlockTemplate(), BlockTemplates.getBest(a));
+    }
+
+    @Test
+    public void deserializesToTheInterned() throws Exception {
+        Block block = new Block.Builder(BlockType.DIRT).setProperty("dirt_type", "normal").build();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(baos)) {
+            out.writeObject(block);
+        }
+        Object read;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()))) {
+            read = in.readObject();
+        }
+
+        assertSame(block, read);
+    }
+}
@@ -0,0 +1,212 @@
+package com.mithrilmania.blocktopograph.chunk;
+
+import androidx.annotation.NonNull;
+
+import com.mithrilmania.blocktopograph.block.Block;
+import com.mithrilmania.blocktopograph.block.BlockTemplate;
+import com.mithrilmania.blocktopograph.block.BlockTemplates;
+import com.mithrilmania.blocktopograph.block.icon.NoBlockIcon;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SurfaceSummaryTest {
+
+    private static final BlockTemplate STONE = template("test:stone", 0xff404040, false);
+    private static final BlockTemplate WATER = template("test:water", 0x800000ff, false);
+    private static final BlockTemplate GRASS = template("test:grass", 0xff808080, true);
+    private static final BlockTemplate GLASS = template("test:glass", 0x00ffffff, false);
+
+    private static BlockTemplate template(String name, int color, boolean hasBiomeShading) {
+        return new BlockTemplate(null, new Block.Builder(name).build(), new NoBlockIcon(), color, hasBiomeShading);
+    }
+
+    @Test
+    public void opaqueTopHidesTheRest() {
+        TestChunk chunk = new TestChunk();
+        chunk.fill(0, 0, 0, 10, STONE);
+        chunk.setHeight(0, 0, 10);
+
+        SurfaceSummary summary = SurfaceSummary.compute(chunk, true);
+
+        assertTrue(summary.hasColors());
+        assertEquals(0xff404040, summary.getColor(0, 0));
+        assertEquals(8, summary.getSurfaceY(0, 0));
+        // Lit by the block above the surface.
+        assertEquals(9, summary.getBlockLight(0, 0));
+    }
+
+    @Test
+    public void blendsTranslucentBlocksTopDown() {
+        TestChunk chunk = new TestChunk();
+        chunk.fill(1, 2, 0, 9, STONE);
+        chunk.fill(1, 2, 9, 10, WATER);
+        chunk.setHeight(1, 2, 10);
+
+        SurfaceSummary summary = SurfaceSummary.compute(chunk, true);
+
+        assertEquals(0xff2020a0, summary.getColor(1, 2));
+        assertEquals(7, summary.getSurfaceY(1, 2));
+    }
+
+    @Test
+    public void skipsAirAndInvisibleBlocks() {
+        TestChunk chunk = new TestChunk();
+        chunk.fill(3, 4, 0, 9, STONE);
+        chunk.fill(3, 4, 9, 10, GLASS);
+        chunk.setHeight(3, 4, 12);
+
+        SurfaceSummary summary = SurfaceSummary.compute(chunk, true);
+
+        assertEquals(0xff404040, summary.getColor(3, 4));
+        assertEquals(7, summary.getSurfaceY(3, 4));
+    }
+
+    @Test
+    public void shadesBiomeColoredBlocks() {
+        TestChunk chunk = new TestChunk();
+        chunk.fill(5, 6, 0, 10, GRASS);
+        chunk.setHeight(5, 6, 10);
+        chunk.grassColor = 0xff00ff00;
+
+        SurfaceSummary summary = SurfaceSummary.compute(chunk, true);
+
+        assertEquals(0xff008000, summary.getColor(5, 6));
+        assertEquals(0xff00ff00, summary.getGrassColor(5, 6));
+    }
+
+    @Test
+    public void startsBelowTheHeightLimit() {
+        TestChunk chunk = new TestChunk();
+        chunk.fill(7, 8, 0, TestChunk.HEIGHT, STONE);
+        chunk.setHeight(7, 8, 1000);
+
+        SurfaceSummary summary = SurfaceSummary.compute(chunk, true);
+
+        assertEquals(0xff404040, summary.getColor(7, 8));
+        assertEquals(1000, summary.getHeight(7, 8));
+        assertEquals(TestChunk.HEIGHT - 2, summary.getSurfaceY(7, 8));
+    }
+
+    @Test
+    public void onlyReads2dDataWithoutColors() {
+        TestChunk chunk = new TestChunk();
+        chunk.fill(9, 10, 0, 10, STONE);
+        chunk.setHeight(9, 10, 10);
+        chunk.grassColor = 0xff123456;
+
+        SurfaceSummary summary = SurfaceSummary.compute(chunk, false);
+
+        assertFalse(summary.hasColors());
+        assertEquals(0, chunk.templatesRead);
+        assertEquals(10, summary.getHeight(9, 10));
+        assertEquals(4, summary.getBiome(9, 10));
+        assertEquals(0xff123456, summary.getGrassColor(9, 10));
+    }
+
+    private static final class TestChunk extends Chunk {
+
+        static final int HEIGHT = 32;
+
+        private final BlockTemplate[][] columns = new BlockTemplate[256][HEIGHT];
+
+        private final int[] heights = new int[256];
+
+        int grassColor = 0xffffffff;
+
+        int templatesRead;
+
+        TestChunk() {
+            super(null, Version.NULL, 0, 0, null);
+            for (BlockTemplate[] column : columns) Arrays.fill(column, BlockTemplates.getAirTemplate());
+        }
+
+        void fill(int x, int z, int fromY, int toY, BlockTemplate template) {
+            Arrays.fill(columns[(z << 4) | x], fromY, toY, template);
+        }
+
+        void setHeight(int x, int z, int height) {
+            heights[(z << 4) | x] = height;
+        }
+
+        @Override
+        public boolean supportsBlockLightValues() {
+            return true;
+        }
+
+        @Override
+        public boolean supportsHeightMap() {
+            return true;
+        }
+
+        @Override
+        public int getHeightLimit() {
+            return HEIGHT;
+        }
+
+        @Override
+        public int getHeightMapValue(int x, int z) {
+            return heights[(z << 4) | x];
+        }
+
+        @Override
+        public int getBiome(int x, int z) {
+            return 4;
+        }
+
+        @Override
+        public void setBiome(int x, int z, int id) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getGrassColor(int x, int z) {
+            return grassColor;
+        }
+
+        @NonNull
+        @Override
+        public BlockTemplate getBlockTemplate(int x, int y, int z, int layer) {
+            templatesRead++;
+            return columns[(z << 4) | x][y];
+        }
+
+        @NonNull
+        @Override
+        public Block getBlock(int x, int y, int z, int layer) {
+            return getBlockTemplate(x, y, z, layer).getBlock();
+        }
+
+        @Override
+        public void setBlock(int x, int y, int z, int layer, @NonNull Block block) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getBlockLightValue(int x, int y, int z) {
+            return y;
+        }
+
+        @Override
+        public int getSkyLightValue(int x, int y, int z) {
+            return 15;
+        }
+
+        @Override
+        public int getHighestBlockYUnderAt(int x, int z, int y) {
+            return -1;
+        }
+
+        @Override
+        public int getCaveYUnderAt(int x, int z, int y) {
+            return -1;
+        }
+
+        @Override
+        public void save() {
+        }
+    }
+}
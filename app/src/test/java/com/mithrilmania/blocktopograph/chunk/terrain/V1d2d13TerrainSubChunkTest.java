@@ -0,0 +1,154 @@
+package com.mithrilmania.blocktopograph.chunk.terrain;
+
+import com.mithrilmania.blocktopograph.block.Block;
+import com.mithrilmania.blocktopograph.block.BlockTemplates;
+import com.mithrilmania.blocktopograph.block.BlockType;
+import com.mithrilmania.blocktopograph.nbt.convert.NBTBufferReader;
+import com.mithrilmania.blocktopograph.nbt.convert.NBTOutputStream;
+import com.mithrilmania.blocktopograph.nbt.tags.CompoundTag;
+import com.mithrilmania.blocktopograph.nbt.tags.IntTag;
+import com.mithrilmania.blocktopograph.nbt.tags.ListTag;
+import com.mithrilmania.blocktopograph.nbt.tags.StringTag;
+import com.mithrilmania.blocktopograph.nbt.tags.Tag;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class V1d2d13TerrainSubChunkTest {
+
+    // Version, storage count, code length and the packed indices of a 2 bit storage.
+    private static final int PALETTE_START = 1 + 1 + 1 + 1024;
+
+    private static final Block STONE =
+            new Block.Builder(BlockType.STONE).setProperty("stone_type", "granite").build();
+
+    private static final Block DIRT =
+            new Block.Builder(BlockType.DIRT).setProperty("dirt_type", "coarse").build();
+
+    private static byte[] entry(Tag... children) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new NBTOutputStream(baos, false, true).writeTag(
+                new CompoundTag("", new ArrayList<>(Arrays.asList(children))));
+        return baos.toByteArray();
+    }
+
+    // Not in the order the app writes it, so re-encoding it would show.
+    private static byte[] airEntry() throws IOException {
+        return entry(new IntTag("version", 2012),
+                new CompoundTag("states", new ArrayList<>()),
+                new StringTag("name", "minecraft:air"));
+    }
+
+    private static byte[] stoneEntry() throws IOException {
+        return entry(new StringTag("name", "minecraft:stone"),
+                new CompoundTag("states", new ArrayList<>(Arrays.asList(
+                        new StringTag("stone_type", "granite")))),
+                new ListTag("unused", new ArrayList<>(Arrays.asList(new IntTag("", 1), new IntTag("", 2)))),
+                new IntTag("version", 2012));
+    }
+
+    // The name is not a string, so this can't be decoded.
+    private static byte[] brokenEntry() throws IOException {
+        return entry(new IntTag("name", 5),
+                new CompoundTag("states", new ArrayList<>()));
+    }
+
+    /**
+     * A sub-chunk of air with stone at 0, 0, 0 and the broken entry at 0, 1, 0.
+     */
+    private static byte[] record() throws IOException {
+        byte[][] entries = {airEntry(), stoneEntry(), brokenEntry()};
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(8);
+        baos.write(1);
+        baos.write(2 << 1);
+        byte[] indices = new byte[1024];
+        // Offsets 0 and 1 are the lowest two codes of the first int.
+        indices[0] = 1 | (2 << 2);
+        baos.write(indices);
+        baos.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(entries.length).array());
+        for (byte[] entry : entries) baos.write(entry);
+        return baos.toByteArray();
+    }
+
+    private static V1d2d13TerrainSubChunk load(byte[] record) {
+        V1d2d13TerrainSubChunk subChunk = new V1d2d13TerrainSubChunk(ByteBuffer.wrap(record));
+        assertFalse(subChunk.isError());
+        return subChunk;
+    }
+
+    /**
+     * The bytes of the {@code index}th palette entry of a saved single storage sub-chunk.
+     */
+    private static byte[] paletteEntry(byte[] record, int index) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        buffer.position(PALETTE_START + 4);
+        NBTBufferReader reader = new NBTBufferReader(buffer);
+        for (int i = 0; i < index; i++) reader.skipTag();
+        int start = reader.position();
+        reader.skipTag();
+        return Arrays.copyOfRange(record, start, reader.position());
+    }
+
+    @Test
+    public void untouchedPaletteIsWrittenBackAsRead() throws Exception {
+        byte[] record = record();
+
+        assertArrayEquals(record, load(record).serialize());
+    }
+
+    @Test
+    public void findsEveryPaletteEntry() throws Exception {
+        V1d2d13TerrainSubChunk subChunk = load(record());
+
+        assertSame(STONE, subChunk.getBlock(0, 0, 0, 0));
+        assertSame(BlockTemplates.getUnknownBlockTemplate().getBlock(), subChunk.getBlock(0, 1, 0, 0));
+        assertSame(BlockTemplates.getAirTemplate().getBlock(), subChunk.getBlock(0, 2, 0, 0));
+        assertSame(BlockTemplates.getAirTemplate(), subChunk.getBlockTemplate(15, 15, 15, 0));
+    }
+
+    @Test
+    public void decodesTheSameEntryToTheSameBlock() throws Exception {
+        Block first = load(record()).getBlock(0, 0, 0, 0);
+        Block second = load(record()).getBlock(0, 0, 0, 0);
+
+        assertSame(first, second);
+    }
+
+    @Test
+    public void undecodedEntryIsWrittenBackAsItWas() throws Exception {
+        V1d2d13TerrainSubChunk subChunk = load(record());
+        subChunk.setBlock(1, 0, 0, 0, DIRT);
+
+        byte[] saved = subChunk.serialize();
+
+        assertEquals(4, ByteBuffer.wrap(saved, PALETTE_START, 4).order(ByteOrder.LITTLE_ENDIAN).getInt());
+        assertArrayEquals(brokenEntry(), paletteEntry(saved, 2));
+        V1d2d13TerrainSubChunk reloaded = load(saved);
+        assertSame(STONE, reloaded.getBlock(0, 0, 0, 0));
+        assertSame(BlockTemplates.getUnknownBlockTemplate().getBlock(), reloaded.getBlock(0, 1, 0, 0));
+        assertSame(DIRT, reloaded.getBlock(1, 0, 0, 0));
+    }
+
+    @Test
+    public void replacedUndecodedEntryIsSavedAsTheReplacement() throws Exception {
+        V1d2d13TerrainSubChunk subChunk = load(record());
+        Block unknown = BlockTemplates.getUnknownBlockTemplate().getBlock();
+        assertTrue(subChunk.replaceBlocks(0, block -> block == unknown, DIRT, 0, 15, 0, 15, 0, 15));
+
+        byte[] saved = subChunk.serialize();
+
+        assertFalse(Arrays.equals(brokenEntry(), paletteEntry(saved, 2)));
+        V1d2d13TerrainSubChunk reloaded = load(saved);
+        assertSame(DIRT, reloaded.getBlock(0, 1, 0, 0));
+        assertSame(STONE, reloaded.getBlock(0, 0, 0, 0));
+    }
+}
@@ -0,0 +1,61 @@
+package com.mithrilmania.blocktopograph.map.renderer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TilePixelsTest {
+
+    @Test
+    public void averagesEachBox() {
+        int[] src = {
+                0xff000000, 0xff040404, 0xffff0000, 0xffff0000,
+                0xff080808, 0xff0c0c0c, 0xff0000ff, 0xff0000ff,
+                0xff102030, 0xff102030, 0xffffffff, 0xff000000,
+                0xff102030, 0xff102030, 0xff000000, 0xffffffff,
+        };
+        int[] dst = new int[4];
+        TilePixels.downsample(src, 4, 4, dst);
+
+        assertArrayEquals(new int[]{
+                0xff060606, 0xff800080,
+                0xff102030, 0xff808080,
+        }, dst);
+    }
+
+    @Test
+    public void roundsToNearest() {
+        // Channel sums of 1, 2 and 3 average to 0, 1 (half rounds up) and 1.
+        int[] src = {
+                0xff010203, 0xff000000,
+                0xff000000, 0xff000000,
+        };
+        int[] dst = new int[1];
+        TilePixels.downsample(src, 2, 2, dst);
+
+        assertEquals(0xff000101, dst[0]);
+    }
+
+    @Test
+    public void outputIsOpaque() {
+        int[] src = {0x00ffffff, 0x10ffffff, 0x80ffffff, 0x00ffffff};
+        int[] dst = new int[1];
+        TilePixels.downsample(src, 2, 2, dst);
+
+        assertEquals(0xffffffff, dst[0]);
+    }
+
+    @Test
+    public void dropsTheOddEdge() {
+        int[] src = {
+                0xff101010, 0xff101010, 0xffffffff,
+                0xff101010, 0xff101010, 0xffffffff,
+                0xffffffff, 0xffffffff, 0xffffffff,
+        };
+        int[] dst = {0, 0};
+        TilePixels.downsample(src, 3, 3, dst);
+
+        assertEquals(0xff101010, dst[0]);
+        assertEquals(0, dst[1]);
+    }
+}
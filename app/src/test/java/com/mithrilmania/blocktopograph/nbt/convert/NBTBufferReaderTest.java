@@ -0,0 +1,111 @@
+package com.mithrilmania.blocktopograph.nbt.convert;
+
+import com.mithrilmania.blocktopograph.nbt.tags.ByteArrayTag;
+import com.mithrilmania.blocktopograph.nbt.tags.ByteTag;
+import com.mithrilmania.blocktopograph.nbt.tags.CompoundTag;
+import com.mithrilmania.blocktopograph.nbt.tags.DoubleTag;
+import com.mithrilmania.blocktopograph.nbt.tags.FloatTag;
+import com.mithrilmania.blocktopograph.nbt.tags.IntArrayTag;
+import com.mithrilmania.blocktopograph.nbt.tags.IntTag;
+import com.mithrilmania.blocktopograph.nbt.tags.ListTag;
+import com.mithrilmania.blocktopograph.nbt.tags.LongTag;
+import com.mithrilmania.blocktopograph.nbt.tags.ShortArrayTag;
+import com.mithrilmania.blocktopograph.nbt.tags.ShortTag;
+import com.mithrilmania.blocktopograph.nbt.tags.StringTag;
+import com.mithrilmania.blocktopograph.nbt.tags.Tag;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class NBTBufferReaderTest {
+
+    private static CompoundTag sample(String name) {
+        String longString = "a string longer than the cached ones, decoded every time";
+        return new CompoundTag(name, new ArrayList<>(Arrays.asList(
+                new ByteTag("byte", (byte) -3),
+                new ShortTag("short", (short) 1234),
+                new IntTag("int", 0x12345678),
+                new LongTag("long", 0x123456789abcdefL),
+                new FloatTag("float", 1.5f),
+                new DoubleTag("double", -2.25),
+                new ByteArrayTag("bytes", new byte[]{1, 2, 3}),
+                new StringTag("string", "minecraft:stone"),
+                new StringTag("long_string", longString),
+                new StringTag("unicode", "\u00e9\u4e2d"),
+                new ListTag("list", new ArrayList<>(Arrays.asList(
+                        new IntTag("", 1), new IntTag("", 2)))),
+                new ListTag("empty_list", new ArrayList<>()),
+                new CompoundTag("nested", new ArrayList<>(Arrays.asList(
+                        new StringTag("name", "minecraft:air"),
+                        new CompoundTag("states", new ArrayList<>())))),
+                new IntArrayTag("ints", new int[]{-1, 0, 1}),
+                new ShortArrayTag("shorts", new short[]{-1, 0, 1})
+        )));
+    }
+
+    private static byte[] write(Tag... tags) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        NBTOutputStream out = new NBTOutputStream(baos, false, true);
+        for (Tag tag : tags) out.writeTag(tag);
+        out.close();
+        return baos.toByteArray();
+    }
+
+    @Test
+    public void readsLikeTheStream() throws Exception {
+        byte[] bytes = write(sample("first"), sample("second"));
+
+        ArrayList<Tag> fromStream = new NBTInputStream(new ByteArrayInputStream(bytes)).readTopLevelTags();
+        ArrayList<Tag> fromBuffer = new NBTBufferReader(ByteBuffer.wrap(bytes)).readTopLevelTags();
+
+        assertEquals(2, fromStream.size());
+        assertEquals(fromStream, fromBuffer);
+        assertEquals(sample("first"), fromBuffer.get(0));
+    }
+
+    @Test
+    public void readsFromASlice() throws Exception {
+        byte[] tag = write(sample("root"));
+        byte[] bytes = new byte[tag.length + 8];
+        System.arraycopy(tag, 0, bytes, 5, tag.length);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 5, tag.length).slice();
+
+        NBTBufferReader reader = new NBTBufferReader(buffer);
+        assertEquals(sample("root"), reader.readTag());
+        assertEquals(tag.length, reader.position());
+    }
+
+    @Test
+    public void skipsToWhereReadingEnds() throws Exception {
+        byte[] bytes = write(sample("first"), new IntTag("after", 7));
+
+        NBTBufferReader reading = new NBTBufferReader(ByteBuffer.wrap(bytes));
+        reading.readTag();
+        NBTBufferReader skipping = new NBTBufferReader(ByteBuffer.wrap(bytes));
+        skipping.skipTag();
+
+        assertEquals(reading.position(), skipping.position());
+        assertEquals(new IntTag("after", 7), skipping.readTag());
+        assertEquals(bytes.length, skipping.position());
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnTruncated() throws Exception {
+        byte[] bytes = write(sample("root"));
+        new NBTBufferReader(ByteBuffer.wrap(bytes, 0, bytes.length - 10).slice()).readTag();
+    }
+
+    @Test(expected = IOException.class)
+    public void failsSkippingTruncated() throws Exception {
+        byte[] bytes = write(sample("root"));
+        new NBTBufferReader(ByteBuffer.wrap(bytes, 0, bytes.length - 10).slice()).skipTag();
+    }
+}
@@ -8,7 +8,9 @@ import com.litl.leveldb.WriteBatch;
 
 import java.io.File;
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 public class DBTests extends AndroidTestCase {
@@ -70,6 +72,28 @@ public class DBTests extends AndroidTestCase {
         assertNull(val);
     }
 
+    public void testMultiGet() {
+        mDb.put(bytes("hello"), bytes("world"));
+        mDb.put(bytes("bye"), bytes("moon"));
+
+        final ByteBuffer keys = ByteBuffer.allocateDirect(20);
+        keys.put(bytes("xhello"));
+        keys.put(bytes("boo"));
+        keys.put(bytes("bye"));
+        keys.flip();
+        keys.position(1);
+
+        byte[][] vals = mDb.multiGet(keys, new int[] { 5, 3, 3 }, 3);
+        assertEquals(3, vals.length);
+        assertTrue(Arrays.equals(vals[0], bytes("world")));
+        assertNull(vals[1]);
+        assertTrue(Arrays.equals(vals[2], bytes("moon")));
+
+        // Direct buffers take the fast single key path.
+        keys.position(9).limit(12);
+        assertTrue(Arrays.equals(mDb.get(keys), bytes("moon")));
+    }
+
     public void testBatchAndIterator() {
         final String[] keys = { "foo1", "foo2", "foo3", "foo4", "foo5" };
         final String[] vals = { "bar1", "bar2", "bar3", "bar4", "bar5" };
@@ -146,6 +170,20 @@ public class DBTests extends AndroidTestCase {
         assertNull(mDb.get(bytes("bye")));
     }
 
+    public void testSequenceNumber() {
+        final long initial = mDb.getLatestSequenceNumber();
+        mDb.put(bytes("hello"), bytes("world"));
+        final long afterPut = mDb.getLatestSequenceNumber();
+        assertTrue(afterPut > initial);
+
+        mDb.get(bytes("hello"));
+        assertEquals(afterPut, mDb.getLatestSequenceNumber());
+
+        mDb.close();
+        mDb.open();
+        assertEquals(afterPut, mDb.getLatestSequenceNumber());
+    }
+
     public void testSeek() {
         mDb.put(bytes("01"), bytes("foo"));
         mDb.put(bytes("02"), bytes("foo"));
@@ -190,6 +228,90 @@ public class DBTests extends AndroidTestCase {
         }
     }
 
+    public void testSeekPrefix() {
+        mDb.put(bytes("01"), bytes("foo"));
+        mDb.put(bytes("11"), bytes("bar1"));
+        mDb.put(bytes("12"), bytes("bar2"));
+        mDb.put(bytes("13"), bytes("bar3"));
+        mDb.put(bytes("21"), bytes("foo"));
+
+        final Iterator iter = mDb.iterator();
+        try {
+            assertFalse(iter.seekPrefix(bytes("3")));
+            assertFalse(iter.seekPrefix(bytes("111")));
+
+            assertTrue(iter.seekPrefix(bytes("1")));
+            assertTrue(Arrays.equals(bytes("11"), iter.getKey()));
+            assertTrue(iter.nextWithPrefix());
+            assertTrue(iter.nextWithPrefix());
+            assertTrue(Arrays.equals(bytes("13"), iter.getKey()));
+            assertFalse(iter.nextWithPrefix());
+
+            final int[] visited = { 0 };
+            int count = iter.forEachWithPrefix(bytes("1"), true, (key, value) -> {
+                visited[0]++;
+                assertEquals(key[1], value[3]);
+                return true;
+            });
+            assertEquals(3, count);
+            assertEquals(3, visited[0]);
+
+            count = iter.forEachWithPrefix(bytes("1"), false, (key, value) -> {
+                assertNull(value);
+                return false;
+            });
+            assertEquals(1, count);
+        } finally {
+            iter.close();
+        }
+    }
+
+    public void testNextBatch() {
+        final String[] keys = { "foo1", "foo2", "foo3", "foo4", "foo5" };
+        final String[] vals = { "bar1", "bar2", "bar3", "bar4", "bar5" };
+        for (int i = 0; i < keys.length; i++) {
+            mDb.put(bytes(keys[i]), bytes(vals[i]));
+        }
+
+        final ByteBuffer batch = ByteBuffer.allocateDirect(64).order(ByteOrder.LITTLE_ENDIAN);
+        final Iterator iter = mDb.iterator();
+        try {
+            int i = 0;
+            iter.seekToFirst();
+            for (int count; (count = iter.nextBatch(batch, 2, 64)) > 0; batch.clear()) {
+                assertTrue(count <= 2);
+                for (int n = 0; n < count; n++, i++) {
+                    final byte[] key = new byte[batch.getInt()];
+                    batch.get(key);
+                    final byte[] val = new byte[batch.getInt()];
+                    batch.get(val);
+                    assertTrue(Arrays.equals(bytes(keys[i]), key));
+                    assertTrue(Arrays.equals(bytes(vals[i]), val));
+                }
+                assertFalse(batch.hasRemaining());
+            }
+            assertEquals(keys.length, i);
+
+            // Keys only, limited by size: each entry takes 8 bytes.
+            batch.clear();
+            iter.seekToFirst();
+            assertEquals(3, iter.nextBatch(batch, 10, 30, false));
+            assertEquals(24, batch.limit());
+            batch.position(16);
+            assertEquals(4, batch.getInt());
+
+            // Nothing fits.
+            batch.clear();
+            try {
+                iter.nextBatch(batch, 10, 6, true);
+                fail();
+            } catch (BufferOverflowException expected) {
+            }
+        } finally {
+            iter.close();
+        }
+    }
+
     public void testWriteBatch() {
         final ByteBuffer managedBuf = ByteBuffer.allocate(10);
         final ByteBuffer directBuf = ByteBuffer.allocateDirect(10);
@@ -199,6 +199,25 @@ nativeGet(JNIEnv *env,
     return result;
 }
 
+static jbyteArray
+getValue(JNIEnv *env,
+         leveldb::DB *db,
+         const leveldb::ReadOptions &options,
+         const leveldb::Slice &key) {
+    std::string str;
+    leveldb::Status status = db->Get(options, key, &str);
+    if (status.ok()) {
+        size_t len = str.size();
+        jbyteArray result = env->NewByteArray(static_cast<jsize>(len));
+        env->SetByteArrayRegion(result, 0, static_cast<jsize>(len), (const jbyte *) str.data());
+        return result;
+    }
+    if (!status.IsNotFound()) {
+        throwException(env, status);
+    }
+    return NULL;
+}
+
 static jbyteArray
 nativeGetBB(JNIEnv *env,
             jclass clazz,
@@ -207,6 +226,7 @@ nativeGetBB(JNIEnv *env,
             jobject keyObj) {
     leveldb::DB *db = reinterpret_cast<leveldb::DB *>(dbPtr);
     leveldb::ReadOptions options = leveldb::ReadOptions();
+    options.decompress_allocator = decompressAllocatorInstance;
     options.snapshot = reinterpret_cast<leveldb::Snapshot *>(snapshotPtr);
 
     jint keyPos = env->CallIntMethod(keyObj, gByteBuffer_positionMethodID);
@@ -222,25 +242,82 @@ nativeGetBB(JNIEnv *env,
         key = (void *) env->GetByteArrayElements(keyArray, NULL);
     }
 
-    jbyteArray result;
     leveldb::Slice keySlice = leveldb::Slice((const char *) key + keyPos,
                                              static_cast<size_t>(keyLimit - keyPos));
-    leveldb::Iterator *iter = db->NewIterator(options);
-    iter->Seek(keySlice);
-    if (iter->Valid() && keySlice == iter->key()) {
-        leveldb::Slice value = iter->value();
-        size_t len = value.size();
-        result = env->NewByteArray(static_cast<jsize>(len));
-        env->SetByteArrayRegion(result, 0, static_cast<jsize>(len), (const jbyte *) value.data());
-    } else {
-        result = NULL;
-    }
+    jbyteArray result = getValue(env, db, options, keySlice);
 
     if (keyArray) {
         env->ReleaseByteArrayElements(keyArray, (jbyte *) key, JNI_ABORT);
     }
 
-    delete iter;
+    return result;
+}
+
+static jbyteArray
+nativeGetDirect(JNIEnv *env,
+                jclass clazz,
+                jlong dbPtr,
+                jlong snapshotPtr,
+                jobject keyObj,
+                jint keyPos,
+                jint keyLen) {
+    leveldb::DB *db = reinterpret_cast<leveldb::DB *>(dbPtr);
+    leveldb::ReadOptions options = leveldb::ReadOptions();
+    options.decompress_allocator = decompressAllocatorInstance;
+    options.snapshot = reinterpret_cast<leveldb::Snapshot *>(snapshotPtr);
+
+    const char *key = (const char *) env->GetDirectBufferAddress(keyObj);
+    return getValue(env, db, options,
+                    leveldb::Slice(key + keyPos, static_cast<size_t>(keyLen)));
+}
+
+static jobjectArray
+nativeMultiGet(JNIEnv *env,
+               jclass clazz,
+               jlong dbPtr,
+               jlong snapshotPtr,
+               jobject keysObj,
+               jint keysPos,
+               jintArray lengthsObj,
+               jint count) {
+    leveldb::DB *db = reinterpret_cast<leveldb::DB *>(dbPtr);
+    leveldb::ReadOptions options = leveldb::ReadOptions();
+    options.decompress_allocator = decompressAllocatorInstance;
+
+    // Without an explicit snapshot, pin one so all values come from the same state.
+    const leveldb::Snapshot *ownSnapshot = NULL;
+    if (snapshotPtr != 0) {
+        options.snapshot = reinterpret_cast<leveldb::Snapshot *>(snapshotPtr);
+    } else {
+        ownSnapshot = db->GetSnapshot();
+        options.snapshot = ownSnapshot;
+    }
+
+    jclass byteArrayClazz = env->FindClass("[B");
+    jobjectArray result = env->NewObjectArray(count, byteArrayClazz, NULL);
+    env->DeleteLocalRef(byteArrayClazz);
+
+    const char *keys = (const char *) env->GetDirectBufferAddress(keysObj) + keysPos;
+    jint *lengths = env->GetIntArrayElements(lengthsObj, NULL);
+
+    size_t offset = 0;
+    for (jint i = 0; i < count; i++) {
+        size_t keyLen = static_cast<size_t>(lengths[i]);
+        jbyteArray value = getValue(env, db, options, leveldb::Slice(keys + offset, keyLen));
+        offset += keyLen;
+        if (env->ExceptionCheck()) {
+            break;
+        }
+        if (value != NULL) {
+            env->SetObjectArrayElement(result, i, value);
+            env->DeleteLocalRef(value);
+        }
+    }
+
+    env->ReleaseIntArrayElements(lengthsObj, lengths, JNI_ABORT);
+    if (ownSnapshot != NULL) {
+        db->ReleaseSnapshot(ownSnapshot);
+    }
 
     return result;
 }
@@ -326,6 +403,20 @@ nativeGetSnapshot(JNIEnv *env,
     return reinterpret_cast<jlong>(snapshot);
 }
 
+static jlong
+nativeGetLatestSequenceNumber(JNIEnv *env,
+                              jclass clazz,
+                              jlong dbPtr) {
+    leveldb::DB *db = reinterpret_cast<leveldb::DB *>(dbPtr);
+    // Added by patches/0001-last-sequence-property.patch.
+    std::string value;
+    if (!db->GetProperty("leveldb.last-sequence", &value)) {
+        throwException(env, leveldb::Status::NotSupported("leveldb.last-sequence"));
+        return 0;
+    }
+    return static_cast<jlong>(strtoull(value.c_str(), NULL, 10));
+}
+
 static void
 nativeReleaseSnapshot(JNIEnv *env,
                       jclass clazz,
@@ -357,12 +448,15 @@ static JNINativeMethod sMethods[] =
         {"nativeClose",  "(J)V",                        (void *) nativeClose},
         {"nativeGet",    "(JJ[B)[B",                    (void *) nativeGet},
         {"nativeGet",    "(JJLjava/nio/ByteBuffer;)[B", (void *) nativeGetBB},
+        {"nativeGetDirect", "(JJLjava/nio/ByteBuffer;II)[B", (void *) nativeGetDirect},
+        {"nativeMultiGet",  "(JJLjava/nio/ByteBuffer;I[II)[[B", (void *) nativeMultiGet},
         {"nativePut",    "(J[B[B)V",                    (void *) nativePut},
         {"nativeDelete", "(J[B)V",                      (void *) nativeDelete},
         {"nativeWrite",  "(JJ)V",                       (void *) nativeWrite},
         {"nativeIterator",        "(JJ)J",                       (void *) nativeIterator},
         {"nativeGetSnapshot",     "(J)J",                        (void *) nativeGetSnapshot},
         {"nativeReleaseSnapshot", "(JJ)V",                       (void *) nativeReleaseSnapshot},
+        {"nativeGetLatestSequenceNumber", "(J)J",                (void *) nativeGetLatestSequenceNumber},
         {"nativeDestroy",         "(Ljava/lang/String;)V",       (void *) nativeDestroy}
     };
 
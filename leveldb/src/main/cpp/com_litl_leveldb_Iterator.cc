@@ -1,3 +1,4 @@
+#include <string.h>
 #include <jni.h>
 #include <android/log.h>
 
@@ -48,6 +49,60 @@ nativeSeek(JNIEnv* env,
     env->ReleaseByteArrayElements(keyObj, buffer, JNI_ABORT);
 }
 
+static bool
+keyHasPrefix(JNIEnv* env,
+             leveldb::Iterator* iter,
+             jbyteArray prefixObj)
+{
+    if (!iter->Valid()) {
+        return false;
+    }
+
+    size_t prefixLen = env->GetArrayLength(prefixObj);
+    leveldb::Slice key = iter->key();
+    if (key.size() < prefixLen) {
+        return false;
+    }
+
+    // Prefixes are short, usually a chunk position or a string key head.
+    jbyte stackBuffer[64];
+    jbyte *prefix = prefixLen <= sizeof(stackBuffer) ? stackBuffer : new jbyte[prefixLen];
+    env->GetByteArrayRegion(prefixObj, 0, prefixLen, prefix);
+    bool matches = memcmp(key.data(), prefix, prefixLen) == 0;
+    if (prefix != stackBuffer) {
+        delete[] prefix;
+    }
+    return matches;
+}
+
+static jboolean
+nativeSeekPrefix(JNIEnv* env,
+                 jclass clazz,
+                 jlong iterPtr,
+                 jbyteArray prefixObj)
+{
+    leveldb::Iterator* iter = reinterpret_cast<leveldb::Iterator*>(iterPtr);
+
+    size_t prefixLen = env->GetArrayLength(prefixObj);
+    jbyte *buffer = env->GetByteArrayElements(prefixObj, NULL);
+
+    iter->Seek(leveldb::Slice((const char *)buffer, prefixLen));
+    env->ReleaseByteArrayElements(prefixObj, buffer, JNI_ABORT);
+
+    return keyHasPrefix(env, iter, prefixObj);
+}
+
+static jboolean
+nativeNextWithPrefix(JNIEnv* env,
+                     jclass clazz,
+                     jlong iterPtr,
+                     jbyteArray prefixObj)
+{
+    leveldb::Iterator* iter = reinterpret_cast<leveldb::Iterator*>(iterPtr);
+    iter->Next();
+    return keyHasPrefix(env, iter, prefixObj);
+}
+
 static jboolean
 nativeValid(JNIEnv* env,
             jclass clazz,
@@ -75,6 +130,60 @@ nativePrev(JNIEnv* env,
     iter->Prev();
 }
 
+static inline void
+putInt32LE(char* dst, uint32_t value)
+{
+    dst[0] = (char) value;
+    dst[1] = (char) (value >> 8);
+    dst[2] = (char) (value >> 16);
+    dst[3] = (char) (value >> 24);
+}
+
+static jlong
+nativeNextBatch(JNIEnv* env,
+                jclass clazz,
+                jlong iterPtr,
+                jobject bufferObj,
+                jint position,
+                jint limit,
+                jint maxEntries,
+                jboolean withValues)
+{
+    leveldb::Iterator* iter = reinterpret_cast<leveldb::Iterator*>(iterPtr);
+
+    char *out = (char *) env->GetDirectBufferAddress(bufferObj) + position;
+    size_t capacity = static_cast<size_t>(limit - position);
+    size_t used = 0;
+    jint count = 0;
+
+    while (count < maxEntries && iter->Valid()) {
+        leveldb::Slice key = iter->key();
+        size_t needed = 4 + key.size();
+        leveldb::Slice value;
+        if (withValues) {
+            value = iter->value();
+            needed += 4 + value.size();
+        }
+        if (used + needed > capacity) {
+            break;
+        }
+
+        putInt32LE(out + used, static_cast<uint32_t>(key.size()));
+        memcpy(out + used + 4, key.data(), key.size());
+        used += 4 + key.size();
+        if (withValues) {
+            putInt32LE(out + used, static_cast<uint32_t>(value.size()));
+            memcpy(out + used + 4, value.data(), value.size());
+            used += 4 + value.size();
+        }
+
+        count++;
+        iter->Next();
+    }
+
+    return (static_cast<jlong>(count) << 32) | static_cast<jlong>(used);
+}
+
 static jbyteArray
 nativeKey(JNIEnv* env,
           jclass clazz,
@@ -109,9 +218,12 @@ static JNINativeMethod sMethods[] =
         { "nativeSeekToFirst", "(J)V", (void*) nativeSeekToFirst },
         { "nativeSeekToLast", "(J)V", (void*) nativeSeekToLast },
         { "nativeSeek", "(J[B)V", (void*) nativeSeek },
+        { "nativeSeekPrefix", "(J[B)Z", (void*) nativeSeekPrefix },
+        { "nativeNextWithPrefix", "(J[B)Z", (void*) nativeNextWithPrefix },
         { "nativeValid", "(J)Z", (void*) nativeValid },
         { "nativeNext", "(J)V", (void*) nativeNext },
         { "nativePrev", "(J)V", (void*) nativePrev },
+        { "nativeNextBatch", "(JLjava/nio/ByteBuffer;IIIZ)J", (void*) nativeNextBatch },
         { "nativeKey", "(J)[B", (void*) nativeKey },
         { "nativeValue", "(J)[B", (void*) nativeValue }
 };
@@ -66,9 +66,49 @@ public class DB extends NativeObject {
             throw new NullPointerException();
         }
 
+        if (key.isDirect()) {
+            return nativeGetDirect(mPtr, snapshot != null ? snapshot.getPtr() : 0,
+                    key, key.position(), key.remaining());
+        }
         return nativeGet(mPtr, snapshot != null ? snapshot.getPtr() : 0, key);
     }
 
+    public byte[][] multiGet(ByteBuffer keys, int[] keyLengths, int count) {
+        return multiGet(null, keys, keyLengths, count);
+    }
+
+    /**
+     * Looks up several keys in a single native call.
+     * <p>
+     * The keys are stored back to back in {@code keys}, which must be a direct buffer,
+     * starting at its position. The length of the i-th key is {@code keyLengths[i]}.
+     * If no snapshot is given, all lookups still see the same state of the database.
+     *
+     * @return the values in key order, with null for every key that is not present
+     */
+    public byte[][] multiGet(Snapshot snapshot, ByteBuffer keys, int[] keyLengths, int count) {
+        assertOpen("Database is closed");
+        if (keys == null || keyLengths == null) {
+            throw new NullPointerException();
+        }
+        if (!keys.isDirect()) {
+            throw new IllegalArgumentException("keys must be a direct buffer");
+        }
+        if (count < 0 || count > keyLengths.length) {
+            throw new IndexOutOfBoundsException("count");
+        }
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            total += keyLengths[i];
+        }
+        if (total > keys.remaining()) {
+            throw new IndexOutOfBoundsException("keys");
+        }
+
+        return nativeMultiGet(mPtr, snapshot != null ? snapshot.getPtr() : 0,
+                keys, keys.position(), keyLengths, count);
+    }
+
     public void delete(byte[] key) {
         assertOpen("Database is closed");
         if (key == null) {
@@ -111,6 +151,15 @@ public class DB extends NativeObject {
         };
     }
 
+    /**
+     * Returns the sequence number of the last write. It is persisted with the database,
+     * so an unchanged value across sessions means nobody has written in between.
+     */
+    public long getLatestSequenceNumber() {
+        assertOpen("Database is closed");
+        return nativeGetLatestSequenceNumber(mPtr);
+    }
+
     public static native String fixLdb(String dbpath);
 
     public static void destroy(File path) {
@@ -131,6 +180,10 @@ public class DB extends NativeObject {
 
     private static native byte[] nativeGet(long dbPtr, long snapshotPtr, ByteBuffer key);
 
+    private static native byte[] nativeGetDirect(long dbPtr, long snapshotPtr, ByteBuffer key, int keyPos, int keyLen);
+
+    private static native byte[][] nativeMultiGet(long dbPtr, long snapshotPtr, ByteBuffer keys, int keysPos, int[] keyLengths, int count);
+
     private static native void nativeDelete(long dbPtr, byte[] key);
 
     private static native void nativeWrite(long dbPtr, long batchPtr);
@@ -143,6 +196,8 @@ public class DB extends NativeObject {
 
     private static native void nativeReleaseSnapshot(long dbPtr, long snapshotPtr);
 
+    private static native long nativeGetLatestSequenceNumber(long dbPtr);
+
     public static native String stringFromJNI();
 
     {
@@ -1,6 +1,23 @@
 package com.litl.leveldb;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 public class Iterator extends NativeObject {
+
+    /**
+     * Receives the entries of {@link #forEachWithPrefix}.
+     */
+    public interface EntryVisitor {
+        /**
+         * @param value the value, or null if values were not requested
+         * @return false to stop the scan
+         */
+        boolean visit(byte[] key, byte[] value);
+    }
+
+    private byte[] mPrefix;
+
     Iterator(long iterPtr) {
         super(iterPtr);
     }
@@ -28,6 +45,49 @@ public class Iterator extends NativeObject {
         nativeSeek(mPtr, target);
     }
 
+    /**
+     * Moves to the first key starting with {@code prefix}.
+     *
+     * @return true if there is such a key, the iterator is then positioned on it
+     */
+    public boolean seekPrefix(byte[] prefix) {
+        assertOpen("Iterator is closed");
+        if (prefix == null) {
+            throw new IllegalArgumentException();
+        }
+        mPrefix = prefix;
+        return nativeSeekPrefix(mPtr, prefix);
+    }
+
+    /**
+     * Advances within the range of the last {@link #seekPrefix}.
+     *
+     * @return false once the iterator has left the prefix range
+     */
+    public boolean nextWithPrefix() {
+        assertOpen("Iterator is closed");
+        if (mPrefix == null) {
+            throw new IllegalStateException("seekPrefix has not been called");
+        }
+        return nativeNextWithPrefix(mPtr, mPrefix);
+    }
+
+    /**
+     * Visits every entry whose key starts with {@code prefix}, in key order.
+     *
+     * @return the number of entries visited
+     */
+    public int forEachWithPrefix(byte[] prefix, boolean withValues, EntryVisitor visitor) {
+        int count = 0;
+        for (boolean valid = seekPrefix(prefix); valid; valid = nextWithPrefix()) {
+            count++;
+            if (!visitor.visit(nativeKey(mPtr), withValues ? nativeValue(mPtr) : null)) {
+                break;
+            }
+        }
+        return count;
+    }
+
     public boolean isValid() {
         assertOpen("Iterator is closed");
         return nativeValid(mPtr);
@@ -43,6 +103,43 @@ public class Iterator extends NativeObject {
         nativePrev(mPtr);
     }
 
+    public int nextBatch(ByteBuffer out, int maxEntries, int maxBytes) {
+        return nextBatch(out, maxEntries, maxBytes, true);
+    }
+
+    /**
+     * Copies entries, starting with the current one, into {@code out} in a single native call
+     * and moves the iterator past them.
+     * <p>
+     * Entries are written from the position of {@code out}, which must be a direct buffer.
+     * Each entry is a little endian int key length followed by the key and, if
+     * {@code withValues} is set, a little endian int value length followed by the value.
+     * On return the limit of {@code out} marks the end of the written entries while its
+     * position is left unchanged, so the batch can be read right away.
+     *
+     * @param maxBytes the most bytes to write, the remaining space of {@code out} is used if smaller
+     * @return the number of entries written, 0 once the iterator is exhausted
+     * @throws BufferOverflowException if the current entry alone doesn't fit
+     */
+    public int nextBatch(ByteBuffer out, int maxEntries, int maxBytes, boolean withValues) {
+        assertOpen("Iterator is closed");
+        if (out == null) {
+            throw new NullPointerException();
+        }
+        if (!out.isDirect()) {
+            throw new IllegalArgumentException("out must be a direct buffer");
+        }
+        int position = out.position();
+        int limit = position + Math.min(maxBytes, out.remaining());
+        long result = nativeNextBatch(mPtr, out, position, limit, maxEntries, withValues);
+        int count = (int) (result >>> 32);
+        out.limit(position + (int) result);
+        if (count == 0 && maxEntries > 0 && nativeValid(mPtr)) {
+            throw new BufferOverflowException();
+        }
+        return count;
+    }
+
     public byte[] getKey() {
         assertOpen("Iterator is closed");
         return nativeKey(mPtr);
@@ -61,12 +158,18 @@ public class Iterator extends NativeObject {
 
     private static native void nativeSeek(long ptr, byte[] key);
 
+    private static native boolean nativeSeekPrefix(long ptr, byte[] prefix);
+
+    private static native boolean nativeNextWithPrefix(long ptr, byte[] prefix);
+
     private static native boolean nativeValid(long ptr);
 
     private static native void nativeNext(long ptr);
 
     private static native void nativePrev(long ptr);
 
+    private static native long nativeNextBatch(long ptr, ByteBuffer out, int position, int limit, int maxEntries, boolean withValues);
+
     private static native byte[] nativeKey(long dbPtr);
 
     private static native byte[] nativeValue(long dbPtr);
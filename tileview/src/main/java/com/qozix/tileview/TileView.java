@@ -14,11 +14,13 @@ import android.util.AttributeSet;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Scroller;
 
 import com.qozix.tileview.detail.DetailLevel;
 import com.qozix.tileview.detail.DetailLevelManager;
 import com.qozix.tileview.geom.CoordinateTranslater;
 import com.qozix.tileview.geom.FloatMathHelper;
+import com.qozix.tileview.graphics.BitmapPool;
 import com.qozix.tileview.graphics.BitmapProvider;
 import com.qozix.tileview.hotspots.HotSpot;
 import com.qozix.tileview.hotspots.HotSpotManager;
@@ -87,6 +89,11 @@ public class TileView extends ZoomPanLayout implements
     private boolean mShouldRenderWhilePanning = false;
     private boolean mShouldUpdateDetailLevelWhileZooming = false;
 
+    // where the last drag prefetch was requested from, and the direction it went
+    private int mPrefetchAnchorX;
+    private int mPrefetchAnchorY;
+    private int mPrefetchDirection = -1;
+
     /**
      * Constructor to use when creating a TileView from code.
      *
@@ -327,13 +334,22 @@ public class TileView extends ZoomPanLayout implements
      * <p>
      * The default value is true.
      *
-     * @param shouldRecycleBitmaps True if bitmaps should call Bitmap.recycle when they are removed from view.
-     * @deprecated This value is no longer considered - bitmaps are always recycled when they're no longer used.
+     * @param shouldRecycleBitmaps True if bitmaps should go back to the {@link BitmapPool} (and be recycled
+     *                             once it's full) when they are removed from view.
      */
     public void setShouldRecycleBitmaps(boolean shouldRecycleBitmaps) {
         mTileCanvasViewGroup.setShouldRecycleBitmaps(shouldRecycleBitmaps);
     }
 
+    /**
+     * Returns the pool tile bitmaps are taken from and returned to.
+     *
+     * @return The BitmapPool instance of the TileCanvasViewGroup.
+     */
+    public BitmapPool getBitmapPool() {
+        return mTileCanvasViewGroup.getBitmapPool();
+    }
+
     /**
      * Defines the total size, in pixels, of the tile set at 100% scale.
      * The TileView wills pan within it's layout dimensions, with the content (scrollable)
@@ -826,21 +842,71 @@ public class TileView extends ZoomPanLayout implements
         mCalloutLayout.setScale(scale);
     }
 
+    /**
+     * Limits how many tiles are prefetched along the path of a fling or drag, for a
+     * BitmapProvider implementing {@link com.qozix.tileview.graphics.TilePrefetcher}.
+     * 0 disables prefetching.
+     *
+     * @param maxPrefetchTiles Tiles per prefetch.
+     */
+    public void setMaxPrefetchTiles(int maxPrefetchTiles) {
+        mTileCanvasViewGroup.setMaxPrefetchTiles(maxPrefetchTiles);
+    }
+
     @Override
     public void onPanBegin(int x, int y, Origination origin) {
-
+        if (origin == Origination.FLING) {
+            // the scroller knows where the fling will stop
+            Scroller scroller = getScroller();
+            mTileCanvasViewGroup.prefetch(getScrollX(), getScrollY(), scroller.getFinalX(), scroller.getFinalY());
+        } else if (origin == Origination.DRAG) {
+            mPrefetchAnchorX = x;
+            mPrefetchAnchorY = y;
+            mPrefetchDirection = -1;
+        }
     }
 
     @Override
     public void onPanUpdate(int x, int y, Origination origin) {
-
+        if (origin == Origination.DRAG) {
+            prefetchAlongDrag(x, y);
+        }
     }
 
     @Override
     public void onPanEnd(int x, int y, Origination origin) {
+        if (origin == Origination.FLING) {
+            // stopped or caught, the tiles it was heading for are rendered the regular way now
+            mTileCanvasViewGroup.cancelPrefetch();
+        }
         requestRender();
     }
 
+    /**
+     * Prefetches a viewport ahead of a drag, once it moved far enough to tell its
+     * direction, and again whenever that direction changes.
+     */
+    private void prefetchAlongDrag(int x, int y) {
+        int dx = x - mPrefetchAnchorX;
+        int dy = y - mPrefetchAnchorY;
+        int threshold = Math.max(1, Math.min(getWidth(), getHeight()) / 8);
+        if (Math.abs(dx) < threshold && Math.abs(dy) < threshold) {
+            return;
+        }
+        mPrefetchAnchorX = x;
+        mPrefetchAnchorY = y;
+        // one of eight directions, 45 degrees each
+        int direction = (int) Math.round(Math.atan2(dy, dx) / (Math.PI / 4)) & 7;
+        if (direction == mPrefetchDirection) {
+            return;
+        }
+        mPrefetchDirection = direction;
+        double length = Math.hypot(dx, dy);
+        int toX = x + (int) (dx / length * getWidth());
+        int toY = y + (int) (dy / length * getHeight());
+        mTileCanvasViewGroup.prefetch(getScrollX(), getScrollY(), toX, toY);
+    }
+
     @Override
     public void onZoomBegin(float scale, Origination origin) {
         if (origin == null) {
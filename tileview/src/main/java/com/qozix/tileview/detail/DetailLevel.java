@@ -4,7 +4,9 @@ import android.graphics.Rect;
 
 import com.qozix.tileview.tiles.Tile;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import androidx.annotation.NonNull;
@@ -96,6 +98,34 @@ public class DetailLevel implements Comparable<DetailLevel> {
         }
     }
 
+    /**
+     * Returns the tiles covering a rect given in the same coordinates as the viewport,
+     * without touching the state computed for the viewport itself.
+     *
+     * @param rect Area to cover, clipped to the drawable size.
+     * @return List of Tile instances, row by row.
+     */
+    public List<Tile> computeTilesInRect(Rect rect) {
+        float relativeScale = getRelativeScale();
+        float offsetWidth = mTileWidth * relativeScale;
+        float offsetHeight = mTileHeight * relativeScale;
+        int top = Math.max(rect.top, 0);
+        int left = Math.max(rect.left, 0);
+        int right = Math.min(rect.right, mDetailLevelManager.getScaledWidth());
+        int bottom = Math.min(rect.bottom, mDetailLevelManager.getScaledHeight());
+        int rowStart = (int) Math.floor(top / offsetHeight);
+        int rowEnd = (int) Math.ceil(bottom / offsetHeight);
+        int columnStart = (int) Math.floor(left / offsetWidth);
+        int columnEnd = (int) Math.ceil(right / offsetWidth);
+        List<Tile> tiles = new ArrayList<>();
+        for (int rowCurrent = rowStart; rowCurrent < rowEnd; rowCurrent++) {
+            for (int columnCurrent = columnStart; columnCurrent < columnEnd; columnCurrent++) {
+                tiles.add(new Tile(columnCurrent, rowCurrent, mTileWidth, mTileHeight, mData, this));
+            }
+        }
+        return tiles;
+    }
+
     /**
      * Ensures that computeCurrentState will return true, indicating a change has occurred.
      */
@@ -0,0 +1,184 @@
+package com.qozix.tileview.graphics;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Keeps the bitmaps of tiles that were reset, so tiles of any detail level can be drawn into
+ * them instead of allocating new ones.  Bounded in bytes, bitmaps released beyond that are
+ * recycled.  A bitmap handed out may still hold an old tile, providers should draw every pixel.
+ */
+public class BitmapPool {
+
+  public static final int DEFAULT_MAX_BYTES = 8 << 20;
+
+  private final ArrayDeque<Bitmap> mBitmaps = new ArrayDeque<>();
+
+  // Waiting for the frame that may still draw them, guarded by itself.
+  private final ArrayList<Bitmap> mDeferred = new ArrayList<>();
+  private final Handler mMainHandler = new Handler( Looper.getMainLooper() );
+  private final Runnable mReleaseDeferred = this::releaseDeferred;
+
+  private int mMaxBytes;
+  private int mBytes;
+
+  private int mHitCount;
+  private int mMissCount;
+  private int mReleaseCount;
+  private int mDropCount;
+
+  public BitmapPool() {
+    this( DEFAULT_MAX_BYTES );
+  }
+
+  public BitmapPool( int maxBytes ) {
+    mMaxBytes = maxBytes;
+  }
+
+  /**
+   * Returns a pooled bitmap of exactly this size and config, or a new one.
+   */
+  public Bitmap acquire( int width, int height, Bitmap.Config config ) {
+    synchronized( this ) {
+      Iterator<Bitmap> iterator = mBitmaps.iterator();
+      while( iterator.hasNext() ) {
+        Bitmap bitmap = iterator.next();
+        if( bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config ) {
+          iterator.remove();
+          mBytes -= bitmap.getAllocationByteCount();
+          mHitCount++;
+          return bitmap;
+        }
+      }
+      mMissCount++;
+    }
+    return Bitmap.createBitmap( width, height, config );
+  }
+
+  /**
+   * Takes a bitmap nobody draws anymore, keeping it if there's room or recycling it.
+   */
+  public void release( Bitmap bitmap ) {
+    if( bitmap == null || bitmap.isRecycled() ) {
+      return;
+    }
+    if( !bitmap.isMutable() ) {
+      bitmap.recycle();
+      return;
+    }
+    int size = bitmap.getAllocationByteCount();
+    synchronized( this ) {
+      mReleaseCount++;
+      if( mBytes + size <= mMaxBytes ) {
+        mBitmaps.push( bitmap );
+        mBytes += size;
+        return;
+      }
+      mDropCount++;
+    }
+    bitmap.recycle();
+  }
+
+  /**
+   * Takes a bitmap of a tile just detached, which the frame being drawn may still show.
+   * It is released on the UI thread once that's done.
+   */
+  public void releaseAfterFrame( Bitmap bitmap ) {
+    if( bitmap == null ) {
+      return;
+    }
+    boolean first;
+    synchronized( mDeferred ) {
+      first = mDeferred.isEmpty();
+      mDeferred.add( bitmap );
+    }
+    if( first ) {
+      mMainHandler.post( mReleaseDeferred );
+    }
+  }
+
+  private void releaseDeferred() {
+    List<Bitmap> bitmaps;
+    synchronized( mDeferred ) {
+      bitmaps = new ArrayList<>( mDeferred );
+      mDeferred.clear();
+    }
+    for( Bitmap bitmap : bitmaps ) {
+      release( bitmap );
+    }
+  }
+
+  public void setMaxBytes( int maxBytes ) {
+    List<Bitmap> dropped = new ArrayList<>();
+    synchronized( this ) {
+      mMaxBytes = maxBytes;
+      // the oldest releases go first
+      while( mBytes > mMaxBytes && !mBitmaps.isEmpty() ) {
+        Bitmap bitmap = mBitmaps.removeLast();
+        mBytes -= bitmap.getAllocationByteCount();
+        dropped.add( bitmap );
+      }
+    }
+    for( Bitmap bitmap : dropped ) {
+      bitmap.recycle();
+    }
+  }
+
+  /**
+   * Recycles every pooled bitmap, counts are kept.
+   */
+  public void clear() {
+    setMaxBytes( 0 );
+  }
+
+  public synchronized int getMaxBytes() {
+    return mMaxBytes;
+  }
+
+  public synchronized int getSizeInBytes() {
+    return mBytes;
+  }
+
+  public synchronized int getPooledCount() {
+    return mBitmaps.size();
+  }
+
+  /**
+   * @return How many acquired bitmaps came from the pool.
+   */
+  public synchronized int getHitCount() {
+    return mHitCount;
+  }
+
+  /**
+   * @return How many acquired bitmaps had to be allocated.
+   */
+  public synchronized int getMissCount() {
+    return mMissCount;
+  }
+
+  public synchronized int getReleaseCount() {
+    return mReleaseCount;
+  }
+
+  /**
+   * @return How many released bitmaps were recycled for lack of room.
+   */
+  public synchronized int getDropCount() {
+    return mDropCount;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "BitmapPool{pooled=" + mBitmaps.size() + ", bytes=" + mBytes + "/" + mMaxBytes
+      + ", hits=" + mHitCount + ", misses=" + mMissCount
+      + ", releases=" + mReleaseCount + ", drops=" + mDropCount + "}";
+  }
+
+}
@@ -0,0 +1,12 @@
+package com.qozix.tileview.graphics;
+
+/**
+ * Optionally implemented by a {@link BitmapProvider} to be told when a new batch of tiles is
+ * queued for rendering, e.g. after the viewport moved or the tiles were cleared.  It's called
+ * on the UI thread before any tile of the batch is requested, so state read once per batch
+ * rather than once per tile can be dropped here.  Tiles of an earlier batch may still be
+ * rendering when it's called.
+ */
+public interface RenderBatchListener {
+  void onRenderBatchStart();
+}
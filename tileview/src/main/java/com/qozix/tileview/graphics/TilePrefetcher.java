@@ -0,0 +1,18 @@
+package com.qozix.tileview.graphics;
+
+import android.content.Context;
+
+import com.qozix.tileview.tiles.Tile;
+
+/**
+ * Optionally implemented by a {@link BitmapProvider} to be told about tiles that are likely
+ * to come into view soon, e.g. along the path of a fling.  It's run in a worker thread, and
+ * only when no visible tile is waiting to be rendered.  Whatever it prepares, loaded data or
+ * a rendered tile in some cache, should make the later getBitmap call for the same tile
+ * cheaper; no bitmap is expected back.  Requests are speculative and may be dropped anytime.
+ * A request being worked on when its prediction is replaced gets its thread interrupted,
+ * long work should check for that.
+ */
+public interface TilePrefetcher {
+  void prefetchTile( Tile tile, Context context );
+}
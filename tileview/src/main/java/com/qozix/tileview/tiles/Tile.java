@@ -10,6 +10,7 @@ import android.view.animation.AnimationUtils;
 import com.qozix.tileview.detail.DetailLevel;
 import com.qozix.tileview.detail.DetailLevelManager;
 import com.qozix.tileview.geom.FloatMathHelper;
+import com.qozix.tileview.graphics.BitmapPool;
 import com.qozix.tileview.graphics.BitmapProvider;
 
 import java.lang.ref.WeakReference;
@@ -61,6 +62,9 @@ public class Tile {
 
   private WeakReference<TileRenderRunnable> mTileRenderRunnableWeakReference;
 
+  private BitmapPool mBitmapPool;
+  private boolean mShouldRecycleBitmap = true;
+
   public Tile( int column, int row, int width, int height, Object data, DetailLevel detailLevel ) {
     mRow = row;
     mColumn = column;
@@ -120,6 +124,30 @@ public class Tile {
     return mBitmap != null;
   }
 
+  /**
+   * Returns a bitmap of this tile's size for a BitmapProvider to draw into, taken from
+   * the pool of the TileView when there's one.  It may hold an old tile.
+   *
+   * @param config Config of the bitmap.
+   * @return A mutable bitmap the size of the tile.
+   */
+  public Bitmap obtainBitmap( Bitmap.Config config ) {
+    BitmapPool bitmapPool = mBitmapPool;
+    if( bitmapPool != null ) {
+      return bitmapPool.acquire( mWidth, mHeight, config );
+    }
+    return Bitmap.createBitmap( mWidth, mHeight, config );
+  }
+
+  /**
+   * @param bitmapPool Where the bitmap goes on reset, null to recycle it.
+   * @param shouldRecycleBitmap False to leave the bitmap to the garbage collector on reset.
+   */
+  void setBitmapPool( BitmapPool bitmapPool, boolean shouldRecycleBitmap ) {
+    mBitmapPool = bitmapPool;
+    mShouldRecycleBitmap = shouldRecycleBitmap;
+  }
+
   public Rect getBaseRect() {
     return mBaseRect;
   }
@@ -236,6 +264,9 @@ public class Tile {
     reset();
   }
 
+  /**
+   * Called on the UI thread, the bitmap goes back to the pool after the current frame.
+   */
   void reset() {
     if( mState == State.PENDING_DECODE ) {
       if ( mTileRenderRunnableWeakReference != null ) {
@@ -247,12 +278,23 @@ public class Tile {
     }
     mState = State.UNASSIGNED;
     mRenderTimeStamp = null;
-    if( mBitmap != null && !mBitmap.isRecycled() ) {
-      mBitmap.recycle();
+    if( mShouldRecycleBitmap && mBitmap != null && !mBitmap.isRecycled() ) {
+      if( mBitmapPool != null ) {
+        mBitmapPool.releaseAfterFrame( mBitmap );
+      } else {
+        mBitmap.recycle();
+      }
     }
     mBitmap = null;
   }
 
+  /**
+   * Whether the last render queued for this tile is the given one.
+   */
+  boolean isRenderedBy( TileRenderRunnable runnable ) {
+    return mTileRenderRunnableWeakReference != null && mTileRenderRunnableWeakReference.get() == runnable;
+  }
+
   /**
    * @param canvas The canvas the tile's bitmap should be drawn into
    */
@@ -10,12 +10,17 @@ import android.os.Message;
 import android.view.ViewGroup;
 
 import com.qozix.tileview.detail.DetailLevel;
+import com.qozix.tileview.graphics.BitmapPool;
 import com.qozix.tileview.graphics.BitmapProvider;
 import com.qozix.tileview.graphics.BitmapProviderAssets;
+import com.qozix.tileview.graphics.RenderBatchListener;
+import com.qozix.tileview.graphics.TilePrefetcher;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -28,6 +33,7 @@ public class TileCanvasViewGroup extends ViewGroup {
     public static final int FAST_RENDER_BUFFER = 15;
     private static final int RENDER_FLAG = 1;
     private static final int DEFAULT_TRANSITION_DURATION = 200;
+    public static final int DEFAULT_MAX_PREFETCH_TILES = 32;
 
     private float mScale = 1;
 
@@ -43,6 +49,8 @@ public class TileCanvasViewGroup extends ViewGroup {
 
     private boolean mShouldRecycleBitmaps = true;
 
+    private BitmapPool mBitmapPool = new BitmapPool();
+
     private boolean mTransitionsEnabled = true;
     private int mTransitionDuration = DEFAULT_TRANSITION_DURATION;
 
@@ -52,6 +60,8 @@ public class TileCanvasViewGroup extends ViewGroup {
 
     private int mRenderBuffer = DEFAULT_RENDER_BUFFER;
 
+    private int mMaxPrefetchTiles = DEFAULT_MAX_PREFETCH_TILES;
+
     private TileRenderPoolExecutor mTileRenderPoolExecutor;
 
     private Set<Tile> mTilesInCurrentViewport = new HashSet<>();
@@ -140,18 +150,89 @@ public class TileCanvasViewGroup extends ViewGroup {
 
     /**
      * @return True if tile bitmaps should be recycled.
-     * @deprecated This value is no longer considered - bitmaps are always recycled when they're no longer used.
      */
     public boolean getShouldRecycleBitmaps() {
         return mShouldRecycleBitmaps;
     }
 
     /**
-     * @param shouldRecycleBitmaps True if tile bitmaps should be recycled.
-     * @deprecated This value is no longer considered - bitmaps are always recycled when they're no longer used.
+     * @param shouldRecycleBitmaps True if the bitmaps of tiles no longer used should go back to the
+     *                             {@link BitmapPool}, false to leave them to the garbage collector.
      */
     public void setShouldRecycleBitmaps(boolean shouldRecycleBitmaps) {
         mShouldRecycleBitmaps = shouldRecycleBitmaps;
+        if (!shouldRecycleBitmaps) {
+            mBitmapPool.clear();
+        }
+    }
+
+    /**
+     * Returns the pool tile bitmaps are taken from and returned to, e.g. to read its counts.
+     *
+     * @return The BitmapPool instance.
+     */
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * Limits how many tiles a single prefetch may request, so a long fling doesn't
+     * make the BitmapProvider load far more than it can keep.  0 disables prefetching.
+     *
+     * @param maxPrefetchTiles Tiles per prefetch.
+     */
+    public void setMaxPrefetchTiles(int maxPrefetchTiles) {
+        mMaxPrefetchTiles = maxPrefetchTiles;
+        if (maxPrefetchTiles <= 0) {
+            cancelPrefetch();
+        }
+    }
+
+    /**
+     * Asks the BitmapProvider, if it's a {@link TilePrefetcher}, to prepare the tiles of the
+     * current detail level the viewport will cross when scrolled from one position to the
+     * other.  Tiles already in the viewport are left out.  Replaces any earlier prefetch.
+     */
+    public void prefetch(int fromX, int fromY, int toX, int toY) {
+        cancelPrefetch();
+        if (!(mBitmapProvider instanceof TilePrefetcher) || mMaxPrefetchTiles <= 0
+                || mDetailLevelToRender == null || mRenderIsCancelled || mRenderIsSuppressed) {
+            return;
+        }
+        Rect viewport = mDetailLevelToRender.getDetailLevelManager().getComputedViewport();
+        int width = viewport.width();
+        int height = viewport.height();
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        int dx = toX - fromX;
+        int dy = toY - fromY;
+        // half a viewport per step, so consecutive steps overlap and no tile is missed
+        int steps = Math.max(Math.abs(dx) / Math.max(1, width / 2), Math.abs(dy) / Math.max(1, height / 2)) + 1;
+        Set<Tile> known = new HashSet<>(mTilesInCurrentViewport);
+        List<Tile> tiles = new ArrayList<>();
+        Rect rect = new Rect();
+        for (int step = 1; step <= steps && tiles.size() < mMaxPrefetchTiles; step++) {
+            rect.set(viewport);
+            rect.offset(dx * step / steps, dy * step / steps);
+            for (Tile tile : mDetailLevelToRender.computeTilesInRect(rect)) {
+                if (known.add(tile)) {
+                    tiles.add(tile);
+                    if (tiles.size() == mMaxPrefetchTiles) {
+                        break;
+                    }
+                }
+            }
+        }
+        if (!tiles.isEmpty()) {
+            mTileRenderPoolExecutor.prefetch(this, tiles);
+        }
+    }
+
+    public void cancelPrefetch() {
+        if (mTileRenderPoolExecutor != null) {
+            mTileRenderPoolExecutor.cancelPrefetch();
+        }
     }
 
     public void setTileRenderThrowableListener(TileRenderThrowableListener tileRenderThrowableListener) {
@@ -214,7 +295,13 @@ public class TileCanvasViewGroup extends ViewGroup {
      */
     public void clear() {
         cancelRender();
+        for (Tile tile : mTilesInCurrentViewport) {
+            tile.reset();
+        }
         mTilesInCurrentViewport.clear();
+        for (Tile tile : mPreviouslyDrawnTiles) {
+            tile.reset();
+        }
         mPreviouslyDrawnTiles.clear();
         invalidate();
     }
@@ -229,6 +316,10 @@ public class TileCanvasViewGroup extends ViewGroup {
         // noop
     }
 
+    DetailLevel getDetailLevelToRender() {
+        return mDetailLevelToRender;
+    }
+
     void renderTiles() {
         if (!mRenderIsCancelled && !mRenderIsSuppressed && mDetailLevelToRender != null) {
             beginRenderTask();
@@ -266,6 +357,8 @@ public class TileCanvasViewGroup extends ViewGroup {
             Tile tile = tilesFromLastDetailLevelIterator.next();
             Rect rect = tile.getRelativeRect();
             if (mDirtyRegion.quickReject(rect)) {
+                // covered by the current level, the bitmap can be drawn into again
+                tile.reset();
                 tilesFromLastDetailLevelIterator.remove();
             } else {
                 tile.computeProgress();
@@ -345,6 +438,7 @@ public class TileCanvasViewGroup extends ViewGroup {
             return;
         }
         cancelRender();
+        cancelPrefetch();
         markTilesAsPrevious();
         mDetailLevelToRender = detailLevel;
         requestRender();
@@ -378,6 +472,9 @@ public class TileCanvasViewGroup extends ViewGroup {
         // if so, start up a new batch
         if (wereTilesAdded) {
             mTileRenderPoolExecutor.queue(this, mTilesInCurrentViewport);
+        } else {
+            // the viewport moved, tiles closer to its centre go first
+            mTileRenderPoolExecutor.reprioritize(this);
         }
     }
 
@@ -411,6 +508,9 @@ public class TileCanvasViewGroup extends ViewGroup {
 
     void onRenderTaskPreExecute() {
         mIsRendering = true;
+        if (mBitmapProvider instanceof RenderBatchListener) {
+            ((RenderBatchListener) mBitmapProvider).onRenderBatchStart();
+        }
         if (mTileRenderListener != null) {
             mTileRenderListener.onRenderStart();
         }
@@ -441,6 +541,7 @@ public class TileCanvasViewGroup extends ViewGroup {
     public void destroy() {
         mTileRenderPoolExecutor.shutdownNow();
         clear();
+        mBitmapPool.clear();
         if (!mTileRenderThrottleHandler.hasMessages(RENDER_FLAG)) {
             mTileRenderThrottleHandler.removeMessages(RENDER_FLAG);
         }
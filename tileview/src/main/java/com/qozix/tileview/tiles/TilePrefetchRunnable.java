@@ -0,0 +1,85 @@
+package com.qozix.tileview.tiles;
+
+import android.os.Process;
+
+import com.qozix.tileview.graphics.BitmapProvider;
+import com.qozix.tileview.graphics.TilePrefetcher;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Hands a tile predicted to come into view to the {@link TilePrefetcher}, unless the
+ * prediction it belongs to was replaced in the meantime. Replacing it while the tile is
+ * being prefetched interrupts the thread.
+ */
+class TilePrefetchRunnable implements Runnable {
+
+  private final Tile mTile;
+  private final int mGeneration;
+  private final long mPriority;
+  private final WeakReference<TileRenderPoolExecutor> mTileRenderPoolExecutorWeakReference;
+
+  // Set while the prefetcher runs, guarded by this.
+  private Thread mThread;
+
+  TilePrefetchRunnable( Tile tile, int generation, long priority, TileRenderPoolExecutor tileRenderPoolExecutor ) {
+    mTile = tile;
+    mGeneration = generation;
+    mPriority = priority;
+    mTileRenderPoolExecutorWeakReference = new WeakReference<>( tileRenderPoolExecutor );
+  }
+
+  long getPriority() {
+    return mPriority;
+  }
+
+  int getGeneration() {
+    return mGeneration;
+  }
+
+  synchronized void interrupt() {
+    if( mThread != null ) {
+      mThread.interrupt();
+    }
+  }
+
+  @Override
+  public void run() {
+    TileRenderPoolExecutor tileRenderPoolExecutor = mTileRenderPoolExecutorWeakReference.get();
+    if( tileRenderPoolExecutor == null || !tileRenderPoolExecutor.isPrefetchCurrent( mGeneration ) ) {
+      return;
+    }
+    // counted in already, too many would keep tiles that come into view waiting
+    if( !tileRenderPoolExecutor.hasIdlePrefetchThread() ) {
+      tileRenderPoolExecutor.deferPrefetch( this );
+      return;
+    }
+    TileCanvasViewGroup tileCanvasViewGroup = tileRenderPoolExecutor.getTileCanvasViewGroup();
+    if( tileCanvasViewGroup == null ) {
+      return;
+    }
+    BitmapProvider bitmapProvider = tileCanvasViewGroup.getBitmapProvider();
+    if( !( bitmapProvider instanceof TilePrefetcher ) ) {
+      return;
+    }
+    android.os.Process.setThreadPriority( Process.THREAD_PRIORITY_BACKGROUND );
+    synchronized( this ) {
+      mThread = Thread.currentThread();
+    }
+    tileRenderPoolExecutor.onPrefetchStarted( this );
+    try {
+      // replaced between the check above and now
+      if( tileRenderPoolExecutor.isPrefetchCurrent( mGeneration ) ) {
+        ( (TilePrefetcher) bitmapProvider ).prefetchTile( mTile, tileCanvasViewGroup.getContext() );
+      }
+    } catch( Throwable throwable ) {
+      // speculative, the tile is rendered the regular way if it shows up
+    } finally {
+      tileRenderPoolExecutor.onPrefetchFinished( this );
+      synchronized( this ) {
+        mThread = null;
+      }
+    }
+  }
+
+}
@@ -72,6 +72,12 @@ class TileRenderHandler extends Handler {
       case RENDER_COMPLETE:
         tileCanvasViewGroup.addTileToCanvas( tile );
         break;
+      case RENDER_INCOMPLETE:
+        // cancelled while rendering, unless the tile was queued again meanwhile
+        if( tile.isRenderedBy( tileRenderRunnable ) ) {
+          tile.reset();
+        }
+        break;
     }
   }
 }
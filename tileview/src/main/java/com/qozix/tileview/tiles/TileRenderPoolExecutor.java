@@ -1,60 +1,257 @@
 package com.qozix.tileview.tiles;
 
+import android.graphics.Rect;
 import android.os.Handler;
 
+import com.qozix.tileview.detail.DetailLevel;
+import com.qozix.tileview.detail.DetailLevelManager;
+
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Renders tiles nearest the centre of the viewport first, tiles of the detail level on
+ * screen before any other. Priorities are computed when a tile is queued and again after
+ * the viewport moved, by the next worker taking a tile rather than on the UI thread, at
+ * most about once a frame. Takes while the viewport stays put cost a single volatile read. Tiles that leave the viewport are cancelled
+ * in place and skipped once they reach the head of the queue, rather than searched for and removed.
+ * <p>
+ * Prefetch requests sort after every tile render, so they only run on threads that would
+ * otherwise be idle, and never on all of them at once. Those beyond that wait, in order,
+ * until a running one is done. Replacing a prefetch interrupts the running ones.
+ */
 public class TileRenderPoolExecutor extends ThreadPoolExecutor {
 
   private static final int KEEP_ALIVE_TIME = 1;
   private static final TimeUnit KEEP_ALIVE_TIME_UNIT = TimeUnit.SECONDS;
 
   private static final int AVAILABLE_PROCESSORS = Runtime.getRuntime().availableProcessors();
-  private static final int INITIAL_POOL_SIZE = AVAILABLE_PROCESSORS >> 1;
-  private static final int MAXIMUM_POOL_SIZE = AVAILABLE_PROCESSORS;
+  // The queue is unbounded, so the pool never grows past its core size and that is all the
+  // parallelism there is. One core is left to the UI thread, but never below two threads,
+  // so there is one for prefetching and one for the tiles on screen.
+  private static final int POOL_SIZE = Math.max( 2, AVAILABLE_PROCESSORS - 1 );
+
+  private static final int INITIAL_QUEUE_CAPACITY = 64;
+
+  // Sorts any tile of another detail level after all tiles of the current one.
+  private static final long OTHER_LEVEL_PENALTY = 1L << 62;
+
+  // Sorts prefetch requests after any tile render, in the order they were predicted.
+  private static final long PREFETCH_PRIORITY = 3L << 61;
+
+  // Moving the viewport more often than this only re-sorts the queue once.
+  private static final long RESORT_INTERVAL_NANOS = 16_000_000L;
+
+  // Leave a thread for the tiles on screen.
+  private static final int MAXIMUM_PREFETCH_THREADS = POOL_SIZE - 1;
 
   private WeakReference<TileCanvasViewGroup> mTileCanvasViewGroupWeakReference;
 
   private TileRenderHandler mHandler = new TileRenderHandler();
 
+  private volatile Viewport mViewport;
+
+  // Bumped by each viewport change, the queue is in the order of the one it was sorted for.
+  private final AtomicInteger mViewportGeneration = new AtomicInteger();
+  private volatile int mSortedGeneration;
+  private long mLastResortNanos;
+
+  private final AtomicInteger mPrefetchGeneration = new AtomicInteger();
+  private final AtomicInteger mActivePrefetches = new AtomicInteger();
+  private final AtomicInteger mActiveRenders = new AtomicInteger();
+
+  // Over the thread limit when they came up, in priority order.
+  private final PriorityQueue<TilePrefetchRunnable> mDeferredPrefetches =
+    new PriorityQueue<>( INITIAL_QUEUE_CAPACITY, TileRenderPoolExecutor::compare );
+  private final Set<TilePrefetchRunnable> mRunningPrefetches =
+    Collections.newSetFromMap( new ConcurrentHashMap<TilePrefetchRunnable, Boolean>() );
+
   public TileRenderPoolExecutor() {
     super(
-      INITIAL_POOL_SIZE,
-      MAXIMUM_POOL_SIZE,
+      POOL_SIZE,
+      POOL_SIZE,
       KEEP_ALIVE_TIME,
       KEEP_ALIVE_TIME_UNIT,
-      new LinkedBlockingDeque<Runnable>()
+      new ViewportQueue()
     );
+    ( (ViewportQueue) getQueue() ).mOwner = this;
+  }
+
+  private static int compare( Runnable lhs, Runnable rhs ) {
+    return Long.compare( getPriority( lhs ), getPriority( rhs ) );
   }
 
+  private static long getPriority( Runnable runnable ) {
+    if( runnable instanceof TileRenderRunnable ) {
+      return ( (TileRenderRunnable) runnable ).getPriority();
+    }
+    if( runnable instanceof TilePrefetchRunnable ) {
+      return ( (TilePrefetchRunnable) runnable ).getPriority();
+    }
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Tiles that left the viewport were already reset by the caller, so their runnables
+   * are cancelled and only need to be skipped; the queue is not swept for them.
+   */
   public void queue( TileCanvasViewGroup tileCanvasViewGroup, Set<Tile> renderSet ) {
     mTileCanvasViewGroupWeakReference = new WeakReference<>( tileCanvasViewGroup );
     mHandler.setTileCanvasViewGroup( tileCanvasViewGroup );
     tileCanvasViewGroup.onRenderTaskPreExecute();
-    for( Runnable runnable : getQueue() ) {
-      if( runnable instanceof TileRenderRunnable ) {
-        TileRenderRunnable tileRenderRunnable = (TileRenderRunnable) runnable;
-        if( tileRenderRunnable.isDone() || tileRenderRunnable.isCancelled() ) {
-          continue;
-        }
-        Tile tile = tileRenderRunnable.getTile();
-        if( tile != null &&  !renderSet.contains( tile ) ) {
-          tile.reset();
+    reprioritize( tileCanvasViewGroup );
+    for( Tile tile : renderSet ) {
+      if( isShutdownOrTerminating() ) {
+        return;
+      }
+      tile.execute( this );
+    }
+  }
+
+  /**
+   * Takes the current viewport of the view group. The waiting tiles are reordered by it,
+   * and the cancelled ones dropped, when a worker takes the next one.
+   */
+  public void reprioritize( TileCanvasViewGroup tileCanvasViewGroup ) {
+    mViewport = Viewport.of( tileCanvasViewGroup.getDetailLevelToRender() );
+    mViewportGeneration.incrementAndGet();
+  }
+
+  /**
+   * Called by the workers before taking a task.
+   */
+  private void resortIfStale() {
+    int generation = mViewportGeneration.get();
+    if( generation == mSortedGeneration ) {
+      return;
+    }
+    // Held so afterExecute doesn't take the drained queue for a finished render.
+    synchronized( this ) {
+      if( generation == mSortedGeneration ) {
+        return;
+      }
+      long now = System.nanoTime();
+      // Left stale, a later worker sorts for the latest viewport.
+      if( now - mLastResortNanos < RESORT_INTERVAL_NANOS ) {
+        return;
+      }
+      mSortedGeneration = generation;
+      mLastResortNanos = now;
+      List<Runnable> pending = new ArrayList<>( getQueue().size() );
+      getQueue().drainTo( pending );
+      for( Runnable runnable : pending ) {
+        if( runnable instanceof TileRenderRunnable ) {
+          TileRenderRunnable tileRenderRunnable = (TileRenderRunnable) runnable;
+          if( tileRenderRunnable.isCancelled() ) {
+            continue;
+          }
+          tileRenderRunnable.setPriority( computePriority( tileRenderRunnable.getTile() ) );
+        } else if( runnable instanceof TilePrefetchRunnable ) {
+          if( !isPrefetchCurrent( ( (TilePrefetchRunnable) runnable ).getGeneration() ) ) {
+            continue;
+          }
         }
+        getQueue().offer( runnable );
       }
     }
-    for( Tile tile : renderSet ) {
+  }
+
+  private long computePriority( Tile tile ) {
+    Viewport viewport = mViewport;
+    if( viewport == null || tile == null ) {
+      return 0;
+    }
+    DetailLevel detailLevel = tile.getDetailLevel();
+    // Tile coordinates are in pixels of its own detail level, bring them to the viewport's.
+    float relativeScale = viewport.scale / detailLevel.getScale();
+    Rect rect = tile.getBaseRect();
+    float dx = rect.exactCenterX() * relativeScale - viewport.centerX;
+    float dy = rect.exactCenterY() * relativeScale - viewport.centerY;
+    long priority = (long) ( dx * dx + dy * dy );
+    if( !detailLevel.equals( viewport.detailLevel ) ) {
+      priority += OTHER_LEVEL_PENALTY;
+    }
+    return priority;
+  }
+
+  @Override
+  public void execute( Runnable runnable ) {
+    if( runnable instanceof TileRenderRunnable ) {
+      TileRenderRunnable tileRenderRunnable = (TileRenderRunnable) runnable;
+      tileRenderRunnable.setPriority( computePriority( tileRenderRunnable.getTile() ) );
+    }
+    super.execute( runnable );
+  }
+
+  /**
+   * Replaces any earlier prefetch request with these tiles, earliest needed first.
+   */
+  public void prefetch( TileCanvasViewGroup tileCanvasViewGroup, List<Tile> tiles ) {
+    int generation = mPrefetchGeneration.incrementAndGet();
+    mTileCanvasViewGroupWeakReference = new WeakReference<>( tileCanvasViewGroup );
+    for( int i = 0; i < tiles.size(); i++ ) {
       if( isShutdownOrTerminating() ) {
         return;
       }
-      tile.execute( this );
+      super.execute( new TilePrefetchRunnable( tiles.get( i ), generation, PREFETCH_PRIORITY + i, this ) );
+    }
+  }
+
+  /**
+   * Drops the prefetch requests that have not started yet and interrupts the running ones.
+   */
+  public void cancelPrefetch() {
+    mPrefetchGeneration.incrementAndGet();
+    synchronized( mDeferredPrefetches ) {
+      mDeferredPrefetches.clear();
+    }
+    for( TilePrefetchRunnable runnable : mRunningPrefetches ) {
+      runnable.interrupt();
+    }
+  }
+
+  /**
+   * Holds a prefetch request that found no thread to run on, until one is free.
+   */
+  void deferPrefetch( TilePrefetchRunnable runnable ) {
+    synchronized( mDeferredPrefetches ) {
+      mDeferredPrefetches.offer( runnable );
     }
   }
 
+  void onPrefetchStarted( TilePrefetchRunnable runnable ) {
+    mRunningPrefetches.add( runnable );
+  }
+
+  void onPrefetchFinished( TilePrefetchRunnable runnable ) {
+    mRunningPrefetches.remove( runnable );
+  }
+
+  private void resumeDeferredPrefetch() {
+    TilePrefetchRunnable next;
+    synchronized( mDeferredPrefetches ) {
+      do {
+        next = mDeferredPrefetches.poll();
+      } while( next != null && !isPrefetchCurrent( next.getGeneration() ) );
+    }
+    if( next != null && !isShutdownOrTerminating() ) {
+      super.execute( next );
+    }
+  }
+
+  boolean isPrefetchCurrent( int generation ) {
+    return mPrefetchGeneration.get() == generation;
+  }
+
   public Handler getHandler(){
     return mHandler;
   }
@@ -94,11 +291,38 @@ public class TileRenderPoolExecutor extends ThreadPoolExecutor {
     return isShutdown() || isTerminating() || isTerminated();
   }
 
+  @Override
+  protected void beforeExecute( Thread thread, Runnable runnable ) {
+    super.beforeExecute( thread, runnable );
+    if( runnable instanceof TilePrefetchRunnable ) {
+      mActivePrefetches.incrementAndGet();
+    } else {
+      mActiveRenders.incrementAndGet();
+    }
+  }
+
+  /**
+   * Whether a prefetch request may start now, on top of the ones already running.
+   */
+  boolean hasIdlePrefetchThread() {
+    return mActivePrefetches.get() <= MAXIMUM_PREFETCH_THREADS;
+  }
+
   @Override
   protected void afterExecute( Runnable runnable, Throwable throwable ) {
+    if( runnable instanceof TilePrefetchRunnable ) {
+      // a thread came free for the requests held back
+      if( mActivePrefetches.decrementAndGet() < MAXIMUM_PREFETCH_THREADS ) {
+        resumeDeferredPrefetch();
+      }
+      super.afterExecute( runnable, throwable );
+      return;
+    }
     synchronized( this ) {
       super.afterExecute( runnable, throwable );
-      if( getQueue().size() == 0 && getActiveCount() == 1 ) {
+      // prefetch requests left in the queue don't hold back the end of a render
+      Runnable next = getQueue().peek();
+      if( mActiveRenders.decrementAndGet() == 0 && ( next == null || next instanceof TilePrefetchRunnable ) ) {
         TileCanvasViewGroup tileCanvasViewGroup = mTileCanvasViewGroupWeakReference.get();
         if( tileCanvasViewGroup != null ) {
           tileCanvasViewGroup.onRenderTaskPostExecute();
@@ -107,4 +331,50 @@ public class TileRenderPoolExecutor extends ThreadPoolExecutor {
     }
   }
 
+  /**
+   * Lets the workers bring the order up to date with the viewport before they take a task.
+   * Core threads never time out, so take is the only call the workers make.
+   */
+  private static class ViewportQueue extends PriorityBlockingQueue<Runnable> {
+
+    volatile TileRenderPoolExecutor mOwner;
+
+    ViewportQueue() {
+      super( INITIAL_QUEUE_CAPACITY, TileRenderPoolExecutor::compare );
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+      TileRenderPoolExecutor owner = mOwner;
+      if( owner != null ) {
+        owner.resortIfStale();
+      }
+      return super.take();
+    }
+  }
+
+  private static class Viewport {
+
+    final DetailLevel detailLevel;
+    final float scale;
+    final float centerX;
+    final float centerY;
+
+    private Viewport( DetailLevel detailLevel, float scale, float centerX, float centerY ) {
+      this.detailLevel = detailLevel;
+      this.scale = scale;
+      this.centerX = centerX;
+      this.centerY = centerY;
+    }
+
+    static Viewport of( DetailLevel detailLevel ) {
+      if( detailLevel == null ) {
+        return null;
+      }
+      DetailLevelManager detailLevelManager = detailLevel.getDetailLevelManager();
+      Rect viewport = detailLevelManager.getViewport();
+      return new Viewport( detailLevel, detailLevelManager.getScale(), viewport.exactCenterX(), viewport.exactCenterY() );
+    }
+  }
+
 }
@@ -14,11 +14,16 @@ class TileRenderRunnable implements Runnable {
   private WeakReference<Tile> mTileWeakReference;
   private WeakReference<TileRenderPoolExecutor> mTileRenderPoolExecutorWeakReference;
 
-  private boolean mCancelled = false;
+  private volatile boolean mCancelled = false;
   private boolean mComplete = false;
 
+  private long mPriority;
+
   private volatile Thread mThread;
 
+  // Rendered after all, the bitmap is handed back on the UI thread.
+  private boolean mDiscarded;
+
   private Throwable mThrowable;
 
   public boolean cancel( boolean mayInterrupt ) {
@@ -26,13 +31,8 @@ class TileRenderRunnable implements Runnable {
       mThread.interrupt();
     }
     boolean cancelled = mCancelled;
+    // Left in the queue, it's skipped when taken.
     mCancelled = true;
-    if( mTileRenderPoolExecutorWeakReference != null ) {
-      TileRenderPoolExecutor tileRenderPoolExecutor = mTileRenderPoolExecutorWeakReference.get();
-      if(tileRenderPoolExecutor != null){
-        tileRenderPoolExecutor.remove( this );
-      }
-    }
     return !cancelled;
   }
 
@@ -44,6 +44,14 @@ class TileRenderRunnable implements Runnable {
     return mComplete;
   }
 
+  long getPriority() {
+    return mPriority;
+  }
+
+  void setPriority( long priority ) {
+    mPriority = priority;
+  }
+
   public void setTileRenderPoolExecutor(TileRenderPoolExecutor tileRenderPoolExecutor ) {
     mTileRenderPoolExecutorWeakReference = new WeakReference<>(tileRenderPoolExecutor);
   }
@@ -83,6 +91,7 @@ class TileRenderRunnable implements Runnable {
     if(tileCanvasViewGroup == null ) {
       return TileRenderHandler.Status.INCOMPLETE;
     }
+    tile.setBitmapPool( tileCanvasViewGroup.getBitmapPool(), tileCanvasViewGroup.getShouldRecycleBitmaps() );
     try {
       tile.generateBitmap( tileCanvasViewGroup.getContext(), tileCanvasViewGroup.getBitmapProvider() );
     } catch( Throwable throwable ) {
@@ -90,7 +99,7 @@ class TileRenderRunnable implements Runnable {
       return TileRenderHandler.Status.ERROR;
     }
     if( mCancelled || tile.getBitmap() == null || mThread.isInterrupted() ) {
-      tile.reset();
+      mDiscarded = tile.getBitmap() != null;
       return TileRenderHandler.Status.INCOMPLETE;
     }
     return TileRenderHandler.Status.COMPLETE;
@@ -100,7 +109,7 @@ class TileRenderRunnable implements Runnable {
   public void run() {
     mThread = Thread.currentThread();
     TileRenderHandler.Status status = renderTile();
-    if( status == TileRenderHandler.Status.INCOMPLETE ) {
+    if( status == TileRenderHandler.Status.INCOMPLETE && !mDiscarded ) {
       return;
     }
     if( status == TileRenderHandler.Status.COMPLETE ) {